@@ -3,24 +3,46 @@ package com.alerts;
 import com.data_management.DataStorage;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.RecordTypeRegistry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The {@code AlertGenerator} class is responsible for monitoring patient data
  * and generating alerts when certain predefined conditions are met. This class
  * relies on a {@link DataStorage} instance to access patient data and evaluate
  * it against specific health criteria.
+ * <p>
+ * The conditions are {@link AlertRules} declared in a configuration file.
+ * Each reading only runs the rules registered for its record type, against
+ * the patient's recent readings of the types those rules look at.
+ * </p>
+ * <p>
+ * Evaluation is incremental. For every patient the generator keeps a
+ * watermark, the timestamp of the newest record it has evaluated, and the few
+ * readings the rules look back on. Each pass only reads the records after
+ * the watermark, so its cost depends on the new records rather than on the
+ * patient's history, and every alert is triggered once. Records can also be
+ * pushed as they are stored, e.g. by passing {@link #evaluate(PatientRecord)}
+ * to {@link DataStorage#subscribe}; both ways share the same watermarks.
+ * Records that arrive with a timestamp older than the watermark are not
+ * evaluated.
+ * </p>
  */
 public class AlertGenerator {
     private DataStorage dataStorage;
     private List<Alert> alerts;
-
-    private static final Logger logger = Logger.getLogger(AlertGenerator.class.getName());
+    private final AlertRules rules;
+    private final Map<Integer, PatientState> states = new ConcurrentHashMap<>();
+    private final LongAdder recordsEvaluated = new LongAdder();
 
     /**
-     * Constructs an {@code AlertGenerator} with a specified {@code DataStorage}.
+     * Constructs an {@code AlertGenerator} with a specified {@code DataStorage}
+     * and the {@link AlertRules#defaults() default rules}.
      * The {@code DataStorage} is used to retrieve patient data that this class
      * will monitor and evaluate.
      *
@@ -28,59 +50,106 @@ public class AlertGenerator {
      *                    data
      */
     public AlertGenerator(DataStorage dataStorage) {
+        this(dataStorage, AlertRules.defaults());
+    }
+
+    /**
+     * Constructs an {@code AlertGenerator} that evaluates the given rules.
+     *
+     * @param dataStorage the data storage system that provides access to patient
+     *                    data
+     * @param rules       the alert conditions
+     */
+    public AlertGenerator(DataStorage dataStorage, AlertRules rules) {
         this.dataStorage = dataStorage;
         this.alerts = new ArrayList<>();
+        this.rules = rules;
     }
 
     /**
-     * Evaluates the specified patient's data to determine if any alert conditions
-     * are met. If a condition is met, an alert is triggered via the
-     * {@link #triggerAlert}
-     *
+     * Evaluates the records of the specified patient that were stored since the
+     * last evaluation to determine if any alert conditions are met. If a
+     * condition is met, an alert is triggered via the {@link #triggerAlert}
      *
      * @param patient the patient data to evaluate for alert conditions
      */
     public void evaluateData(Patient patient) {
+        int patientId = patient.getPatientId();
+        PatientState state = stateOf(patientId);
+        synchronized (state) {
+            evaluateStored(patientId, state);
+        }
+    }
 
-        List<PatientRecord> records = dataStorage.getRecords(patient.getPatientId(), 1700000000000L, 1800000000000L);
-
-        PatientRecord prevPrevRecord = null;
-        PatientRecord prevRecord = null;
-        for (PatientRecord record : records) {
-            if(record == null) {
-                logger.warning("Encountered a null record for patient ID: " + patient.getPatientId());
-                continue;
+    /**
+     * Evaluates a single record as soon as it is stored, for instance when
+     * passed as the listener of a {@link DataStorage#subscribe subscription}.
+     * Records must be pushed in timestamp order for each patient; a record
+     * older than the patient's watermark is ignored. A record at the
+     * watermark timestamp may have been evaluated by a pass already, so the
+     * stored records from the watermark on are evaluated the way a pass
+     * does instead.
+     *
+     * @param record the newly stored record
+     */
+    public void evaluate(PatientRecord record) {
+        int patientId = record.getPatientId();
+        PatientState state = stateOf(patientId);
+        synchronized (state) {
+            if (record.getTimestamp() > state.watermark) {
+                evaluate(patientId, state, record.getTimestamp(),
+                        RecordTypeRegistry.intern(record.getRecordType()), record.getMeasurementValue());
+            } else if (record.getTimestamp() == state.watermark) {
+                evaluateStored(patientId, state);
             }
-            logger.info("Processing record: " + record);
+        }
+    }
 
-            String[] conditions = new String[]
-                    {
-                            bloodPressureCriticalThresholds(record),
-                            bloodPressureIncreasingTrend(prevPrevRecord, prevRecord, record),
-                            bloodPressureDecreasingTrend(prevPrevRecord, prevRecord, record),
-                            lowSaturationAlert(record),
-                            bloodSaturationRapidDrop(prevPrevRecord, prevRecord, record)
-                    };
+    /**
+     * Returns the number of records evaluated so far, over all patients.
+     *
+     * @return the number of evaluated records
+     */
+    public long getRecordsEvaluated() {
+        return recordsEvaluated.sum();
+    }
 
-            for (String condition : conditions) {
-                if (condition != null) {
-                    triggerAlert(new Alert(patient.getPatientId(), condition, record.getTimestamp()));
-                }
-            }
+    private PatientState stateOf(int patientId) {
+        PatientState state = states.get(patientId);
+        if (state == null) {
+            state = states.computeIfAbsent(patientId, id -> new PatientState(rules));
+        }
+        return state;
+    }
 
-            if(prevRecord != null && record.getRecordType().equals("blood saturation")) {
-                String combinedAlert = hypotensiveHypoxemiaAlert(prevRecord, record);
-                if(combinedAlert != null) {
-                    triggerAlert(new Alert(patient.getPatientId(), combinedAlert, record.getTimestamp()));
-                }
+    /**
+     * Evaluates the stored records of a patient from the watermark on that
+     * were not evaluated yet. Must be called holding the patient's state.
+     */
+    private void evaluateStored(int patientId, PatientState state) {
+        long start = state.watermark;
+        // Records at the watermark timestamp may have been evaluated already. Records of
+        // different types with equal timestamps can be merged in any order, so they are
+        // counted per type; within a type, new records come after the evaluated ones.
+        int[] seen = state.startPass();
+        dataStorage.forEachRecord(patientId, start, Long.MAX_VALUE, (timestamp, typeId, value) -> {
+            if (timestamp == start && typeId < seen.length && seen[typeId]++ < state.evaluatedAt(typeId)) {
+                return;
             }
+            evaluate(patientId, state, timestamp, typeId, value);
+        });
+    }
 
-            prevPrevRecord = prevRecord;
-            prevRecord = record;
-
+    private void evaluate(int patientId, PatientState state, long timestamp, int typeId, double value) {
+        state.history.add(typeId, timestamp, value);
+        for (AlertRule rule : rules.rulesFor(typeId)) {
+            String condition = rule.evaluate(state.history, typeId, timestamp, value);
+            if (condition != null) {
+                triggerAlert(new Alert(patientId, condition, timestamp));
+            }
         }
-
-
+        state.advance(timestamp, typeId);
+        recordsEvaluated.increment();
     }
 
     /**
@@ -91,12 +160,15 @@ public class AlertGenerator {
      */
     private void triggerAlert(Alert alert) {
         // Implementation might involve logging the alert or notifying staff
-        alerts.add(alert);
+        synchronized (alerts) {
+            alerts.add(alert);
+        }
     }
 
 
     /**
-     * Retrieves the list of generated alerts
+     * Retrieves the list of generated alerts. The list grows while records are
+     * evaluated; synchronize on it when reading it during an evaluation.
      *
      * @return the list of alerts
      */
@@ -104,168 +176,44 @@ public class AlertGenerator {
         return alerts;
     }
 
-
-
-    private String bloodPressureCriticalThresholds(PatientRecord record) {
-        if (record.getRecordType().equals("blood pressure diastolic")) {
-            if (record.getMeasurementValue() < 60) {
-                return "diastolic blood pressure is too low";
-            } else if (record.getMeasurementValue() > 120) {
-                return "diastolic blood pressure is too high";
-            }
-        } else if (record.getRecordType().equals("blood pressure systolic")) {
-            if (record.getMeasurementValue() < 90) {
-                return "systolic blood pressure is too low";
-            } else if (record.getMeasurementValue() > 180) {
-                return "systolic blood pressure is too high";
-            }
-        }
-        return null;
-    }
-
-    private String bloodPressureIncreasingTrend(PatientRecord record1, PatientRecord record2, PatientRecord record3) {
-        if (record1 != null && record1.getRecordType().startsWith("blood pressure")) {
-            if (record2 != null && record2.getRecordType().startsWith("blood pressure")) {
-                if (record1.getMeasurementValue() < record2.getMeasurementValue()) {
-                    if ((record2.getMeasurementValue() - record1.getMeasurementValue()) >= 10) {
-                        return "blood pressure is in increasing trend";
-                    }
-                }
-            }
-
-            if (record3 != null && record3.getRecordType().startsWith("blood pressure")) {
-                if (record1.getMeasurementValue() < record3.getMeasurementValue()) {
-                    if ((record3.getMeasurementValue() - record1.getMeasurementValue()) >= 10) {
-                        return "blood pressure is in increasing trend";
-                    }
-                }
-            }
+    /**
+     * What the generator remembers of a patient between passes: the watermark
+     * and the recent readings the rules look back on.
+     */
+    private static final class PatientState {
+        final RecordHistory history;
+        long watermark = Long.MIN_VALUE;
+        // The number of records of each type evaluated at the watermark timestamp
+        private int[] evaluatedAtWatermark = new int[0];
+        // Counts the records at the watermark timestamp during a pass
+        private int[] seenAtWatermark = new int[0];
+
+        PatientState(AlertRules rules) {
+            this.history = new RecordHistory(rules);
         }
 
-        if (record2 != null && record2.getRecordType().startsWith("blood pressure")) {
-            if (record3 != null && record3.getRecordType().startsWith("blood pressure")) {
-                if (record2.getMeasurementValue() < record3.getMeasurementValue()) {
-                    if ((record3.getMeasurementValue() - record2.getMeasurementValue()) >= 10) {
-                        return "blood pressure is in increasing trend";
-                    }
-                }
-            }
+        int evaluatedAt(int typeId) {
+            return typeId < evaluatedAtWatermark.length ? evaluatedAtWatermark[typeId] : 0;
         }
 
-        return null;
-    }
-
-    private String bloodPressureDecreasingTrend(PatientRecord record1, PatientRecord record2, PatientRecord record3) {
-        if (record1 != null && record1.getRecordType().startsWith("blood pressure")) {
-            if (record2 != null && record2.getRecordType().startsWith("blood pressure")) {
-                if (record2.getMeasurementValue() < record1.getMeasurementValue()) {
-                    if ((record1.getMeasurementValue() - record2.getMeasurementValue()) >= 10) {
-                        return "blood pressure is in decreasing trend";
-                    }
-                }
-            }
-
-            if (record3 != null && record3.getRecordType().startsWith("blood pressure")) {
-                if (record3.getMeasurementValue() < record1.getMeasurementValue()) {
-                    if ((record1.getMeasurementValue() - record3.getMeasurementValue()) >= 10) {
-                        return "blood pressure is in decreasing trend";
-                    }
-                }
+        int[] startPass() {
+            if (seenAtWatermark.length < evaluatedAtWatermark.length) {
+                seenAtWatermark = new int[evaluatedAtWatermark.length];
+            } else {
+                Arrays.fill(seenAtWatermark, 0);
             }
+            return seenAtWatermark;
         }
 
-        if (record2 != null && record2.getRecordType().startsWith("blood pressure")) {
-            if (record3 != null && record3.getRecordType().startsWith("blood pressure")) {
-                if (record3.getMeasurementValue() < record2.getMeasurementValue()) {
-                    if ((record2.getMeasurementValue() - record3.getMeasurementValue()) >= 10) {
-                        return "blood pressure is in decreasing trend";
-                    }
-                }
+        void advance(long timestamp, int typeId) {
+            if (timestamp != watermark) {
+                watermark = timestamp;
+                Arrays.fill(evaluatedAtWatermark, 0);
             }
-        }
-
-        return null;
-    }
-
-    private String lowSaturationAlert(PatientRecord record) {
-        if (record.getRecordType().equals("blood saturation") && record.getMeasurementValue() < 92) {
-            return "blood saturation level is too low";
-        }
-        return null;
-    }
-
-    private String bloodSaturationRapidDrop(PatientRecord record1, PatientRecord record2, PatientRecord record3) {
-
-        if (record1 == null || record2 == null || record3 == null) {
-            logger.warning("One of the records is null: record1 " + record1 + " record2 " + record2 + " record3 " + record3);
-         return null;
-        }
-
-        if(record1.getRecordType().equals("blood saturation") &&
-           record2.getRecordType().equals("blood saturation") &&
-           record3.getRecordType().equals("blood saturation")) {
-            long timeDifference1 = Math.abs(record1.getTimestamp() - record2.getTimestamp());
-            long timeDifference2 = Math.abs(record2.getTimestamp() - record3.getTimestamp());
-            long timeDifference3 = Math.abs(record1.getTimestamp() - record3.getTimestamp());
-
-
-            boolean rapidDropBetween1and2 = timeDifference1 <= 600000 && (record1.getMeasurementValue() - record2.getMeasurementValue()) >= 5;
-            boolean rapidDropBetween2and3 = timeDifference2 <= 600000 && (record2.getMeasurementValue() - record3.getMeasurementValue()) >= 5;
-            boolean rapidDropBetween1and3 = timeDifference3 <= 600000 && (record1.getMeasurementValue() - record3.getMeasurementValue()) >= 5;
-
-            if (rapidDropBetween1and2) {
-                logger.info("Rapid drop alert: " + record1.getMeasurementValue() + " to " + record2.getMeasurementValue() + " within " + timeDifference1 / 60000 + " minutes ");
-                return "blood oxygen saturation level dropped by 5% or more within 10 minutes";
-            }
-            if (rapidDropBetween2and3) {
-                logger.info("Rapid drop alert: " + record2.getMeasurementValue() + " to " + record3.getMeasurementValue() + " within " + timeDifference2 / 60000 + " minutes ");
-                return "blood oxygen saturation level dropped by 5% or more within 10 minutes";
-            }
-            if (rapidDropBetween1and3) {
-                logger.info("Rapid drop alert: " + record1.getMeasurementValue() + " to " + record3.getMeasurementValue() + " within " + timeDifference3 / 60000 + " minutes ");
-                return "blood oxygen saturation level dropped by 5% or more within 10 minutes";
-            }
-
-        }
-
-
-
-
-
-        //if (rapidDropBetween1and2 && !rapidDropBetween1and3 && !rapidDropBetween2and3) {
-          //  logger.info("Rapid drop alert: " + record1.getMeasurementValue() + " to " + record2.getMeasurementValue() + " within " + timeDifference1 / 60000 + " minutes ");
-          //  return "blood oxygen saturation level dropped by 5% or more within 10 minutes";
-      //  }
-        //if (rapidDropBetween2and3 && !rapidDropBetween1and3 && !rapidDropBetween1and2) {
-        //    logger.info("Rapid drop alert: " + record2.getMeasurementValue() + " to " + record3.getMeasurementValue() + " within " + timeDifference2 / 60000 + " minutes ");
-        //    return "blood oxygen saturation level dropped by 5% or more within 10 minutes";
-       // }
-       // if (rapidDropBetween1and3 && !rapidDropBetween1and2 && !rapidDropBetween2and3) {
-        //    logger.info("Rapid drop alert: " + record1.getMeasurementValue() + " to " + record3.getMeasurementValue() + " within " + timeDifference3 / 60000 + " minutes ");
-        //    return "blood oxygen saturation level dropped by 5% or more within 10 minutes";
-
-        //}
-        return null;
-    }
-
-
-    /**
-     * Checks for hypotensive hypoxemia conditions in patient records
-     *
-     *
-     * @param bloodPressureRecord the record containing blood pressure data
-     * @param saturationRecord the record containing blood saturation data
-     * @return a string representing the alert condition if both conditions are met, otherwise null
-     */
-    private String hypotensiveHypoxemiaAlert(PatientRecord bloodPressureRecord, PatientRecord saturationRecord) {
-        if (bloodPressureRecord != null && saturationRecord != null) {
-            if(bloodPressureRecord.getRecordType().equals("blood pressure systolic") && bloodPressureRecord.getMeasurementValue() < 90 &&
-                saturationRecord.getRecordType().equals("blood saturation") && saturationRecord.getMeasurementValue() < 92) {
-                return "Hypotensive Hypoxemia Alert: systolic blood pressure is below 90mmHg and blood oxygen saturation falls below 92%";
+            if (typeId >= evaluatedAtWatermark.length) {
+                evaluatedAtWatermark = Arrays.copyOf(evaluatedAtWatermark, typeId + 1);
             }
+            evaluatedAtWatermark[typeId]++;
         }
-        return null;
     }
 }
-
-
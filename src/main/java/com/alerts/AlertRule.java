@@ -0,0 +1,20 @@
+package com.alerts;
+
+/**
+ * A compiled alert condition. Rules are dispatched by record type, so a rule
+ * is only evaluated for the records of the types it is registered for.
+ */
+interface AlertRule {
+
+    /**
+     * Evaluates the rule for a new reading, which the history already
+     * contains at age 0.
+     *
+     * @param history   the patient's recent readings
+     * @param typeId    the record type of the new reading
+     * @param timestamp the timestamp of the new reading
+     * @param value     the value of the new reading
+     * @return the alert condition if the rule fires, otherwise null
+     */
+    String evaluate(RecordHistory history, int typeId, long timestamp, double value);
+}
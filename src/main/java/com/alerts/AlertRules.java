@@ -0,0 +1,433 @@
+package com.alerts;
+
+import com.data_management.RecordTypeRegistry;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A set of alert rules declared in a JSON file and compiled into dispatch
+ * tables indexed by {@link RecordTypeRegistry} id, so a new reading only runs
+ * the rules for its record type and the cost per reading does not grow with
+ * the rules for other types.
+ * <p>
+ * The file holds an object with a {@code rules} array. Every rule has a
+ * {@code kind}, the {@code alert} condition it triggers and, except for
+ * combined rules, the {@code record} type or array of types it applies to.
+ * Record types may be given by any alias.
+ * </p>
+ * <pre>
+ * {"kind": "threshold", "record": "blood saturation", "below": 92, "alert": "..."}
+ * {"kind": "trend", "record": ["blood pressure systolic"], "direction": "increasing",
+ *  "change": 10, "window": 3, "alert": "..."}
+ * {"kind": "rapidDrop", "record": "blood saturation", "change": 5, "withinMillis": 600000,
+ *  "window": 3, "alert": "..."}
+ * {"kind": "combined", "on": "blood saturation", "when": [
+ *     {"record": "blood pressure systolic", "below": 90},
+ *     {"record": "blood saturation", "below": 92}], "alert": "..."}
+ * </pre>
+ * <p>
+ * A threshold fires when a reading is below {@code below} or above
+ * {@code above}. A trend fires when a reading differs by at least
+ * {@code change} in the given direction from one of the previous
+ * {@code window - 1} readings of its type (by default only the last one),
+ * optionally only those at most {@code withinMillis} older; a rapid drop is a
+ * decreasing trend with a time limit. A combined rule fires on a reading of
+ * one of the {@code on} types, by default all types in {@code when}, if the
+ * latest reading of every type in {@code when} meets its bounds, optionally
+ * only if all of them are at most {@code withinMillis} older.
+ * </p>
+ */
+public final class AlertRules {
+
+    private static final AlertRule[] NO_RULES = new AlertRule[0];
+
+    private final AlertRule[][] rulesByType;
+    private final int[] historyLengths;
+    private final int size;
+
+    private AlertRules(AlertRule[][] rulesByType, int[] historyLengths, int size) {
+        this.rulesByType = rulesByType;
+        this.historyLengths = historyLengths;
+        this.size = size;
+    }
+
+    /**
+     * Returns the rules bundled with the application, which implement the
+     * standard alert conditions.
+     *
+     * @return the default rules
+     */
+    public static AlertRules defaults() {
+        InputStream in = AlertRules.class.getResourceAsStream("/alert-rules.json");
+        if (in == null) {
+            throw new IllegalStateException("alert-rules.json is missing from the class path");
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the default alert rules", e);
+        }
+    }
+
+    /**
+     * Reads and compiles the rules of a file.
+     *
+     * @param file the JSON file declaring the rules
+     * @return the compiled rules
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid rule set
+     */
+    public static AlertRules load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * Reads and compiles rules.
+     *
+     * @param reader the JSON declaring the rules
+     * @return the compiled rules
+     * @throws IOException              if the reader fails
+     * @throws IllegalArgumentException if the JSON is not a valid rule set
+     */
+    public static AlertRules parse(Reader reader) throws IOException {
+        JsonElement root;
+        try {
+            root = JsonParser.parseReader(reader);
+        } catch (JsonIOException e) {
+            throw new IOException("Failed to read alert rules", e);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getMessage(), e);
+        }
+        if (!root.isJsonObject() || !root.getAsJsonObject().has("rules")
+                || !root.getAsJsonObject().get("rules").isJsonArray()) {
+            throw new IllegalArgumentException("Expected an object with a rules array");
+        }
+        Compiler compiler = new Compiler();
+        JsonArray rules = root.getAsJsonObject().getAsJsonArray("rules");
+        for (int i = 0; i < rules.size(); i++) {
+            try {
+                if (!rules.get(i).isJsonObject()) {
+                    throw new IllegalArgumentException("not an object");
+                }
+                compiler.compile(rules.get(i).getAsJsonObject());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Rule " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return compiler.build(rules.size());
+    }
+
+    /**
+     * Returns the number of rules declared.
+     *
+     * @return the number of rules
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the rules to evaluate for a reading of a type.
+     */
+    AlertRule[] rulesFor(int typeId) {
+        return typeId < rulesByType.length ? rulesByType[typeId] : NO_RULES;
+    }
+
+    /**
+     * Returns the number of recent readings of a type the rules look at,
+     * including the new one.
+     */
+    int historyLength(int typeId) {
+        return typeId < historyLengths.length ? historyLengths[typeId] : 0;
+    }
+
+    /**
+     * Collects the compiled rules by record type.
+     */
+    private static final class Compiler {
+        private final List<List<AlertRule>> rulesByType = new ArrayList<>();
+        private int[] historyLengths = new int[0];
+
+        void compile(JsonObject rule) {
+            String kind = string(rule, "kind");
+            String alert = string(rule, "alert");
+            switch (kind) {
+                case "threshold": {
+                    Bounds bounds = bounds(rule);
+                    for (int typeId : types(rule, "record")) {
+                        register(typeId, new ThresholdRule(bounds, alert), 1);
+                    }
+                    break;
+                }
+                case "trend":
+                case "rapidDrop": {
+                    int direction;
+                    if (kind.equals("rapidDrop")) {
+                        direction = -1;
+                        if (!rule.has("withinMillis")) {
+                            throw new IllegalArgumentException("rapidDrop needs withinMillis");
+                        }
+                    } else {
+                        String name = string(rule, "direction");
+                        if (name.equals("increasing")) {
+                            direction = 1;
+                        } else if (name.equals("decreasing")) {
+                            direction = -1;
+                        } else {
+                            throw new IllegalArgumentException("Unknown direction: " + name);
+                        }
+                    }
+                    double change = number(rule, "change");
+                    int window = rule.has("window") ? integer(rule, "window") : 2;
+                    if (change <= 0 || window < 2) {
+                        throw new IllegalArgumentException("change must be positive and window at least 2");
+                    }
+                    long within = withinMillis(rule);
+                    for (int typeId : types(rule, "record")) {
+                        register(typeId, new ChangeRule(direction, change, window, within, alert), window);
+                    }
+                    break;
+                }
+                case "combined": {
+                    if (!rule.has("when") || !rule.get("when").isJsonArray() || rule.getAsJsonArray("when").size() == 0) {
+                        throw new IllegalArgumentException("combined needs a non-empty when array");
+                    }
+                    JsonArray when = rule.getAsJsonArray("when");
+                    int[] typeIds = new int[when.size()];
+                    Bounds[] bounds = new Bounds[when.size()];
+                    for (int i = 0; i < typeIds.length; i++) {
+                        if (!when.get(i).isJsonObject()) {
+                            throw new IllegalArgumentException("when must contain objects");
+                        }
+                        JsonObject condition = when.get(i).getAsJsonObject();
+                        typeIds[i] = RecordTypeRegistry.intern(string(condition, "record"));
+                        bounds[i] = bounds(condition);
+                        reserve(typeIds[i], 1);
+                    }
+                    AlertRule combined = new CombinedRule(typeIds, bounds, withinMillis(rule), alert);
+                    Set<Integer> on = new LinkedHashSet<>();
+                    if (rule.has("on")) {
+                        for (int typeId : types(rule, "on")) {
+                            on.add(typeId);
+                        }
+                    } else {
+                        for (int typeId : typeIds) {
+                            on.add(typeId);
+                        }
+                    }
+                    for (int typeId : on) {
+                        register(typeId, combined, 1);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown kind: " + kind);
+            }
+        }
+
+        AlertRules build(int size) {
+            AlertRule[][] table = new AlertRule[rulesByType.size()][];
+            for (int typeId = 0; typeId < table.length; typeId++) {
+                List<AlertRule> rules = rulesByType.get(typeId);
+                table[typeId] = rules == null ? NO_RULES : rules.toArray(NO_RULES);
+            }
+            return new AlertRules(table, historyLengths, size);
+        }
+
+        private void register(int typeId, AlertRule rule, int historyLength) {
+            while (rulesByType.size() <= typeId) {
+                rulesByType.add(null);
+            }
+            if (rulesByType.get(typeId) == null) {
+                rulesByType.set(typeId, new ArrayList<>());
+            }
+            rulesByType.get(typeId).add(rule);
+            reserve(typeId, historyLength);
+        }
+
+        private void reserve(int typeId, int historyLength) {
+            if (typeId >= historyLengths.length) {
+                historyLengths = Arrays.copyOf(historyLengths, typeId + 1);
+            }
+            historyLengths[typeId] = Math.max(historyLengths[typeId], historyLength);
+        }
+
+        private static int[] types(JsonObject rule, String field) {
+            JsonElement element = rule.get(field);
+            if (element == null) {
+                throw new IllegalArgumentException("Missing " + field);
+            }
+            JsonArray names;
+            if (element.isJsonArray()) {
+                names = element.getAsJsonArray();
+            } else {
+                names = new JsonArray();
+                names.add(element);
+            }
+            if (names.size() == 0) {
+                throw new IllegalArgumentException(field + " must not be empty");
+            }
+            int[] typeIds = new int[names.size()];
+            for (int i = 0; i < typeIds.length; i++) {
+                JsonElement name = names.get(i);
+                if (!name.isJsonPrimitive() || !name.getAsJsonPrimitive().isString()) {
+                    throw new IllegalArgumentException(field + " must name record types");
+                }
+                typeIds[i] = RecordTypeRegistry.intern(name.getAsString());
+            }
+            return typeIds;
+        }
+
+        private static Bounds bounds(JsonObject rule) {
+            if (!rule.has("below") && !rule.has("above")) {
+                throw new IllegalArgumentException("Missing below or above");
+            }
+            return new Bounds(rule.has("below") ? number(rule, "below") : Double.NEGATIVE_INFINITY,
+                    rule.has("above") ? number(rule, "above") : Double.POSITIVE_INFINITY);
+        }
+
+        private static long withinMillis(JsonObject rule) {
+            if (!rule.has("withinMillis")) {
+                return Long.MAX_VALUE;
+            }
+            double within = number(rule, "withinMillis");
+            if (within < 0) {
+                throw new IllegalArgumentException("withinMillis must not be negative");
+            }
+            return (long) within;
+        }
+
+        private static int integer(JsonObject rule, String field) {
+            double number = number(rule, field);
+            if (number != Math.rint(number) || number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(field + " must be an integer");
+            }
+            return rule.get(field).getAsInt();
+        }
+
+        private static String string(JsonObject rule, String field) {
+            JsonElement element = rule.get(field);
+            if (element == null || !element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString()) {
+                throw new IllegalArgumentException("Missing " + field);
+            }
+            return element.getAsString();
+        }
+
+        private static double number(JsonObject rule, String field) {
+            JsonElement element = rule.get(field);
+            if (element == null || !element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber()) {
+                throw new IllegalArgumentException(field + " must be a number");
+            }
+            return element.getAsDouble();
+        }
+    }
+
+    /**
+     * The range outside of which a value is abnormal.
+     */
+    private static final class Bounds {
+        final double below;
+        final double above;
+
+        Bounds(double below, double above) {
+            this.below = below;
+            this.above = above;
+        }
+
+        boolean exceeded(double value) {
+            return value < below || value > above;
+        }
+    }
+
+    private static final class ThresholdRule implements AlertRule {
+        private final Bounds bounds;
+        private final String alert;
+
+        ThresholdRule(Bounds bounds, String alert) {
+            this.bounds = bounds;
+            this.alert = alert;
+        }
+
+        @Override
+        public String evaluate(RecordHistory history, int typeId, long timestamp, double value) {
+            return bounds.exceeded(value) ? alert : null;
+        }
+    }
+
+    private static final class ChangeRule implements AlertRule {
+        private final int direction;
+        private final double change;
+        private final int window;
+        private final long withinMillis;
+        private final String alert;
+
+        ChangeRule(int direction, double change, int window, long withinMillis, String alert) {
+            this.direction = direction;
+            this.change = change;
+            this.window = window;
+            this.withinMillis = withinMillis;
+            this.alert = alert;
+        }
+
+        @Override
+        public String evaluate(RecordHistory history, int typeId, long timestamp, double value) {
+            int readings = Math.min(window, history.size(typeId));
+            for (int age = 1; age < readings; age++) {
+                if (timestamp - history.timestamp(typeId, age) > withinMillis) {
+                    // Older readings are further away still
+                    break;
+                }
+                if (direction * (value - history.value(typeId, age)) >= change) {
+                    return alert;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class CombinedRule implements AlertRule {
+        private final int[] typeIds;
+        private final Bounds[] bounds;
+        private final long withinMillis;
+        private final String alert;
+
+        CombinedRule(int[] typeIds, Bounds[] bounds, long withinMillis, String alert) {
+            this.typeIds = typeIds;
+            this.bounds = bounds;
+            this.withinMillis = withinMillis;
+            this.alert = alert;
+        }
+
+        @Override
+        public String evaluate(RecordHistory history, int typeId, long timestamp, double value) {
+            for (int i = 0; i < typeIds.length; i++) {
+                if (history.size(typeIds[i]) == 0
+                        || timestamp - history.timestamp(typeIds[i], 0) > withinMillis
+                        || !bounds[i].exceeded(history.value(typeIds[i], 0))) {
+                    return null;
+                }
+            }
+            return alert;
+        }
+    }
+}
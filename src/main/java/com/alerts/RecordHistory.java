@@ -0,0 +1,77 @@
+package com.alerts;
+
+import java.util.Arrays;
+
+/**
+ * The most recent readings of one patient, kept separately for every record
+ * type in ring buffers of the length the rules for that type need. Readings
+ * are addressed by age: age 0 is the newest reading of a type.
+ */
+final class RecordHistory {
+
+    private final AlertRules rules;
+    private long[][] timestamps = new long[0][];
+    private double[][] values = new double[0][];
+    private int[] sizes = new int[0];
+    private int[] heads = new int[0];
+
+    RecordHistory(AlertRules rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Adds the newest reading of a type, dropping the oldest one if the
+     * buffer of the type is full. Types no rule looks back on are not kept.
+     */
+    void add(int typeId, long timestamp, double value) {
+        if (typeId >= sizes.length) {
+            grow(typeId + 1);
+        }
+        long[] typeTimestamps = timestamps[typeId];
+        if (typeTimestamps == null) {
+            int length = rules.historyLength(typeId);
+            if (length == 0) {
+                return;
+            }
+            typeTimestamps = timestamps[typeId] = new long[length];
+            values[typeId] = new double[length];
+        }
+        int head = heads[typeId] + 1;
+        if (head == typeTimestamps.length) {
+            head = 0;
+        }
+        heads[typeId] = head;
+        typeTimestamps[head] = timestamp;
+        values[typeId][head] = value;
+        if (sizes[typeId] < typeTimestamps.length) {
+            sizes[typeId]++;
+        }
+    }
+
+    /**
+     * Returns the number of readings kept for a type.
+     */
+    int size(int typeId) {
+        return typeId < sizes.length ? sizes[typeId] : 0;
+    }
+
+    long timestamp(int typeId, int age) {
+        return timestamps[typeId][slot(typeId, age)];
+    }
+
+    double value(int typeId, int age) {
+        return values[typeId][slot(typeId, age)];
+    }
+
+    private int slot(int typeId, int age) {
+        int slot = heads[typeId] - age;
+        return slot < 0 ? slot + timestamps[typeId].length : slot;
+    }
+
+    private void grow(int length) {
+        timestamps = Arrays.copyOf(timestamps, length);
+        values = Arrays.copyOf(values, length);
+        sizes = Arrays.copyOf(sizes, length);
+        heads = Arrays.copyOf(heads, length);
+    }
+}
@@ -10,6 +10,7 @@ import com.cardiogenerator.generators.BloodPressureDataGenerator;
 import com.cardiogenerator.generators.BloodSaturationDataGenerator;
 import com.cardiogenerator.generators.BloodLevelsDataGenerator;
 import com.cardiogenerator.generators.ECGDataGenerator;
+import com.cardiogenerator.outputs.BinaryTcpOutputStrategy;
 import com.cardiogenerator.outputs.ConsoleOutputStrategy;
 import com.cardiogenerator.outputs.FileOutputStrategy;
 import com.cardiogenerator.outputs.OutputStrategy;
@@ -103,6 +104,14 @@ public class HealthDataSimulator {
                                 System.err.println(
                                         "Invalid port for WebSocket output. Please specify a valid port number.");
                             }
+                        } else if (outputArg.startsWith("tcp-binary:")) {
+                            try {
+                                int port = Integer.parseInt(outputArg.substring(11));
+                                outputStrategy = new BinaryTcpOutputStrategy(port);
+                                System.out.println("Binary TCP socket output will be on port: " + port);
+                            } catch (NumberFormatException e) {
+                                System.err.println("Invalid port for TCP output. Please specify a valid port number.");
+                            }
                         } else if (outputArg.startsWith("tcp:")) {
                             try {
                                 int port = Integer.parseInt(outputArg.substring(4));
@@ -139,7 +148,9 @@ public class HealthDataSimulator {
         System.out.println("                             'console' for console output,");
         System.out.println("                             'file:<directory>' for file output,");
         System.out.println("                             'websocket:<port>' for WebSocket output,");
-        System.out.println("                             'tcp:<port>' for TCP socket output.");
+        System.out.println("                             'tcp:<port>' for TCP socket output,");
+        System.out.println("                             'tcp-binary:<port>' for binary TCP output, with CSV");
+        System.out.println("                             for clients that do not ask for binary.");
         System.out.println("Example:");
         System.out.println("  java HealthDataSimulator --patient-count 100 --output websocket:8080");
         System.out.println(
@@ -2,6 +2,7 @@ package com.cardiogenerator.generators;
 
 import java.util.Random;
 import com.cardiogenerator.outputs.OutputStrategy;
+import com.cardiogenerator.outputs.SampleType;
 
 /**
  * This generates alert data for patients based on their current alert state and random factors
@@ -42,7 +43,7 @@ public class AlertGenerator implements PatientDataGenerator {
                 if (randomGenerator.nextDouble() < 0.9) { // 90% chance to resolve
                     alertStates[patientId] = false;
                     // Output the alert
-                    outputStrategy.output(patientId, System.currentTimeMillis(), "Alert", "resolved");
+                    outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.ALERT, 0);
                 }
             } else {
                 double lambda = 0.1; // Average rate (alerts per period), adjust based on desired frequency
@@ -52,7 +53,7 @@ public class AlertGenerator implements PatientDataGenerator {
                 if (alertTriggered) {
                     alertStates[patientId] = true;
                     // Output the alert
-                    outputStrategy.output(patientId, System.currentTimeMillis(), "Alert", "triggered");
+                    outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.ALERT, 1);
                 }
             }
         } catch (Exception e) {
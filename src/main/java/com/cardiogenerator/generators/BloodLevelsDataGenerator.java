@@ -3,6 +3,7 @@ package com.cardiogenerator.generators;
 import java.util.Random;
 
 import com.cardiogenerator.outputs.OutputStrategy;
+import com.cardiogenerator.outputs.SampleType;
 
 public class BloodLevelsDataGenerator implements PatientDataGenerator {
     private static final Random random = new Random();
@@ -33,10 +34,9 @@ public class BloodLevelsDataGenerator implements PatientDataGenerator {
             double redCells = baselineRedCells[patientId] + (random.nextDouble() - 0.5) * 0.2; // Small variation
 
             // Output the generated values
-            outputStrategy.output(patientId, System.currentTimeMillis(), "Cholesterol", Double.toString(cholesterol));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "WhiteBloodCells",
-                    Double.toString(whiteCells));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "RedBloodCells", Double.toString(redCells));
+            outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.CHOLESTEROL, cholesterol);
+            outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.WHITE_BLOOD_CELLS, whiteCells);
+            outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.RED_BLOOD_CELLS, redCells);
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood levels data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
@@ -3,6 +3,7 @@ package com.cardiogenerator.generators;
 import java.util.Random;
 
 import com.cardiogenerator.outputs.OutputStrategy;
+import com.cardiogenerator.outputs.SampleType;
 
 public class BloodPressureDataGenerator implements PatientDataGenerator {
     private static final Random random = new Random();
@@ -34,10 +35,10 @@ public class BloodPressureDataGenerator implements PatientDataGenerator {
             lastSystolicValues[patientId] = newSystolicValue;
             lastDiastolicValues[patientId] = newDiastolicValue;
 
-            outputStrategy.output(patientId, System.currentTimeMillis(), "SystolicPressure",
-                    Double.toString(newSystolicValue));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "DiastolicPressure",
-                    Double.toString(newDiastolicValue));
+            outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.SYSTOLIC_PRESSURE,
+                    newSystolicValue);
+            outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.DIASTOLIC_PRESSURE,
+                    newDiastolicValue);
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood pressure data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
@@ -3,6 +3,7 @@ package com.cardiogenerator.generators;
 import java.util.Random;
 
 import com.cardiogenerator.outputs.OutputStrategy;
+import com.cardiogenerator.outputs.SampleType;
 
 /**
  * This class generates simulated blood saturation data for patients.
@@ -58,8 +59,7 @@ public class BloodSaturationDataGenerator implements PatientDataGenerator {
             // Ensure the saturation stays within a realistic and healthy range
             newSaturationValue = Math.min(Math.max(newSaturationValue, 90), 100);
             lastSaturationValues[patientId] = newSaturationValue;
-            outputStrategy.output(patientId, System.currentTimeMillis(), "Saturation",
-                    Double.toString(newSaturationValue) + "%");
+            outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.SATURATION, newSaturationValue);
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood saturation data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
@@ -3,6 +3,7 @@ package com.cardiogenerator.generators;
 import java.util.Random;
 
 import com.cardiogenerator.outputs.OutputStrategy;
+import com.cardiogenerator.outputs.SampleType;
 
 public class ECGDataGenerator implements PatientDataGenerator {
     private static final Random random = new Random();
@@ -22,7 +23,7 @@ public class ECGDataGenerator implements PatientDataGenerator {
         // TODO Check how realistic this data is and make it more realistic if necessary
         try {
             double ecgValue = simulateEcgWaveform(patientId, lastEcgValues[patientId]);
-            outputStrategy.output(patientId, System.currentTimeMillis(), "ECG", Double.toString(ecgValue));
+            outputStrategy.output(patientId, System.currentTimeMillis(), SampleType.ECG, ecgValue);
             lastEcgValues[patientId] = ecgValue;
         } catch (Exception e) {
             System.err.println("An error occurred while generating ECG data for patient " + patientId);
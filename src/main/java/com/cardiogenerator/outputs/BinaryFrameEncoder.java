@@ -0,0 +1,217 @@
+package com.cardiogenerator.outputs;
+
+import com.data_management.BinaryFrameDecoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes samples into the binary frames of the simulator's wire protocol,
+ * version {@value BinaryFrameDecoder#VERSION}, which
+ * {@link BinaryFrameDecoder} reads on the receiving side.
+ * <p>
+ * A frame carries a batch of samples and is preceded by its length:
+ * </p>
+ * <pre>
+ * frame      := length:varint body
+ * body       := baseTimestamp:zigzag definitionCount:varint definition*
+ *               sampleCount:varint sample*
+ * definition := typeId:varint labelLength:varint label:UTF-8
+ * sample     := patientId:zigzag timestampDelta:zigzag typeId:varint value:float64
+ * </pre>
+ * <p>
+ * Varints are unsigned LEB128, zigzag values are signed varints, and values
+ * are big-endian IEEE 754 doubles. The timestamp of a sample is given as the
+ * difference to the previous sample of the frame, the first one to the base
+ * timestamp. Labels are sent once per connection: a label gets the next type
+ * id the first time it is used, and its definition is sent in the frame that
+ * uses it first. A sample of a 1 Hz stream takes about 12 bytes this way,
+ * against 30 to 40 characters as CSV.
+ * </p>
+ * <p>
+ * Data is sent as the number the CSV receivers would parse from it: a
+ * trailing percent sign is dropped, and the alert states "triggered" and
+ * "resolved" become 1 and 0. An encoder belongs to one connection and is not
+ * thread-safe.
+ * </p>
+ */
+final class BinaryFrameEncoder {
+
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    private final Output definitions = new Output(64);
+    private final Output samples = new Output(4096);
+    private final Output header = new Output(32);
+    private final Output length = new Output(8);
+    private int definitionCount;
+    private int sampleCount;
+    private long baseTimestamp;
+    private long previousTimestamp;
+
+    /**
+     * Adds a sample to the current frame.
+     *
+     * @param patientId the identifier of the patient
+     * @param timestamp the timestamp of the data generation
+     * @param label     the label describing the type of data
+     * @param data      the data, a number or an alert state
+     * @return false if the data is not a number, or NaN, and the sample was
+     *         skipped
+     */
+    boolean add(int patientId, long timestamp, String label, String data) {
+        double value = parseValue(data);
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        add(patientId, timestamp, label, value);
+        return true;
+    }
+
+    /**
+     * Adds a sample with a numeric value to the current frame. This creates
+     * no object per sample once the label has been sent.
+     *
+     * @param patientId the identifier of the patient
+     * @param timestamp the timestamp of the data generation
+     * @param label     the label describing the type of data
+     * @param value     the value
+     */
+    void add(int patientId, long timestamp, String label, double value) {
+        Integer typeId = typeIds.get(label);
+        if (typeId == null) {
+            typeId = typeIds.size();
+            typeIds.put(label, typeId);
+            byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+            definitions.writeVarint(typeId);
+            definitions.writeVarint(bytes.length);
+            definitions.write(bytes);
+            definitionCount++;
+        }
+        if (sampleCount == 0) {
+            baseTimestamp = timestamp;
+            previousTimestamp = timestamp;
+        }
+        samples.writeZigzag(patientId);
+        samples.writeZigzag(timestamp - previousTimestamp);
+        samples.writeVarint(typeId);
+        samples.writeDouble(value);
+        previousTimestamp = timestamp;
+        sampleCount++;
+    }
+
+    /**
+     * Returns the number of samples in the current frame.
+     *
+     * @return the number of samples
+     */
+    int size() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the number of bytes the current frame holds so far.
+     *
+     * @return the encoded size, without the header
+     */
+    int encodedSize() {
+        return definitions.size + samples.size;
+    }
+
+    /**
+     * Writes the current frame, if it holds any sample, and starts a new one.
+     *
+     * @param out the stream to write to; it is not flushed
+     * @throws IOException if writing fails
+     */
+    void writeFrame(OutputStream out) throws IOException {
+        if (sampleCount == 0) {
+            return;
+        }
+        header.size = 0;
+        header.writeZigzag(baseTimestamp);
+        header.writeVarint(definitionCount);
+        int bodyPrefix = header.size;
+        header.writeVarint(sampleCount);
+        length.size = 0;
+        length.writeVarint(header.size + definitions.size + samples.size);
+        out.write(length.bytes, 0, length.size);
+        out.write(header.bytes, 0, bodyPrefix);
+        out.write(definitions.bytes, 0, definitions.size);
+        out.write(header.bytes, bodyPrefix, header.size - bodyPrefix);
+        out.write(samples.bytes, 0, samples.size);
+
+        definitions.size = 0;
+        samples.size = 0;
+        definitionCount = 0;
+        sampleCount = 0;
+    }
+
+    /**
+     * Converts simulator data to the value the CSV receivers would store.
+     *
+     * @return the value, or NaN if the data is not a number
+     */
+    static double parseValue(String data) {
+        switch (data) {
+            case "triggered":
+                return 1;
+            case "resolved":
+                return 0;
+            default:
+                String number = data.endsWith("%") ? data.substring(0, data.length() - 1) : data;
+                try {
+                    return Double.parseDouble(number);
+                } catch (NumberFormatException e) {
+                    return Double.NaN;
+                }
+        }
+    }
+
+    /**
+     * A growable byte array with the encodings of the protocol.
+     */
+    private static final class Output {
+        private byte[] bytes;
+        private int size;
+
+        Output(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void write(byte[] data) {
+            ensure(data.length);
+            System.arraycopy(data, 0, bytes, size, data.length);
+            size += data.length;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeZigzag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble(double value) {
+            ensure(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (bits >>> shift);
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.cardiogenerator.outputs;
+
+import com.data_management.BinaryFrameDecoder;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implements the {@link OutputStrategy} to send patient data over TCP in the
+ * binary frames of {@link BinaryFrameEncoder}, to any number of clients.
+ * <p>
+ * A client asks for the binary protocol by sending the magic bytes
+ * {@code CHDB} and the highest protocol version it supports right after
+ * connecting; the server answers with the magic bytes and the version it
+ * will use. A client that sends nothing within {@link #HELLO_TIMEOUT_MILLIS}
+ * gets the same {@code patientId,timestamp,label,data} lines as from
+ * {@link TcpOutputStrategy}, so CSV readers keep working.
+ * </p>
+ * <p>
+ * Samples are batched per client: a frame, or the buffered CSV lines, is sent
+ * once it holds {@code frameSize} samples or every {@code lingerMillis}, so
+ * the 1 Hz streams of many patients share frames and system calls.
+ * </p>
+ */
+public class BinaryTcpOutputStrategy implements OutputStrategy, Closeable {
+
+    /** How long a new client has to ask for the binary protocol. */
+    public static final long HELLO_TIMEOUT_MILLIS = 500;
+    private static final int DEFAULT_FRAME_SIZE = 1024;
+    private static final long DEFAULT_LINGER_MILLIS = 10;
+    // Frames stay well below the 32 KB that readers accept
+    private static final int MAX_FRAME_BYTES = 16 * 1024;
+
+    private final int frameSize;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private ExecutorService acceptor;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Creates a TCP server on the specified port with the default batching.
+     *
+     * @param port the port number on which the server will listen for connections.
+     */
+    public BinaryTcpOutputStrategy(int port) {
+        this(port, DEFAULT_FRAME_SIZE, DEFAULT_LINGER_MILLIS);
+    }
+
+    /**
+     * Creates a TCP server on the specified port. Clients are accepted and
+     * batches are sent by background threads.
+     *
+     * @param port         the port number on which the server will listen for connections.
+     * @param frameSize    the number of samples after which a frame is sent
+     * @param lingerMillis the longest time a sample waits for its frame to be sent
+     * @throws IllegalArgumentException if the frame size or linger time is not positive
+     */
+    public BinaryTcpOutputStrategy(int port, int frameSize, long lingerMillis) {
+        if (frameSize <= 0 || lingerMillis <= 0) {
+            throw new IllegalArgumentException("Frame size and linger time must be positive");
+        }
+        this.frameSize = frameSize;
+        try {
+            serverSocket = new ServerSocket(port);
+            System.out.println("Binary TCP Server started on port " + port);
+            acceptor = Executors.newSingleThreadExecutor(daemon("binary-tcp-accept"));
+            acceptor.submit(this::acceptClients);
+            flusher = Executors.newSingleThreadScheduledExecutor(daemon("binary-tcp-flush"));
+            flusher.scheduleWithFixedDelay(this::flushAll, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds the patient data to the batch of every connected client.
+     *
+     * @param patientId the identifier of the patient
+     * @param timestamp the timestamp of the data generation
+     * @param label     the label describing the type of data
+     * @param data      the actual data to be output
+     */
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        for (Connection connection : connections) {
+            synchronized (connection) {
+                try {
+                    connection.add(patientId, timestamp, label, data);
+                } catch (IOException e) {
+                    disconnect(connection, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the patient data to the batch of every connected client. Binary
+     * clients get the value as it is, without formatting it as text.
+     *
+     * @param patientId the identifier of the patient
+     * @param timestamp the timestamp of the data generation
+     * @param typeId    the {@link SampleType} of the data
+     * @param value     the actual data to be output
+     */
+    @Override
+    public void output(int patientId, long timestamp, int typeId, double value) {
+        for (Connection connection : connections) {
+            synchronized (connection) {
+                try {
+                    connection.add(patientId, timestamp, typeId, value);
+                } catch (IOException e) {
+                    disconnect(connection, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the pending batches, then stops the server and disconnects all
+     * clients.
+     *
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverSocket == null) {
+            return;
+        }
+        flusher.shutdown();
+        acceptor.shutdown();
+        serverSocket.close();
+        flushAll();
+        for (Connection connection : connections) {
+            connections.remove(connection);
+            connection.socket.close();
+        }
+    }
+
+    /**
+     * Returns the number of clients currently connected.
+     *
+     * @return the number of clients
+     */
+    public int getClientCount() {
+        return connections.size();
+    }
+
+    private void acceptClients() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket, negotiate(socket));
+                connections.add(connection);
+                System.out.println("Client connected: " + socket.getInetAddress()
+                        + (connection.encoder != null ? " (binary)" : " (CSV)"));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the client's hello and answers it.
+     *
+     * @return true if the client speaks the binary protocol
+     */
+    private static boolean negotiate(Socket socket) throws IOException {
+        byte[] hello = new byte[BinaryFrameDecoder.HELLO_LENGTH];
+        socket.setSoTimeout((int) HELLO_TIMEOUT_MILLIS);
+        try {
+            new DataInputStream(socket.getInputStream()).readFully(hello);
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+        int clientVersion = BinaryFrameDecoder.helloVersion(hello);
+        if (clientVersion < 1) {
+            return false;
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(BinaryFrameDecoder.hello(Math.min(clientVersion, BinaryFrameDecoder.VERSION)).array());
+        out.flush();
+        return true;
+    }
+
+    private void flushAll() {
+        for (Connection connection : connections) {
+            synchronized (connection) {
+                try {
+                    connection.flush();
+                } catch (IOException e) {
+                    disconnect(connection, e);
+                }
+            }
+        }
+    }
+
+    private void disconnect(Connection connection, IOException cause) {
+        if (connections.remove(connection)) {
+            System.out.println("Client disconnected: " + connection.socket.getInetAddress()
+                    + " (" + cause.getMessage() + ")");
+            try {
+                connection.socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * One client and its pending batch, guarded by the connection's monitor.
+     */
+    private final class Connection {
+        private final Socket socket;
+        private final OutputStream out;
+        // Null for CSV clients
+        private final BinaryFrameEncoder encoder;
+        private int pendingLines;
+
+        Connection(Socket socket, boolean binary) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+            this.encoder = binary ? new BinaryFrameEncoder() : null;
+        }
+
+        void add(int patientId, long timestamp, String label, String data) throws IOException {
+            if (encoder != null) {
+                encoder.add(patientId, timestamp, label, data);
+                frameAdded();
+            } else {
+                String message = String.format("%d,%d,%s,%s%n", patientId, timestamp, label, data);
+                out.write(message.getBytes(StandardCharsets.UTF_8));
+                if (++pendingLines >= frameSize) {
+                    flush();
+                }
+            }
+        }
+
+        void add(int patientId, long timestamp, int typeId, double value) throws IOException {
+            if (encoder != null) {
+                encoder.add(patientId, timestamp, SampleType.label(typeId), value);
+                frameAdded();
+            } else {
+                add(patientId, timestamp, SampleType.label(typeId), SampleType.format(typeId, value));
+            }
+        }
+
+        private void frameAdded() throws IOException {
+            if (encoder.size() >= frameSize || encoder.encodedSize() >= MAX_FRAME_BYTES) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            if (encoder != null) {
+                if (encoder.size() == 0) {
+                    return;
+                }
+                encoder.writeFrame(out);
+            } else if (pendingLines == 0) {
+                return;
+            }
+            pendingLines = 0;
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.cardiogenerator.outputs;
+
+import com.data_management.DataStorage;
+import com.data_management.LogSampler;
+import com.data_management.RecordSink;
+import com.data_management.RecordTypeRegistry;
+
+import java.util.logging.Logger;
+
+/**
+ * An {@link OutputStrategy} that adds the simulator's samples straight to a
+ * {@link RecordSink}, usually a {@link DataStorage}, in the same process.
+ * <p>
+ * The generators output numbers through
+ * {@link #output(int, long, int, double)}, which maps the {@link SampleType}
+ * to its {@link RecordTypeRegistry} id with an array lookup, so a sample is
+ * stored without creating any object. Text data is parsed like the CSV
+ * readers do.
+ * </p>
+ */
+public class DataSourceAdapter implements OutputStrategy {
+
+    private static final Logger logger = Logger.getLogger(DataSourceAdapter.class.getName());
+
+    // Malformed data is logged at most once per second
+    private static final LogSampler MALFORMED_DATA = new LogSampler(1000);
+
+    private final RecordSink sink;
+    private final int[] typeIds = new int[SampleType.count()];
+
+    /**
+     * Creates an adapter.
+     *
+     * @param sink the sink for the samples
+     */
+    public DataSourceAdapter(RecordSink sink) {
+        this.sink = sink;
+        for (int typeId = 0; typeId < typeIds.length; typeId++) {
+            typeIds[typeId] = RecordTypeRegistry.intern(SampleType.label(typeId));
+        }
+    }
+
+    /**
+     * Adds a sample given as text. The data must be a number, optionally
+     * followed by a percent sign, or an alert state.
+     *
+     * @param patientId the identifier of the patient
+     * @param timestamp the timestamp of the data generation
+     * @param label     the label describing the type of data
+     * @param data      the actual data to be output
+     */
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        double value;
+        if (data.equals("triggered")) {
+            value = 1;
+        } else if (data.equals("resolved")) {
+            value = 0;
+        } else {
+            try {
+                value = Double.parseDouble(data.endsWith("%") ? data.substring(0, data.length() - 1) : data);
+            } catch (NumberFormatException e) {
+                long suppressed = MALFORMED_DATA.sample();
+                if (suppressed >= 0) {
+                    logger.warning("Invalid data (" + suppressed + " more not logged): " + label + " " + data);
+                }
+                return;
+            }
+        }
+        int typeId;
+        try {
+            typeId = RecordTypeRegistry.intern(label);
+        } catch (IllegalArgumentException e) {
+            long suppressed = MALFORMED_DATA.sample();
+            if (suppressed >= 0) {
+                logger.warning("Invalid label (" + suppressed + " more not logged): " + e.getMessage());
+            }
+            return;
+        }
+        sink.addPatientData(patientId, typeId, value, timestamp);
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param patientId the identifier of the patient
+     * @param timestamp the timestamp of the data generation
+     * @param typeId    the {@link SampleType} of the data
+     * @param value     the actual data to be output
+     */
+    @Override
+    public void output(int patientId, long timestamp, int typeId, double value) {
+        if (typeId < 0 || typeId >= typeIds.length) {
+            throw new IllegalArgumentException("Unknown sample type: " + typeId);
+        }
+        sink.addPatientData(patientId, typeIds[typeId], value, timestamp);
+    }
+}
@@ -20,4 +20,20 @@ public interface OutputStrategy {
      * @param data      the actual data to be output
      */
     void output(int patientId, long timestamp, String label, String data);
+
+    /**
+     * gives the patient's specified data as an output, as a number.
+     * <p>
+     *  The generators use this method. By default the value is formatted as the label and data strings of
+     *  {@link #output(int, long, String, String)}; strategies that do not need text override it, so that no
+     *  String is created per sample.
+     * </p>
+     * @param patientId the identifier of the patient
+     * @param timestamp the timestamp of the data generation
+     * @param typeId    the {@link SampleType} of the data
+     * @param value     the actual data to be output
+     */
+    default void output(int patientId, long timestamp, int typeId, double value) {
+        output(patientId, timestamp, SampleType.label(typeId), SampleType.format(typeId, value));
+    }
 }
@@ -0,0 +1,80 @@
+package com.cardiogenerator.outputs;
+
+/**
+ * The types of data the generators produce, as the small integer ids passed to
+ * {@link OutputStrategy#output(int, long, int, double)}.
+ * <p>
+ * Each type has the label the simulator has always sent, and a text format
+ * that reproduces the data strings of the text path exactly, so strategies
+ * that write text produce the same output whichever path the generators use.
+ * </p>
+ */
+public final class SampleType {
+
+    /** ECG readings. */
+    public static final int ECG = 0;
+    /** Blood oxygen saturation, in percent. */
+    public static final int SATURATION = 1;
+    /** Systolic blood pressure, in mmHg. */
+    public static final int SYSTOLIC_PRESSURE = 2;
+    /** Diastolic blood pressure, in mmHg. */
+    public static final int DIASTOLIC_PRESSURE = 3;
+    /** Cholesterol level. */
+    public static final int CHOLESTEROL = 4;
+    /** White blood cell count. */
+    public static final int WHITE_BLOOD_CELLS = 5;
+    /** Red blood cell count. */
+    public static final int RED_BLOOD_CELLS = 6;
+    /** Alerts, 1 when triggered and 0 when resolved. */
+    public static final int ALERT = 7;
+
+    private static final String[] LABELS = { "ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol", "WhiteBloodCells", "RedBloodCells", "Alert" };
+
+    private SampleType() {
+    }
+
+    /**
+     * Returns the number of sample types; ids run from 0 to this number minus
+     * one.
+     *
+     * @return the number of types
+     */
+    public static int count() {
+        return LABELS.length;
+    }
+
+    /**
+     * Returns the label of a sample type.
+     *
+     * @param typeId the id of the type
+     * @return the label, e.g. "Saturation"
+     * @throws IllegalArgumentException if the id is unknown
+     */
+    public static String label(int typeId) {
+        if (typeId < 0 || typeId >= LABELS.length) {
+            throw new IllegalArgumentException("Unknown sample type: " + typeId);
+        }
+        return LABELS[typeId];
+    }
+
+    /**
+     * Formats a value as the data string of the text path: saturation gets a
+     * percent sign, an alert is "triggered" or "resolved", and everything else
+     * is {@link Double#toString(double)}.
+     *
+     * @param typeId the id of the type
+     * @param value  the value
+     * @return the data string
+     */
+    public static String format(int typeId, double value) {
+        switch (typeId) {
+            case SATURATION:
+                return value + "%";
+            case ALERT:
+                return value != 0 ? "triggered" : "resolved";
+            default:
+                return Double.toString(value);
+        }
+    }
+}
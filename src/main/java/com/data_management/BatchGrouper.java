@@ -0,0 +1,154 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Groups the records of a batch by patient and record type in linear time,
+ * for {@link DataStorage#addBatch}.
+ * <p>
+ * An open-addressing table maps every (patient, type) pair to a group, while
+ * the records are counted per group; the record indexes are then scattered
+ * into {@link #order} so that each group is a contiguous, stably ordered run.
+ * Table slots belong to the batch they were stamped with, so nothing is
+ * cleared between batches and a reused grouper allocates nothing once its
+ * arrays fit the batches.
+ * </p>
+ * <p>
+ * Grouping only pays off when the records of a series form runs; when a batch
+ * spreads over as many series as it has records, adding the records one by
+ * one is cheaper. The grouper therefore remembers the mean run length of the
+ * last batch it grouped, and {@link #shouldGroup()} declines short runs,
+ * sampling again every {@link #RESAMPLE_INTERVAL} batches.
+ * </p>
+ */
+final class BatchGrouper {
+
+    /** Mean records per group below which grouping is skipped. */
+    static final int MIN_RUN_LENGTH = 4;
+    /** Number of batches after which a skipped grouping is tried again. */
+    static final int RESAMPLE_INTERVAL = 64;
+
+    /** Record indexes, grouped; group g occupies {@code [groupStart[g], groupStart[g + 1])}. */
+    int[] order = new int[0];
+    int[] groupStart = new int[17];
+    int[] groupPatient = new int[16];
+    int[] groupType = new int[16];
+    int groups;
+
+    private int[] groupOf = new int[0];
+    private long[] tableKeys = new long[32];
+    private int[] tableGroups = new int[32];
+    private int[] tableStamps = new int[32];
+    private int stamp;
+    private int runLength = MIN_RUN_LENGTH;
+    private int skipped;
+
+    /**
+     * Returns whether the next batch should be grouped, based on the run
+     * length of the last grouped batch.
+     *
+     * @return true to group the batch, false to add its records one by one
+     */
+    boolean shouldGroup() {
+        if (runLength >= MIN_RUN_LENGTH || ++skipped >= RESAMPLE_INTERVAL) {
+            skipped = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Groups the first {@code count} records.
+     *
+     * @param patientIds the patient of every record
+     * @param typeIds    the record type id of every record
+     * @param count      the number of records
+     * @return the number of groups
+     */
+    int group(int[] patientIds, int[] typeIds, int count) {
+        if (order.length < count) {
+            order = new int[count];
+            groupOf = new int[count];
+        }
+        groups = 0;
+        if (++stamp == 0) {
+            // The stamp wrapped around, so old stamps could match again
+            Arrays.fill(tableStamps, 0);
+            stamp = 1;
+        }
+        for (int i = 0; i < count; i++) {
+            int group = groupOf(patientIds[i], typeIds[i]);
+            groupOf[i] = group;
+            groupStart[group + 1]++;
+        }
+        for (int g = 0; g < groups; g++) {
+            groupStart[g + 1] += groupStart[g];
+        }
+        // Scatter, using groupStart[g] as the fill position of group g
+        for (int i = 0; i < count; i++) {
+            order[groupStart[groupOf[i]]++] = i;
+        }
+        // Every fill position moved to the end of its group; shift them back
+        for (int g = groups; g > 0; g--) {
+            groupStart[g] = groupStart[g - 1];
+        }
+        groupStart[0] = 0;
+        runLength = groups == 0 ? MIN_RUN_LENGTH : count / groups;
+        return groups;
+    }
+
+    private int groupOf(int patientId, int typeId) {
+        long key = ((long) patientId << 32) | (typeId & 0xFFFFFFFFL);
+        int mask = tableKeys.length - 1;
+        int slot = slotOf(key, mask);
+        while (tableStamps[slot] == stamp) {
+            if (tableKeys[slot] == key) {
+                return tableGroups[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int group = groups++;
+        if (group + 1 == groupPatient.length) {
+            int capacity = groupPatient.length << 1;
+            groupPatient = Arrays.copyOf(groupPatient, capacity);
+            groupType = Arrays.copyOf(groupType, capacity);
+            groupStart = Arrays.copyOf(groupStart, capacity + 1);
+        }
+        groupPatient[group] = patientId;
+        groupType[group] = typeId;
+        groupStart[group + 1] = 0;
+        tableKeys[slot] = key;
+        tableGroups[slot] = group;
+        tableStamps[slot] = stamp;
+        if (groups * 2 > tableKeys.length) {
+            grow();
+        }
+        return group;
+    }
+
+    private void grow() {
+        long[] keys = new long[tableKeys.length << 1];
+        int[] groupsBySlot = new int[keys.length];
+        int[] stamps = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int slot = 0; slot < tableKeys.length; slot++) {
+            if (tableStamps[slot] == stamp) {
+                int target = slotOf(tableKeys[slot], mask);
+                while (stamps[target] == stamp) {
+                    target = (target + 1) & mask;
+                }
+                keys[target] = tableKeys[slot];
+                groupsBySlot[target] = tableGroups[slot];
+                stamps[target] = stamp;
+            }
+        }
+        tableKeys = keys;
+        tableGroups = groupsBySlot;
+        tableStamps = stamps;
+    }
+
+    private static int slotOf(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,245 @@
+package com.data_management;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decodes the binary frames of the simulator's wire protocol, as written by
+ * the simulator's {@code BinaryTcpOutputStrategy}, into a {@link RecordSink}.
+ * <p>
+ * A frame is a varint length followed by a body of that many bytes:
+ * </p>
+ * <pre>
+ * body       := baseTimestamp:zigzag definitionCount:varint definition*
+ *               sampleCount:varint sample*
+ * definition := typeId:varint labelLength:varint label:UTF-8
+ * sample     := patientId:zigzag timestampDelta:zigzag typeId:varint value:float64
+ * </pre>
+ * <p>
+ * Each sample's timestamp is the previous one's plus its delta, starting at
+ * the base timestamp. Type ids are defined once per connection and mapped to
+ * {@link RecordTypeRegistry} ids when they are defined, so decoding a sample
+ * is a few varints and one double, without any text. Like
+ * {@link CsvRecordParser}, the decoder consumes complete frames and leaves a
+ * partial one in the buffer. A binary stream cannot be resynchronized, so a
+ * malformed frame is an error that ends the connection. A decoder belongs to
+ * one connection and one thread.
+ * </p>
+ */
+public final class BinaryFrameDecoder {
+
+    /** The bytes that start the handshake messages of both sides. */
+    static final byte[] MAGIC = {'C', 'H', 'D', 'B'};
+    /**
+     * The protocol version the simulator writes and the highest one the
+     * decoder reads.
+     */
+    public static final int VERSION = 1;
+    /** The length of a handshake message: the magic bytes and a version. */
+    public static final int HELLO_LENGTH = MAGIC.length + 1;
+
+    private final RecordSink sink;
+    private final int maxFrameLength;
+    private int[] typeIds = new int[16];
+    private int definedTypes;
+    private long recordCount;
+
+    // Decoding position within the current frame
+    private ByteBuffer buffer;
+    private int index;
+    private int end;
+
+    /**
+     * Creates a decoder.
+     *
+     * @param sink           the sink for the decoded records
+     * @param maxFrameLength the longest frame accepted, which must fit the
+     *                       caller's buffer
+     */
+    public BinaryFrameDecoder(RecordSink sink, int maxFrameLength) {
+        this.sink = sink;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Returns the hello a client sends to ask for the binary protocol.
+     *
+     * @return the magic bytes followed by {@link #VERSION}
+     */
+    public static ByteBuffer hello() {
+        return hello(VERSION);
+    }
+
+    /**
+     * Returns a handshake message. The simulator answers a client's hello
+     * with the version both sides speak.
+     *
+     * @param version the version to announce
+     * @return the magic bytes followed by the version
+     */
+    public static ByteBuffer hello(int version) {
+        byte[] hello = Arrays.copyOf(MAGIC, HELLO_LENGTH);
+        hello[MAGIC.length] = (byte) version;
+        return ByteBuffer.wrap(hello);
+    }
+
+    /**
+     * Reads the version announced by a handshake message.
+     *
+     * @param hello a message of {@link #HELLO_LENGTH} bytes
+     * @return the version, or -1 if the message does not start with the magic
+     *         bytes
+     */
+    public static int helloVersion(byte[] hello) {
+        if (hello.length != HELLO_LENGTH || !Arrays.equals(Arrays.copyOf(hello, MAGIC.length), MAGIC)) {
+            return -1;
+        }
+        return hello[MAGIC.length];
+    }
+
+    /**
+     * Decodes the complete frames between the buffer's position and limit.
+     * The position is advanced past the last complete frame.
+     *
+     * @param buffer the bytes received
+     * @return the number of records passed to the sink
+     * @throws StreamCorruptedException if a frame is malformed or too long
+     */
+    public int parse(ByteBuffer buffer) throws StreamCorruptedException {
+        this.buffer = buffer;
+        int records = 0;
+        while (true) {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            index = start;
+            end = Math.min(limit, start + 5);
+            long length;
+            try {
+                length = readVarint();
+            } catch (StreamCorruptedException e) {
+                if (limit - start < 5) {
+                    // The length itself is not complete yet
+                    return records;
+                }
+                throw e;
+            }
+            if (length > maxFrameLength) {
+                throw new StreamCorruptedException("Frame of " + length + " bytes is longer than "
+                        + maxFrameLength);
+            }
+            if (limit - index < length) {
+                return records;
+            }
+            end = index + (int) length;
+            records += decodeFrame();
+            if (index != end) {
+                throw new StreamCorruptedException((end - index) + " bytes left over after a frame");
+            }
+            buffer.position(end);
+        }
+    }
+
+    /**
+     * Returns the number of records passed to the sink.
+     *
+     * @return the number of decoded records
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    private int decodeFrame() throws StreamCorruptedException {
+        long timestamp = readZigzag();
+        long definitions = readVarint();
+        for (long i = 0; i < definitions; i++) {
+            define(readInt(), readLabel());
+        }
+        long samples = readVarint();
+        for (long i = 0; i < samples; i++) {
+            long patientId = readZigzag();
+            timestamp += readZigzag();
+            int wireType = readInt();
+            if (patientId < Integer.MIN_VALUE || patientId > Integer.MAX_VALUE) {
+                throw new StreamCorruptedException("Patient id out of range: " + patientId);
+            }
+            if (wireType >= definedTypes) {
+                throw new StreamCorruptedException("Undefined type id " + wireType);
+            }
+            if (end - index < Double.BYTES) {
+                throw new StreamCorruptedException("Frame ends within a value");
+            }
+            double value = buffer.getDouble(index);
+            index += Double.BYTES;
+            sink.addPatientData((int) patientId, typeIds[wireType], value, timestamp);
+        }
+        recordCount += samples;
+        return (int) samples;
+    }
+
+    /**
+     * Maps a wire type id to the registry. The encoder numbers labels in the
+     * order it first sends them.
+     */
+    private void define(int wireType, String label) throws StreamCorruptedException {
+        if (wireType != definedTypes) {
+            throw new StreamCorruptedException("Type id " + wireType + " defined out of order");
+        }
+        if (definedTypes == RecordTypeRegistry.MAX_CACHED_SPELLINGS) {
+            throw new StreamCorruptedException("More than " + definedTypes + " type definitions");
+        }
+        int typeId;
+        try {
+            typeId = RecordTypeRegistry.intern(label);
+        } catch (IllegalArgumentException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+        if (definedTypes == typeIds.length) {
+            typeIds = Arrays.copyOf(typeIds, definedTypes * 2);
+        }
+        typeIds[definedTypes++] = typeId;
+    }
+
+    private String readLabel() throws StreamCorruptedException {
+        int length = readInt();
+        if (end - index < length) {
+            throw new StreamCorruptedException("Frame ends within a label");
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(index + i);
+        }
+        index += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readInt() throws StreamCorruptedException {
+        long value = readVarint();
+        // A ten-byte varint can set the sign bit
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new StreamCorruptedException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private long readZigzag() throws StreamCorruptedException {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarint() throws StreamCorruptedException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (index >= end) {
+                throw new StreamCorruptedException("Frame ends within a varint");
+            }
+            byte b = buffer.get(index++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Varint longer than 10 bytes");
+    }
+}
@@ -0,0 +1,282 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A sealed {@link Segment} whose samples are compressed into a bit stream, as
+ * described for Facebook's Gorilla time-series database.
+ * <p>
+ * Timestamps are stored as the difference between consecutive deltas, which
+ * is zero or very small for samples taken at a fixed interval:
+ * </p>
+ * <pre>
+ *   0                      delta of delta is 0
+ *   10   + 7 bits          delta of delta in [-63, 64]
+ *   110  + 9 bits          delta of delta in [-255, 256]
+ *   1110 + 12 bits         delta of delta in [-2047, 2048]
+ *   1111 + 64 bits         any other delta of delta
+ * </pre>
+ * <p>
+ * Values are stored as the XOR of their bits with the previous value, which is
+ * zero when a vital sign does not change and has few meaningful bits when it
+ * changes a little:
+ * </p>
+ * <pre>
+ *   0                      same value as before
+ *   10 + meaningful bits   meaningful bits fit the previous leading and
+ *                          trailing zero counts
+ *   11 + 6 bits leading zeros + 6 bits length - 1 + meaningful bits
+ * </pre>
+ * <p>
+ * The first sample is stored uncompressed. The samples can only be decoded in
+ * order, so readers that scan a segment decode it once with
+ * {@link #readable(HeapSegment)}. The first and last timestamps and the last
+ * value, which the series needs to locate segments and latest values, are
+ * kept uncompressed.
+ * </p>
+ */
+final class CompressedSegment extends Segment {
+
+    private final long[] words;
+    private final int size;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final double lastValue;
+
+    private CompressedSegment(long[] words, int size, long firstTimestamp, long lastTimestamp, double lastValue) {
+        this.words = words;
+        this.size = size;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.lastValue = lastValue;
+    }
+
+    /**
+     * Compresses the samples of a sealed segment. The summary of the source
+     * segment is carried over.
+     *
+     * @param source the segment to compress; it must not be empty
+     * @return the compressed segment
+     */
+    static CompressedSegment compress(Segment source) {
+        int count = source.size();
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        source.copyTo(0, timestamps, values, 0, count);
+
+        BitWriter out = new BitWriter(count);
+        out.write(timestamps[0], 64);
+        out.write(Double.doubleToRawLongBits(values[0]), 64);
+        long previousDelta = 0;
+        long previousBits = Double.doubleToRawLongBits(values[0]);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - timestamps[i - 1];
+            long deltaOfDelta = delta - previousDelta;
+            previousDelta = delta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta + 63, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta + 255, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta + 2047, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previousBits;
+            previousBits = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            int leading = Long.numberOfLeadingZeros(xor);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                out.write(0b10, 2);
+                out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                out.write(0b11, 2);
+                out.write(leading, 6);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> trailing, meaningful);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+
+        CompressedSegment compressed = new CompressedSegment(out.toArray(), count, timestamps[0],
+                timestamps[count - 1], values[count - 1]);
+        compressed.copySummary(source);
+        return compressed;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the timestamp at the given index. Only the first and last
+     * timestamps are available directly; other indexes decode the segment up to
+     * the index.
+     */
+    @Override
+    long timestampAt(int index) {
+        if (index == 0) {
+            return firstTimestamp;
+        }
+        if (index == size - 1) {
+            return lastTimestamp;
+        }
+        long[] timestamp = new long[1];
+        copyTo(index, timestamp, new double[1], 0, 1);
+        return timestamp[0];
+    }
+
+    /**
+     * Returns the value at the given index. Only the last value is available
+     * directly; other indexes decode the segment up to the index.
+     */
+    @Override
+    double valueAt(int index) {
+        if (index == size - 1) {
+            return lastValue;
+        }
+        double[] value = new double[1];
+        copyTo(index, new long[1], value, 0, 1);
+        return value[0];
+    }
+
+    /**
+     * Decodes the segment from the start and copies the requested samples. The
+     * decoder state is kept in local variables so decoding allocates nothing.
+     */
+    @Override
+    void copyTo(int from, long[] timestamps, double[] values, int offset, int length) {
+        int end = from + length;
+        int position = 128;
+        long timestamp = read(words, 0, 64);
+        long bits = read(words, 64, 64);
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < end; i++) {
+            if (i > 0) {
+                long deltaOfDelta;
+                if (read(words, position++, 1) == 0) {
+                    deltaOfDelta = 0;
+                } else if (read(words, position++, 1) == 0) {
+                    deltaOfDelta = read(words, position, 7) - 63;
+                    position += 7;
+                } else if (read(words, position++, 1) == 0) {
+                    deltaOfDelta = read(words, position, 9) - 255;
+                    position += 9;
+                } else if (read(words, position++, 1) == 0) {
+                    deltaOfDelta = read(words, position, 12) - 2047;
+                    position += 12;
+                } else {
+                    deltaOfDelta = read(words, position, 64);
+                    position += 64;
+                }
+                delta += deltaOfDelta;
+                timestamp += delta;
+
+                if (read(words, position++, 1) != 0) {
+                    if (read(words, position++, 1) != 0) {
+                        leading = (int) read(words, position, 6);
+                        int meaningful = (int) read(words, position + 6, 6) + 1;
+                        position += 12;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    int meaningful = 64 - leading - trailing;
+                    bits ^= read(words, position, meaningful) << trailing;
+                    position += meaningful;
+                }
+            }
+            if (i >= from) {
+                timestamps[offset + i - from] = timestamp;
+                values[offset + i - from] = Double.longBitsToDouble(bits);
+            }
+        }
+    }
+
+    /**
+     * Decodes all samples into the given scratch segment, or into a new heap
+     * segment if the scratch segment is missing or too small.
+     */
+    @Override
+    Segment readable(HeapSegment scratch) {
+        HeapSegment target = scratch != null && scratch.capacity() >= size
+                ? scratch
+                : new HeapSegment(Math.max(size, TimeSeries.SEGMENT_CAPACITY));
+        copyTo(0, target.timestamps, target.values, 0, size);
+        target.size = size;
+        return target;
+    }
+
+    @Override
+    long heapBytes() {
+        return 64 + 16 + (long) words.length * Long.BYTES;
+    }
+
+    /**
+     * Reads {@code count} bits starting at the given bit position.
+     */
+    private static long read(long[] words, int position, int count) {
+        int index = position >>> 6;
+        int free = 64 - (position & 63);
+        if (count <= free) {
+            return (words[index] >>> (free - count)) & mask(count);
+        }
+        int rest = count - free;
+        return ((words[index] & mask(free)) << rest) | (words[index + 1] >>> (64 - rest));
+    }
+
+    private static long mask(int bits) {
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+
+    /**
+     * Growable bit stream, written most significant bit first.
+     */
+    private static final class BitWriter {
+        private long[] words;
+        private int position;
+
+        BitWriter(int samples) {
+            // Regular vital signs need a few bits per sample
+            this.words = new long[4 + samples / 8];
+        }
+
+        void write(long value, int count) {
+            int index = position >>> 6;
+            int free = 64 - (position & 63);
+            if (index + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length << 1);
+            }
+            long bits = value & mask(count);
+            if (count <= free) {
+                words[index] |= bits << (free - count);
+            } else {
+                int rest = count - free;
+                words[index] |= bits >>> rest;
+                words[index + 1] |= bits << (64 - rest);
+            }
+            position += count;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+}
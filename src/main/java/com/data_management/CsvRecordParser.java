@@ -0,0 +1,634 @@
+package com.data_management;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Parses records in the CSV format of {@link DataParser},
+ * {@code patientId,measurementValue,recordType,timestamp}, directly from
+ * bytes. With {@link Layout#SIMULATOR} it parses the field order the
+ * simulator's network outputs send instead,
+ * {@code patientId,timestamp,label,data}. Lines in the layout written by the
+ * simulator's {@code FileOutputStrategy},
+ * {@code Patient ID: 1, Timestamp: 1700000000000, Label: Saturation, Data: 97.0%},
+ * are accepted in either layout. Simulator data may carry a percent sign, and
+ * the alert states {@code triggered} and {@code resolved} are stored as 1 and
+ * 0.
+ * <p>
+ * Unlike {@link DataParser#parse(String, DataStorage)}, which splits a String
+ * and parses every field with the JDK, this parser reads the fields in place
+ * from a {@link ByteBuffer} with absolute reads, so it works on heap, direct
+ * and memory-mapped buffers alike without copying. Numbers are parsed by
+ * hand, and record types are resolved through a dictionary of the byte
+ * spellings seen so far, so a String is only created the first time a
+ * spelling appears. Parsed records go to a {@link RecordSink} as primitives;
+ * a valid line allocates nothing.
+ * </p>
+ * <p>
+ * Lines end with {@code '\n'}, optionally preceded by {@code '\r'}. Blank
+ * lines are skipped. Invalid lines are counted by {@link ParseError} and, if
+ * the parser has {@link IngestionMetrics}, there as well; only a sample of
+ * them, at most one per second across all parsers, is logged. A parser keeps
+ * state between calls and must be used by one thread at a time.
+ * </p>
+ */
+public final class CsvRecordParser {
+
+    /**
+     * The order of the fields of a CSV line.
+     */
+    public enum Layout {
+        /** {@code patientId,measurementValue,recordType,timestamp}, as read by {@link DataParser}. */
+        STORAGE,
+        /** {@code patientId,timestamp,label,data}, as sent by the simulator's TCP and WebSocket outputs. */
+        SIMULATOR
+    }
+
+    private static final Logger logger = Logger.getLogger(CsvRecordParser.class.getName());
+
+    // Powers of ten that are exact as doubles, for the fast path of parseDouble
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static final byte[] PATIENT_ID_LABEL = ascii("Patient ID: ");
+    private static final byte[] TIMESTAMP_LABEL = ascii(", Timestamp: ");
+    private static final byte[] TYPE_LABEL = ascii(", Label: ");
+    private static final byte[] DATA_LABEL = ascii(", Data: ");
+    private static final byte[] TRIGGERED = ascii("triggered");
+    private static final byte[] RESOLVED = ascii("resolved");
+
+    // Malformed lines are logged at most once per second by all parsers together
+    private static final LogSampler MALFORMED_LINES = new LogSampler(1000);
+
+    private final RecordSink sink;
+    private final Layout layout;
+    private final IngestionMetrics metrics;
+    private final TypeDictionary types = new TypeDictionary();
+    private final long[] invalidCounts = new long[ParseError.values().length];
+    private long recordCount;
+    private long invalidCount;
+
+    // Result of the last successful number parse and the position after it
+    private long parsedLong;
+    private double parsedDouble;
+    private int parsedEnd;
+
+    /**
+     * Creates a parser that passes records to the given sink.
+     *
+     * @param sink the sink for parsed records, usually a {@link DataStorage}
+     */
+    public CsvRecordParser(RecordSink sink) {
+        this(sink, Layout.STORAGE);
+    }
+
+    /**
+     * Creates a parser for lines in the given layout.
+     *
+     * @param sink   the sink for parsed records, usually a {@link DataStorage}
+     * @param layout the order of the fields
+     */
+    public CsvRecordParser(RecordSink sink, Layout layout) {
+        this(sink, layout, null);
+    }
+
+    /**
+     * Creates a parser that also counts invalid lines in the given metrics.
+     *
+     * @param sink    the sink for parsed records, usually a {@link DataStorage}
+     * @param layout  the order of the fields
+     * @param metrics the metrics of the source being parsed, or null
+     */
+    public CsvRecordParser(RecordSink sink, Layout layout, IngestionMetrics metrics) {
+        this.sink = sink;
+        this.layout = layout;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Parses all complete lines between the buffer's position and limit and
+     * advances the position past the last one. A final line without a line
+     * break is left in the buffer, so a reader filling the buffer in chunks can
+     * compact it and read on; see {@link #parseRemaining(ByteBuffer)}.
+     *
+     * @param buffer the bytes to parse
+     * @return the number of lines parsed, including invalid ones
+     */
+    public int parse(ByteBuffer buffer) {
+        int lines = 0;
+        int start = buffer.position();
+        int limit = buffer.limit();
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                parseLine(buffer, start, i);
+                lines++;
+                start = i + 1;
+            }
+        }
+        buffer.position(start);
+        return lines;
+    }
+
+    /**
+     * Parses all lines between the buffer's position and limit, including a
+     * final line without a line break, and moves the position to the limit.
+     *
+     * @param buffer the bytes to parse
+     * @return the number of lines parsed, including invalid ones
+     */
+    public int parseRemaining(ByteBuffer buffer) {
+        int lines = parse(buffer);
+        if (buffer.hasRemaining()) {
+            parseLine(buffer, buffer.position(), buffer.limit());
+            buffer.position(buffer.limit());
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Parses one line, without its line break.
+     *
+     * @param buffer the buffer holding the line
+     * @param start  the index of the first byte of the line
+     * @param end    the index after the last byte of the line
+     * @return true if the line held a valid record, false if it was blank or
+     *         invalid
+     */
+    public boolean parseLine(ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return false;
+        }
+        if (buffer.get(start) == 'P') {
+            return parseLabeledLine(buffer, start, end);
+        }
+        if (layout == Layout.SIMULATOR) {
+            return parseSimulatorLine(buffer, start, end);
+        }
+        if (!parsePatientId(buffer, start, end)) {
+            return false;
+        }
+        int patientId = (int) parsedLong;
+
+        int valueStart = parsedEnd + 1;
+        if (!parseDouble(buffer, valueStart, end) || !isSeparator(buffer, parsedEnd, end)) {
+            return invalid(buffer, start, end, fieldError(ParseError.VALUE, buffer, valueStart, end));
+        }
+        double measurementValue = parsedDouble;
+
+        int typeStart = parsedEnd + 1;
+        int typeEnd = typeStart;
+        while (typeEnd < end && buffer.get(typeEnd) != ',') {
+            typeEnd++;
+        }
+        if (typeEnd == end) {
+            return invalid(buffer, start, end, ParseError.FORMAT);
+        }
+        if (typeEnd == typeStart) {
+            return invalid(buffer, start, end, ParseError.RECORD_TYPE);
+        }
+        int typeId = types.lookup(buffer, typeStart, typeEnd);
+        if (typeId < 0) {
+            return invalid(buffer, start, end, ParseError.RECORD_TYPE);
+        }
+
+        if (!parseLong(buffer, typeEnd + 1, end) || parsedEnd != end) {
+            return invalid(buffer, start, end, ParseError.TIMESTAMP);
+        }
+        sink.addPatientData(patientId, typeId, measurementValue, parsedLong);
+        recordCount++;
+        return true;
+    }
+
+    /**
+     * Parses a line in {@link Layout#SIMULATOR} order.
+     */
+    private boolean parseSimulatorLine(ByteBuffer buffer, int start, int end) {
+        if (!parsePatientId(buffer, start, end)) {
+            return false;
+        }
+        int patientId = (int) parsedLong;
+
+        int timestampStart = parsedEnd + 1;
+        if (!parseLong(buffer, timestampStart, end) || !isSeparator(buffer, parsedEnd, end)) {
+            return invalid(buffer, start, end, fieldError(ParseError.TIMESTAMP, buffer, timestampStart, end));
+        }
+        long timestamp = parsedLong;
+
+        int typeStart = parsedEnd + 1;
+        int typeEnd = typeStart;
+        while (typeEnd < end && buffer.get(typeEnd) != ',') {
+            typeEnd++;
+        }
+        if (typeEnd == end) {
+            return invalid(buffer, start, end, ParseError.FORMAT);
+        }
+        if (typeEnd == typeStart) {
+            return invalid(buffer, start, end, ParseError.RECORD_TYPE);
+        }
+        if (!parseData(buffer, typeEnd + 1, end)) {
+            return invalid(buffer, start, end, ParseError.VALUE);
+        }
+        int typeId = types.lookup(buffer, typeStart, typeEnd);
+        if (typeId < 0) {
+            return invalid(buffer, start, end, ParseError.RECORD_TYPE);
+        }
+        sink.addPatientData(patientId, typeId, parsedDouble, timestamp);
+        recordCount++;
+        return true;
+    }
+
+    /**
+     * Parses a line in the layout of {@code FileOutputStrategy}.
+     */
+    private boolean parseLabeledLine(ByteBuffer buffer, int start, int end) {
+        int i = skip(buffer, start, end, PATIENT_ID_LABEL);
+        if (i < 0) {
+            return invalid(buffer, start, end, ParseError.FORMAT);
+        }
+        if (!parseLong(buffer, i, end) || parsedLong < Integer.MIN_VALUE || parsedLong > Integer.MAX_VALUE) {
+            return invalid(buffer, start, end, ParseError.PATIENT_ID);
+        }
+        int patientId = (int) parsedLong;
+
+        i = skip(buffer, parsedEnd, end, TIMESTAMP_LABEL);
+        if (i < 0) {
+            return invalid(buffer, start, end, ParseError.FORMAT);
+        }
+        if (!parseLong(buffer, i, end)) {
+            return invalid(buffer, start, end, ParseError.TIMESTAMP);
+        }
+        long timestamp = parsedLong;
+
+        int typeStart = skip(buffer, parsedEnd, end, TYPE_LABEL);
+        if (typeStart < 0) {
+            return invalid(buffer, start, end, ParseError.FORMAT);
+        }
+        int typeEnd = typeStart;
+        int dataStart = -1;
+        while (typeEnd < end && (dataStart = skip(buffer, typeEnd, end, DATA_LABEL)) < 0) {
+            typeEnd++;
+        }
+        if (dataStart < 0) {
+            return invalid(buffer, start, end, ParseError.FORMAT);
+        }
+        if (typeEnd == typeStart) {
+            return invalid(buffer, start, end, ParseError.RECORD_TYPE);
+        }
+
+        if (!parseData(buffer, dataStart, end)) {
+            return invalid(buffer, start, end, ParseError.VALUE);
+        }
+        int typeId = types.lookup(buffer, typeStart, typeEnd);
+        if (typeId < 0) {
+            return invalid(buffer, start, end, ParseError.RECORD_TYPE);
+        }
+        sink.addPatientData(patientId, typeId, parsedDouble, timestamp);
+        recordCount++;
+        return true;
+    }
+
+    /**
+     * Parses the data field written by the simulator, which spans the rest of
+     * the line: a number, optionally followed by a percent sign, or an alert
+     * state. On success the value is in {@link #parsedDouble}.
+     */
+    private boolean parseData(ByteBuffer buffer, int start, int end) {
+        if (skip(buffer, start, end, TRIGGERED) == end) {
+            parsedDouble = 1;
+            return true;
+        }
+        if (skip(buffer, start, end, RESOLVED) == end) {
+            parsedDouble = 0;
+            return true;
+        }
+        return parseDouble(buffer, start, end)
+                && (parsedEnd == end || (parsedEnd == end - 1 && buffer.get(parsedEnd) == '%'));
+    }
+
+    /**
+     * Returns the index after {@code literal} if the bytes at {@code index}
+     * match it, or -1.
+     */
+    private static int skip(ByteBuffer buffer, int index, int end, byte[] literal) {
+        if (end - index < literal.length) {
+            return -1;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (buffer.get(index + i) != literal[i]) {
+                return -1;
+            }
+        }
+        return index + literal.length;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the number of valid records passed to the sink.
+     *
+     * @return the number of parsed records
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the number of lines that were not valid records.
+     *
+     * @return the number of invalid lines
+     */
+    public long getInvalidCount() {
+        return invalidCount;
+    }
+
+    /**
+     * Returns the number of lines rejected for one reason.
+     *
+     * @param error the reason
+     * @return the number of invalid lines
+     */
+    public long getInvalidCount(ParseError error) {
+        return invalidCounts[error.ordinal()];
+    }
+
+    /**
+     * Parses the leading patient id, which must be followed by a separator.
+     */
+    private boolean parsePatientId(ByteBuffer buffer, int start, int end) {
+        if (!parseLong(buffer, start, end) || parsedLong < Integer.MIN_VALUE || parsedLong > Integer.MAX_VALUE
+                || !isSeparator(buffer, parsedEnd, end)) {
+            return invalid(buffer, start, end, fieldError(ParseError.PATIENT_ID, buffer, start, end));
+        }
+        return true;
+    }
+
+    /**
+     * Returns the error for a field starting at {@code start} that failed to
+     * parse: without a separator after it, fields are missing rather than
+     * malformed.
+     */
+    private static ParseError fieldError(ParseError error, ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == ',') {
+                return error;
+            }
+        }
+        return ParseError.FORMAT;
+    }
+
+    private boolean invalid(ByteBuffer buffer, int start, int end, ParseError error) {
+        invalidCount++;
+        invalidCounts[error.ordinal()]++;
+        if (metrics != null) {
+            metrics.recordParseError(error);
+        }
+        long suppressed = MALFORMED_LINES.sample();
+        if (suppressed >= 0) {
+            logger.warning("Invalid data format (" + error + ", " + suppressed + " more not logged): "
+                    + decode(buffer, start, end));
+        }
+        return false;
+    }
+
+    private static boolean isSeparator(ByteBuffer buffer, int index, int end) {
+        return index < end && buffer.get(index) == ',';
+    }
+
+    /**
+     * Parses an optionally signed decimal integer starting at {@code start}.
+     * On success the value is in {@link #parsedLong} and the index after the
+     * last digit in {@link #parsedEnd}.
+     */
+    private boolean parseLong(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        int digitsStart = i;
+        // Accumulate negatively so that Long.MIN_VALUE fits
+        long value = 0;
+        while (i < end) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return false;
+            }
+            value = value * 10 - digit;
+            i++;
+        }
+        if (i == digitsStart || (!negative && value == Long.MIN_VALUE)) {
+            return false;
+        }
+        parsedLong = negative ? value : -value;
+        parsedEnd = i;
+        return true;
+    }
+
+    /**
+     * Parses a decimal number with an optional sign, fraction and exponent
+     * starting at {@code start}. Numbers with at most 15 significant digits
+     * and a small exponent, which covers every vital sign, are converted
+     * exactly with one multiplication or division by a power of ten. Others
+     * fall back to {@link Double#parseDouble(String)}, which allocates. On
+     * success the value is in {@link #parsedDouble} and the index after the
+     * number in {@link #parsedEnd}.
+     */
+    private boolean parseDouble(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean exact = true;
+        while (i < end) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (mantissa != 0 || digit != 0) {
+                significantDigits++;
+            }
+            if (significantDigits <= 18) {
+                mantissa = mantissa * 10 + digit;
+            } else {
+                exponent++;
+                exact = false;
+            }
+            digits++;
+            i++;
+        }
+        if (i < end && buffer.get(i) == '.') {
+            i++;
+            while (i < end) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                if (mantissa != 0 || digit != 0) {
+                    significantDigits++;
+                }
+                if (significantDigits <= 18) {
+                    mantissa = mantissa * 10 + digit;
+                    exponent--;
+                } else {
+                    exact = false;
+                }
+                digits++;
+                i++;
+            }
+        }
+        if (digits == 0) {
+            return parseSpecialDouble(buffer, start, end);
+        }
+        if (i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            if (!parseLong(buffer, i + 1, end) || parsedLong < -9999 || parsedLong > 9999) {
+                return false;
+            }
+            exponent += (int) parsedLong;
+            i = parsedEnd;
+        }
+        if (exact && significantDigits <= 15 && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+            parsedDouble = negative ? -value : value;
+        } else {
+            parsedDouble = Double.parseDouble(decode(buffer, start, i));
+        }
+        parsedEnd = i;
+        return true;
+    }
+
+    /**
+     * Parses the NaN and infinity spellings accepted by
+     * {@link Double#parseDouble(String)}, up to the next separator.
+     */
+    private boolean parseSpecialDouble(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        while (i < end && buffer.get(i) != ',') {
+            i++;
+        }
+        String text = decode(buffer, start, i);
+        String unsigned = text.startsWith("-") || text.startsWith("+") ? text.substring(1) : text;
+        if (!unsigned.equals("NaN") && !unsigned.equals("Infinity")) {
+            return false;
+        }
+        parsedDouble = Double.parseDouble(text);
+        parsedEnd = i;
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Open-addressing hash table from the byte spellings of record types to
+     * their registry ids. Spellings are compared byte by byte, so a lookup of
+     * a known spelling creates no String. Like the registry, the dictionary
+     * stops remembering spellings once it holds
+     * {@link RecordTypeRegistry#MAX_CACHED_SPELLINGS} of them.
+     */
+    private static final class TypeDictionary {
+        private byte[][] spellings = new byte[32][];
+        private int[] typeIds = new int[32];
+        private int size;
+
+        int lookup(ByteBuffer buffer, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int mask = spellings.length - 1;
+            int slot = mix(hash) & mask;
+            while (spellings[slot] != null) {
+                if (matches(spellings[slot], buffer, start, end)) {
+                    return typeIds[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            byte[] spelling = new byte[end - start];
+            for (int i = 0; i < spelling.length; i++) {
+                spelling[i] = buffer.get(start + i);
+            }
+            int typeId;
+            try {
+                typeId = RecordTypeRegistry.intern(new String(spelling, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                return -1;
+            }
+            if (size == RecordTypeRegistry.MAX_CACHED_SPELLINGS) {
+                return typeId;
+            }
+            spellings[slot] = spelling;
+            typeIds[slot] = typeId;
+            if (++size * 2 > spellings.length) {
+                grow();
+            }
+            return typeId;
+        }
+
+        private static boolean matches(byte[] spelling, ByteBuffer buffer, int start, int end) {
+            if (spelling.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < spelling.length; i++) {
+                if (spelling[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            byte[][] oldSpellings = spellings;
+            int[] oldTypeIds = typeIds;
+            spellings = new byte[oldSpellings.length * 2][];
+            typeIds = new int[oldSpellings.length * 2];
+            int mask = spellings.length - 1;
+            for (int i = 0; i < oldSpellings.length; i++) {
+                if (oldSpellings[i] != null) {
+                    int hash = 0;
+                    for (byte b : oldSpellings[i]) {
+                        hash = 31 * hash + b;
+                    }
+                    int slot = mix(hash) & mask;
+                    while (spellings[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    spellings[slot] = oldSpellings[i];
+                    typeIds[slot] = oldTypeIds[i];
+                }
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package com.data_management;
 
+import java.util.logging.Logger;
+
 public class DataParser {
 
+    private static final Logger logger = Logger.getLogger(DataParser.class.getName());
+
+    // Malformed lines are logged at most once per second
+    private static final LogSampler MALFORMED_LINES = new LogSampler(1000);
+
     /**
      * Parses a line of text and stores the parsed data in DataStorage
      *
@@ -10,20 +17,78 @@ public class DataParser {
      */
 
     public static void parse(String line, DataStorage dataStorage) {
+        parse(line, dataStorage, null);
+    }
+
+    /**
+     * Parses a line of text, stores the parsed data in DataStorage and counts
+     * the line, its parse and store time and, if it is malformed, the reason
+     * in the given metrics.
+     *
+     * @param line        the line of the text to be parsed
+     * @param dataStorage the DataStorage instance to store parsed data
+     * @param metrics     the metrics of the source the line was read from, or
+     *                    null
+     */
+    public static void parse(String line, DataStorage dataStorage, IngestionMetrics metrics) {
+        long start = System.nanoTime();
         String[] parts = line.split(",");
-        if (parts.length == 4) {
-            try {
-                int patientId = Integer.parseInt(parts[0]);
-                double measurementValue = Double.parseDouble(parts[1]);
-                String recordType = parts[2];
-                long timestamp = Long.parseLong(parts[3]);
-                dataStorage.addPatientData(patientId, measurementValue, recordType, timestamp);
-            } catch (NumberFormatException e) {
-                System.out.println("Invalid data format: " + line);
-            }
-        } else {
-            System.out.println("Invalid data format: " + line);
+        if (parts.length != 4) {
+            invalid(line, ParseError.FORMAT, metrics, start);
+            return;
+        }
+        int patientId;
+        double measurementValue;
+        long timestamp;
+        try {
+            patientId = Integer.parseInt(parts[0]);
+        } catch (NumberFormatException e) {
+            invalid(line, ParseError.PATIENT_ID, metrics, start);
+            return;
         }
+        try {
+            measurementValue = Double.parseDouble(parts[1]);
+        } catch (NumberFormatException e) {
+            invalid(line, ParseError.VALUE, metrics, start);
+            return;
+        }
+        String recordType = parts[2];
+        if (recordType.isEmpty()) {
+            invalid(line, ParseError.RECORD_TYPE, metrics, start);
+            return;
+        }
+        int typeId;
+        try {
+            typeId = RecordTypeRegistry.intern(recordType);
+        } catch (IllegalArgumentException e) {
+            // A new type while the registry is full
+            invalid(line, ParseError.RECORD_TYPE, metrics, start);
+            return;
+        }
+        try {
+            timestamp = Long.parseLong(parts[3]);
+        } catch (NumberFormatException e) {
+            invalid(line, ParseError.TIMESTAMP, metrics, start);
+            return;
+        }
+        if (metrics == null) {
+            dataStorage.addPatientData(patientId, typeId, measurementValue, timestamp);
+            return;
+        }
+        long parsed = System.nanoTime();
+        metrics.recordParse(1, line.length() + 1, parsed - start);
+        dataStorage.addPatientData(patientId, typeId, measurementValue, timestamp);
+        metrics.recordStore(1, timestamp, System.nanoTime() - parsed);
     }
-}
 
+    private static void invalid(String line, ParseError error, IngestionMetrics metrics, long start) {
+        if (metrics != null) {
+            metrics.recordParse(1, line.length() + 1, System.nanoTime() - start);
+            metrics.recordParseError(error);
+        }
+        long suppressed = MALFORMED_LINES.sample();
+        if (suppressed >= 0) {
+            logger.warning("Invalid data format (" + error + ", " + suppressed + " more not logged): " + line);
+        }
+    }
+}
@@ -1,31 +1,91 @@
 package com.data_management;
 
 import com.alerts.AlertGenerator;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.alerts.AlertRules;
 import java.io.*;
-import java.lang.reflect.Type;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.DoublePredicate;
+import java.util.logging.Logger;
 
 /**
  * Manages storage and retrieval of patient data within a healthcare monitoring
  * system.
  * This class serves as a repository for all patient records, organized by
  * patient IDs.
+ * <p>
+ * The storage is safe for concurrent use: several readers (TCP, files,
+ * WebSocket) may add data on different threads while others, such as the
+ * alert generator, query it. Queries never block ingestion.
+ * </p>
+ * <p>
+ * By default all data lives on the heap. A storage opened on a directory
+ * writes every full block of a patient's time series to a memory-mapped file,
+ * keeps only the most recent samples on the heap, and maps the files again on
+ * the next start instead of parsing them. Records that are still on the heap
+ * can be protected against a crash with a {@link WriteAheadLog}.
+ * </p>
  */
-public class DataStorage {
-    private Map<Integer, Patient> patientMap; // Stores patient objects indexed by their unique patient ID.
+public class DataStorage implements Closeable, PatientDataStore, RecordSink {
+    /** Patient id that subscribes to the records of all patients. */
+    public static final int ALL_PATIENTS = -1;
+    /** Record type id that selects records of all types. */
+    public static final int ALL_TYPES = -1;
+    /** Queue capacity of subscriptions created without an explicit capacity. */
+    public static final int DEFAULT_SUBSCRIPTION_CAPACITY = 1024;
+
+    private final PatientTable patientMap; // Stores patient objects indexed by their unique patient ID.
+    private final MappedSegmentStore segmentStore; // Persists sealed segments, null for heap-only storage.
+    private volatile WriteAheadLog writeAheadLog; // Logs added records for recovery, null if not used.
+    // Held shared while a record is logged and stored, exclusively while a snapshot is written
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final Object snapshotLock = new Object();
+    private int snapshotLogGeneration = -1; // Log generation and mark of the snapshot read on start up.
+    private long snapshotLogMark;
+    private final LatestValueIndex latestValueIndex = new LatestValueIndex(); // Series of all patients by type.
+    private volatile long latenessMillis = Long.MAX_VALUE; // How late a record may arrive and still be stored.
+    private volatile Consumer<PatientRecord> lateRecordHandler; // Receives records later than the window.
+    private final LongAdder lateRecordCount = new LongAdder();
+    private final SubscriptionHub subscriptions = new SubscriptionHub(); // Push delivery of added records.
+    private static final Logger logger = Logger.getLogger(DataStorage.class.getName());
+    // Cursor for forEachRecord, taken out while in use so nested scans get their own
+    private static final ThreadLocal<RecordCursor> visitorCursor = new ThreadLocal<>();
 
     /**
      * Constructs a new instance of DataStorage, initializing the underlying storage
      * structure.
      */
     public DataStorage() {
-        this.patientMap = new HashMap<>();
+        this.patientMap = new PatientTable();
+        this.segmentStore = null;
+    }
+
+    /**
+     * Constructs a persistent DataStorage backed by memory-mapped segment files
+     * in the given directory. Patients stored in the directory by an earlier
+     * instance are available immediately.
+     *
+     * @param directory the directory holding the segment files
+     * @throws IOException if the directory or its files cannot be opened
+     */
+    public DataStorage(Path directory) throws IOException {
+        this.patientMap = new PatientTable();
+        this.segmentStore = new MappedSegmentStore(directory);
+        segmentStore.load(this::restoreSeries);
+    }
+
+    private void restoreSeries(int patientId, String recordType, List<Segment> segments) {
+        getOrCreatePatient(patientId).restoreSeries(RecordTypeRegistry.intern(recordType), segments);
     }
 
     /**
@@ -33,6 +93,8 @@ public class DataStorage {
      * If the patient does not exist, a new Patient object is created and added to
      * the storage.
      * Otherwise, the new data is added to the existing patient's records.
+     * The sample is appended to the patient's columnar storage without
+     * allocating a {@link PatientRecord}.
      *
      * @param patientId        the unique identifier of the patient
      * @param measurementValue the value of the health metric being recorded
@@ -40,14 +102,316 @@ public class DataStorage {
      *                         "BloodPressure"
      * @param timestamp        the time at which the measurement was taken, in
      *                         milliseconds since the Unix epoch
+     * @throws IllegalArgumentException if the record type is new and the
+     *                                  {@link RecordTypeRegistry} is full
      */
+    @Override
     public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
-        Patient patient = patientMap.get(patientId);
-        if (patient == null) {
-            patient = new Patient(patientId);
-            patientMap.put(patientId, patient);
+        addPatientData(patientId, RecordTypeRegistry.intern(recordType), measurementValue, timestamp);
+    }
+
+    /**
+     * Adds patient data whose record type is already resolved to a registry id.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param typeId           the {@link RecordTypeRegistry} id of the record type
+     * @param measurementValue the value of the health metric being recorded
+     * @param timestamp        the time at which the measurement was taken
+     */
+    @Override
+    public void addPatientData(int patientId, int typeId, double measurementValue, long timestamp) {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            store(patientId, typeId, measurementValue, timestamp);
+            return;
+        }
+        Lock lock = checkpointLock.readLock();
+        lock.lock();
+        try {
+            log.append(patientId, typeId, measurementValue, timestamp);
+            store(patientId, typeId, measurementValue, timestamp);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to log data for patient " + patientId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(int patientId, int typeId, double measurementValue, long timestamp) {
+        if (getOrCreatePatient(patientId).addRecord(typeId, measurementValue, timestamp, latenessMillis)) {
+            subscriptions.publish(patientId, typeId, measurementValue, timestamp);
+        } else {
+            divertLateRecord(patientId, typeId, measurementValue, timestamp);
         }
-        patient.addRecord(measurementValue, recordType, timestamp);
+    }
+
+    /**
+     * Adds several records of one patient with a single patient lookup.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param typeIds    the {@link RecordTypeRegistry} ids of the record types
+     * @param values     the measured values
+     * @param timestamps the times of the measurements
+     * @param count      the number of records to add from the arrays
+     */
+    void addPatientBatch(int patientId, int[] typeIds, double[] values, long[] timestamps, int count) {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            storePatientBatch(patientId, typeIds, values, timestamps, count);
+            return;
+        }
+        Lock lock = checkpointLock.readLock();
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                log.append(patientId, typeIds[i], values[i], timestamps[i]);
+            }
+            storePatientBatch(patientId, typeIds, values, timestamps, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to log data for patient " + patientId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void storePatientBatch(int patientId, int[] typeIds, double[] values, long[] timestamps, int count) {
+        Patient patient = getOrCreatePatient(patientId);
+        long lateness = latenessMillis;
+        for (int i = 0; i < count; i++) {
+            if (patient.addRecord(typeIds[i], values[i], timestamps[i], lateness)) {
+                subscriptions.publish(patientId, typeIds[i], values[i], timestamps[i]);
+            } else {
+                divertLateRecord(patientId, typeIds[i], values[i], timestamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds all records of a batch. The records are grouped by patient and
+     * record type, so every patient is looked up once per type and every
+     * series is appended to in one pass, instead of once per record as with
+     * {@link #addPatientData(int, int, double, long)}. Batches whose records
+     * are spread so thinly that a series rarely gets more than a few of them
+     * are added record by record instead, since grouping would not pay off.
+     * Records of the same patient and type are added in batch order; the batch
+     * is left unchanged and can be cleared and reused.
+     *
+     * @param batch the records to add
+     */
+    public void addBatch(RecordBatch batch) {
+        if (batch.size == 1) {
+            addPatientData(batch.patientIds[0], batch.typeIds[0], batch.values[0], batch.timestamps[0]);
+        } else if (batch.size > 1) {
+            addBatch(batch.patientIds, batch.typeIds, batch.values, batch.timestamps, batch.size, batch.grouper());
+        }
+    }
+
+    /**
+     * Adds records given as columns, like {@link #addBatch(RecordBatch)}. The
+     * i-th record consists of the i-th element of every array.
+     *
+     * @param patientIds the unique identifiers of the patients
+     * @param typeIds    the {@link RecordTypeRegistry} ids of the record types
+     * @param values     the measured values
+     * @param timestamps the times of the measurements
+     * @param count      the number of records to add from the arrays
+     * @throws IllegalArgumentException if the count is negative or an array is
+     *                                  shorter than the count
+     */
+    public void addBatch(int[] patientIds, int[] typeIds, double[] values, long[] timestamps, int count) {
+        if (count < 0 || patientIds.length < count || typeIds.length < count || values.length < count
+                || timestamps.length < count) {
+            throw new IllegalArgumentException("Arrays hold fewer than " + count + " records");
+        }
+        if (count > 0) {
+            addBatch(patientIds, typeIds, values, timestamps, count, new BatchGrouper());
+        }
+    }
+
+    private void addBatch(int[] patientIds, int[] typeIds, double[] values, long[] timestamps, int count,
+            BatchGrouper grouper) {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            storeBatch(patientIds, typeIds, values, timestamps, count, grouper);
+            return;
+        }
+        Lock lock = checkpointLock.readLock();
+        lock.lock();
+        try {
+            log.appendAll(patientIds, typeIds, values, timestamps, count);
+            storeBatch(patientIds, typeIds, values, timestamps, count, grouper);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to log batch of " + count + " records", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void storeBatch(int[] patientIds, int[] typeIds, double[] values, long[] timestamps, int count,
+            BatchGrouper grouper) {
+        if (!grouper.shouldGroup()) {
+            for (int i = 0; i < count; i++) {
+                store(patientIds[i], typeIds[i], values[i], timestamps[i]);
+            }
+            return;
+        }
+        int groups = grouper.group(patientIds, typeIds, count);
+        int[] order = grouper.order;
+        long lateness = latenessMillis;
+        Patient patient = null;
+        for (int g = 0; g < groups; g++) {
+            int patientId = grouper.groupPatient[g];
+            int typeId = grouper.groupType[g];
+            if (patient == null || patient.getPatientId() != patientId) {
+                patient = getOrCreatePatient(patientId);
+            }
+            int from = grouper.groupStart[g];
+            int to = grouper.groupStart[g + 1];
+            int rejected = patient.addRecords(typeId, timestamps, values, order, from, to, lateness);
+            if (rejected > 0 || subscriptions.hasSubscribers()) {
+                for (int i = from; i < to; i++) {
+                    int index = order[i];
+                    if (index >= 0) {
+                        subscriptions.publish(patientId, typeId, values[index], timestamps[index]);
+                    } else {
+                        divertLateRecord(patientId, typeId, values[~index], timestamps[~index]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void divertLateRecord(int patientId, int typeId, double measurementValue, long timestamp) {
+        lateRecordCount.increment();
+        Consumer<PatientRecord> handler = lateRecordHandler;
+        if (handler != null) {
+            handler.accept(new PatientRecord(patientId, measurementValue, RecordTypeRegistry.nameOf(typeId),
+                    timestamp));
+        }
+    }
+
+    /**
+     * Limits how late a record may arrive. A record whose timestamp is older
+     * than the latest record of the same patient and type by more than the
+     * window is not stored; it is passed to the handler instead, e.g. to be
+     * logged or kept in a separate storage. Records within the window are
+     * merged into the time-ordered records, so queries and alert evaluation
+     * always see sorted data. By default every late record is stored.
+     *
+     * @param latenessMillis    the lateness window in milliseconds, or
+     *                          {@code Long.MAX_VALUE} to store every late
+     *                          record
+     * @param lateRecordHandler receives the records that are too late, or null
+     *                          to drop them
+     * @throws IllegalArgumentException if the window is negative
+     */
+    public void setLatenessWindow(long latenessMillis, Consumer<PatientRecord> lateRecordHandler) {
+        if (latenessMillis < 0) {
+            throw new IllegalArgumentException("Lateness window must not be negative: " + latenessMillis);
+        }
+        this.lateRecordHandler = lateRecordHandler;
+        this.latenessMillis = latenessMillis;
+    }
+
+    /**
+     * Subscribes to the records added to this storage from now on, with a
+     * queue of {@link #DEFAULT_SUBSCRIPTION_CAPACITY} records that drops new
+     * records while it is full.
+     *
+     * @param patientId  the patient to subscribe to, or {@link #ALL_PATIENTS}
+     * @param recordType the record type or one of its aliases, or null for all
+     *                   types
+     * @param listener   receives the records on a delivery thread
+     * @return the subscription, to be cancelled when no longer needed
+     * @see #subscribe(int, String, int, OverflowPolicy, Consumer)
+     */
+    public Subscription subscribe(int patientId, String recordType, Consumer<PatientRecord> listener) {
+        return subscribe(patientId, recordType, DEFAULT_SUBSCRIPTION_CAPACITY, OverflowPolicy.DROP, listener);
+    }
+
+    /**
+     * Subscribes to the records added to this storage from now on. Each stored
+     * record that matches is queued for the subscriber and delivered
+     * asynchronously, in the order records were added; records rejected as too
+     * late or replayed from the write-ahead log are not delivered. A listener
+     * must not add records to this storage with the {@link OverflowPolicy#BLOCK}
+     * policy, since it could end up waiting for itself.
+     *
+     * @param patientId  the patient to subscribe to, or {@link #ALL_PATIENTS}
+     * @param recordType the record type or one of its aliases, or null for all
+     *                   types
+     * @param capacity   the maximum number of records waiting for delivery
+     * @param policy     what to do with new records while the queue is full
+     * @param listener   receives the records on a delivery thread
+     * @return the subscription, to be cancelled when no longer needed
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public Subscription subscribe(int patientId, String recordType, int capacity, OverflowPolicy policy,
+            Consumer<PatientRecord> listener) {
+        int typeId = recordType == null ? ALL_TYPES : RecordTypeRegistry.intern(recordType);
+        return subscriptions.add(patientId, typeId, capacity, policy, listener);
+    }
+
+    /**
+     * Returns the number of records that arrived later than the lateness window
+     * and were not stored.
+     *
+     * @return the number of records diverted as too late
+     */
+    public long getLateRecordCount() {
+        return lateRecordCount.sum();
+    }
+
+    private Patient getOrCreatePatient(int patientId) {
+        return patientMap.getOrCreate(patientId, id -> new Patient(id, segmentStore, latestValueIndex));
+    }
+
+    /**
+     * Recovers the records in the given write-ahead log into this storage and
+     * logs every record added afterwards to it. This should be called on start
+     * up, before any data is added, but after reading the last snapshot taken
+     * with the log in use, since the log only holds the records that snapshot
+     * does not.
+     * <p>
+     * A persistent storage first drops the segments written since the log
+     * was last emptied, so that every record the log holds is replayed
+     * exactly once.
+     * </p>
+     *
+     * @param log the write-ahead log to recover from and append to
+     * @return the number of records replayed from the log
+     * @throws IOException if the log or the segment files cannot be read
+     */
+    public int useWriteAheadLog(WriteAheadLog log) throws IOException {
+        if (segmentStore != null) {
+            int lastGeneration = segmentStore.lastGeneration();
+            if (log.isEmpty()) {
+                if (log.generation() <= lastGeneration) {
+                    // A new log, which must not claim the segments already stored
+                    log.truncate(lastGeneration + 1);
+                }
+            } else if (log.generation() <= lastGeneration) {
+                // The segments written since the log generation started hold records it replays
+                for (Patient patient : patientMap.values()) {
+                    patient.unregisterSeries();
+                    patientMap.remove(patient.getPatientId());
+                }
+                segmentStore.reload(log.generation(), this::restoreSeries);
+            }
+            segmentStore.useGeneration(log.generation());
+        }
+        int replayed = log.replay(this, snapshotLogGeneration, snapshotLogMark);
+        this.writeAheadLog = log;
+        return replayed;
+    }
+
+    /**
+     * Adds a record replayed from the write-ahead log. Replayed records are
+     * not subject to the lateness window, so recovery never loses a logged
+     * record.
+     */
+    void restorePatientData(int patientId, int typeId, double measurementValue, long timestamp) {
+        getOrCreatePatient(patientId).addRecord(typeId, measurementValue, timestamp);
     }
 
     /**
@@ -63,6 +427,7 @@ public class DataStorage {
      * @return a list of PatientRecord objects that fall within the specified time
      *         range
      */
+    @Override
     public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
         Patient patient = patientMap.get(patientId);
         if (patient != null) {
@@ -71,13 +436,325 @@ public class DataStorage {
         return new ArrayList<>(); // return an empty list if no patient is found
     }
 
+    /**
+     * Retrieves the records of one type for a specific patient, filtered by a
+     * time range. Only the series of the requested type is read.
+     *
+     * @param patientId  the unique identifier of the patient whose records are to
+     *                   be retrieved
+     * @param recordType the record type, or one of its aliases
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @return the matching records in timestamp order
+     */
+    @Override
+    public List<PatientRecord> getRecords(int patientId, String recordType, long startTime, long endTime) {
+        int typeId = RecordTypeRegistry.lookup(recordType);
+        if (typeId < 0) {
+            return new ArrayList<>();
+        }
+        return getRecords(patientId, typeId, startTime, endTime);
+    }
+
+    /**
+     * Retrieves the records of one type for a specific patient, filtered by a
+     * time range.
+     *
+     * @param patientId the unique identifier of the patient whose records are to
+     *                  be retrieved
+     * @param typeId    the {@link RecordTypeRegistry} id of the record type
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @return the matching records in timestamp order
+     */
+    public List<PatientRecord> getRecords(int patientId, int typeId, long startTime, long endTime) {
+        Patient patient = patientMap.get(patientId);
+        if (patient != null) {
+            return patient.getRecords(typeId, startTime, endTime);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Positions a cursor on the records of a patient within a time range. The
+     * cursor can be reused for any number of scans; see {@link RecordCursor}.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @param cursor    the cursor to position
+     * @return false if the patient does not exist, in which case the cursor is
+     *         empty
+     */
+    public boolean scanRecords(int patientId, long startTime, long endTime, RecordCursor cursor) {
+        Patient patient = patientMap.get(patientId);
+        if (patient == null) {
+            cursor.clear();
+            return false;
+        }
+        cursor.reset(patient, startTime, endTime);
+        return true;
+    }
+
+    /**
+     * Positions a cursor on the records of one type of a patient within a time
+     * range.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param typeId    the {@link RecordTypeRegistry} id of the record type
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @param cursor    the cursor to position
+     * @return false if the patient does not exist, in which case the cursor is
+     *         empty
+     */
+    public boolean scanRecords(int patientId, int typeId, long startTime, long endTime, RecordCursor cursor) {
+        Patient patient = patientMap.get(patientId);
+        if (patient == null) {
+            cursor.clear();
+            return false;
+        }
+        cursor.reset(patient, typeId, startTime, endTime);
+        return true;
+    }
+
+    /**
+     * Passes every record of a patient within a time range to the visitor, in
+     * timestamp order, without creating record objects.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @param visitor   the callback receiving the records
+     */
+    public void forEachRecord(int patientId, long startTime, long endTime, RecordVisitor visitor) {
+        forEachRecord(patientId, ALL_TYPES, startTime, endTime, visitor);
+    }
+
+    /**
+     * Passes every record of one type of a patient within a time range to the
+     * visitor, in timestamp order, without creating record objects.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param typeId    the {@link RecordTypeRegistry} id of the record type, or
+     *                  {@link #ALL_TYPES} for all types
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @param visitor   the callback receiving the records
+     */
+    public void forEachRecord(int patientId, int typeId, long startTime, long endTime, RecordVisitor visitor) {
+        Patient patient = patientMap.get(patientId);
+        if (patient == null) {
+            return;
+        }
+        RecordCursor cursor = visitorCursor.get();
+        if (cursor == null) {
+            cursor = new RecordCursor();
+        } else {
+            visitorCursor.set(null);
+        }
+        try {
+            if (typeId < 0) {
+                cursor.reset(patient, startTime, endTime);
+            } else {
+                cursor.reset(patient, typeId, startTime, endTime);
+            }
+            while (cursor.next()) {
+                visitor.visit(cursor.timestamp(), cursor.typeId(), cursor.value());
+            }
+        } finally {
+            visitorCursor.set(cursor);
+        }
+    }
+
+    /**
+     * Passes every patient to the given action without copying the patient map.
+     * Patients added during the iteration may or may not be visited.
+     *
+     * @param action the action to perform for each patient
+     */
+    public void forEachPatient(Consumer<Patient> action) {
+        patientMap.forEach(action);
+    }
+
+    /**
+     * Returns whether this storage keeps its records in segment files.
+     *
+     * @return true if the storage was created on a directory
+     */
+    boolean isPersistent() {
+        return segmentStore != null;
+    }
+
+    /**
+     * Removes a patient and all of its records, for instance after the patient
+     * was moved to another storage node. Only heap storage supports removal,
+     * since the records of a persistent storage would be mapped again on the
+     * next start.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return true if the patient existed
+     * @throws UnsupportedOperationException if the storage is persistent
+     */
+    boolean removePatient(int patientId) {
+        if (segmentStore != null) {
+            throw new UnsupportedOperationException("Cannot remove patients from a persistent storage");
+        }
+        Patient patient = patientMap.remove(patientId);
+        if (patient == null) {
+            return false;
+        }
+        patient.unregisterSeries();
+        return true;
+    }
+
+    /**
+     * Computes the count, minimum, maximum, mean and latest value of one type of
+     * a patient's records within a time range. Full blocks of records are
+     * answered from summaries kept while the records are added, so the cost
+     * grows with the number of blocks rather than the number of records.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the record type, or one of its aliases
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @return the statistics of the matching records; the count is zero if the
+     *         patient or record type is unknown
+     */
+    public RecordStatistics getStatistics(int patientId, String recordType, long startTime, long endTime) {
+        Patient patient = patientMap.get(patientId);
+        int typeId = RecordTypeRegistry.lookup(recordType);
+        if (patient == null || typeId < 0) {
+            return new TimeSeries.Aggregator().toStatistics(recordType, startTime, endTime);
+        }
+        return patient.getStatistics(typeId, startTime, endTime);
+    }
+
+    /**
+     * Computes the statistics of one type of a patient's records for
+     * consecutive buckets of a time range, e.g. hourly means over a day.
+     *
+     * @param patientId    the unique identifier of the patient
+     * @param recordType   the record type, or one of its aliases
+     * @param startTime    the start of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param endTime      the end of the time range, in milliseconds since the
+     *                     Unix epoch
+     * @param bucketMillis the length of each bucket, in milliseconds
+     * @return the statistics of each bucket, in time order
+     * @throws IllegalArgumentException if {@code bucketMillis} is not positive
+     */
+    public List<RecordStatistics> getStatistics(int patientId, String recordType, long startTime, long endTime,
+            long bucketMillis) {
+        Patient patient = patientMap.get(patientId);
+        int typeId = RecordTypeRegistry.lookup(recordType);
+        if (patient == null || typeId < 0) {
+            return Patient.bucketStatistics(null, recordType, startTime, endTime, bucketMillis);
+        }
+        return patient.getStatistics(typeId, startTime, endTime, bucketMillis);
+    }
+
+    /**
+     * Finds every patient whose latest record of the given type matches a
+     * condition, e.g. all patients whose latest blood saturation is below 92.
+     * The cost depends on the number of patients, not on the number of records.
+     *
+     * @param recordType the record type, or one of its aliases
+     * @param predicate  the condition on the latest measurement value
+     * @return the latest record of every matching patient, in no particular
+     *         order
+     */
+    public List<PatientRecord> getPatientsWithLatest(String recordType, DoublePredicate predicate) {
+        int typeId = RecordTypeRegistry.lookup(recordType);
+        if (typeId < 0) {
+            return new ArrayList<>();
+        }
+        return latestValueIndex.find(typeId, predicate);
+    }
+
+    /**
+     * Returns the {@code k} patients with the highest or lowest latest value of
+     * the given record type.
+     *
+     * @param recordType the record type, or one of its aliases
+     * @param k          the maximum number of patients to return
+     * @param lowest     true to rank the lowest values first, false to rank the
+     *                   highest values first
+     * @return the latest record of each of the top patients, best first
+     */
+    public List<PatientRecord> getTopPatientsByLatest(String recordType, int k, boolean lowest) {
+        int typeId = RecordTypeRegistry.lookup(recordType);
+        if (typeId < 0) {
+            return new ArrayList<>();
+        }
+        return latestValueIndex.top(typeId, k, lowest);
+    }
+
+    /**
+     * Estimates the heap memory used by the records of all patients. Records in
+     * compressed or memory-mapped blocks only count with their heap footprint.
+     *
+     * @return the approximate number of heap bytes used by stored records
+     */
+    public long getRecordMemoryUsage() {
+        long bytes = 0;
+        for (Patient patient : patientMap.values()) {
+            bytes += patient.heapBytes();
+        }
+        return bytes;
+    }
+
     /**
      * Retrieves a collection of all patients stored in the data storage.
      *
      * @return a list of all patients
      */
     public List<Patient> getAllPatients() {
-        return new ArrayList<>(patientMap.values());
+        return patientMap.values();
+    }
+
+    /**
+     * Writes all records still held on the heap to the segment files and closes
+     * them. Once they are written the write-ahead log, if any, is emptied and
+     * closed. The log is kept if a segment could not be written, so the next
+     * start up replays the records of that segment.
+     *
+     * @throws IOException if the segment files or the log cannot be flushed
+     */
+    @Override
+    public void close() throws IOException {
+        WriteAheadLog log = writeAheadLog;
+        if (segmentStore != null) {
+            for (Patient patient : patientMap.values()) {
+                patient.sealHeads();
+            }
+            segmentStore.close();
+            if (log != null) {
+                if (segmentStore.hasPersistFailed()) {
+                    // The records of the segments that failed are only in the log now
+                    logger.severe("Keeping the write-ahead log, some segments could not be persisted");
+                } else {
+                    log.truncate(log.generation() + 1);
+                }
+            }
+        }
+        if (log != null) {
+            log.close();
+        }
     }
 
     /**
@@ -90,8 +767,9 @@ public class DataStorage {
     public static void main(String[] args) throws IOException, ClassNotFoundException {
         // DataReader is not defined in this scope, should be initialized appropriately.
         // DataReader reader = new SomeDataReaderImplementation("path/to/data");
-        if(args.length < 2 || !args[0].equals("--output")) {
-            System.out.println("Invalid arguments. Usage: DataStorage --output <outputFolder> ");
+        if((args.length != 2 && args.length != 4) || !args[0].equals("--output")
+                || (args.length == 4 && !args[2].equals("--rules"))) {
+            System.out.println("Invalid arguments. Usage: DataStorage --output <outputFolder> [--rules <alertRules.json>]");
             return;
         }
 
@@ -112,25 +790,28 @@ public class DataStorage {
                 return;
             }
 
+            List<Path> files = new ArrayList<>();
             for (File file : listOfFiles) {
                 if (file.isFile()) {
-
-                    System.out.println("Patient data file " + file.getName());
-
-                    List<PatientRecord> patientRecordList = storage.deserialize(file.getPath());
-
-                    for (PatientRecord patientRecord : patientRecordList) {
-
-                        storage.addPatientData(patientRecord.getPatientId(),
-                            patientRecord.getMeasurementValue(),
-                            patientRecord.getRecordType(),
-                            patientRecord.getTimestamp());
-
-                        System.out.println("Patient data added");
-                    }
+                    files.add(file.toPath());
                 }
             }
 
+            // Stream the files in parallel and report progress instead of every record
+            JsonBulkLoader loader = new JsonBulkLoader(storage);
+            ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+            progress.scheduleAtFixedRate(() -> System.out.println("Loaded " + loader.getRecordsLoaded()
+                    + " records, " + loader.getFilesLoaded() + "/" + files.size() + " files"), 1, 1, TimeUnit.SECONDS);
+            long start = System.nanoTime();
+            try {
+                loader.load(files);
+            } finally {
+                progress.shutdownNow();
+            }
+            System.out.println("Loaded " + loader.getRecordsLoaded() + " records (" + loader.getInvalidRecords()
+                    + " invalid) from " + loader.getFilesLoaded() + " files in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+
 
         //FileDataReader fileDataReader = new FileDataReader(".txt", );
         // Assuming the reader has been properly initialized and can read data into the
@@ -140,18 +821,14 @@ public class DataStorage {
         List<Patient> allPatients = storage.getAllPatients();
         for (Patient patient : allPatients) {
 
-            // Example of using DataStorage to retrieve and print records for a patient
+            // Example of using DataStorage to retrieve records for a patient
             List<PatientRecord> records = storage.getRecords(patient.getPatientId(), 1700000000000L, 1800000000000L);
-            for (PatientRecord record : records) {
-                System.out.println("Record for Patient ID: " + record.getPatientId() +
-                        ", Type: " + record.getRecordType() +
-                        ", Data: " + record.getMeasurementValue() +
-                        ", Timestamp: " + record.getTimestamp());
-            }
+            System.out.println("Patient ID: " + patient.getPatientId() + ", Records: " + records.size());
         }
 
-        // Initialize the AlertGenerator with the storage
-        AlertGenerator alertGenerator = new AlertGenerator(storage);
+        // Initialize the AlertGenerator with the storage and the bundled or given rules
+        AlertRules rules = args.length == 4 ? AlertRules.load(Path.of(args[3])) : AlertRules.defaults();
+        AlertGenerator alertGenerator = new AlertGenerator(storage, rules);
 
         // Evaluate all patients' data to check for conditions that may trigger alerts
         for (Patient patient : storage.getAllPatients()) {
@@ -159,20 +836,55 @@ public class DataStorage {
         }
     }
 
-    private void serialize(List<PatientRecord> value, String filePath) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        gson.toJson(value, writer);
-        writer.flush();
-        writer.close();
+    /**
+     * Writes all records in this storage to a binary snapshot file.
+     * <p>
+     * With a write-ahead log in use, the snapshot of a heap storage is also a
+     * checkpoint: once it is written, the log keeps only the records added
+     * since, so it does not grow without bound. To recover, read the snapshot
+     * and then replay the log. Adding records waits while such a snapshot is
+     * written, so that it holds exactly the records logged before it. The log
+     * of a persistent storage is emptied by {@link #close()} instead.
+     * </p>
+     *
+     * @param file the snapshot file to create or overwrite
+     * @throws IOException if the file or the log cannot be written
+     * @see SnapshotWriter
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        synchronized (snapshotLock) {
+            WriteAheadLog log = segmentStore == null ? writeAheadLog : null;
+            if (log == null) {
+                SnapshotWriter.write(this, file);
+                return;
+            }
+            // No record is logged or stored while the lock is held, so the snapshot ends at the mark
+            long mark;
+            Lock lock = checkpointLock.writeLock();
+            lock.lock();
+            try {
+                mark = log.mark();
+                SnapshotWriter.write(this, file, log.generation(), mark);
+            } finally {
+                lock.unlock();
+            }
+            log.discardBefore(mark);
+        }
     }
 
-    private List<PatientRecord> deserialize(String filePath) throws IOException {
-        Type listType = new TypeToken<List<PatientRecord>>(){}.getType();
-        //Type listType = TypeToken.getParameterized(List.class, PatientRecord).getType();
-
-        //Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        //return gson.fromJson(new FileReader(filePath), listType);
-        return new Gson().fromJson(new FileReader(filePath), listType);
+    /**
+     * Adds all records of a binary snapshot file to this storage. A write-ahead
+     * log used afterwards only replays the records logged after the snapshot.
+     *
+     * @param file the snapshot file to read
+     * @throws IOException if the file cannot be read
+     * @see SnapshotReader
+     */
+    public void readSnapshot(Path file) throws IOException {
+        try (SnapshotReader reader = new SnapshotReader(file)) {
+            reader.loadAll(this);
+            snapshotLogGeneration = reader.logGeneration();
+            snapshotLogMark = reader.logMark();
+        }
     }
 }
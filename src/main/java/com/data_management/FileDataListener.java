@@ -1,13 +1,74 @@
 package com.data_management;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public class FileDataListener extends DataListener {
+/**
+ * Reads patient data from text files.
+ * <p>
+ * In its default mode the listener reads one file from start to end with a
+ * {@link DataParser}. In tail mode, created with
+ * {@link #FileDataListener(String, DataStorage, Path)}, it follows all
+ * {@code .txt} files of a directory as they grow, like {@code tail -F}: a
+ * {@link WatchService} reports new and appended files, and only the bytes
+ * after the last complete line already read are parsed, with a
+ * {@link CsvRecordParser}, and added to the storage as a {@link RecordBatch}
+ * per read; parse and store times go to the directory's
+ * {@link IngestionMetrics}. A file that is replaced, e.g. by log rotation, or
+ * truncated is read again from its start; the rest of a replaced file is read
+ * first. A replaced file is recognized by its file key, a truncated one by
+ * its size or, if refilled to the size already read, by a modification time
+ * newer than the one taken after the last read. The offset reached in every file is checkpointed to a file, so a
+ * restarted listener resumes where the previous one stopped instead of
+ * adding the same records again.
+ * </p>
+ */
+public class FileDataListener extends DataListener implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(FileDataListener.class.getName());
+
+    static final long RESCAN_INTERVAL_MILLIS = 500;
+    static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
 
     private String filepath;
     private DataParser dataParser;
     private DataStorage dataStorage;
 
+    // Tail mode only
+    private final Path checkpointFile;
+    private final Map<String, TailedFile> tailedFiles = new HashMap<>();
+    private final IngestionMetrics metrics;
+    private final RecordBatch batch = new RecordBatch();
+    private CsvRecordParser recordParser;
+    private ByteBuffer readBuffer;
+    private volatile WatchService watchService;
+    private volatile boolean closed;
+    private boolean checkpointDirty;
+
 
     /**
      *
@@ -22,14 +83,52 @@ public class FileDataListener extends DataListener {
          this.filepath = filepath;
          this.dataParser = dataParser;
          this.dataStorage = dataStorage;
+         this.checkpointFile = null;
+         this.metrics = null;
      }
 
+    /**
+     * Constructs a listener in tail mode, which follows the {@code .txt} files
+     * of a directory until it is closed.
+     *
+     * @param directory      the directory whose files are followed
+     * @param dataStorage    the storage to add the records to
+     * @param checkpointFile the file recording how far every file was read, or
+     *                       null to start from the beginning of every file
+     */
+    public FileDataListener(String directory, DataStorage dataStorage, Path checkpointFile) {
+        this.filepath = directory;
+        this.dataStorage = dataStorage;
+        this.checkpointFile = checkpointFile;
+        this.metrics = new IngestionMetrics("file://" + directory);
+    }
 
     /**
-     * Listens for data from the specified file and parses it.
+     * Returns the ingestion metrics of the followed directory, which are
+     * registered with JMX while the listener runs.
+     *
+     * @return the metrics, or null in the default mode
+     */
+    public IngestionMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Listens for data from the specified file and parses it. In tail mode the
+     * call follows the directory and only returns once the listener is closed
+     * or reading fails.
      **/
     @Override
     public void listen() {
+         if (isTailing()) {
+             try {
+                 tail();
+             } catch (IOException e) {
+                 logger.log(Level.SEVERE, "Stopped following " + filepath, e);
+             }
+             return;
+         }
          File file = new File(filepath);
          if(file.isFile() && file.getName().endsWith(".txt")) {
              parseFile(file);
@@ -38,6 +137,25 @@ public class FileDataListener extends DataListener {
          }
      }
 
+    /**
+     * Stops following the directory and writes a final checkpoint. Has no
+     * effect in the default mode.
+     *
+     * @throws IOException if the watch service cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        WatchService watcher = watchService;
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    private boolean isTailing() {
+        return dataParser == null;
+    }
+
     /**
      * Parses the content of the specified file and stores the parsed data in DataStorage.
      *
@@ -48,11 +166,250 @@ public class FileDataListener extends DataListener {
          try(BufferedReader reader = new BufferedReader(new FileReader(file))) {
              String line;
              while ((line = reader.readLine()) != null) {
-                 dataParser.parse(line, dataStorage);
+                 DataParser.parse(line, dataStorage);
              }
          } catch (IOException e) {
              e.printStackTrace();
          }
      }
 
+    private void tail() throws IOException {
+        Path directory = Path.of(filepath);
+        recordParser = new CsvRecordParser(batch, CsvRecordParser.Layout.STORAGE, metrics);
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        loadCheckpoint();
+        metrics.register();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            watchService = watcher;
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            logger.info("Following " + directory);
+            // Files that exist already are caught up before waiting for changes
+            readAll(directory);
+            long lastCheckpoint = System.currentTimeMillis();
+            while (!closed) {
+                WatchKey key;
+                try {
+                    // Some file systems report changes late or never, so rescan on a timer too
+                    key = watcher.poll(RESCAN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ClosedWatchServiceException e) {
+                    break;
+                }
+                if (key == null) {
+                    readAll(directory);
+                } else {
+                    boolean overflow = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            Path changed = directory.resolve((Path) event.context());
+                            if (isDataFile(changed)) {
+                                read(changed);
+                            }
+                        }
+                    }
+                    if (overflow) {
+                        readAll(directory);
+                    }
+                    key.reset();
+                }
+                if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+                    saveCheckpoint();
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed while registering or reading
+        } finally {
+            metrics.unregister();
+            for (TailedFile tailed : tailedFiles.values()) {
+                tailed.closeChannel();
+            }
+            saveCheckpoint();
+        }
+    }
+
+    private static boolean isDataFile(Path path) {
+        return path.getFileName().toString().endsWith(".txt");
+    }
+
+    private void readAll(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.txt")) {
+            for (Path file : files) {
+                read(file);
+            }
+        }
+    }
+
+    /**
+     * Reads the complete lines appended to a file since the last read.
+     */
+    private void read(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        TailedFile tailed = tailedFiles.computeIfAbsent(name, TailedFile::new);
+        String fileKey;
+        long size;
+        long modified;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return;
+            }
+            fileKey = attributes.fileKey() != null ? attributes.fileKey().toString() : null;
+            size = attributes.size();
+            modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (tailed.fileKey != null && fileKey != null && !tailed.fileKey.equals(fileKey)) {
+            // Rotated: finish the old file through the channel still open on it
+            if (tailed.channel != null) {
+                readFrom(tailed, tailed.channel.size());
+            }
+            logger.info(name + " was replaced, reading the new file from the start");
+            tailed.closeChannel();
+            tailed.offset = 0;
+        } else if (size < tailed.offset
+                || (size == tailed.offset && tailed.modified >= 0 && modified > tailed.modified)) {
+            // A file truncated and refilled to its old length is only noticed by its time
+            logger.info(name + " was truncated, reading it from the start");
+            tailed.closeChannel();
+            tailed.offset = 0;
+        }
+        tailed.fileKey = fileKey;
+        if (size == tailed.offset) {
+            tailed.modified = modified;
+            return;
+        }
+        if (tailed.channel == null) {
+            try {
+                tailed.channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return;
+            }
+        }
+        readFrom(tailed, size);
+        // A writer can append while the file is read, and those lines may have been read
+        // as well. Only a time taken after the read covers every byte read so far.
+        tailed.modified = modifiedTime(file, tailed);
+    }
+
+    /**
+     * Returns the modification time of a file if it still has the followed
+     * file's key and no more bytes than were read, or -1 if it has changed
+     * since, so that the next read does not take the change for a rewrite.
+     */
+    private static long modifiedTime(Path file, TailedFile tailed) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            String fileKey = attributes.fileKey() != null ? attributes.fileKey().toString() : null;
+            if (attributes.size() != tailed.offset || !Objects.equals(fileKey, tailed.fileKey)) {
+                return -1;
+            }
+            return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    private void readFrom(TailedFile tailed, long size) throws IOException {
+        while (tailed.offset < size) {
+            readBuffer.clear();
+            int read = tailed.channel.read(readBuffer, tailed.offset);
+            if (read <= 0) {
+                return;
+            }
+            readBuffer.flip();
+            long lines = recordParser.getRecordCount() + recordParser.getInvalidCount();
+            long start = System.nanoTime();
+            recordParser.parse(readBuffer);
+            long parsed = System.nanoTime();
+            if (readBuffer.position() > 0) {
+                metrics.recordParse(recordParser.getRecordCount() + recordParser.getInvalidCount() - lines,
+                        readBuffer.position(), parsed - start);
+            }
+            if (batch.size() > 0) {
+                long newest = batch.maxTimestamp();
+                dataStorage.addBatch(batch);
+                metrics.recordStore(batch.size(), newest, System.nanoTime() - parsed);
+                batch.clear();
+            }
+            if (readBuffer.position() == 0) {
+                if (readBuffer.limit() < readBuffer.capacity()) {
+                    // The last line is not complete yet
+                    return;
+                }
+                // A line longer than the buffer
+                readBuffer = ByteBuffer.allocateDirect(readBuffer.capacity() * 2);
+                continue;
+            }
+            tailed.offset += readBuffer.position();
+            checkpointDirty = true;
+        }
+    }
+
+    private void loadCheckpoint() throws IOException {
+        if (checkpointFile == null || !Files.exists(checkpointFile)) {
+            return;
+        }
+        for (String line : Files.readAllLines(checkpointFile, StandardCharsets.UTF_8)) {
+            // offset, file key and file name, separated by tabs
+            String[] fields = line.split("\t", 3);
+            if (fields.length != 3) {
+                logger.warning("Ignoring invalid checkpoint line: " + line);
+                continue;
+            }
+            TailedFile tailed = new TailedFile(fields[2]);
+            tailed.offset = Long.parseLong(fields[0]);
+            tailed.fileKey = fields[1].isEmpty() ? null : fields[1];
+            tailedFiles.put(tailed.name, tailed);
+        }
+        logger.info("Resuming " + tailedFiles.size() + " files from " + checkpointFile);
+    }
+
+    /**
+     * Writes the offsets to a temporary file and moves it over the checkpoint,
+     * so a crash leaves either the old or the new checkpoint.
+     */
+    private void saveCheckpoint() throws IOException {
+        if (checkpointFile == null || !checkpointDirty) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        for (TailedFile tailed : tailedFiles.values()) {
+            lines.add(tailed.offset + "\t" + Objects.toString(tailed.fileKey, "") + "\t" + tailed.name);
+        }
+        Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        Files.write(temporary, lines, StandardCharsets.UTF_8);
+        Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointDirty = false;
+    }
+
+    /**
+     * The read position in one followed file. The file key identifies the
+     * file on disk, so that a new file under the same name is noticed.
+     */
+    private static final class TailedFile {
+        private final String name;
+        private String fileKey;
+        private long offset;
+        // The modification time when all of the file had been read, or -1 if unknown
+        private long modified = -1;
+        private FileChannel channel;
+
+        TailedFile(String name) {
+            this.name = name;
+        }
+
+        void closeChannel() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
 }
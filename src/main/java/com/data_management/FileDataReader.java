@@ -14,6 +14,7 @@ public class FileDataReader implements DataReader {
 
     private String directoryPath;
     private DataParser dataParser;
+    private final IngestionMetrics metrics;
 
     static {
         try  {
@@ -34,6 +35,17 @@ public class FileDataReader implements DataReader {
     public FileDataReader(String directoryPath, DataParser dataParser) {
         this.directoryPath = directoryPath;
         this.dataParser = dataParser;
+        this.metrics = new IngestionMetrics("file://" + directoryPath);
+    }
+
+    /**
+     * Returns the ingestion metrics of the directory, which are registered
+     * with JMX while {@link #readData(DataStorage)} runs.
+     *
+     * @return the metrics
+     */
+    public IngestionMetrics getMetrics() {
+        return metrics;
     }
 
 
@@ -42,12 +54,19 @@ public class FileDataReader implements DataReader {
         File directory = new File(directoryPath);
         if(directory.isDirectory()) {
             logger.info("Reading directory: " + directoryPath);
-            for(File file : directory.listFiles()) {
-                if(file.isFile() && file.getName().endsWith(".txt")) {
-                    logger.info("Reading file: " + file.getName());
-                    parseFile(file, dataStorage);
+            metrics.register();
+            try {
+                for(File file : directory.listFiles()) {
+                    if(file.isFile() && file.getName().endsWith(".txt")) {
+                        logger.info("Reading file: " + file.getName());
+                        parseFile(file, dataStorage);
+                    }
                 }
+            } finally {
+                metrics.unregister();
             }
+            logger.info("Read " + metrics.getLinesRead() + " lines with " + metrics.getParseErrors()
+                    + " invalid from " + directoryPath);
         } else {
             logger.severe("Provided path is not a directory. " + directoryPath);
         }
@@ -66,9 +85,9 @@ public class FileDataReader implements DataReader {
             int lineNumber = 0;
             while ((line = reader.readLine()) != null) {
                 lineNumber++;
-                logger.info("Parsing line: " + lineNumber + line);
-                dataParser.parse(line, dataStorage);
+                DataParser.parse(line, dataStorage, metrics);
             }
+            logger.info("Parsed " + lineNumber + " lines of " + file.getName());
         } catch (IOException e) {
             logger.severe("Failed to read file: " + file.getName() + e.getMessage());
             throw e;
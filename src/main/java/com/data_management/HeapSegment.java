@@ -0,0 +1,69 @@
+package com.data_management;
+
+/**
+ * A {@link Segment} whose samples are held in Java arrays.
+ * <p>
+ * The head of every {@link TimeSeries} is a heap segment. It has a single
+ * writer (the owning series, under its lock) and any number of lock-free
+ * readers. The writer stores a sample into the arrays before publishing it
+ * through the volatile {@code size}, so a reader that reads the size once sees
+ * a consistent prefix of the segment.
+ * </p>
+ */
+final class HeapSegment extends Segment {
+
+    final long[] timestamps;
+    final double[] values;
+    volatile int size;
+
+    HeapSegment(int capacity) {
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    HeapSegment(long[] timestamps, double[] values, int size) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Returns whether the segment has no room for another sample.
+     *
+     * @return true if the segment is full
+     */
+    boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    int capacity() {
+        return timestamps.length;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    @Override
+    double valueAt(int index) {
+        return values[index];
+    }
+
+    @Override
+    void copyTo(int from, long[] timestamps, double[] values, int offset, int length) {
+        System.arraycopy(this.timestamps, from, timestamps, offset, length);
+        System.arraycopy(this.values, from, values, offset, length);
+    }
+
+    @Override
+    long heapBytes() {
+        // Object header and fields, plus two array headers
+        return 24 + 32 + (long) timestamps.length * (Long.BYTES + Double.BYTES);
+    }
+}
@@ -0,0 +1,253 @@
+package com.data_management;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Throughput, error and latency figures of one data source, such as a file
+ * directory or a network endpoint, updated by the reader that ingests it.
+ * <p>
+ * Readers count lines and bytes, parse errors by {@link ParseError}, and time
+ * their parse and store steps into {@link LatencyHistogram}s; the timestamp of
+ * the newest stored record gives the source's lag. All updates are lock-free
+ * counter increments, so the metrics are cheap enough to update per line,
+ * unlike logging. While a reader runs, its metrics are registered as an MXBean
+ * named {@code com.data_management:type=IngestionMetrics,source=<source>}, so
+ * they can be watched with any JMX console.
+ * </p>
+ */
+public final class IngestionMetrics implements IngestionMetricsMXBean {
+
+    private static final Logger logger = Logger.getLogger(IngestionMetrics.class.getName());
+    private static final long MIN_RATE_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final String source;
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final Map<ParseError, LongAdder> parseErrors = new EnumMap<>(ParseError.class);
+    private final LongAccumulator newestTimestamp = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram storeLatency = new LatencyHistogram();
+    private ObjectName name;
+
+    // Last rate reading, guarded by this
+    private long rateTime = System.nanoTime();
+    private long rateLines;
+    private long rateBytes;
+    private double linesPerSecond;
+    private double bytesPerSecond;
+
+    /**
+     * Creates metrics for a source, without registering them.
+     *
+     * @param source the name of the data source
+     */
+    public IngestionMetrics(String source) {
+        this.source = source;
+        for (ParseError error : ParseError.values()) {
+            parseErrors.put(error, new LongAdder());
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing metrics
+     * registered earlier for the same source. Failures are logged, since
+     * ingestion works without JMX.
+     */
+    public synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("com.data_management:type=IngestionMetrics,source="
+                    + ObjectName.quote(source));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException e) {
+            logger.warning("Failed to register ingestion metrics of " + source + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the metrics from the MBean server, if this instance registered
+     * them. The figures stay readable through this object.
+     */
+    public synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.warning("Failed to unregister ingestion metrics of " + source + ": " + e.getMessage());
+        }
+        name = null;
+    }
+
+    /**
+     * Counts input that was parsed in one step and the time it took.
+     *
+     * @param lineCount the number of lines or frames parsed
+     * @param byteCount the number of bytes parsed
+     * @param nanos     the time it took, in nanoseconds
+     */
+    public void recordParse(long lineCount, long byteCount, long nanos) {
+        lines.add(lineCount);
+        bytes.add(byteCount);
+        parseLatency.record(nanos);
+    }
+
+    /**
+     * Counts a line that was not a valid record.
+     *
+     * @param error the reason
+     */
+    public void recordParseError(ParseError error) {
+        parseErrors.get(error).increment();
+    }
+
+    /**
+     * Counts records added to the storage in one step and the time it took.
+     *
+     * @param recordCount     the number of records stored
+     * @param newestTimestamp the largest timestamp among them
+     * @param nanos           the time it took, in nanoseconds
+     */
+    public void recordStore(long recordCount, long newestTimestamp, long nanos) {
+        records.add(recordCount);
+        this.newestTimestamp.accumulate(newestTimestamp);
+        storeLatency.record(nanos);
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public long getLinesRead() {
+        return lines.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getRecordsStored() {
+        return records.sum();
+    }
+
+    @Override
+    public synchronized double getLinesPerSecond() {
+        updateRates();
+        return linesPerSecond;
+    }
+
+    @Override
+    public synchronized double getBytesPerSecond() {
+        updateRates();
+        return bytesPerSecond;
+    }
+
+    private void updateRates() {
+        long now = System.nanoTime();
+        long elapsed = now - rateTime;
+        if (elapsed < MIN_RATE_INTERVAL_NANOS) {
+            return;
+        }
+        long currentLines = lines.sum();
+        long currentBytes = bytes.sum();
+        linesPerSecond = (currentLines - rateLines) * 1e9 / elapsed;
+        bytesPerSecond = (currentBytes - rateBytes) * 1e9 / elapsed;
+        rateTime = now;
+        rateLines = currentLines;
+        rateBytes = currentBytes;
+    }
+
+    @Override
+    public long getParseErrors() {
+        long total = 0;
+        for (LongAdder count : parseErrors.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of lines rejected for one reason.
+     *
+     * @param error the reason
+     * @return the number of lines
+     */
+    public long getParseErrors(ParseError error) {
+        return parseErrors.get(error).sum();
+    }
+
+    @Override
+    public Map<String, Long> getParseErrorsByReason() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<ParseError, LongAdder> entry : parseErrors.entrySet()) {
+            counts.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getLagMillis() {
+        long newest = newestTimestamp.get();
+        return newest == Long.MIN_VALUE ? -1 : Math.max(0, System.currentTimeMillis() - newest);
+    }
+
+    @Override
+    public long getParseLatencyP50Micros() {
+        return parseLatency.quantile(0.5) / 1000;
+    }
+
+    @Override
+    public long getParseLatencyP99Micros() {
+        return parseLatency.quantile(0.99) / 1000;
+    }
+
+    @Override
+    public long getStoreLatencyP50Micros() {
+        return storeLatency.quantile(0.5) / 1000;
+    }
+
+    @Override
+    public long getStoreLatencyP99Micros() {
+        return storeLatency.quantile(0.99) / 1000;
+    }
+
+    @Override
+    public synchronized void reset() {
+        lines.reset();
+        bytes.reset();
+        records.reset();
+        for (LongAdder count : parseErrors.values()) {
+            count.reset();
+        }
+        newestTimestamp.reset();
+        parseLatency.reset();
+        storeLatency.reset();
+        rateTime = System.nanoTime();
+        rateLines = 0;
+        rateBytes = 0;
+        linesPerSecond = 0;
+        bytesPerSecond = 0;
+    }
+}
@@ -0,0 +1,83 @@
+package com.data_management;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the {@link IngestionMetrics} of one data source. Latencies
+ * are in microseconds and rates are measured over the interval since the
+ * previous rate reading, of at least one second.
+ */
+public interface IngestionMetricsMXBean {
+
+    /**
+     * @return the name of the data source, e.g. a directory or server address
+     */
+    String getSource();
+
+    /**
+     * @return the number of lines or frames read
+     */
+    long getLinesRead();
+
+    /**
+     * @return the number of bytes read
+     */
+    long getBytesRead();
+
+    /**
+     * @return the number of records added to the storage
+     */
+    long getRecordsStored();
+
+    /**
+     * @return the lines read per second
+     */
+    double getLinesPerSecond();
+
+    /**
+     * @return the bytes read per second
+     */
+    double getBytesPerSecond();
+
+    /**
+     * @return the number of lines that were not valid records
+     */
+    long getParseErrors();
+
+    /**
+     * @return the number of invalid lines by {@link ParseError} name
+     */
+    Map<String, Long> getParseErrorsByReason();
+
+    /**
+     * @return how far the newest stored record's timestamp lies behind the
+     *         current time, in milliseconds, or -1 if nothing was stored
+     */
+    long getLagMillis();
+
+    /**
+     * @return the median time to parse one unit of input, a line, buffer or
+     *         chunk depending on the source
+     */
+    long getParseLatencyP50Micros();
+
+    /**
+     * @return the 99th percentile of the time to parse one unit of input
+     */
+    long getParseLatencyP99Micros();
+
+    /**
+     * @return the median time of one store call
+     */
+    long getStoreLatencyP50Micros();
+
+    /**
+     * @return the 99th percentile of the time of one store call
+     */
+    long getStoreLatencyP99Micros();
+
+    /**
+     * Sets all counters and histograms back to zero.
+     */
+    void reset();
+}
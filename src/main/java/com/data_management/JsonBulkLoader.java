@@ -0,0 +1,212 @@
+package com.data_management;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bulk loads JSON exports in the {@code sample_data} layout into a
+ * {@link DataStorage}.
+ * <p>
+ * Every file is streamed with Gson's {@link JsonReader}, so no intermediate
+ * list of records is built and memory use does not depend on the file size.
+ * Files are loaded in parallel on a fork-join pool. Each task collects the
+ * records it reads in a {@link PatientBatcher}, so the storage sees a few
+ * large per-patient appends instead of one call per record. Progress is
+ * exposed through counters rather than per-record output.
+ * </p>
+ */
+public class JsonBulkLoader {
+
+    private static final Logger logger = Logger.getLogger(JsonBulkLoader.class.getName());
+
+    private final DataStorage dataStorage;
+    private final int parallelism;
+    private final AtomicLong recordsLoaded = new AtomicLong();
+    private final AtomicLong invalidRecords = new AtomicLong();
+    private final AtomicLong filesLoaded = new AtomicLong();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+
+    /**
+     * Creates a loader that uses one thread per available processor.
+     *
+     * @param dataStorage the storage to load the records into
+     */
+    public JsonBulkLoader(DataStorage dataStorage) {
+        this(dataStorage, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a loader.
+     *
+     * @param dataStorage the storage to load the records into
+     * @param parallelism the number of files to load at the same time
+     */
+    public JsonBulkLoader(DataStorage dataStorage, int parallelism) {
+        this.dataStorage = dataStorage;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Loads the given files and waits until all of them are loaded.
+     *
+     * @param files the JSON files to load
+     * @throws IOException if a file cannot be read or is not valid JSON; the
+     *                     other files are still loaded
+     */
+    public void load(List<Path> files) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Path file : files) {
+                tasks.add(pool.submit(() -> {
+                    try {
+                        loadFile(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to load " + file, e);
+                    }
+                }));
+            }
+            IOException failure = null;
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    IOException cause = e.getCause() instanceof UncheckedIOException
+                            ? ((UncheckedIOException) e.getCause()).getCause()
+                            : new IOException(e.getCause());
+                    logger.severe(e.getCause().getMessage());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while loading files", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Streams one JSON file into the storage.
+     *
+     * @param file the file to load
+     * @throws IOException if the file cannot be read or is not valid JSON
+     */
+    void loadFile(Path file) throws IOException {
+        PatientBatcher batcher = new PatientBatcher(dataStorage, recordsLoaded);
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                JsonReader reader = new JsonReader(in)) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                int patientId = -1;
+                String recordType = null;
+                double measurementValue = Double.NaN;
+                long timestamp = Long.MIN_VALUE;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    switch (field) {
+                        case "patientId":
+                            patientId = reader.nextInt();
+                            break;
+                        case "recordType":
+                            recordType = reader.nextString();
+                            break;
+                        case "measurementValue":
+                            measurementValue = reader.nextDouble();
+                            break;
+                        case "timestamp":
+                            timestamp = reader.nextLong();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (patientId < 0 || recordType == null || Double.isNaN(measurementValue)
+                        || timestamp == Long.MIN_VALUE) {
+                    invalidRecords.incrementAndGet();
+                    continue;
+                }
+                int typeId;
+                try {
+                    typeId = RecordTypeRegistry.intern(recordType);
+                } catch (IllegalArgumentException e) {
+                    // The type registry is full
+                    invalidRecords.incrementAndGet();
+                    continue;
+                }
+                batcher.addPatientData(patientId, typeId, measurementValue, timestamp);
+            }
+            reader.endArray();
+        } finally {
+            batcher.flush();
+        }
+        filesLoaded.incrementAndGet();
+        bytesLoaded.addAndGet(Files.size(file));
+    }
+
+    /**
+     * Returns the number of records loaded into the storage so far.
+     *
+     * @return the number of loaded records
+     */
+    public long getRecordsLoaded() {
+        return recordsLoaded.get();
+    }
+
+    /**
+     * Returns the number of records skipped because a field was missing or
+     * their record type could not be registered.
+     *
+     * @return the number of invalid records
+     */
+    public long getInvalidRecords() {
+        return invalidRecords.get();
+    }
+
+    /**
+     * Returns the number of files that have been loaded completely.
+     *
+     * @return the number of loaded files
+     */
+    public long getFilesLoaded() {
+        return filesLoaded.get();
+    }
+
+    /**
+     * Returns the total size of the files that have been loaded completely.
+     *
+     * @return the number of bytes loaded
+     */
+    public long getBytesLoaded() {
+        return bytesLoaded.get();
+    }
+}
@@ -0,0 +1,180 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.DoublePredicate;
+
+/**
+ * Index of the series of every patient by record type, used to answer
+ * ward-wide questions about the latest value of a type, such as "which
+ * patients' latest blood saturation is below 92%".
+ * <p>
+ * A series is registered once, when a patient's first record of a type is
+ * added. Series keep their samples sorted by time, so a series' latest sample
+ * is simply its last one and is kept up to date by every append without any
+ * work in the index. A query therefore visits one sample per patient and its
+ * cost does not depend on the number of records.
+ * </p>
+ * <p>
+ * Registrations are serialized by the index's monitor; queries never lock and
+ * see every series registered before they started.
+ * </p>
+ */
+final class LatestValueIndex {
+
+    private volatile TypeEntry[] entries = new TypeEntry[0];
+
+    /**
+     * Adds a newly created series to the index.
+     *
+     * @param typeId the registry id of the series' record type
+     * @param series the series to add
+     */
+    synchronized void register(int typeId, TimeSeries series) {
+        TypeEntry[] current = entries;
+        if (typeId >= current.length) {
+            current = Arrays.copyOf(current, typeId + 1);
+            entries = current;
+        }
+        if (current[typeId] == null) {
+            current[typeId] = new TypeEntry();
+            entries = current;
+        }
+        current[typeId].add(series);
+    }
+
+    /**
+     * Removes a series from the index, for instance when its patient moves to
+     * another storage node.
+     *
+     * @param typeId the registry id of the series' record type
+     * @param series the series to remove
+     */
+    synchronized void unregister(int typeId, TimeSeries series) {
+        TypeEntry entry = entry(typeId);
+        if (entry != null) {
+            entry.remove(series);
+        }
+    }
+
+    /**
+     * Returns the latest record of every patient whose latest value of the
+     * given type matches the predicate.
+     *
+     * @param typeId    the registry id of the record type
+     * @param predicate the condition on the latest value
+     * @return the matching latest records, in no particular order
+     */
+    List<PatientRecord> find(int typeId, DoublePredicate predicate) {
+        List<PatientRecord> matches = new ArrayList<>();
+        TypeEntry entry = entry(typeId);
+        if (entry == null) {
+            return matches;
+        }
+        int size = entry.size;
+        TimeSeries[] series = entry.series;
+        for (int i = 0; i < size; i++) {
+            Segment segment = series[i].latestSegment();
+            if (segment != null) {
+                int last = segment.size() - 1;
+                if (predicate.test(segment.valueAt(last))) {
+                    matches.add(latestRecord(series[i], typeId, segment, last));
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the latest records of the {@code k} patients with the highest or
+     * lowest latest value of the given type.
+     *
+     * @param typeId the registry id of the record type
+     * @param k      the maximum number of patients to return
+     * @param lowest true to return the lowest values, false for the highest
+     * @return the latest records, best first
+     */
+    List<PatientRecord> top(int typeId, int k, boolean lowest) {
+        TypeEntry entry = entry(typeId);
+        if (entry == null || k <= 0) {
+            return new ArrayList<>();
+        }
+        Comparator<PatientRecord> order = Comparator.comparingDouble(PatientRecord::getMeasurementValue);
+        if (lowest) {
+            order = order.reversed();
+        }
+        int size = entry.size;
+        TimeSeries[] series = entry.series;
+        // Keeps the best k seen so far with the worst of them at the head; k may ask for all patients
+        PriorityQueue<PatientRecord> best = new PriorityQueue<>(Math.max(1, Math.min(k, size)), order);
+        for (int i = 0; i < size; i++) {
+            Segment segment = series[i].latestSegment();
+            if (segment == null) {
+                continue;
+            }
+            int last = segment.size() - 1;
+            double value = segment.valueAt(last);
+            if (best.size() < k) {
+                best.add(latestRecord(series[i], typeId, segment, last));
+            } else if (lowest ? value < best.peek().getMeasurementValue()
+                    : value > best.peek().getMeasurementValue()) {
+                best.poll();
+                best.add(latestRecord(series[i], typeId, segment, last));
+            }
+        }
+        List<PatientRecord> result = new ArrayList<>(best);
+        result.sort(Collections.reverseOrder(order));
+        return result;
+    }
+
+    private TypeEntry entry(int typeId) {
+        TypeEntry[] current = entries;
+        return typeId >= 0 && typeId < current.length ? current[typeId] : null;
+    }
+
+    private static PatientRecord latestRecord(TimeSeries series, int typeId, Segment segment, int index) {
+        return new PatientRecord(series.patientId(), segment.valueAt(index), RecordTypeRegistry.nameOf(typeId),
+                segment.timestampAt(index));
+    }
+
+    /**
+     * The series of one record type. The array is replaced when it grows and
+     * is published before the size, so readers that read the size first never
+     * see a missing entry. Removal publishes a copy with the last series
+     * moved into the gap before the smaller size, so a reader never sees an
+     * empty slot, though it may see the moved series twice.
+     */
+    private static final class TypeEntry {
+        private volatile TimeSeries[] series = new TimeSeries[16];
+        private volatile int size;
+
+        void add(TimeSeries added) {
+            TimeSeries[] current = series;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size << 1);
+            }
+            current[size] = added;
+            series = current;
+            size++;
+        }
+
+        void remove(TimeSeries removed) {
+            TimeSeries[] current = series;
+            for (int i = 0; i < size; i++) {
+                if (current[i] == removed) {
+                    // Move the last series into the gap of a copy, leaving it
+                    // in its old slot too for readers of the old size
+                    TimeSeries[] copy = current.clone();
+                    copy[i] = current[size - 1];
+                    series = copy;
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.data_management;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often a recurring event is logged, e.g. a malformed input line.
+ * At most one event per interval is let through, across all threads; the
+ * others are only counted, so that a flood of bad input costs a counter
+ * increment per line instead of log I/O.
+ */
+public final class LogSampler {
+
+    private final long intervalNanos;
+    private final AtomicLong nextLogTime = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Creates a sampler.
+     *
+     * @param intervalMillis the minimum time between two logged events
+     */
+    public LogSampler(long intervalMillis) {
+        this.intervalNanos = intervalMillis * 1_000_000;
+    }
+
+    /**
+     * Decides whether an event should be logged.
+     *
+     * @return the number of events suppressed since the last logged one if
+     *         this event should be logged, or -1 if it should not
+     */
+    public long sample() {
+        long now = System.nanoTime();
+        long next = nextLogTime.get();
+        if ((next != Long.MIN_VALUE && now - next < 0) || !nextLogTime.compareAndSet(next, now + intervalNanos)) {
+            suppressed.incrementAndGet();
+            return -1;
+        }
+        return suppressed.getAndSet(0);
+    }
+}
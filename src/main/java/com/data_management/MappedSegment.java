@@ -0,0 +1,67 @@
+package com.data_management;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A sealed {@link Segment} whose samples live in a memory-mapped file written
+ * by {@link MappedSegmentStore}.
+ * <p>
+ * The samples are read straight from the mapping, so they occupy no heap and
+ * the operating system pages them in and out as queries touch them.
+ * </p>
+ */
+final class MappedSegment extends Segment {
+
+    private final LongBuffer timestamps;
+    private final DoubleBuffer values;
+    private final int size;
+
+    /**
+     * Creates a segment over {@code size} timestamps followed by {@code size}
+     * values, starting at the buffer's current position.
+     *
+     * @param buffer the mapped buffer positioned at the first timestamp
+     * @param size   the number of samples in the segment
+     */
+    MappedSegment(ByteBuffer buffer, int size) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(view.position() + size * Long.BYTES);
+        this.timestamps = view.slice().asLongBuffer();
+        view.position(view.limit()).limit(view.limit() + size * Double.BYTES);
+        this.values = view.slice().asDoubleBuffer();
+        this.size = size;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    long timestampAt(int index) {
+        return timestamps.get(index);
+    }
+
+    @Override
+    double valueAt(int index) {
+        return values.get(index);
+    }
+
+    @Override
+    void copyTo(int from, long[] timestamps, double[] values, int offset, int length) {
+        LongBuffer timestampView = this.timestamps.duplicate();
+        timestampView.position(from);
+        timestampView.get(timestamps, offset, length);
+        DoubleBuffer valueView = this.values.duplicate();
+        valueView.position(from);
+        valueView.get(values, offset, length);
+    }
+
+    @Override
+    long heapBytes() {
+        // The samples are off-heap; only the buffer views are on it
+        return 24 + 2 * 48;
+    }
+}
@@ -0,0 +1,362 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Persists sealed time-series segments to one memory-mapped file per patient.
+ * <p>
+ * A patient file is a sequence of windows, each mapped once with
+ * {@link FileChannel#map}. A window starts with a small header holding its
+ * length and is filled with segment blocks:
+ * </p>
+ * <pre>
+ *   int magic, int count, int index, int generation, short typeLength,
+ *   byte[typeLength] type, padding to 8 bytes, long[count] timestamps,
+ *   double[count] values
+ * </pre>
+ * <p>
+ * The block magic is written last, so a block is only visible on reopen once
+ * it is complete. The {@code index} numbers the segments of a series in
+ * order; a later block with the same index replaces an earlier one, which is
+ * how segments changed by late samples are rewritten. Indexes of blocks lost
+ * to damage are never reused. Reopening a store maps
+ * the windows and hands out {@link MappedSegment}s over them without parsing
+ * or copying any sample.
+ * </p>
+ * <p>
+ * The {@code generation} is the generation of the {@link WriteAheadLog} in
+ * use when the block was written. Blocks are appended in generation order,
+ * so the blocks whose records a log still holds form the tail of every
+ * window; {@link #reload} discards them before the log is replayed.
+ * </p>
+ */
+final class MappedSegmentStore implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(MappedSegmentStore.class.getName());
+
+    static final int WINDOW_SIZE = 1 << 22;
+    private static final int WINDOW_MAGIC = 0x57494E31; // "WIN1"
+    private static final int BLOCK_MAGIC = 0x53454732; // "SEG2"
+    private static final int WINDOW_HEADER = 8;
+    private static final int BLOCK_HEADER = 18;
+    private static final String FILE_PREFIX = "patient-";
+    private static final String FILE_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final Map<Integer, PatientFile> files = new ConcurrentHashMap<>();
+    // Set once a segment could not be written; its records then only exist on the heap
+    private volatile boolean persistFailed;
+    private volatile int generation; // Generation of the blocks written from now on
+    private int lastGeneration = -1; // Highest generation found by load
+
+    /**
+     * Receives the segments of one series while a store is reopened.
+     */
+    interface SeriesLoader {
+        /**
+         * Called once per patient and record type found in the store.
+         *
+         * @param patientId  the patient the series belongs to
+         * @param recordType the record type of the series
+         * @param segments   the sealed segments of the series, in series order
+         */
+        void load(int patientId, String recordType, List<Segment> segments);
+    }
+
+    /**
+     * Creates a store in the given directory, creating the directory if needed.
+     *
+     * @param directory the directory holding the patient files
+     * @throws IOException if the directory cannot be created
+     */
+    MappedSegmentStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Maps every patient file in the store and passes its series to the loader.
+     *
+     * @param loader the receiver of the reopened series
+     * @throws IOException if a patient file cannot be opened or mapped
+     */
+    void load(SeriesLoader loader) throws IOException {
+        load(loader, Integer.MAX_VALUE);
+        generation = Math.max(lastGeneration, 0);
+    }
+
+    /**
+     * Closes every patient file, discards the blocks written in the given
+     * generation or later and maps the files again. The series passed to the
+     * loader are the ones the store held when that generation started.
+     *
+     * @param discardFrom the first generation to discard
+     * @param loader      the receiver of the reopened series
+     * @throws IOException if a patient file cannot be closed, rewritten or
+     *                     mapped
+     */
+    void reload(int discardFrom, SeriesLoader loader) throws IOException {
+        close();
+        lastGeneration = -1;
+        load(loader, discardFrom);
+    }
+
+    /**
+     * Returns the highest generation of the blocks found when the store was
+     * loaded.
+     *
+     * @return the generation, or -1 if the store held no blocks
+     */
+    int lastGeneration() {
+        return lastGeneration;
+    }
+
+    /**
+     * Sets the generation recorded with the blocks written from now on.
+     *
+     * @param generation the generation of the write-ahead log in use
+     */
+    void useGeneration(int generation) {
+        this.generation = generation;
+    }
+
+    private void load(SeriesLoader loader, int discardFrom) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                int patientId;
+                try {
+                    patientId = Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    logger.warning("Skipping unrecognised segment file: " + path);
+                    continue;
+                }
+                PatientFile file = new PatientFile(path);
+                files.put(patientId, file);
+                Map<String, List<Segment>> seriesByType = file.scan(discardFrom);
+                lastGeneration = Math.max(lastGeneration, file.lastGeneration);
+                for (Map.Entry<String, List<Segment>> series : seriesByType.entrySet()) {
+                    loader.load(patientId, series.getKey(), series.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a sealed segment to the patient's file and returns a mapped view of
+     * the written block that can replace the heap segment.
+     *
+     * @param patientId the patient the segment belongs to
+     * @param typeId    the registry id of the segment's record type
+     * @param index     the position of the segment in its series
+     * @param segment   the segment to write
+     * @return a mapped segment with the same samples
+     * @throws IOException if the patient file cannot be extended
+     */
+    Segment persist(int patientId, int typeId, int index, Segment segment) throws IOException {
+        try {
+            PatientFile file = files.get(patientId);
+            if (file == null) {
+                synchronized (files) {
+                    file = files.get(patientId);
+                    if (file == null) {
+                        file = new PatientFile(directory.resolve(FILE_PREFIX + patientId + FILE_SUFFIX));
+                        files.put(patientId, file);
+                    }
+                }
+            }
+            return file.append(RecordTypeRegistry.nameOf(typeId), index, generation, segment);
+        } catch (IOException e) {
+            persistFailed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether a segment could not be persisted since the store was
+     * opened. The records of such a segment stay on the heap and are lost
+     * when the process stops unless a write-ahead log still holds them.
+     *
+     * @return true if a call to {@link #persist} failed
+     */
+    boolean hasPersistFailed() {
+        return persistFailed;
+    }
+
+    /**
+     * Flushes all mapped windows to disk and closes the patient files.
+     *
+     * @throws IOException if a file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        for (PatientFile file : files.values()) {
+            file.close();
+        }
+        files.clear();
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * The mapped windows of a single patient file.
+     */
+    private static final class PatientFile {
+        private final Path path;
+        private final FileChannel channel;
+        private final List<MappedByteBuffer> windows = new ArrayList<>();
+        private MappedByteBuffer current;
+        private long currentOffset;
+        private int currentPosition;
+        private int lastGeneration = -1;
+
+        PatientFile(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Maps the existing windows of the file and collects its segments by
+         * record type. Blocks of the given generation or later are erased.
+         * Writing resumes after the last complete block.
+         */
+        synchronized Map<String, List<Segment>> scan(int discardFrom) throws IOException {
+            Map<String, List<Segment>> seriesByType = new LinkedHashMap<>();
+            long fileSize = channel.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(WINDOW_HEADER);
+            while (offset + WINDOW_HEADER <= fileSize) {
+                header.clear();
+                channel.read(header, offset);
+                int length = header.getInt(4);
+                if (header.getInt(0) != WINDOW_MAGIC || length <= WINDOW_HEADER || offset + length > fileSize) {
+                    logger.severe("Ignoring damaged data at offset " + offset + " of " + path);
+                    break;
+                }
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+                windows.add(window);
+                int position = WINDOW_HEADER;
+                while (position + BLOCK_HEADER <= length && window.getInt(position) == BLOCK_MAGIC) {
+                    int count = window.getInt(position + 4);
+                    int index = window.getInt(position + 8);
+                    int generation = window.getInt(position + 12);
+                    int typeLength = window.getShort(position + 16);
+                    int dataOffset = position + align(BLOCK_HEADER + typeLength);
+                    int blockEnd = dataOffset + count * (Long.BYTES + Double.BYTES);
+                    if (count < 0 || index < 0 || blockEnd > length) {
+                        logger.severe("Ignoring damaged block at offset " + (offset + position) + " of " + path);
+                        break;
+                    }
+                    if (generation >= discardFrom) {
+                        // Later blocks are of the same or a later generation, so the rest of the window goes
+                        erase(window, position, length);
+                        break;
+                    }
+                    lastGeneration = Math.max(lastGeneration, generation);
+                    byte[] type = new byte[typeLength];
+                    for (int i = 0; i < typeLength; i++) {
+                        type[i] = window.get(position + BLOCK_HEADER + i);
+                    }
+                    List<Segment> segments = seriesByType.computeIfAbsent(
+                            new String(type, StandardCharsets.UTF_8), k -> new ArrayList<>());
+                    while (segments.size() <= index) {
+                        segments.add(null);
+                    }
+                    ByteBuffer data = window.duplicate();
+                    data.position(dataOffset);
+                    segments.set(index, new MappedSegment(data, count));
+                    position = blockEnd;
+                }
+                current = window;
+                currentOffset = offset;
+                currentPosition = position;
+                offset += length;
+            }
+            return seriesByType;
+        }
+
+        /**
+         * Zeroes a window from the given position on, so that blocks written
+         * there later are not followed by the remains of erased ones.
+         */
+        private static void erase(MappedByteBuffer window, int from, int length) {
+            int i = from;
+            for (; i + Long.BYTES <= length; i += Long.BYTES) {
+                window.putLong(i, 0L);
+            }
+            for (; i < length; i++) {
+                window.put(i, (byte) 0);
+            }
+            window.force();
+        }
+
+        synchronized Segment append(String recordType, int index, int generation, Segment segment)
+                throws IOException {
+            byte[] type = recordType.getBytes(StandardCharsets.UTF_8);
+            int count = segment.size();
+            int dataOffset = align(BLOCK_HEADER + type.length);
+            int length = dataOffset + count * (Long.BYTES + Double.BYTES);
+            if (current == null || currentPosition + length > current.capacity()) {
+                openWindow(Math.max(WINDOW_SIZE, align(WINDOW_HEADER + length)));
+            }
+
+            int start = currentPosition;
+            MappedByteBuffer window = current;
+            window.putInt(start + 4, count);
+            window.putInt(start + 8, index);
+            window.putInt(start + 12, generation);
+            window.putShort(start + 16, (short) type.length);
+            for (int i = 0; i < type.length; i++) {
+                window.put(start + BLOCK_HEADER + i, type[i]);
+            }
+            int timestampOffset = start + dataOffset;
+            int valueOffset = timestampOffset + count * Long.BYTES;
+            for (int i = 0; i < count; i++) {
+                window.putLong(timestampOffset + i * Long.BYTES, segment.timestampAt(i));
+                window.putDouble(valueOffset + i * Double.BYTES, segment.valueAt(i));
+            }
+            window.putInt(start, BLOCK_MAGIC);
+            currentPosition = start + length;
+
+            ByteBuffer data = window.duplicate();
+            data.position(timestampOffset);
+            return new MappedSegment(data, count);
+        }
+
+        private void openWindow(int length) throws IOException {
+            long offset = current == null ? channel.size() : currentOffset + current.capacity();
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+            window.putInt(0, WINDOW_MAGIC);
+            window.putInt(4, length);
+            windows.add(window);
+            current = window;
+            currentOffset = offset;
+            currentPosition = WINDOW_HEADER;
+        }
+
+        synchronized void close() throws IOException {
+            for (MappedByteBuffer window : windows) {
+                window.force();
+            }
+            channel.close();
+        }
+    }
+}
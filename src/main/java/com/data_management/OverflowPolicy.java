@@ -0,0 +1,25 @@
+package com.data_management;
+
+/**
+ * What a {@link Subscription} does with a new record when its queue is full
+ * because the subscriber cannot keep up.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discards the new record. Ingestion is never slowed down, and the
+     * subscriber sees the oldest records it missed rather than the newest.
+     */
+    DROP,
+    /**
+     * Replaces the oldest queued record of the same patient and type with the
+     * new one, or the oldest queued record if there is none. The subscriber
+     * always gets the latest value of every series, which suits dashboards.
+     */
+    COALESCE,
+    /**
+     * Makes the thread adding the record wait until the subscriber has room.
+     * No record is lost, at the cost of slowing ingestion down to the speed of
+     * the subscriber.
+     */
+    BLOCK
+}
@@ -0,0 +1,254 @@
+package com.data_management;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Reads the {@code .txt} files of a directory, in the CSV format of
+ * {@link DataParser}, with all available cores.
+ * <p>
+ * Every file is split into chunks of about {@code chunkSize} bytes whose
+ * boundaries are moved to the next line break, so each chunk holds whole
+ * lines. Each chunk is memory-mapped and parsed in place by a
+ * {@link CsvRecordParser} on a fork-join pool, and its records reach the
+ * storage through a {@link PatientBatcher} as per-patient batches. Chunks of
+ * one file are parsed concurrently, so the records of a patient can arrive
+ * out of order; the storage merges them, which requires the storage's
+ * lateness window to be left open during a backfill.
+ * </p>
+ * <p>
+ * Unlike {@link FileDataReader} nothing is logged per line; progress is
+ * exposed through counters and the directory's {@link IngestionMetrics},
+ * which time every chunk's parsing and every batch appended to the storage.
+ * </p>
+ */
+public class ParallelFileDataReader implements DataReader {
+
+    private static final Logger logger = Logger.getLogger(ParallelFileDataReader.class.getName());
+
+    static final int DEFAULT_CHUNK_SIZE = 16 << 20;
+    private static final int BOUNDARY_SCAN_SIZE = 4096;
+
+    private final String directoryPath;
+    private final int parallelism;
+    private final int chunkSize;
+    private final AtomicLong recordsLoaded = new AtomicLong();
+    private final AtomicLong invalidLines = new AtomicLong();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+    private final IngestionMetrics metrics;
+
+    /**
+     * Creates a reader that uses one thread per available processor.
+     *
+     * @param directoryPath the path to the directory containing the data files
+     */
+    public ParallelFileDataReader(String directoryPath) {
+        this(directoryPath, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param directoryPath the path to the directory containing the data files
+     * @param parallelism   the number of chunks to parse at the same time
+     * @param chunkSize     the approximate number of bytes per chunk
+     * @throws IllegalArgumentException if the parallelism or chunk size is not
+     *                                  positive
+     */
+    public ParallelFileDataReader(String directoryPath, int parallelism, int chunkSize) {
+        if (parallelism <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Parallelism and chunk size must be positive");
+        }
+        this.directoryPath = directoryPath;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.metrics = new IngestionMetrics("file://" + directoryPath);
+    }
+
+    /**
+     * Reads all {@code .txt} files of the directory into the storage and waits
+     * until all of them are read.
+     *
+     * @param dataStorage the storage to add the records to
+     * @throws IOException if the path is not a directory or a file cannot be
+     *                     read; the other chunks are still read
+     */
+    @Override
+    public void readData(DataStorage dataStorage) throws IOException {
+        File[] files = new File(directoryPath).listFiles((dir, name) -> name.endsWith(".txt"));
+        if (files == null) {
+            throw new IOException("Provided path is not a directory: " + directoryPath);
+        }
+        long start = System.nanoTime();
+        metrics.register();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (File file : files) {
+                if (!file.isFile()) {
+                    continue;
+                }
+                Path path = file.toPath();
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    long[] boundaries = split(channel);
+                    for (int i = 0; i + 1 < boundaries.length; i++) {
+                        long from = boundaries[i];
+                        long to = boundaries[i + 1];
+                        tasks.add(pool.submit(() -> {
+                            try {
+                                readChunk(path, from, to, dataStorage);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException("Failed to read " + path, e);
+                            }
+                        }));
+                    }
+                }
+            }
+            awaitAll(tasks);
+        } finally {
+            pool.shutdown();
+            metrics.unregister();
+        }
+        logger.info("Read " + recordsLoaded.get() + " records (" + invalidLines.get() + " invalid lines) from "
+                + files.length + " files in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Returns the offsets at which the chunks of a file start, followed by the
+     * file size. Every offset but the first follows a line break.
+     */
+    long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        ByteBuffer scan = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+        long position = chunkSize;
+        while (position < size) {
+            long lineStart = nextLineStart(channel, position, size, scan);
+            if (lineStart >= size) {
+                break;
+            }
+            boundaries.add(lineStart);
+            position = lineStart + chunkSize;
+        }
+        boundaries.add(size);
+        long[] offsets = new long[boundaries.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = boundaries.get(i);
+        }
+        return offsets;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer scan)
+            throws IOException {
+        while (position < size) {
+            scan.clear();
+            int read = channel.read(scan, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private void readChunk(Path path, long from, long to, DataStorage dataStorage) throws IOException {
+        MappedByteBuffer chunk;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        }
+        long start = System.nanoTime();
+        PatientBatcher batcher = new PatientBatcher(dataStorage, recordsLoaded, metrics);
+        CsvRecordParser parser = new CsvRecordParser(batcher, CsvRecordParser.Layout.STORAGE, metrics);
+        try {
+            parser.parseRemaining(chunk);
+        } finally {
+            batcher.flush();
+        }
+        // The appends happen while parsing, so they are taken out of the parse time
+        long parseNanos = System.nanoTime() - start - batcher.getStoreNanos();
+        metrics.recordParse(parser.getRecordCount() + parser.getInvalidCount(), to - from, parseNanos);
+        invalidLines.addAndGet(parser.getInvalidCount());
+        bytesLoaded.addAndGet(to - from);
+    }
+
+    private static void awaitAll(List<ForkJoinTask<?>> tasks) throws IOException {
+        IOException failure = null;
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                IOException cause = e.getCause() instanceof UncheckedIOException
+                        ? ((UncheckedIOException) e.getCause()).getCause()
+                        : new IOException(e.getCause());
+                logger.severe(e.getCause().getMessage());
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading files", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the number of records added to the storage so far.
+     *
+     * @return the number of loaded records
+     */
+    public long getRecordsLoaded() {
+        return recordsLoaded.get();
+    }
+
+    /**
+     * Returns the number of lines skipped because they were not valid records.
+     *
+     * @return the number of invalid lines
+     */
+    public long getInvalidLines() {
+        return invalidLines.get();
+    }
+
+    /**
+     * Returns the ingestion metrics of the directory, which are registered
+     * with JMX while {@link #readData(DataStorage)} runs.
+     *
+     * @return the metrics
+     */
+    public IngestionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of bytes of the chunks read completely.
+     *
+     * @return the number of bytes loaded
+     */
+    public long getBytesLoaded() {
+        return bytesLoaded.get();
+    }
+}
@@ -0,0 +1,18 @@
+package com.data_management;
+
+/**
+ * The reasons for which a line is not accepted as a record, as counted by
+ * {@link CsvRecordParser}, {@link DataParser} and {@link IngestionMetrics}.
+ */
+public enum ParseError {
+    /** The line does not have the expected fields and separators. */
+    FORMAT,
+    /** The patient id is not an integer. */
+    PATIENT_ID,
+    /** The measurement value is not a number. */
+    VALUE,
+    /** The record type is empty, or new while the type registry is full. */
+    RECORD_TYPE,
+    /** The timestamp is not an integer. */
+    TIMESTAMP
+}
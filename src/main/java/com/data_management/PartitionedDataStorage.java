@@ -0,0 +1,526 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * A patient data store spread over several {@link StorageNode}s, so that the
+ * number of patients is not limited by the heap and cores of one JVM.
+ * <p>
+ * Each patient belongs to exactly one node, chosen by consistent hashing:
+ * every node owns {@value #VIRTUAL_NODES} points on a hash ring and a patient
+ * belongs to the node owning the first point at or after the hash of its id.
+ * When a node joins or leaves, only the patients whose owner changes are
+ * moved, about {@code 1/n} of them for {@code n} nodes.
+ * </p>
+ * <p>
+ * Records are streamed to the nodes without waiting for an acknowledgement;
+ * {@link #flush()} waits until every node has stored them. A query sees all
+ * records added through this client before it. The client is safe for
+ * concurrent use; adding or removing a node blocks other calls until the
+ * affected patients have moved.
+ * </p>
+ */
+public class PartitionedDataStorage implements PatientDataStore, Closeable {
+
+    private static final Logger logger = Logger.getLogger(PartitionedDataStorage.class.getName());
+
+    static final int VIRTUAL_NODES = 128;
+
+    private final ReadWriteLock membershipLock = new ReentrantReadWriteLock();
+    private List<NodeConnection> nodes = new ArrayList<>();
+    private Ring ring = new Ring(new ArrayList<>());
+
+    /**
+     * Connects to the given storage nodes.
+     *
+     * @param nodeAddresses the addresses of the nodes
+     * @throws IOException if a node cannot be reached
+     */
+    public PartitionedDataStorage(List<InetSocketAddress> nodeAddresses) throws IOException {
+        List<NodeConnection> connected = new ArrayList<>();
+        try {
+            for (InetSocketAddress address : nodeAddresses) {
+                connected.add(new NodeConnection(address));
+            }
+        } catch (IOException e) {
+            for (NodeConnection node : connected) {
+                node.close();
+            }
+            throw e;
+        }
+        this.nodes = connected;
+        this.ring = new Ring(connected);
+    }
+
+    /**
+     * Adds a record to the node owning the patient.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordType       the type of record
+     * @param timestamp        the time at which the measurement was taken
+     * @throws UncheckedIOException     if the node cannot be reached
+     * @throws IllegalArgumentException if the record type is new and the
+     *                                  {@link RecordTypeRegistry} is full
+     */
+    @Override
+    public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
+        int typeId = RecordTypeRegistry.intern(recordType);
+        membershipLock.readLock().lock();
+        try {
+            ring.owner(patientId).add(patientId, typeId, measurementValue, timestamp);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to send data for patient " + patientId, e);
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the records of a patient from the node owning it.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @return the matching records in timestamp order
+     * @throws UncheckedIOException if the node cannot be reached
+     */
+    @Override
+    public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
+        return query(patientId, StorageNode.ALL_TYPES, startTime, endTime);
+    }
+
+    /**
+     * Retrieves the records of one type of a patient from the node owning it.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the record type, or one of its aliases
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @return the matching records in timestamp order
+     * @throws UncheckedIOException if the node cannot be reached
+     */
+    @Override
+    public List<PatientRecord> getRecords(int patientId, String recordType, long startTime, long endTime) {
+        int typeId = RecordTypeRegistry.lookup(recordType);
+        if (typeId < 0) {
+            return new ArrayList<>();
+        }
+        return query(patientId, typeId, startTime, endTime);
+    }
+
+    private List<PatientRecord> query(int patientId, int typeId, long startTime, long endTime) {
+        membershipLock.readLock().lock();
+        try {
+            return ring.owner(patientId).get(patientId, typeId, startTime, endTime);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to query data of patient " + patientId, e);
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the address of the node owning a patient.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return the address of the owning node
+     */
+    public InetSocketAddress nodeOf(int patientId) {
+        membershipLock.readLock().lock();
+        try {
+            return ring.owner(patientId).address;
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the addresses of the nodes, in the order they joined.
+     *
+     * @return the node addresses
+     */
+    public List<InetSocketAddress> getNodes() {
+        membershipLock.readLock().lock();
+        try {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (NodeConnection node : nodes) {
+                addresses.add(node.address);
+            }
+            return addresses;
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until every node has stored the records sent to it.
+     *
+     * @throws IOException if a node cannot be reached or failed to store a
+     *                     record
+     */
+    public void flush() throws IOException {
+        membershipLock.readLock().lock();
+        try {
+            for (NodeConnection node : nodes) {
+                node.flush();
+            }
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a node and moves the patients it now owns to it. Once the patients
+     * are copied and the node joined, removing the old copies is best-effort:
+     * a copy that cannot be removed is logged and left behind, and is ignored
+     * by later moves.
+     *
+     * @param address the address of the new node
+     * @return the number of patients moved to the new node
+     * @throws IOException if a node cannot be reached while the patients are
+     *                     copied, in which case the node does not join
+     */
+    public int addNode(InetSocketAddress address) throws IOException {
+        NodeConnection added = new NodeConnection(address);
+        membershipLock.writeLock().lock();
+        try {
+            List<NodeConnection> joined = new ArrayList<>(nodes);
+            joined.add(added);
+            Ring joinedRing = new Ring(joined);
+            List<int[]> moves = new ArrayList<>(); // { patient id, index of the old node }
+            try {
+                for (int n = 0; n < nodes.size(); n++) {
+                    for (int patientId : nodes.get(n).patients()) {
+                        // Skip copies left behind by earlier moves
+                        if (ring.owner(patientId) == nodes.get(n) && joinedRing.owner(patientId) == added) {
+                            copyPatient(patientId, nodes.get(n), added);
+                            moves.add(new int[] { patientId, n });
+                        }
+                    }
+                }
+                added.flush();
+            } catch (IOException e) {
+                // The old nodes still hold every patient; the copies are never routed to
+                added.close();
+                throw e;
+            }
+            List<NodeConnection> previous = nodes;
+            nodes = joined;
+            ring = joinedRing;
+            for (int[] move : moves) {
+                removeCopy(previous.get(move[1]), move[0]);
+            }
+            logger.info("Node " + address + " joined, " + moves.size() + " patients moved");
+            return moves.size();
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves all patients of a node to the remaining nodes and disconnects from
+     * it. The node itself keeps running, without patients. As in
+     * {@link #addNode}, patients the node fails to remove once they are moved
+     * are logged and left on it.
+     *
+     * @param address the address of the node to remove
+     * @return the number of patients moved off the node
+     * @throws IllegalArgumentException if the node is unknown or is the last
+     *                                  node
+     * @throws IOException              if a node cannot be reached while the
+     *                                  patients are copied, in which case the
+     *                                  node stays
+     */
+    public int removeNode(InetSocketAddress address) throws IOException {
+        membershipLock.writeLock().lock();
+        try {
+            NodeConnection removed = null;
+            List<NodeConnection> remaining = new ArrayList<>();
+            for (NodeConnection node : nodes) {
+                if (node.address.equals(address)) {
+                    removed = node;
+                } else {
+                    remaining.add(node);
+                }
+            }
+            if (removed == null) {
+                throw new IllegalArgumentException("Unknown storage node " + address);
+            }
+            if (remaining.isEmpty()) {
+                throw new IllegalArgumentException("Cannot remove the last storage node " + address);
+            }
+            Ring remainingRing = new Ring(remaining);
+            List<Integer> patients = new ArrayList<>();
+            for (int patientId : removed.patients()) {
+                // Skip copies left behind by earlier moves
+                if (ring.owner(patientId) == removed) {
+                    copyPatient(patientId, removed, remainingRing.owner(patientId));
+                    patients.add(patientId);
+                }
+            }
+            for (NodeConnection node : remaining) {
+                node.flush();
+            }
+            nodes = remaining;
+            ring = remainingRing;
+            for (int patientId : patients) {
+                removeCopy(removed, patientId);
+            }
+            try {
+                removed.close();
+            } catch (IOException e) {
+                logger.warning("Failed to disconnect from storage node " + address + ": " + e.getMessage());
+            }
+            logger.info("Node " + address + " left, " + patients.size() + " patients moved");
+            return patients.size();
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the old copy of a moved patient from a node. The ring already
+     * routes the patient to its new node, so a copy that cannot be removed is
+     * only logged: it is never read again and the remaining patients are
+     * still cleaned up.
+     */
+    private static void removeCopy(NodeConnection node, int patientId) {
+        try {
+            node.remove(patientId);
+        } catch (IOException e) {
+            logger.warning("Failed to remove moved patient " + patientId + " from storage node " + node.address
+                    + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copies all records of a patient to another node. The records are only
+     * removed from the old node once every copy has been flushed and the ring
+     * switched, so a failure part way never loses records.
+     */
+    private static void copyPatient(int patientId, NodeConnection from, NodeConnection to) throws IOException {
+        for (PatientRecord record : from.get(patientId, StorageNode.ALL_TYPES, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            to.add(patientId, RecordTypeRegistry.intern(record.getRecordType()), record.getMeasurementValue(),
+                    record.getTimestamp());
+        }
+    }
+
+    /**
+     * Flushes and disconnects from all nodes. The nodes keep running.
+     *
+     * @throws IOException if a node cannot be flushed
+     */
+    @Override
+    public void close() throws IOException {
+        membershipLock.writeLock().lock();
+        try {
+            IOException failure = null;
+            for (NodeConnection node : nodes) {
+                try {
+                    node.flush();
+                } catch (IOException e) {
+                    failure = e;
+                }
+                node.close();
+            }
+            nodes = new ArrayList<>();
+            ring = new Ring(nodes);
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mixes the bits of a key so that nearby patient ids and node points spread
+     * evenly over the ring (the SplitMix64 finalizer).
+     */
+    static long hash(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+
+    /**
+     * The points of all nodes on the hash ring, sorted by hash.
+     */
+    private static final class Ring {
+        private final long[] points;
+        private final NodeConnection[] owners;
+
+        Ring(List<NodeConnection> nodes) {
+            int count = nodes.size() * VIRTUAL_NODES;
+            long[] hashes = new long[count];
+            int[] order = new int[count];
+            for (int n = 0; n < nodes.size(); n++) {
+                long seed = (long) nodes.get(n).address.toString().hashCode() << 32;
+                for (int v = 0; v < VIRTUAL_NODES; v++) {
+                    hashes[n * VIRTUAL_NODES + v] = hash(seed | v);
+                }
+            }
+            // Sort the points while keeping track of their nodes
+            Integer[] sorted = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, (a, b) -> Long.compare(hashes[a], hashes[b]));
+            this.points = new long[count];
+            this.owners = new NodeConnection[count];
+            for (int i = 0; i < count; i++) {
+                points[i] = hashes[sorted[i]];
+                owners[i] = nodes.get(sorted[i] / VIRTUAL_NODES);
+            }
+        }
+
+        NodeConnection owner(int patientId) {
+            if (owners.length == 0) {
+                throw new IllegalStateException("No storage nodes");
+            }
+            int index = Arrays.binarySearch(points, hash(patientId));
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return owners[index == points.length ? 0 : index];
+        }
+    }
+
+    /**
+     * A connection to one storage node. Requests on a connection are
+     * serialized by its monitor and handled by the node in order.
+     */
+    private static final class NodeConnection {
+        private final InetSocketAddress address;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private boolean[] definedTypes = new boolean[0]; // registry id -> sent to the node
+        private String[] nodeTypes = new String[0]; // node type id -> name
+
+        NodeConnection(InetSocketAddress address) throws IOException {
+            this.address = address;
+            this.socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), StorageNode.BUFFER_SIZE));
+            this.out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), StorageNode.BUFFER_SIZE));
+        }
+
+        synchronized void add(int patientId, int typeId, double value, long timestamp) throws IOException {
+            defineType(typeId);
+            out.writeByte(StorageNode.ADD);
+            out.writeInt(patientId);
+            out.writeInt(typeId);
+            out.writeDouble(value);
+            out.writeLong(timestamp);
+        }
+
+        synchronized List<PatientRecord> get(int patientId, int typeId, long startTime, long endTime)
+                throws IOException {
+            if (typeId != StorageNode.ALL_TYPES) {
+                defineType(typeId);
+            }
+            out.writeByte(StorageNode.GET);
+            out.writeInt(patientId);
+            out.writeInt(typeId);
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            out.flush();
+            readStatus();
+            List<PatientRecord> records = new ArrayList<>();
+            while (true) {
+                byte tag = in.readByte();
+                if (tag == StorageNode.END) {
+                    return records;
+                } else if (tag == StorageNode.TYPE) {
+                    int nodeTypeId = in.readInt();
+                    if (nodeTypeId < 0) {
+                        throw new IOException("Invalid type id " + nodeTypeId + " from storage node " + address);
+                    }
+                    if (nodeTypeId >= nodeTypes.length) {
+                        nodeTypes = Arrays.copyOf(nodeTypes, Math.max(nodeTypeId + 1, nodeTypes.length * 2));
+                    }
+                    nodeTypes[nodeTypeId] = in.readUTF();
+                } else if (tag == StorageNode.RECORD) {
+                    int nodeTypeId = in.readInt();
+                    double value = in.readDouble();
+                    long timestamp = in.readLong();
+                    if (nodeTypeId < 0 || nodeTypeId >= nodeTypes.length || nodeTypes[nodeTypeId] == null) {
+                        throw new IOException("Undefined type id " + nodeTypeId + " from storage node " + address);
+                    }
+                    records.add(new PatientRecord(patientId, value, nodeTypes[nodeTypeId], timestamp));
+                } else {
+                    throw new IOException("Unexpected tag " + tag + " from storage node " + address);
+                }
+            }
+        }
+
+        synchronized int[] patients() throws IOException {
+            out.writeByte(StorageNode.PATIENTS);
+            out.flush();
+            readStatus();
+            int[] patientIds = new int[in.readInt()];
+            for (int i = 0; i < patientIds.length; i++) {
+                patientIds[i] = in.readInt();
+            }
+            return patientIds;
+        }
+
+        synchronized boolean remove(int patientId) throws IOException {
+            out.writeByte(StorageNode.REMOVE);
+            out.writeInt(patientId);
+            out.flush();
+            readStatus();
+            return in.readBoolean();
+        }
+
+        synchronized void flush() throws IOException {
+            out.writeByte(StorageNode.FLUSH);
+            out.flush();
+            readStatus();
+        }
+
+        synchronized void close() throws IOException {
+            socket.close();
+        }
+
+        private void defineType(int typeId) throws IOException {
+            if (typeId < definedTypes.length && definedTypes[typeId]) {
+                return;
+            }
+            out.writeByte(StorageNode.TYPE);
+            out.writeInt(typeId);
+            out.writeUTF(RecordTypeRegistry.nameOf(typeId));
+            if (typeId >= definedTypes.length) {
+                definedTypes = Arrays.copyOf(definedTypes, Math.max(typeId + 1, definedTypes.length * 2));
+            }
+            definedTypes[typeId] = true;
+        }
+
+        private void readStatus() throws IOException {
+            if (in.readByte() != StorageNode.OK) {
+                throw new IOException("Storage node " + address + " failed: " + in.readUTF());
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.data_management;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -8,25 +9,48 @@ import java.util.List;
  * This class stores patient-specific data, allowing for the addition and
  * retrieval
  * of medical records based on specified criteria.
+ * <p>
+ * Records are stored column-wise in one {@link TimeSeries} per record type,
+ * indexed by the type's {@link RecordTypeRegistry} id. {@link PatientRecord}
+ * objects are only created when records are retrieved. Records may be added
+ * from several threads while other threads read them; readers never lock.
+ * </p>
  */
 public class Patient {
     private int patientId;
-    private List<PatientRecord> patientRecords;
+    private final MappedSegmentStore segmentStore;
+    private final LatestValueIndex latestValueIndex;
+    private volatile TimeSeries[] seriesByType;
 
     /**
      * Constructs a new Patient with a specified ID.
-     * Initializes an empty list of patient records.
+     * Initializes an empty set of patient records.
      *
      * @param patientId the unique identifier for the patient
      */
     public Patient(int patientId) {
+        this(patientId, null, null);
+    }
+
+    /**
+     * Constructs a new Patient whose sealed records are written to the given
+     * segment store and whose series are added to the given index.
+     *
+     * @param patientId        the unique identifier for the patient
+     * @param segmentStore     the store for sealed segments, or null to keep all
+     *                         records on the heap
+     * @param latestValueIndex the index to register new series with, or null
+     */
+    Patient(int patientId, MappedSegmentStore segmentStore, LatestValueIndex latestValueIndex) {
         this.patientId = patientId;
-        this.patientRecords = new ArrayList<>();
+        this.segmentStore = segmentStore;
+        this.latestValueIndex = latestValueIndex;
+        this.seriesByType = new TimeSeries[0];
     }
 
     /**
-     * Adds a new record to this patient's list of medical records.
-     * The record is created with the specified measurement value, record type, and
+     * Adds a new record to this patient's medical records.
+     * The record is stored with the specified measurement value, record type, and
      * timestamp.
      *
      * @param measurementValue the measurement value to store in the record
@@ -36,14 +60,167 @@ public class Patient {
      *                         milliseconds since UNIX epoch
      */
     public void addRecord(double measurementValue, String recordType, long timestamp) {
-        PatientRecord record = new PatientRecord(this.patientId, measurementValue, recordType, timestamp);
-        this.patientRecords.add(record);
+        addRecord(RecordTypeRegistry.intern(recordType), measurementValue, timestamp);
+    }
+
+    /**
+     * Adds a new record to this patient's medical records without allocating a
+     * record object.
+     *
+     * @param typeId           the registry id of the record type
+     * @param measurementValue the measurement value to store in the record
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     */
+    void addRecord(int typeId, double measurementValue, long timestamp) {
+        addRecord(typeId, measurementValue, timestamp, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds a new record unless it is older than the latest record of its type
+     * by more than the lateness window. Late records within the window are
+     * merged into the sorted records in batches.
+     *
+     * @param typeId           the registry id of the record type
+     * @param measurementValue the measurement value to store in the record
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     * @param latenessMillis   the lateness window, in milliseconds
+     * @return false if the record was too late and was not added
+     */
+    boolean addRecord(int typeId, double measurementValue, long timestamp, long latenessMillis) {
+        TimeSeries[] series = seriesByType;
+        TimeSeries target = typeId < series.length ? series[typeId] : null;
+        if (target == null) {
+            target = createSeries(typeId);
+        }
+        return target.append(timestamp, measurementValue, latenessMillis);
+    }
+
+    /**
+     * Adds several records of one type with a single pass over its series.
+     * Records are selected by {@code order[from..to)}; the entry of every
+     * record that was too late is replaced by its bitwise complement.
+     *
+     * @param typeId         the registry id of the record type
+     * @param timestamps     the times of the measurements
+     * @param values         the measurement values
+     * @param order          the indexes of the records to add, in the order
+     *                       they are added
+     * @param from           the first entry of {@code order} to add
+     * @param to             the entry after the last one to add
+     * @param latenessMillis the lateness window, in milliseconds
+     * @return the number of records that were too late and were not added
+     */
+    int addRecords(int typeId, long[] timestamps, double[] values, int[] order, int from, int to,
+            long latenessMillis) {
+        TimeSeries[] series = seriesByType;
+        TimeSeries target = typeId < series.length ? series[typeId] : null;
+        if (target == null) {
+            target = createSeries(typeId);
+        }
+        return target.appendAll(timestamps, values, order, from, to, latenessMillis);
+    }
+
+    private synchronized TimeSeries createSeries(int typeId) {
+        TimeSeries[] series = seriesByType;
+        if (typeId >= series.length) {
+            series = Arrays.copyOf(series, typeId + 1);
+        } else if (series[typeId] != null) {
+            return series[typeId];
+        } else {
+            series = series.clone();
+        }
+        TimeSeries created = new TimeSeries(segmentStore, patientId, typeId);
+        series[typeId] = created;
+        seriesByType = series;
+        if (latestValueIndex != null) {
+            latestValueIndex.register(typeId, created);
+        }
+        return created;
+    }
+
+    /**
+     * Restores the records of one record type from segments reopened from the
+     * segment store.
+     *
+     * @param typeId   the registry id of the record type
+     * @param segments the sealed segments of the series, in series order
+     */
+    void restoreSeries(int typeId, List<Segment> segments) {
+        createSeries(typeId).restore(segments);
+    }
+
+    /**
+     * Seals the in-memory head of every record type so that all records of this
+     * patient are held by the segment store.
+     */
+    void sealHeads() {
+        for (TimeSeries series : seriesByType) {
+            if (series != null) {
+                series.sealHead();
+            }
+        }
+    }
+
+    /**
+     * Removes the series of this patient from the latest-value index, once the
+     * patient is removed from its storage.
+     */
+    synchronized void unregisterSeries() {
+        if (latestValueIndex == null) {
+            return;
+        }
+        TimeSeries[] series = seriesByType;
+        for (int typeId = 0; typeId < series.length; typeId++) {
+            if (series[typeId] != null) {
+                latestValueIndex.unregister(typeId, series[typeId]);
+            }
+        }
+    }
+
+    /**
+     * Returns the series of this patient indexed by record type id. Entries are
+     * null for record types the patient has no records of. The array must not
+     * be modified.
+     *
+     * @return the series of this patient
+     */
+    TimeSeries[] seriesByType() {
+        return seriesByType;
+    }
+
+    /**
+     * Returns the approximate number of heap bytes used by the records of this
+     * patient.
+     *
+     * @return the heap footprint in bytes
+     */
+    long heapBytes() {
+        long bytes = 0;
+        for (TimeSeries series : seriesByType) {
+            if (series != null) {
+                bytes += series.heapBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the unique identifier of this patient.
+     *
+     * @return the patient ID
+     */
+    public int getPatientId() {
+        return patientId;
     }
 
     /**
      * Retrieves a list of PatientRecord objects for this patient that fall within a
      * specified time range.
-     * The method filters records based on the start and end times provided.
+     * The range of every record type is located with a binary search and the
+     * matching records are merged in timestamp order. The result reflects a
+     * consistent prefix of each record type at the time of the call.
      *
      * @param startTime the start of the time range, in milliseconds since UNIX
      *                  epoch
@@ -51,22 +228,131 @@ public class Patient {
      * @return a list of PatientRecord objects that fall within the specified time
      *         range
      */
+    public List<PatientRecord> getRecords(long startTime, long endTime) {
+        List<PatientRecord> filteredRecords = new ArrayList<>();
+        RecordCursor cursor = new RecordCursor();
+        cursor.reset(this, startTime, endTime);
+        while (cursor.next()) {
+            filteredRecords.add(new PatientRecord(patientId, cursor.value(), cursor.recordType(),
+                    cursor.timestamp()));
+        }
+        return filteredRecords;
+    }
 
-    // Implemented by Yalcin
-    public int getPatientId() {
-        return patientId;
+    /**
+     * Positions a cursor on this patient's records within a time range. Unlike
+     * {@link DataStorage#scanRecords(int, long, long, RecordCursor)} this needs
+     * no patient lookup, so scanning patients passed by
+     * {@link DataStorage#forEachPatient} allocates nothing.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param cursor    the cursor to position
+     */
+    public void scanRecords(long startTime, long endTime, RecordCursor cursor) {
+        cursor.reset(this, startTime, endTime);
     }
 
-    // Implemented by Yalcin
-    public List<PatientRecord> getRecords(long startTime, long endTime) {
-        // TODO Implement and test this method
+    /**
+     * Retrieves the records of one type that fall within a specified time
+     * range. Only the series of that type is read.
+     *
+     * @param typeId    the {@link RecordTypeRegistry} id of the record type
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @return the matching records in timestamp order
+     */
+    public List<PatientRecord> getRecords(int typeId, long startTime, long endTime) {
         List<PatientRecord> filteredRecords = new ArrayList<>();
-        for(PatientRecord record : patientRecords) {
+        TimeSeries[] series = seriesByType;
+        if (typeId < 0 || typeId >= series.length || series[typeId] == null) {
+            return filteredRecords;
+        }
+        String recordType = RecordTypeRegistry.nameOf(typeId);
+        TimeSeries.Cursor cursor = new TimeSeries.Cursor();
+        cursor.reset(series[typeId], startTime, endTime);
+        while (cursor.next()) {
+            filteredRecords.add(new PatientRecord(patientId, cursor.value(), recordType, cursor.timestamp()));
+        }
+        return filteredRecords;
+    }
+
+    /**
+     * Computes statistics of the records of one type within a time range
+     * without creating a record object per sample.
+     *
+     * @param typeId    the {@link RecordTypeRegistry} id of the record type
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @return the statistics of the matching records
+     * @throws IllegalArgumentException if no record type has the id
+     */
+    public RecordStatistics getStatistics(int typeId, long startTime, long endTime) {
+        String recordType = typeName(typeId);
+        TimeSeries.Aggregator aggregator = new TimeSeries.Aggregator();
+        TimeSeries series = seriesOf(typeId);
+        if (series != null) {
+            series.aggregate(startTime, endTime, aggregator);
+        }
+        return aggregator.toStatistics(recordType, startTime, endTime);
+    }
 
-            if(record.getTimestamp() >= startTime && record.getTimestamp() <= endTime) {
-                filteredRecords.add(record);
+    /**
+     * Computes statistics of the records of one type for consecutive buckets of
+     * a time range. The first bucket starts at {@code startTime}; the last one
+     * is cut off at {@code endTime}.
+     *
+     * @param typeId       the {@link RecordTypeRegistry} id of the record type
+     * @param startTime    the start of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param endTime      the end of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param bucketMillis the length of each bucket, in milliseconds
+     * @return the statistics of each bucket, in time order
+     * @throws IllegalArgumentException if no record type has the id, or
+     *                                  {@code bucketMillis} is not positive
+     */
+    public List<RecordStatistics> getStatistics(int typeId, long startTime, long endTime, long bucketMillis) {
+        return bucketStatistics(seriesOf(typeId), typeName(typeId), startTime, endTime, bucketMillis);
+    }
+
+    /**
+     * Computes bucketed statistics of a series, which may be null if there are
+     * no records of the type.
+     */
+    static List<RecordStatistics> bucketStatistics(TimeSeries series, String recordType, long startTime,
+            long endTime, long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Bucket length must be positive: " + bucketMillis);
+        }
+        List<RecordStatistics> buckets = new ArrayList<>();
+        TimeSeries.Aggregator aggregator = new TimeSeries.Aggregator();
+        for (long bucketStart = startTime; bucketStart <= endTime; bucketStart += bucketMillis) {
+            long bucketEnd = endTime - bucketStart < bucketMillis ? endTime : bucketStart + bucketMillis - 1;
+            aggregator.reset();
+            if (series != null) {
+                series.aggregate(bucketStart, bucketEnd, aggregator);
+            }
+            buckets.add(aggregator.toStatistics(recordType, bucketStart, bucketEnd));
+            if (bucketEnd == endTime) {
+                break;
             }
         }
-          return filteredRecords;
+        return buckets;
+    }
+
+    private static String typeName(int typeId) {
+        if (typeId < 0 || typeId >= RecordTypeRegistry.size()) {
+            throw new IllegalArgumentException("Unknown record type id: " + typeId);
+        }
+        return RecordTypeRegistry.nameOf(typeId);
+    }
+
+    private TimeSeries seriesOf(int typeId) {
+        TimeSeries[] series = seriesByType;
+        return typeId >= 0 && typeId < series.length ? series[typeId] : null;
     }
 }
@@ -0,0 +1,184 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the records read by one loader task into small per-patient
+ * buffers and appends a buffer to the storage with
+ * {@link DataStorage#addPatientBatch} once it fills up, so the storage sees a
+ * few large per-patient appends instead of one call per record.
+ * <p>
+ * Buffers are found through an open-addressing table keyed by patient id, so
+ * adding a record allocates nothing once the patient's buffer exists. If the
+ * batcher has {@link IngestionMetrics}, every append is timed there. A
+ * batcher belongs to a single thread; call {@link #flush()} when the task is
+ * done.
+ * </p>
+ */
+final class PatientBatcher implements RecordSink {
+
+    static final int PATIENT_BUFFER_SIZE = 1024;
+    static final int MAX_BUFFERED_RECORDS = 1 << 16;
+
+    private final DataStorage dataStorage;
+    private final AtomicLong recordsAdded;
+    private final IngestionMetrics metrics;
+    private long storeNanos;
+    private PatientBuffer[] table = new PatientBuffer[64];
+    private int patients;
+    private int buffered;
+
+    /**
+     * Creates a batcher.
+     *
+     * @param dataStorage  the storage to append the batches to
+     * @param recordsAdded incremented by the number of records of every batch
+     *                     appended to the storage
+     */
+    PatientBatcher(DataStorage dataStorage, AtomicLong recordsAdded) {
+        this(dataStorage, recordsAdded, null);
+    }
+
+    /**
+     * Creates a batcher that records the appends in the given metrics.
+     *
+     * @param dataStorage  the storage to append the batches to
+     * @param recordsAdded incremented by the number of records of every batch
+     *                     appended to the storage
+     * @param metrics      the metrics of the source being read, or null
+     */
+    PatientBatcher(DataStorage dataStorage, AtomicLong recordsAdded, IngestionMetrics metrics) {
+        this.dataStorage = dataStorage;
+        this.recordsAdded = recordsAdded;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void addPatientData(int patientId, int typeId, double measurementValue, long timestamp) {
+        PatientBuffer buffer = bufferOf(patientId);
+        buffer.add(typeId, measurementValue, timestamp);
+        buffered++;
+        if (buffer.size == PATIENT_BUFFER_SIZE) {
+            buffered -= flush(buffer);
+        } else if (buffered >= MAX_BUFFERED_RECORDS) {
+            flush();
+        }
+    }
+
+    /**
+     * Appends all buffered records to the storage.
+     */
+    void flush() {
+        for (PatientBuffer buffer : table) {
+            if (buffer != null) {
+                flush(buffer);
+            }
+        }
+        // Forget the patients so that memory stays bounded by the buffered records
+        Arrays.fill(table, null);
+        patients = 0;
+        buffered = 0;
+    }
+
+    private int flush(PatientBuffer buffer) {
+        int count = buffer.size;
+        if (count > 0) {
+            long start = System.nanoTime();
+            dataStorage.addPatientBatch(buffer.patientId, buffer.typeIds, buffer.values, buffer.timestamps, count);
+            if (metrics != null) {
+                long nanos = System.nanoTime() - start;
+                storeNanos += nanos;
+                metrics.recordStore(count, buffer.newestTimestamp(), nanos);
+            }
+            recordsAdded.addAndGet(count);
+            buffer.size = 0;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the time spent appending to the storage, if the batcher has
+     * metrics.
+     *
+     * @return the time in nanoseconds
+     */
+    long getStoreNanos() {
+        return storeNanos;
+    }
+
+    private PatientBuffer bufferOf(int patientId) {
+        int mask = table.length - 1;
+        int slot = slotOf(patientId, mask);
+        while (table[slot] != null) {
+            if (table[slot].patientId == patientId) {
+                return table[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        PatientBuffer buffer = new PatientBuffer(patientId);
+        table[slot] = buffer;
+        if (++patients * 2 > table.length) {
+            grow();
+        }
+        return buffer;
+    }
+
+    private void grow() {
+        PatientBuffer[] old = table;
+        table = new PatientBuffer[old.length * 2];
+        int mask = table.length - 1;
+        for (PatientBuffer buffer : old) {
+            if (buffer != null) {
+                int slot = slotOf(buffer.patientId, mask);
+                while (table[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = buffer;
+            }
+        }
+    }
+
+    private static int slotOf(int patientId, int mask) {
+        int hash = patientId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Columnar buffer of the records of one patient. It grows up to
+     * {@link #PATIENT_BUFFER_SIZE} records, so buffered memory stays
+     * proportional to the number of buffered records.
+     */
+    private static final class PatientBuffer {
+        private final int patientId;
+        private int[] typeIds = new int[16];
+        private double[] values = new double[16];
+        private long[] timestamps = new long[16];
+        private int size;
+
+        PatientBuffer(int patientId) {
+            this.patientId = patientId;
+        }
+
+        void add(int typeId, double value, long timestamp) {
+            if (size == typeIds.length) {
+                int capacity = Math.min(size << 1, PATIENT_BUFFER_SIZE);
+                typeIds = Arrays.copyOf(typeIds, capacity);
+                values = Arrays.copyOf(values, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+            }
+            typeIds[size] = typeId;
+            values[size] = value;
+            timestamps[size] = timestamp;
+            size++;
+        }
+
+        long newestTimestamp() {
+            long newest = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                newest = Math.max(newest, timestamps[i]);
+            }
+            return newest;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.data_management;
+
+import java.util.List;
+
+/**
+ * The record API shared by a local {@link DataStorage} and a
+ * {@link PartitionedDataStorage} spread over several storage nodes, so that
+ * code which only adds and retrieves records works with either.
+ */
+public interface PatientDataStore {
+
+    /**
+     * Adds a record for a patient, creating the patient if needed.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordType       the type of record, e.g., "HeartRate",
+     *                         "BloodPressure"
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     * @throws IllegalArgumentException if the record type is new and the
+     *                                  {@link RecordTypeRegistry} is full
+     */
+    void addPatientData(int patientId, double measurementValue, String recordType, long timestamp);
+
+    /**
+     * Retrieves the records of a patient within a time range.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @return the matching records in timestamp order
+     */
+    List<PatientRecord> getRecords(int patientId, long startTime, long endTime);
+
+    /**
+     * Retrieves the records of one type of a patient within a time range.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the record type, or one of its aliases
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @return the matching records in timestamp order
+     */
+    List<PatientRecord> getRecords(int patientId, String recordType, long startTime, long endTime);
+}
@@ -0,0 +1,221 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * The patients of a {@link DataStorage}, looked up by their primitive id.
+ * <p>
+ * A {@code Map<Integer, Patient>} boxes every id above 127 on each lookup,
+ * which made every query and every ingested record allocate. This table is
+ * an open-addressing hash table of patients probed by their id, so a lookup
+ * reads a few array slots and creates nothing. Lookups never lock: the table
+ * is published through a volatile field and its slots are read with volatile
+ * semantics. Patients are added and removed rarely, under the table's
+ * monitor; a growing table is rehashed into a new array.
+ * </p>
+ * <p>
+ * A removal shifts the patients after the removed one back into its slot
+ * (backward-shift deletion), so no tombstones are needed and a removal only
+ * touches the cluster of the removed patient. A lookup that misses while a
+ * removal moves patients probes again. Iterations do not probe, so while
+ * one is running a removal copies the table without the patient instead of
+ * moving patients under it.
+ * </p>
+ */
+final class PatientTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicReferenceArray<Patient> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int size; // guarded by this
+    private volatile int removals; // Odd while a removal moves patients within the slots, guarded by this
+    private final AtomicInteger iterations = new AtomicInteger(); // Iterations in progress
+
+    /**
+     * Returns the patient with the given id.
+     *
+     * @param patientId the id of the patient
+     * @return the patient, or null if there is none
+     */
+    Patient get(int patientId) {
+        while (true) {
+            int stamp = removals;
+            AtomicReferenceArray<Patient> table = slots;
+            int slot = find(table, patientId);
+            if (slot >= 0) {
+                Patient patient = table.get(slot);
+                if (patient != null && patient.getPatientId() == patientId) {
+                    return patient;
+                }
+            }
+            // A concurrent removal may have moved the patient past the probe
+            if ((stamp & 1) == 0 && stamp == removals) {
+                return null;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Returns the patient with the given id, adding the one created by the
+     * factory if there is none.
+     *
+     * @param patientId the id of the patient
+     * @param factory   creates the patient if it does not exist
+     * @return the existing or new patient
+     */
+    Patient getOrCreate(int patientId, IntFunction<Patient> factory) {
+        Patient patient = get(patientId);
+        if (patient != null) {
+            return patient;
+        }
+        synchronized (this) {
+            patient = get(patientId);
+            if (patient == null) {
+                patient = factory.apply(patientId);
+                AtomicReferenceArray<Patient> table = slots;
+                if ((size + 1) * 2 > table.length()) {
+                    table = rehash(table, table.length() * 2, -1);
+                    slots = table;
+                }
+                insert(table, patient);
+                size++;
+            }
+            return patient;
+        }
+    }
+
+    /**
+     * Removes the patient with the given id.
+     *
+     * @param patientId the id of the patient
+     * @return the removed patient, or null if there was none
+     */
+    synchronized Patient remove(int patientId) {
+        AtomicReferenceArray<Patient> table = slots;
+        int slot = find(table, patientId);
+        if (slot < 0) {
+            return null;
+        }
+        Patient patient = table.get(slot);
+        removals++;
+        if (iterations.get() > 0) {
+            slots = rehash(table, table.length(), slot);
+        } else {
+            shiftBack(table, slot);
+        }
+        removals++;
+        size--;
+        return patient;
+    }
+
+    /**
+     * Passes every patient to the action. Patients added during the iteration
+     * may or may not be visited.
+     *
+     * @param action the action to perform for each patient
+     */
+    void forEach(Consumer<Patient> action) {
+        iterations.incrementAndGet();
+        try {
+            // A removal that started before this iteration registered moves patients in place
+            while ((removals & 1) != 0) {
+                Thread.onSpinWait();
+            }
+            AtomicReferenceArray<Patient> table = slots;
+            for (int i = 0; i < table.length(); i++) {
+                Patient patient = table.get(i);
+                if (patient != null) {
+                    action.accept(patient);
+                }
+            }
+        } finally {
+            iterations.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a list of all patients.
+     *
+     * @return a new list of the patients
+     */
+    List<Patient> values() {
+        List<Patient> patients = new ArrayList<>();
+        forEach(patients::add);
+        return patients;
+    }
+
+    /**
+     * Returns the slot holding the patient with the given id, or -1 if the
+     * probe reaches an empty slot first.
+     */
+    private static int find(AtomicReferenceArray<Patient> table, int patientId) {
+        int mask = table.length() - 1;
+        for (int i = slot(patientId, mask); ; i = (i + 1) & mask) {
+            Patient patient = table.get(i);
+            if (patient == null) {
+                return -1;
+            }
+            if (patient.getPatientId() == patientId) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Copies the patients into a new table of the given capacity, leaving out
+     * the patient in {@code skippedSlot}, or none if it is -1.
+     */
+    private static AtomicReferenceArray<Patient> rehash(AtomicReferenceArray<Patient> table, int capacity,
+            int skippedSlot) {
+        AtomicReferenceArray<Patient> rehashed = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < table.length(); i++) {
+            Patient patient = table.get(i);
+            if (patient != null && i != skippedSlot) {
+                insert(rehashed, patient);
+            }
+        }
+        return rehashed;
+    }
+
+    /**
+     * Removes the patient in the given slot by moving every later patient of
+     * its cluster whose probe passes the freed slot back into it, then
+     * clearing the last slot freed this way. A moved patient is written to
+     * its new slot before its old one is reused.
+     */
+    private static void shiftBack(AtomicReferenceArray<Patient> table, int hole) {
+        int mask = table.length() - 1;
+        for (int i = (hole + 1) & mask; ; i = (i + 1) & mask) {
+            Patient patient = table.get(i);
+            if (patient == null) {
+                break;
+            }
+            int home = slot(patient.getPatientId(), mask);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                table.set(hole, patient);
+                hole = i;
+            }
+        }
+        table.set(hole, null);
+    }
+
+    private static void insert(AtomicReferenceArray<Patient> table, Patient patient) {
+        int mask = table.length() - 1;
+        int i = slot(patient.getPatientId(), mask);
+        while (table.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        table.set(i, patient);
+    }
+
+    private static int slot(int patientId, int mask) {
+        // Consecutive ids take consecutive slots, so a ward of patients is probed in one step
+        return (patientId ^ (patientId >>> 16)) & mask;
+    }
+}
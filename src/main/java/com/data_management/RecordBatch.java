@@ -0,0 +1,136 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, columnar buffer of records for {@link DataStorage#addBatch}.
+ * <p>
+ * Records are kept in primitive arrays, so filling a batch allocates nothing
+ * once the arrays have grown to the batch size, and {@link #clear()} keeps
+ * them for the next batch. The batch also owns the scratch space the storage
+ * needs to group the records by patient and type, so adding a reused batch
+ * allocates nothing either. A batch is a {@link RecordSink}, so a
+ * {@link CsvRecordParser} can fill it directly.
+ * </p>
+ * <p>
+ * A batch is not thread-safe.
+ * </p>
+ */
+public class RecordBatch implements RecordSink {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    int[] patientIds;
+    int[] typeIds;
+    double[] values;
+    long[] timestamps;
+    int size;
+    private BatchGrouper grouper;
+
+    /**
+     * Creates an empty batch with room for 1024 records.
+     */
+    public RecordBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param capacity the number of records the batch holds before growing
+     * @throws IllegalArgumentException if the capacity is negative
+     */
+    public RecordBatch(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        patientIds = new int[capacity];
+        typeIds = new int[capacity];
+        values = new double[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Appends a record to the batch.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param typeId           the {@link RecordTypeRegistry} id of the record type
+     * @param measurementValue the measured value
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         the Unix epoch
+     */
+    @Override
+    public void addPatientData(int patientId, int typeId, double measurementValue, long timestamp) {
+        if (size == patientIds.length) {
+            grow();
+        }
+        patientIds[size] = patientId;
+        typeIds[size] = typeId;
+        values[size] = measurementValue;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    /**
+     * Appends a record whose type is given by name.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the measured value
+     * @param recordType       the type of record, e.g. "HeartRate"
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         the Unix epoch
+     * @throws IllegalArgumentException if the record type is new and the
+     *                                  {@link RecordTypeRegistry} is full
+     */
+    public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
+        addPatientData(patientId, RecordTypeRegistry.intern(recordType), measurementValue, timestamp);
+    }
+
+    /**
+     * Returns the number of records in the batch.
+     *
+     * @return the batch size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the largest timestamp in the batch.
+     *
+     * @return the newest timestamp, or {@link Long#MIN_VALUE} if the batch is
+     *         empty
+     */
+    long maxTimestamp() {
+        long newest = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            newest = Math.max(newest, timestamps[i]);
+        }
+        return newest;
+    }
+
+    /**
+     * Removes all records, keeping the arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, patientIds.length << 1);
+        patientIds = Arrays.copyOf(patientIds, capacity);
+        typeIds = Arrays.copyOf(typeIds, capacity);
+        values = Arrays.copyOf(values, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+    }
+
+    /**
+     * Returns the grouper that DataStorage reuses for this batch.
+     */
+    BatchGrouper grouper() {
+        if (grouper == null) {
+            grouper = new BatchGrouper();
+        }
+        return grouper;
+    }
+}
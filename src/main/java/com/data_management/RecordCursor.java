@@ -0,0 +1,166 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A reusable cursor over the records of one patient within a time range, in
+ * timestamp order. Records of different types with the same timestamp are
+ * returned in order of their type id.
+ * <p>
+ * A cursor is positioned with {@link DataStorage#scanRecords} and read with
+ * {@link #next()} and the accessors. Once its internal arrays have grown to the
+ * number of record types, positioning and reading a cursor allocates nothing,
+ * so a long-lived cursor can scan any number of patients without creating
+ * garbage. A cursor must only be used by one thread at a time.
+ * </p>
+ * <pre>
+ *   RecordCursor cursor = new RecordCursor();
+ *   storage.scanRecords(patientId, start, end, cursor);
+ *   while (cursor.next()) {
+ *       process(cursor.timestamp(), cursor.typeId(), cursor.value());
+ *   }
+ * </pre>
+ */
+public final class RecordCursor {
+    private TimeSeries.Cursor[] cursors = new TimeSeries.Cursor[0];
+    private int[] active = new int[0]; // type ids of the cursors that have a record left
+    private int activeCount;
+    private int patientId;
+    private long timestamp;
+    private int typeId;
+    private double value;
+
+    /**
+     * Creates a cursor that is not positioned on any records yet.
+     */
+    public RecordCursor() {
+    }
+
+    /**
+     * Positions the cursor before the first record of the patient in the range.
+     */
+    void reset(Patient patient, long startTime, long endTime) {
+        TimeSeries[] series = patient.seriesByType();
+        ensureCapacity(series.length);
+        this.patientId = patient.getPatientId();
+        this.activeCount = 0;
+        for (int type = 0; type < series.length; type++) {
+            if (series[type] != null) {
+                open(type, series[type], startTime, endTime);
+            }
+        }
+    }
+
+    /**
+     * Positions the cursor before the first record of one type of the patient
+     * in the range.
+     */
+    void reset(Patient patient, int recordTypeId, long startTime, long endTime) {
+        TimeSeries[] series = patient.seriesByType();
+        this.patientId = patient.getPatientId();
+        this.activeCount = 0;
+        if (recordTypeId >= 0 && recordTypeId < series.length && series[recordTypeId] != null) {
+            ensureCapacity(recordTypeId + 1);
+            open(recordTypeId, series[recordTypeId], startTime, endTime);
+        }
+    }
+
+    /**
+     * Empties the cursor, e.g. when the patient does not exist.
+     */
+    void clear() {
+        this.activeCount = 0;
+    }
+
+    private void ensureCapacity(int types) {
+        if (cursors.length < types) {
+            int length = cursors.length;
+            cursors = Arrays.copyOf(cursors, types);
+            for (int type = length; type < types; type++) {
+                cursors[type] = new TimeSeries.Cursor();
+            }
+            active = Arrays.copyOf(active, types);
+        }
+    }
+
+    private void open(int type, TimeSeries series, long startTime, long endTime) {
+        TimeSeries.Cursor cursor = cursors[type];
+        cursor.reset(series, startTime, endTime);
+        if (cursor.next()) {
+            active[activeCount++] = type;
+        }
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return true if the cursor moved to a record, false if there are no more
+     *         records
+     */
+    public boolean next() {
+        if (activeCount == 0) {
+            return false;
+        }
+        int best = 0;
+        for (int i = 1; i < activeCount; i++) {
+            long candidate = cursors[active[i]].timestamp();
+            long current = cursors[active[best]].timestamp();
+            if (candidate < current || (candidate == current && active[i] < active[best])) {
+                best = i;
+            }
+        }
+        TimeSeries.Cursor cursor = cursors[active[best]];
+        this.typeId = active[best];
+        this.timestamp = cursor.timestamp();
+        this.value = cursor.value();
+        if (!cursor.next()) {
+            active[best] = active[--activeCount];
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id of the patient the cursor reads.
+     *
+     * @return the patient ID
+     */
+    public int patientId() {
+        return patientId;
+    }
+
+    /**
+     * Returns the timestamp of the current record.
+     *
+     * @return the timestamp in milliseconds since epoch
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the type id of the current record.
+     *
+     * @return the {@link RecordTypeRegistry} id of the record type
+     */
+    public int typeId() {
+        return typeId;
+    }
+
+    /**
+     * Returns the record type name of the current record.
+     *
+     * @return the record type
+     */
+    public String recordType() {
+        return RecordTypeRegistry.nameOf(typeId);
+    }
+
+    /**
+     * Returns the measurement value of the current record.
+     *
+     * @return the measurement value
+     */
+    public double value() {
+        return value;
+    }
+}
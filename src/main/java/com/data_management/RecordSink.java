@@ -0,0 +1,22 @@
+package com.data_management;
+
+/**
+ * Receives parsed records as primitives, so that a parser can feed a storage
+ * without creating a {@link PatientRecord} or a record type String per
+ * record. {@link DataStorage} is a sink; tests and benchmarks can use any
+ * other implementation.
+ */
+@FunctionalInterface
+public interface RecordSink {
+
+    /**
+     * Accepts one record.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param typeId           the {@link RecordTypeRegistry} id of the record type
+     * @param measurementValue the measured value
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         the Unix epoch
+     */
+    void addPatientData(int patientId, int typeId, double measurementValue, long timestamp);
+}
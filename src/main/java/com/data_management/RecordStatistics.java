@@ -0,0 +1,126 @@
+package com.data_management;
+
+/**
+ * Aggregate statistics of the records of one type within a time range, such
+ * as the mean blood saturation of a patient over the last hour.
+ * <p>
+ * Statistics are computed by the storage without creating a
+ * {@link PatientRecord} per sample. When the range holds no records the count
+ * is zero and the other statistics are {@code NaN}.
+ * </p>
+ */
+public class RecordStatistics {
+    private final String recordType;
+    private final long startTime;
+    private final long endTime;
+    private final long count;
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final long lastTimestamp;
+    private final double last;
+
+    RecordStatistics(String recordType, long startTime, long endTime, long count, double min, double max,
+            double sum, long lastTimestamp, double last) {
+        this.recordType = recordType;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.lastTimestamp = lastTimestamp;
+        this.last = last;
+    }
+
+    /**
+     * Returns the record type the statistics were computed for.
+     *
+     * @return the record type
+     */
+    public String getRecordType() {
+        return recordType;
+    }
+
+    /**
+     * Returns the start of the time range, inclusive.
+     *
+     * @return the start time in milliseconds since epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the end of the time range, inclusive.
+     *
+     * @return the end time in milliseconds since epoch
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Returns the number of records in the time range.
+     *
+     * @return the number of records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest measurement value in the time range.
+     *
+     * @return the minimum, or {@code NaN} if there are no records
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest measurement value in the time range.
+     *
+     * @return the maximum, or {@code NaN} if there are no records
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the sum of the measurement values in the time range.
+     *
+     * @return the sum, or zero if there are no records
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Returns the mean of the measurement values in the time range.
+     *
+     * @return the mean, or {@code NaN} if there are no records
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Returns the measurement value of the latest record in the time range.
+     *
+     * @return the latest value, or {@code NaN} if there are no records
+     */
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * Returns the timestamp of the latest record in the time range.
+     *
+     * @return the latest timestamp, or {@code Long.MIN_VALUE} if there are no
+     *         records
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+}
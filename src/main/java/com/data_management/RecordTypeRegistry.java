@@ -0,0 +1,189 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry that maps record type names (e.g. "ECG", "blood saturation") to
+ * small, dense integer ids.
+ * <p>
+ * Different sources spell the same record type differently; the simulator
+ * emits "Saturation" and "SystolicPressure" while the alert logic expects
+ * "blood saturation" and "blood pressure systolic". Every spelling is resolved
+ * to the id of one canonical type when it is first seen: names are compared
+ * ignoring case, spaces and punctuation, and known aliases are registered up
+ * front. Records are stored and returned under the canonical name.
+ * </p>
+ * <p>
+ * The well-known types have fixed ids. Other types get an id on first use,
+ * and the first spelling seen becomes their canonical name. Ids never change
+ * for the lifetime of the JVM, so they can be used as array indexes in the
+ * columnar patient storage instead of storing a String per sample.
+ * </p>
+ * <p>
+ * Record types arrive from untrusted sources, and the registry never forgets
+ * a type, so it is bounded: at most {@link #MAX_TYPES} types can be
+ * registered, which also bounds the per-type arrays of every patient. Once
+ * the registry is full, {@link #intern} rejects new types and the ingestion
+ * paths drop their records as invalid. Only the first
+ * {@link #MAX_CACHED_SPELLINGS} spellings are remembered; other spellings of
+ * a known type are normalized on every lookup.
+ * </p>
+ */
+public final class RecordTypeRegistry {
+
+    /** ECG readings. */
+    public static final int ECG;
+    /** Blood oxygen saturation, in percent. */
+    public static final int BLOOD_SATURATION;
+    /** Systolic blood pressure, in mmHg. */
+    public static final int SYSTOLIC_PRESSURE;
+    /** Diastolic blood pressure, in mmHg. */
+    public static final int DIASTOLIC_PRESSURE;
+    /** Cholesterol level. */
+    public static final int CHOLESTEROL;
+    /** White blood cell count. */
+    public static final int WHITE_BLOOD_CELLS;
+    /** Red blood cell count. */
+    public static final int RED_BLOOD_CELLS;
+    /** Alerts triggered or resolved by the patient or staff. */
+    public static final int ALERT;
+
+    /** The maximum number of record types the registry holds. */
+    public static final int MAX_TYPES = 256;
+    /** The maximum number of spellings remembered for the fast lookup. */
+    static final int MAX_CACHED_SPELLINGS = 4 * MAX_TYPES;
+
+    // Every spelling seen so far, so the common case is a single map lookup
+    private static final Map<String, Integer> idsBySpelling = new ConcurrentHashMap<>();
+    // Normalized names and aliases
+    private static final Map<String, Integer> idsByKey = new ConcurrentHashMap<>();
+    private static volatile String[] namesById = new String[0];
+
+    static {
+        ECG = intern("ECG");
+        BLOOD_SATURATION = intern("blood saturation");
+        SYSTOLIC_PRESSURE = intern("blood pressure systolic");
+        DIASTOLIC_PRESSURE = intern("blood pressure diastolic");
+        CHOLESTEROL = intern("Cholesterol");
+        WHITE_BLOOD_CELLS = intern("WhiteBloodCells");
+        RED_BLOOD_CELLS = intern("RedBloodCells");
+        ALERT = intern("Alert");
+
+        alias("Saturation", "blood saturation");
+        alias("SpO2", "blood saturation");
+        alias("SystolicPressure", "blood pressure systolic");
+        alias("DiastolicPressure", "blood pressure diastolic");
+    }
+
+    private RecordTypeRegistry() {
+    }
+
+    /**
+     * Returns the id of the given record type, assigning a new id if neither
+     * the type nor one of its aliases has been seen before.
+     *
+     * @param recordType the name of the record type
+     * @return the registry id of the record type
+     * @throws IllegalArgumentException if the type is new and the registry
+     *                                  already holds {@link #MAX_TYPES} types
+     */
+    public static int intern(String recordType) {
+        Integer id = idsBySpelling.get(recordType);
+        if (id != null) {
+            return id;
+        }
+        synchronized (RecordTypeRegistry.class) {
+            String key = normalize(recordType);
+            id = idsByKey.get(key);
+            if (id == null) {
+                if (namesById.length == MAX_TYPES) {
+                    throw new IllegalArgumentException("Cannot register record type \"" + recordType
+                            + "\": the registry already holds " + MAX_TYPES + " types");
+                }
+                String[] names = Arrays.copyOf(namesById, namesById.length + 1);
+                id = names.length - 1;
+                names[id] = recordType;
+                namesById = names;
+                idsByKey.put(key, id);
+            }
+            if (idsBySpelling.size() < MAX_CACHED_SPELLINGS) {
+                idsBySpelling.put(recordType, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Registers another name for a record type, so that records ingested under
+     * the alias are stored and queried as the given type.
+     *
+     * @param alias      the alternative name
+     * @param recordType the name of the record type the alias stands for
+     * @throws IllegalArgumentException if the alias already names a different
+     *                                  record type, or the record type is new
+     *                                  and the registry is full
+     */
+    public static void alias(String alias, String recordType) {
+        int id = intern(recordType);
+        synchronized (RecordTypeRegistry.class) {
+            Integer existing = idsByKey.putIfAbsent(normalize(alias), id);
+            if (existing != null && existing != id) {
+                throw new IllegalArgumentException("\"" + alias + "\" already names record type \""
+                        + namesById[existing] + "\"");
+            }
+            idsBySpelling.put(alias, id);
+        }
+    }
+
+    /**
+     * Returns the id of the given record type without registering it.
+     *
+     * @param recordType the name of the record type, or one of its aliases
+     * @return the registry id, or -1 if the type is unknown
+     */
+    public static int lookup(String recordType) {
+        Integer id = idsBySpelling.get(recordType);
+        if (id == null) {
+            id = idsByKey.get(normalize(recordType));
+        }
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the canonical record type name for the given id.
+     *
+     * @param typeId the registry id
+     * @return the name of the record type
+     */
+    public static String nameOf(int typeId) {
+        return namesById[typeId];
+    }
+
+    /**
+     * Returns the number of record types registered so far.
+     *
+     * @return the number of registered record types
+     */
+    public static int size() {
+        return namesById.length;
+    }
+
+    /**
+     * Reduces a name to lower-case letters and digits, so that "Blood
+     * Saturation", "blood_saturation" and "BloodSaturation" compare equal.
+     */
+    private static String normalize(String recordType) {
+        StringBuilder key = new StringBuilder(recordType.length());
+        for (int i = 0; i < recordType.length(); i++) {
+            char c = recordType.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        // Keep names made only of punctuation distinct from each other
+        return key.length() > 0 ? key.toString() : recordType.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,22 @@
+package com.data_management;
+
+/**
+ * Callback that receives the records of a query one at a time as primitive
+ * values, so scanning records does not create a {@link PatientRecord} per
+ * record.
+ *
+ * @see DataStorage#forEachRecord(int, long, long, RecordVisitor)
+ */
+@FunctionalInterface
+public interface RecordVisitor {
+
+    /**
+     * Called for every record of a query, in timestamp order.
+     *
+     * @param timestamp the time of the record, in milliseconds since the Unix
+     *                  epoch
+     * @param typeId    the {@link RecordTypeRegistry} id of the record type
+     * @param value     the measurement value
+     */
+    void visit(long timestamp, int typeId, double value);
+}
@@ -0,0 +1,198 @@
+package com.data_management;
+
+/**
+ * A block of time-ordered samples belonging to a {@link TimeSeries}.
+ * <p>
+ * Implementations differ in where the samples live: {@link HeapSegment}s hold
+ * them in Java arrays and are the only ones that are ever appended to, while
+ * sealed segments may be moved out of the heap (see {@link MappedSegment}).
+ * Readers only use the accessors below and never need to know which kind of
+ * segment they are reading.
+ * </p>
+ */
+abstract class Segment {
+
+    // Summary of a sealed segment, published by the volatile flag
+    private double min;
+    private double max;
+    private double sum;
+    private volatile boolean summarized;
+
+    /**
+     * Returns the number of samples currently published in the segment.
+     *
+     * @return the number of samples
+     */
+    abstract int size();
+
+    abstract long timestampAt(int index);
+
+    abstract double valueAt(int index);
+
+    /**
+     * Copies samples out of the segment into the given arrays.
+     *
+     * @param from       the index of the first sample to copy
+     * @param timestamps the destination for the timestamps
+     * @param values     the destination for the values
+     * @param offset     the position in the destination arrays
+     * @param length     the number of samples to copy
+     */
+    abstract void copyTo(int from, long[] timestamps, double[] values, int offset, int length);
+
+    /**
+     * Returns a segment with the same samples that supports fast access by
+     * index. Segments that can only be decoded in order decode themselves into
+     * the scratch segment, or a new one if it is missing or too small; all
+     * others return themselves.
+     *
+     * @param scratch a heap segment that may be overwritten, or null
+     * @return a segment with fast access by index
+     */
+    Segment readable(HeapSegment scratch) {
+        return this;
+    }
+
+    /**
+     * Returns the approximate number of heap bytes used by the segment.
+     *
+     * @return the heap footprint in bytes
+     */
+    abstract long heapBytes();
+
+    /**
+     * Returns the index of the first of the first {@code size} samples whose
+     * timestamp is greater than or equal to the given timestamp.
+     *
+     * @param timestamp the timestamp to search for
+     * @param size      the number of published samples to search
+     * @return the index of the first sample at or after {@code timestamp}
+     */
+    int lowerBound(long timestamp, int size) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first of the first {@code size} samples whose
+     * timestamp is strictly greater than the given timestamp.
+     *
+     * @param timestamp the timestamp to search for
+     * @param size      the number of published samples to search
+     * @return the index of the first sample after {@code timestamp}
+     */
+    int upperBound(long timestamp, int size) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns a heap copy of this segment merged with a sorted run of samples.
+     * Samples of this segment come before merged samples with the same
+     * timestamp, since they arrived earlier. The copy is sized to hold at least
+     * {@code capacity} samples.
+     *
+     * @param timestamps the timestamps of the samples to merge, sorted
+     * @param values     the values of the samples to merge
+     * @param from       the index of the first sample to merge
+     * @param to         the index after the last sample to merge
+     * @param capacity   the minimum capacity of the copy
+     * @return a new segment containing the samples of both
+     */
+    HeapSegment mergeCopy(long[] timestamps, double[] values, int from, int to, int capacity) {
+        int count = size();
+        int length = Math.max(capacity, count + to - from);
+        long[] newTimestamps = new long[length];
+        double[] newValues = new double[length];
+        int i = 0;
+        int j = from;
+        int k = 0;
+        while (i < count && j < to) {
+            long existing = timestampAt(i);
+            if (existing <= timestamps[j]) {
+                newTimestamps[k] = existing;
+                newValues[k++] = valueAt(i++);
+            } else {
+                newTimestamps[k] = timestamps[j];
+                newValues[k++] = values[j++];
+            }
+        }
+        copyTo(i, newTimestamps, newValues, k, count - i);
+        k += count - i;
+        System.arraycopy(timestamps, j, newTimestamps, k, to - j);
+        System.arraycopy(values, j, newValues, k, to - j);
+        return new HeapSegment(newTimestamps, newValues, k + to - j);
+    }
+
+    /**
+     * Computes the minimum, maximum and sum of the values in the segment, so
+     * that aggregate queries covering the whole segment do not have to read its
+     * samples. The summary is computed once and cached, so this must only be
+     * called once the segment is sealed and no longer changes.
+     */
+    final void summarize() {
+        if (summarized) {
+            return;
+        }
+        int count = size();
+        double lowest = Double.POSITIVE_INFINITY;
+        double highest = Double.NEGATIVE_INFINITY;
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            double value = valueAt(i);
+            lowest = Math.min(lowest, value);
+            highest = Math.max(highest, value);
+            total += value;
+        }
+        this.min = lowest;
+        this.max = highest;
+        this.sum = total;
+        this.summarized = true;
+    }
+
+    /**
+     * Takes over the summary of another segment with the same samples.
+     *
+     * @param source the segment to copy the summary from
+     */
+    final void copySummary(Segment source) {
+        source.summarize();
+        this.min = source.min;
+        this.max = source.max;
+        this.sum = source.sum;
+        this.summarized = true;
+    }
+
+    final double min() {
+        summarize();
+        return min;
+    }
+
+    final double max() {
+        summarize();
+        return max;
+    }
+
+    final double sum() {
+        summarize();
+        return sum;
+    }
+}
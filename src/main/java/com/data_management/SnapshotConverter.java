@@ -0,0 +1,50 @@
+package com.data_management;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts JSON exports in the {@code sample_data} layout (an array of
+ * {@code {patientId, recordType, measurementValue, timestamp}} objects per
+ * file) into a single binary snapshot.
+ */
+public class SnapshotConverter {
+
+    /**
+     * Converts every {@code .json} file in a directory into one snapshot file.
+     *
+     * @param args the input directory and the snapshot file to write
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: SnapshotConverter <jsonDirectory> <snapshotFile>");
+            return;
+        }
+        File[] files = new File(args[0]).listFiles((dir, name) -> name.toLowerCase().endsWith(".json"));
+        if (files == null) {
+            System.out.println("No files found in the specified directory.");
+            return;
+        }
+
+        List<Path> paths = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile()) {
+                paths.add(file.toPath());
+            }
+        }
+        DataStorage storage = new DataStorage();
+        JsonBulkLoader loader = new JsonBulkLoader(storage);
+        loader.load(paths);
+        long records = loader.getRecordsLoaded();
+
+        Path snapshot = Paths.get(args[1]);
+        storage.writeSnapshot(snapshot);
+        System.out.println("Converted " + records + " records from " + files.length + " files into "
+                + snapshot + " (" + snapshot.toFile().length() + " bytes)");
+    }
+}
@@ -0,0 +1,207 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads snapshot files written by {@link SnapshotWriter}.
+ * <p>
+ * Opening a snapshot only reads its header, record type dictionary and
+ * patient index. Patient blocks are read on demand, so a single patient can
+ * be loaded from a large snapshot without reading the rest of the file.
+ * </p>
+ */
+public final class SnapshotReader implements Closeable {
+
+    private final FileChannel channel;
+    private final String[] typeNames;
+    private final int[] patientIds;
+    private final int[] seriesCounts;
+    private final long[] blockOffsets;
+    private final long[] blockLengths;
+    private final int logGeneration;
+    private final long logMark;
+
+    /**
+     * Opens a snapshot file and reads its index.
+     *
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be read or is not a supported
+     *                     snapshot
+     */
+    public SnapshotReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, SnapshotWriter.HEADER_SIZE);
+            if (header.getInt() != SnapshotWriter.MAGIC) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            short version = header.getShort();
+            if (version != SnapshotWriter.VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            header.getShort();
+            int typeCount = header.getInt();
+            int patientCount = header.getInt();
+            long dictionaryOffset = header.getLong();
+            long indexOffset = header.getLong();
+            this.logGeneration = header.getInt();
+            this.logMark = header.getLong();
+
+            ByteBuffer dictionary = read(dictionaryOffset, (int) (indexOffset - dictionaryOffset));
+            this.typeNames = new String[typeCount];
+            for (int i = 0; i < typeCount; i++) {
+                byte[] name = new byte[Short.toUnsignedInt(dictionary.getShort())];
+                dictionary.get(name);
+                typeNames[i] = new String(name, StandardCharsets.UTF_8);
+            }
+
+            ByteBuffer index = read(indexOffset, patientCount * SnapshotWriter.INDEX_ENTRY_SIZE);
+            this.patientIds = new int[patientCount];
+            this.seriesCounts = new int[patientCount];
+            this.blockOffsets = new long[patientCount];
+            this.blockLengths = new long[patientCount];
+            for (int i = 0; i < patientCount; i++) {
+                patientIds[i] = index.getInt();
+                seriesCounts[i] = index.getInt();
+                blockOffsets[i] = index.getLong();
+                blockLengths[i] = index.getLong();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the ids of all patients in the snapshot, in ascending order.
+     *
+     * @return the patient ids
+     */
+    public int[] getPatientIds() {
+        return patientIds.clone();
+    }
+
+    /**
+     * Reads the records of a single patient, ordered by record type and then by
+     * timestamp.
+     *
+     * @param patientId the patient to read
+     * @return the patient's records, or an empty list if the patient is not in
+     *         the snapshot
+     * @throws IOException if the patient's block cannot be read
+     */
+    public List<PatientRecord> readPatient(int patientId) throws IOException {
+        List<PatientRecord> records = new ArrayList<>();
+        int entry = Arrays.binarySearch(patientIds, patientId);
+        if (entry < 0) {
+            return records;
+        }
+        ByteBuffer block = readBlock(entry);
+        for (int s = 0; s < seriesCounts[entry]; s++) {
+            String recordType = typeNames[block.getInt()];
+            int count = block.getInt();
+            int valueOffset = block.position() + count * Long.BYTES;
+            for (int i = 0; i < count; i++) {
+                records.add(new PatientRecord(patientId, block.getDouble(valueOffset + i * Double.BYTES),
+                        recordType, block.getLong()));
+            }
+            block.position(valueOffset + count * Double.BYTES);
+        }
+        return records;
+    }
+
+    /**
+     * Loads the records of a single patient into the given storage.
+     *
+     * @param patientId the patient to load
+     * @param storage   the storage to add the records to
+     * @return true if the patient was found in the snapshot
+     * @throws IOException if the patient's block cannot be read
+     */
+    public boolean loadPatient(int patientId, DataStorage storage) throws IOException {
+        int entry = Arrays.binarySearch(patientIds, patientId);
+        if (entry < 0) {
+            return false;
+        }
+        loadEntry(entry, storage);
+        return true;
+    }
+
+    /**
+     * Loads every patient in the snapshot into the given storage.
+     *
+     * @param storage the storage to add the records to
+     * @throws IOException if a block cannot be read
+     */
+    public void loadAll(DataStorage storage) throws IOException {
+        for (int entry = 0; entry < patientIds.length; entry++) {
+            loadEntry(entry, storage);
+        }
+    }
+
+    /**
+     * Returns the generation of the write-ahead log the snapshot was
+     * checkpointed in.
+     *
+     * @return the log generation, or -1 if no log was checkpointed
+     */
+    int logGeneration() {
+        return logGeneration;
+    }
+
+    /**
+     * Returns the position in the write-ahead log up to which the snapshot
+     * holds the logged records.
+     *
+     * @return the log mark of the snapshot
+     */
+    long logMark() {
+        return logMark;
+    }
+
+    private void loadEntry(int entry, DataStorage storage) throws IOException {
+        ByteBuffer block = readBlock(entry);
+        for (int s = 0; s < seriesCounts[entry]; s++) {
+            int typeId = RecordTypeRegistry.intern(typeNames[block.getInt()]);
+            int count = block.getInt();
+            int valueOffset = block.position() + count * Long.BYTES;
+            for (int i = 0; i < count; i++) {
+                storage.addPatientData(patientIds[entry], typeId,
+                        block.getDouble(valueOffset + i * Double.BYTES), block.getLong());
+            }
+            block.position(valueOffset + count * Double.BYTES);
+        }
+    }
+
+    private ByteBuffer readBlock(int entry) throws IOException {
+        if (blockLengths[entry] > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot block of patient " + patientIds[entry] + " is too large");
+        }
+        return read(blockOffsets[entry], (int) blockLengths[entry]);
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of snapshot file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
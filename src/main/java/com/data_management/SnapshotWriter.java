@@ -0,0 +1,172 @@
+package com.data_management;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes the contents of a {@link DataStorage} to a compact, versioned binary
+ * snapshot file.
+ * <p>
+ * Layout (all numbers big-endian):
+ * </p>
+ * <pre>
+ *   header:     int magic, short version, short reserved, int typeCount,
+ *               int patientCount, long dictionaryOffset, long indexOffset,
+ *               int logGeneration, long logMark
+ *   blocks:     one per patient, in patient id order; for each record type:
+ *               int typeIndex, int count, long[count] timestamps,
+ *               double[count] values
+ *   dictionary: typeCount x (short length, byte[length] UTF-8 name)
+ *   index:      patientCount x (int patientId, int seriesCount,
+ *               long blockOffset, long blockLength), sorted by patient id
+ * </pre>
+ * <p>
+ * The fixed-size index at the end of the file lets {@link SnapshotReader}
+ * load a single patient's block without reading the rest of the file.
+ * {@code logGeneration} and {@code logMark} locate the end of the records the
+ * snapshot holds in the {@link WriteAheadLog} of the storage, so recovery
+ * replays only the records logged after them; the generation is -1 if no log
+ * was checkpointed.
+ * </p>
+ */
+public final class SnapshotWriter {
+
+    static final int MAGIC = 0x534E4150; // "SNAP"
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 44;
+    static final int INDEX_ENTRY_SIZE = 24;
+
+    private SnapshotWriter() {
+    }
+
+    /**
+     * Writes a snapshot of every patient in the storage.
+     *
+     * @param storage the storage to write
+     * @param file    the snapshot file to create or overwrite
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(DataStorage storage, Path file) throws IOException {
+        write(storage, file, -1, 0);
+    }
+
+    /**
+     * Writes a snapshot of every patient in the storage that holds exactly
+     * the records logged before a {@link WriteAheadLog#mark()}.
+     *
+     * @param storage       the storage to write
+     * @param file          the snapshot file to create or overwrite
+     * @param logGeneration the generation of the log, or -1 for none
+     * @param logMark       the mark in the log
+     * @throws IOException if the file cannot be written
+     */
+    static void write(DataStorage storage, Path file, int logGeneration, long logMark) throws IOException {
+        List<Patient> patients = storage.getAllPatients();
+        patients.sort(Comparator.comparingInt(Patient::getPatientId));
+
+        int[] snapshotTypeIndex = new int[RecordTypeRegistry.size()];
+        Arrays.fill(snapshotTypeIndex, -1);
+        List<String> typeNames = new ArrayList<>();
+        long[] blockOffsets = new long[patients.size()];
+        long[] blockLengths = new long[patients.size()];
+        int[] seriesCounts = new int[patients.size()];
+        long[] timestamps = new long[TimeSeries.SEGMENT_CAPACITY];
+        double[] values = new double[TimeSeries.SEGMENT_CAPACITY];
+        TimeSeries.Cursor cursor = new TimeSeries.Cursor();
+
+        // The previous snapshot stays intact until the new one is complete and on disk
+        Path partial = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            long position = HEADER_SIZE;
+
+            for (int p = 0; p < patients.size(); p++) {
+                blockOffsets[p] = position;
+                TimeSeries[] seriesByType = patients.get(p).seriesByType();
+                for (int typeId = 0; typeId < seriesByType.length; typeId++) {
+                    if (seriesByType[typeId] == null) {
+                        continue;
+                    }
+                    // Copy the series first so the count matches the samples written
+                    int count = 0;
+                    cursor.reset(seriesByType[typeId], Long.MIN_VALUE, Long.MAX_VALUE);
+                    while (cursor.next()) {
+                        if (count == timestamps.length) {
+                            timestamps = Arrays.copyOf(timestamps, count << 1);
+                            values = Arrays.copyOf(values, count << 1);
+                        }
+                        timestamps[count] = cursor.timestamp();
+                        values[count] = cursor.value();
+                        count++;
+                    }
+                    if (count == 0) {
+                        continue;
+                    }
+                    if (typeId >= snapshotTypeIndex.length) {
+                        int length = snapshotTypeIndex.length;
+                        snapshotTypeIndex = Arrays.copyOf(snapshotTypeIndex, typeId + 1);
+                        Arrays.fill(snapshotTypeIndex, length, typeId + 1, -1);
+                    }
+                    if (snapshotTypeIndex[typeId] < 0) {
+                        snapshotTypeIndex[typeId] = typeNames.size();
+                        typeNames.add(RecordTypeRegistry.nameOf(typeId));
+                    }
+                    out.writeInt(snapshotTypeIndex[typeId]);
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) {
+                        out.writeLong(timestamps[i]);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        out.writeDouble(values[i]);
+                    }
+                    position += 2 * Integer.BYTES + (long) count * (Long.BYTES + Double.BYTES);
+                    seriesCounts[p]++;
+                }
+                blockLengths[p] = position - blockOffsets[p];
+            }
+
+            long dictionaryOffset = position;
+            for (String typeName : typeNames) {
+                byte[] name = typeName.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                position += Short.BYTES + name.length;
+            }
+
+            long indexOffset = position;
+            for (int p = 0; p < patients.size(); p++) {
+                out.writeInt(patients.get(p).getPatientId());
+                out.writeInt(seriesCounts[p]);
+                out.writeLong(blockOffsets[p]);
+                out.writeLong(blockLengths[p]);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                    .putInt(typeNames.size()).putInt(patients.size())
+                    .putLong(dictionaryOffset).putLong(indexOffset)
+                    .putInt(logGeneration).putLong(logMark);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,310 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves one partition of a {@link PartitionedDataStorage} over TCP, backed
+ * by a local {@link DataStorage}.
+ * <p>
+ * Every client connection is served by its own thread, which handles the
+ * connection's requests in order. A request starts with a one byte opcode:
+ * </p>
+ * <pre>
+ *   'T' int typeId, UTF name           defines a connection-local type id
+ *   'A' int patientId, int typeId, double value, long timestamp
+ *                                      adds a record, without a response
+ *   'F'                                waits until earlier requests are done
+ *   'G' int patientId, int typeId, long start, long end
+ *                                      returns records, of all types if the
+ *                                      type id is -1
+ *   'P'                                returns the ids of all patients
+ *   'X' int patientId                  removes a patient
+ * </pre>
+ * <p>
+ * Adds are not acknowledged, so a client can stream them without waiting for
+ * the node. Every other request is answered with a status byte, followed by
+ * the result or, on error, a UTF message. Records are returned as a sequence
+ * of {@code 'T' int typeId, UTF name} definitions and
+ * {@code 'R' int typeId, double value, long timestamp} records ending with
+ * {@code 'E'}. Type ids are local to the connection and direction, so a node
+ * and its clients need not share a {@link RecordTypeRegistry}.
+ * </p>
+ */
+public final class StorageNode implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(StorageNode.class.getName());
+
+    static final byte TYPE = 'T';
+    static final byte ADD = 'A';
+    static final byte FLUSH = 'F';
+    static final byte GET = 'G';
+    static final byte PATIENTS = 'P';
+    static final byte REMOVE = 'X';
+    static final byte RECORD = 'R';
+    static final byte END = 'E';
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final int ALL_TYPES = -1;
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataStorage storage;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Starts a node serving the given storage. The storage must be a heap
+     * storage: patients move between nodes when nodes join or leave, and a
+     * persistent storage cannot remove the patients it hands over.
+     *
+     * @param storage     the storage holding this node's patients
+     * @param bindAddress the address to listen on; port 0 picks a free port
+     * @throws IllegalArgumentException if the storage is persistent
+     * @throws IOException              if the server socket cannot be bound
+     */
+    public StorageNode(DataStorage storage, InetSocketAddress bindAddress) throws IOException {
+        if (storage.isPersistent()) {
+            throw new IllegalArgumentException("Storage nodes need a heap storage, patients cannot be removed"
+                    + " from a persistent one");
+        }
+        this.storage = storage;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "storage-node-" + serverSocket.getLocalPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+        connections.execute(this::acceptConnections);
+        logger.info("Storage node listening on " + getAddress());
+    }
+
+    /**
+     * Returns the address clients connect to.
+     *
+     * @return the bound address of this node
+     */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    /**
+     * Returns the local storage of this node.
+     *
+     * @return the storage holding this node's patients
+     */
+    public DataStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. The storage is not
+     * closed.
+     *
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : openSockets) {
+            socket.close();
+        }
+        connections.shutdown();
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                openSockets.add(socket);
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.log(Level.WARNING, "Failed to accept a connection on " + getAddress(), e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE));
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE))) {
+            Connection state = new Connection();
+            while (true) {
+                int opcode = in.read();
+                if (opcode < 0) {
+                    return;
+                }
+                handle((byte) opcode, in, out, state);
+            }
+        } catch (EOFException | SocketException e) {
+            // The client went away or the node is closing
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Connection to " + socket.getRemoteSocketAddress() + " failed", e);
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    private void handle(byte opcode, DataInputStream in, DataOutputStream out, Connection state)
+            throws IOException {
+        switch (opcode) {
+            case TYPE:
+                state.defineType(in.readInt(), in.readUTF());
+                return;
+            case ADD: {
+                int patientId = in.readInt();
+                int typeId = state.typeOf(in.readInt());
+                double value = in.readDouble();
+                long timestamp = in.readLong();
+                try {
+                    storage.addPatientData(patientId, typeId, value, timestamp);
+                } catch (RuntimeException e) {
+                    // Adds have no response; the error is reported on the next flush
+                    state.failure = e;
+                }
+                return;
+            }
+            case FLUSH:
+                if (state.failure != null) {
+                    RuntimeException failure = state.failure;
+                    state.failure = null;
+                    writeError(out, failure);
+                } else {
+                    out.writeByte(OK);
+                }
+                break;
+            case GET: {
+                int patientId = in.readInt();
+                int clientTypeId = in.readInt();
+                long startTime = in.readLong();
+                long endTime = in.readLong();
+                writeRecords(out, state, patientId, clientTypeId, startTime, endTime);
+                break;
+            }
+            case PATIENTS: {
+                List<Patient> patients = storage.getAllPatients();
+                out.writeByte(OK);
+                out.writeInt(patients.size());
+                for (Patient patient : patients) {
+                    out.writeInt(patient.getPatientId());
+                }
+                break;
+            }
+            case REMOVE: {
+                int patientId = in.readInt();
+                try {
+                    boolean removed = storage.removePatient(patientId);
+                    out.writeByte(OK);
+                    out.writeBoolean(removed);
+                } catch (RuntimeException e) {
+                    writeError(out, e);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown request " + opcode + " from a storage client");
+        }
+        out.flush();
+    }
+
+    private void writeRecords(DataOutputStream out, Connection state, int patientId, int clientTypeId,
+            long startTime, long endTime) throws IOException {
+        RecordCursor cursor = state.cursor;
+        if (clientTypeId == ALL_TYPES) {
+            storage.scanRecords(patientId, startTime, endTime, cursor);
+        } else {
+            storage.scanRecords(patientId, state.typeOf(clientTypeId), startTime, endTime, cursor);
+        }
+        out.writeByte(OK);
+        while (cursor.next()) {
+            int typeId = cursor.typeId();
+            if (!state.isSent(typeId)) {
+                out.writeByte(TYPE);
+                out.writeInt(typeId);
+                out.writeUTF(RecordTypeRegistry.nameOf(typeId));
+                state.markSent(typeId);
+            }
+            out.writeByte(RECORD);
+            out.writeInt(typeId);
+            out.writeDouble(cursor.value());
+            out.writeLong(cursor.timestamp());
+        }
+        out.writeByte(END);
+    }
+
+    private static void writeError(DataOutputStream out, RuntimeException e) throws IOException {
+        out.writeByte(ERROR);
+        out.writeUTF(String.valueOf(e.getMessage()));
+    }
+
+    /**
+     * The state of one client connection: the client's type ids, the types
+     * already described to the client and a reusable cursor.
+     */
+    private static final class Connection {
+        private int[] typeIds = new int[0]; // client type id -> registry id
+        private boolean[] sentTypes = new boolean[0]; // registry id -> described to the client
+        private final RecordCursor cursor = new RecordCursor();
+        private RuntimeException failure;
+
+        void defineType(int clientTypeId, String name) throws IOException {
+            // Clients number types by their own registry, which is bounded like this one
+            if (clientTypeId < 0 || clientTypeId >= RecordTypeRegistry.MAX_TYPES) {
+                throw new IOException("Invalid type id " + clientTypeId + " from a storage client");
+            }
+            if (clientTypeId >= typeIds.length) {
+                int length = typeIds.length;
+                typeIds = Arrays.copyOf(typeIds, Math.max(clientTypeId + 1, length * 2));
+                Arrays.fill(typeIds, length, typeIds.length, -1);
+            }
+            try {
+                typeIds[clientTypeId] = RecordTypeRegistry.intern(name);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        int typeOf(int clientTypeId) throws IOException {
+            if (clientTypeId < 0 || clientTypeId >= typeIds.length || typeIds[clientTypeId] < 0) {
+                throw new IOException("Undefined type id " + clientTypeId + " from a storage client");
+            }
+            return typeIds[clientTypeId];
+        }
+
+        boolean isSent(int typeId) {
+            return typeId < sentTypes.length && sentTypes[typeId];
+        }
+
+        void markSent(int typeId) {
+            if (typeId >= sentTypes.length) {
+                sentTypes = Arrays.copyOf(sentTypes, Math.max(typeId + 1, sentTypes.length * 2));
+            }
+            sentTypes[typeId] = true;
+        }
+    }
+}
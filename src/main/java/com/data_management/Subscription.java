@@ -0,0 +1,222 @@
+package com.data_management;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A subscription to the records added to a {@link DataStorage}, created by
+ * {@link DataStorage#subscribe}.
+ * <p>
+ * Matching records are put in a bounded queue by the thread adding them and
+ * delivered to the listener on a pooled thread, in the order they were
+ * added. The listener is never called concurrently with itself, and a
+ * subscription only holds a thread while it has records to deliver. When the
+ * queue is full the subscription's {@link OverflowPolicy} decides what
+ * happens.
+ * </p>
+ */
+public final class Subscription implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(Subscription.class.getName());
+
+    private final int patientId;
+    private final int typeId;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Consumer<PatientRecord> listener;
+    private final Executor executor;
+    private final SubscriptionHub hub;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<PatientRecord> queue;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private volatile boolean cancelled;
+
+    Subscription(int patientId, int typeId, int capacity, OverflowPolicy policy, Consumer<PatientRecord> listener,
+            Executor executor, SubscriptionHub hub) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Subscription capacity must be positive: " + capacity);
+        }
+        this.patientId = patientId;
+        this.typeId = typeId;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.listener = listener;
+        this.executor = executor;
+        this.hub = hub;
+        this.queue = new ArrayDeque<>(Math.min(capacity, 1024));
+    }
+
+    int patientId() {
+        return patientId;
+    }
+
+    boolean matches(int typeId) {
+        return this.typeId == DataStorage.ALL_TYPES || this.typeId == typeId;
+    }
+
+    /**
+     * Queues a record for delivery, applying the overflow policy if the queue
+     * is full.
+     *
+     * @param record the added record
+     */
+    void offer(PatientRecord record) {
+        lock.lock();
+        try {
+            while (queue.size() >= capacity && !cancelled) {
+                if (policy == OverflowPolicy.DROP) {
+                    discarded.increment();
+                    return;
+                } else if (policy == OverflowPolicy.COALESCE) {
+                    removeSuperseded(record);
+                    discarded.increment();
+                } else {
+                    notFull.awaitUninterruptibly();
+                }
+            }
+            if (cancelled) {
+                return;
+            }
+            queue.addLast(record);
+        } finally {
+            lock.unlock();
+        }
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void removeSuperseded(PatientRecord record) {
+        Iterator<PatientRecord> pending = queue.iterator();
+        while (pending.hasNext()) {
+            PatientRecord queued = pending.next();
+            if (queued.getPatientId() == record.getPatientId()
+                    && queued.getRecordType().equals(record.getRecordType())) {
+                pending.remove();
+                return;
+            }
+        }
+        queue.pollFirst();
+    }
+
+    private void drain() {
+        while (true) {
+            PatientRecord record;
+            lock.lock();
+            try {
+                record = cancelled ? null : queue.pollFirst();
+                if (record != null) {
+                    notFull.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (record == null) {
+                draining.set(false);
+                // A record may have been queued after the poll but before the flag was cleared
+                if (cancelled || isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                listener.accept(record);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Subscriber failed to handle a record of patient "
+                        + record.getPatientId(), e);
+            }
+            delivered.increment();
+        }
+    }
+
+    private boolean isEmpty() {
+        lock.lock();
+        try {
+            return queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of records passed to the listener.
+     *
+     * @return the number of delivered records
+     */
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    /**
+     * Returns the number of records that were dropped or replaced by a newer
+     * record because the queue was full.
+     *
+     * @return the number of records never delivered because of overflow
+     */
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    /**
+     * Returns the number of records waiting to be delivered.
+     *
+     * @return the current queue length
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether this subscription was cancelled.
+     *
+     * @return true once {@link #cancel()} was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops the subscription. Queued records are discarded, threads blocked on
+     * a full queue are released, and the listener is not called again once a
+     * call in progress returns.
+     */
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        hub.remove(this);
+        lock.lock();
+        try {
+            cancelled = true;
+            queue.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cancels the subscription.
+     */
+    @Override
+    public void close() {
+        cancel();
+    }
+}
@@ -0,0 +1,138 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * The subscriptions of one {@link DataStorage}, indexed by patient so that a
+ * record is only matched against the subscriptions that can want it.
+ * <p>
+ * The subscription arrays are copied on write. Publishing never locks and
+ * costs a single volatile read while nobody subscribes.
+ * </p>
+ */
+final class SubscriptionHub {
+
+    private static final Subscription[] NONE = new Subscription[0];
+
+    // Delivers records of all storages; threads are only kept while subscribers have records queued
+    private static final ExecutorService deliveryExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "subscription-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Subscription[] allPatients = NONE;
+    private final Map<Integer, Subscription[]> byPatient = new ConcurrentHashMap<>();
+    private volatile boolean empty = true;
+
+    /**
+     * Creates and registers a subscription.
+     *
+     * @param patientId the patient to subscribe to, or
+     *                  {@link DataStorage#ALL_PATIENTS}
+     * @param typeId    the registry id of the record type, or
+     *                  {@link DataStorage#ALL_TYPES}
+     * @param capacity  the maximum number of queued records
+     * @param policy    what to do when the queue is full
+     * @param listener  receives the records
+     * @return the new subscription
+     */
+    synchronized Subscription add(int patientId, int typeId, int capacity, OverflowPolicy policy,
+            Consumer<PatientRecord> listener) {
+        Subscription subscription = new Subscription(patientId, typeId, capacity, policy, listener,
+                deliveryExecutor, this);
+        if (patientId == DataStorage.ALL_PATIENTS) {
+            allPatients = append(allPatients, subscription);
+        } else {
+            byPatient.put(patientId, append(byPatient.getOrDefault(patientId, NONE), subscription));
+        }
+        empty = false;
+        return subscription;
+    }
+
+    /**
+     * Unregisters a subscription.
+     *
+     * @param subscription the subscription to remove
+     */
+    synchronized void remove(Subscription subscription) {
+        if (subscription.patientId() == DataStorage.ALL_PATIENTS) {
+            allPatients = without(allPatients, subscription);
+        } else {
+            Subscription[] remaining = without(byPatient.getOrDefault(subscription.patientId(), NONE), subscription);
+            if (remaining.length == 0) {
+                byPatient.remove(subscription.patientId());
+            } else {
+                byPatient.put(subscription.patientId(), remaining);
+            }
+        }
+        empty = allPatients.length == 0 && byPatient.isEmpty();
+    }
+
+    /**
+     * Returns whether any subscription is open, so that batch writers can skip
+     * publishing their records one by one.
+     *
+     * @return true if there is at least one subscription
+     */
+    boolean hasSubscribers() {
+        return !empty;
+    }
+
+    /**
+     * Passes a stored record to the matching subscriptions. The record object
+     * is only created if a subscription matches.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param typeId           the registry id of the record type
+     * @param measurementValue the measured value
+     * @param timestamp        the time of the measurement
+     */
+    void publish(int patientId, int typeId, double measurementValue, long timestamp) {
+        if (empty) {
+            return;
+        }
+        PatientRecord record = publish(allPatients, null, patientId, typeId, measurementValue, timestamp);
+        Subscription[] patientSubscriptions = byPatient.get(patientId);
+        if (patientSubscriptions != null) {
+            publish(patientSubscriptions, record, patientId, typeId, measurementValue, timestamp);
+        }
+    }
+
+    private static PatientRecord publish(Subscription[] subscriptions, PatientRecord record, int patientId,
+            int typeId, double measurementValue, long timestamp) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.matches(typeId)) {
+                if (record == null) {
+                    record = new PatientRecord(patientId, measurementValue, RecordTypeRegistry.nameOf(typeId),
+                            timestamp);
+                }
+                subscription.offer(record);
+            }
+        }
+        return record;
+    }
+
+    private static Subscription[] append(Subscription[] subscriptions, Subscription added) {
+        Subscription[] copy = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        copy[subscriptions.length] = added;
+        return copy;
+    }
+
+    private static Subscription[] without(Subscription[] subscriptions, Subscription removed) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i] == removed) {
+                Subscription[] copy = new Subscription[subscriptions.length - 1];
+                System.arraycopy(subscriptions, 0, copy, 0, i);
+                System.arraycopy(subscriptions, i + 1, copy, i, copy.length - i);
+                return copy;
+            }
+        }
+        return subscriptions;
+    }
+}
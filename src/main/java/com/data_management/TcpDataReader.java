@@ -0,0 +1,539 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the live CSV stream that the simulator's {@code TcpOutputStrategy}
+ * sends, {@code patientId,timestamp,label,data} per line, from one or more
+ * simulator endpoints.
+ * <p>
+ * All connections are served by a single selector thread, the one calling
+ * {@link #readData(DataStorage)}. Every connection reads into its own direct
+ * buffer, and a {@link CsvRecordParser} frames and parses the lines in place
+ * into a {@link RecordBatch}, so no String is created per line. Filled batches
+ * are handed to a writer thread through a bounded queue and added to the
+ * storage with {@link DataStorage#addBatch(RecordBatch)}. When the storage
+ * falls behind and the queue is full, the connection stops being read until
+ * the writer catches up; unread data then waits in the socket buffers and TCP
+ * flow control slows the sender, so memory stays bounded.
+ * </p>
+ * <p>
+ * A connection that cannot be established or is lost is retried with
+ * exponential backoff, from {@link #INITIAL_BACKOFF_MILLIS} up to a maximum.
+ * A line cut off by a lost connection is dropped.
+ * </p>
+ * <p>
+ * With {@link Protocol#BINARY} the reader asks every endpoint for the binary
+ * frames of the simulator's {@code BinaryTcpOutputStrategy} and decodes them
+ * with a {@link BinaryFrameDecoder}. An endpoint that does not confirm the
+ * binary protocol and sends CSV lines instead, such as a
+ * {@code TcpOutputStrategy}, is read as CSV.
+ * </p>
+ * <p>
+ * Every endpoint has its own {@link IngestionMetrics}, named
+ * {@code tcp://host:port}, which time the parsing on the selector thread and
+ * the storing on the writer thread.
+ * </p>
+ */
+public class TcpDataReader implements DataReader, Closeable {
+
+    /**
+     * The format the reader asks the endpoints for.
+     */
+    public enum Protocol {
+        /** {@code patientId,timestamp,label,data} lines. */
+        CSV,
+        /** Binary frames, falling back to CSV for endpoints without them. */
+        BINARY
+    }
+
+    private static final Logger logger = Logger.getLogger(TcpDataReader.class.getName());
+
+    static final int BUFFER_SIZE = 1 << 16;
+    static final int QUEUE_CAPACITY = 16;
+    static final long INITIAL_BACKOFF_MILLIS = 100;
+    static final long DEFAULT_MAX_BACKOFF_MILLIS = 10_000;
+    // Tells the writer thread to stop
+    private static final SourceBatch END = new SourceBatch(null);
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final long maxBackoffMillis;
+    private final Protocol protocol;
+    private final BlockingQueue<SourceBatch> filled = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ConcurrentLinkedQueue<SourceBatch> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pausedEndpoints = new AtomicInteger();
+    private final AtomicLong recordsStored = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+    private volatile Selector selector;
+    private volatile boolean closed;
+
+    /**
+     * Creates a reader for the given simulator endpoints.
+     *
+     * @param endpoints the addresses of the simulators' TCP outputs
+     */
+    public TcpDataReader(List<InetSocketAddress> endpoints) {
+        this(endpoints, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Creates a reader for the given simulator endpoints.
+     *
+     * @param endpoints        the addresses of the simulators' TCP outputs
+     * @param maxBackoffMillis the longest wait between two connection attempts
+     *                         to an endpoint
+     * @throws IllegalArgumentException if there is no endpoint or the backoff
+     *                                  is shorter than the initial backoff
+     */
+    public TcpDataReader(List<InetSocketAddress> endpoints, long maxBackoffMillis) {
+        this(endpoints, maxBackoffMillis, Protocol.CSV);
+    }
+
+    /**
+     * Creates a reader for the given simulator endpoints.
+     *
+     * @param endpoints        the addresses of the simulators' TCP outputs
+     * @param maxBackoffMillis the longest wait between two connection attempts
+     *                         to an endpoint
+     * @param protocol         the format to ask the endpoints for
+     * @throws IllegalArgumentException if there is no endpoint or the backoff
+     *                                  is shorter than the initial backoff
+     */
+    public TcpDataReader(List<InetSocketAddress> endpoints, long maxBackoffMillis, Protocol protocol) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No endpoint to read from");
+        }
+        if (maxBackoffMillis < INITIAL_BACKOFF_MILLIS) {
+            throw new IllegalArgumentException("Maximum backoff must be at least " + INITIAL_BACKOFF_MILLIS + " ms");
+        }
+        for (InetSocketAddress address : endpoints) {
+            this.endpoints.add(new Endpoint(address));
+        }
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.protocol = protocol;
+    }
+
+    /**
+     * Connects to all endpoints and adds the records they send to the storage
+     * until {@link #close()} is called. Records already received are stored
+     * before the method returns.
+     *
+     * @param dataStorage the storage to add the records to
+     * @throws IOException if the selector cannot be opened
+     */
+    @Override
+    public void readData(DataStorage dataStorage) throws IOException {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.metrics.register();
+        }
+        Thread writer = new Thread(() -> writeBatches(dataStorage), "tcp-data-writer");
+        writer.setDaemon(true);
+        writer.start();
+        try (Selector opened = Selector.open()) {
+            selector = opened;
+            if (closed) {
+                return;
+            }
+            logger.info("Reading from " + endpoints.size() + " endpoints");
+            while (!closed) {
+                long timeout = serviceEndpoints(System.currentTimeMillis());
+                opened.select(timeout);
+                Iterator<SelectionKey> keys = opened.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Endpoint endpoint = (Endpoint) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isConnectable()) {
+                        finishConnect(endpoint);
+                    } else if (key.isReadable()) {
+                        read(endpoint);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed while selecting
+        } finally {
+            for (Endpoint endpoint : endpoints) {
+                endpoint.closeChannel();
+                if (endpoint.batch.size() > 0) {
+                    putFilled(endpoint.batch);
+                }
+            }
+            putFilled(END);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Endpoint endpoint : endpoints) {
+                endpoint.metrics.unregister();
+            }
+            logger.info("Stopped reading after storing " + recordsStored.get() + " records");
+        }
+    }
+
+    /**
+     * Stops reading. The call returns at once; {@link #readData(DataStorage)}
+     * returns once the records already received are stored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    /**
+     * Starts due connection attempts and resumes paused connections whose
+     * batch now fits into the queue.
+     *
+     * @return how long the selector may wait, 0 for no limit
+     */
+    private long serviceEndpoints(long now) {
+        long timeout = Long.MAX_VALUE;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.channel == null) {
+                if (endpoint.reconnectAt <= now) {
+                    connect(endpoint);
+                } else {
+                    timeout = Math.min(timeout, endpoint.reconnectAt - now);
+                }
+            } else if (endpoint.paused && handOff(endpoint)) {
+                endpoint.paused = false;
+                pausedEndpoints.decrementAndGet();
+                endpoint.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        return timeout == Long.MAX_VALUE ? 0 : Math.max(1, timeout);
+    }
+
+    private void connect(Endpoint endpoint) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            endpoint.channel = channel;
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (channel.connect(endpoint.address)) {
+                endpoint.key = channel.register(selector, SelectionKey.OP_READ, endpoint);
+                connected(endpoint);
+            } else {
+                endpoint.key = channel.register(selector, SelectionKey.OP_CONNECT, endpoint);
+            }
+        } catch (IOException e) {
+            disconnected(endpoint, e);
+        }
+    }
+
+    private void finishConnect(Endpoint endpoint) {
+        try {
+            endpoint.channel.finishConnect();
+            endpoint.key.interestOps(SelectionKey.OP_READ);
+            connected(endpoint);
+        } catch (IOException e) {
+            disconnected(endpoint, e);
+        }
+    }
+
+    private void connected(Endpoint endpoint) throws IOException {
+        connects.incrementAndGet();
+        endpoint.buffer.clear();
+        endpoint.decoder = null;
+        endpoint.negotiating = protocol == Protocol.BINARY;
+        if (endpoint.negotiating) {
+            ByteBuffer hello = BinaryFrameDecoder.hello();
+            // A fresh socket buffer always has room for the few bytes of the hello
+            if (endpoint.channel.write(hello) != BinaryFrameDecoder.HELLO_LENGTH) {
+                throw new IOException("Cannot send the protocol hello");
+            }
+        }
+        logger.info("Connected to " + endpoint.address);
+    }
+
+    private void read(Endpoint endpoint) {
+        int read;
+        try {
+            read = endpoint.channel.read(endpoint.buffer);
+        } catch (IOException e) {
+            disconnected(endpoint, e);
+            return;
+        }
+        if (read < 0) {
+            disconnected(endpoint, null);
+            return;
+        }
+        ByteBuffer buffer = endpoint.buffer;
+        buffer.flip();
+        try {
+            if (endpoint.negotiating && !negotiate(endpoint)) {
+                buffer.compact();
+                return;
+            }
+            long lines = endpoint.linesParsed();
+            long start = System.nanoTime();
+            if (endpoint.decoder != null) {
+                endpoint.decoder.parse(buffer);
+            } else {
+                endpoint.parser.parse(buffer);
+            }
+            if (buffer.position() > 0) {
+                endpoint.metrics.recordParse(endpoint.linesParsed() - lines, buffer.position(),
+                        System.nanoTime() - start);
+            }
+        } catch (StreamCorruptedException e) {
+            disconnected(endpoint, e);
+            return;
+        }
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            logger.warning("Dropping a line longer than " + BUFFER_SIZE + " bytes from " + endpoint.address);
+            buffer.clear();
+        }
+        if (read > 0) {
+            endpoint.backoffMillis = INITIAL_BACKOFF_MILLIS;
+        }
+        if (endpoint.batch.size() > 0 && !handOff(endpoint)) {
+            // The storage is behind: stop reading until the writer catches up
+            endpoint.paused = true;
+            pausedEndpoints.incrementAndGet();
+            pauses.incrementAndGet();
+            endpoint.key.interestOps(0);
+        }
+    }
+
+    /**
+     * Reads the endpoint's answer to the hello from the buffer: the magic
+     * bytes and a version switch the endpoint to binary frames, anything else
+     * is CSV.
+     *
+     * @return false if more bytes are needed to decide
+     */
+    private boolean negotiate(Endpoint endpoint) throws StreamCorruptedException {
+        ByteBuffer buffer = endpoint.buffer;
+        int start = buffer.position();
+        int available = buffer.remaining();
+        for (int i = 0; i < BinaryFrameDecoder.MAGIC.length; i++) {
+            if (i == available) {
+                return false;
+            }
+            if (buffer.get(start + i) != BinaryFrameDecoder.MAGIC[i]) {
+                logger.info(endpoint.address + " does not speak the binary protocol, reading CSV");
+                endpoint.negotiating = false;
+                return true;
+            }
+        }
+        if (available < BinaryFrameDecoder.HELLO_LENGTH) {
+            return false;
+        }
+        int version = buffer.get(start + BinaryFrameDecoder.MAGIC.length);
+        if (version < 1 || version > BinaryFrameDecoder.VERSION) {
+            throw new StreamCorruptedException("Unsupported protocol version " + version);
+        }
+        buffer.position(start + BinaryFrameDecoder.HELLO_LENGTH);
+        endpoint.decoder = new BinaryFrameDecoder(endpoint, BUFFER_SIZE / 2);
+        endpoint.negotiating = false;
+        logger.info("Reading binary frames, version " + version + ", from " + endpoint.address);
+        return true;
+    }
+
+    private void disconnected(Endpoint endpoint, IOException cause) {
+        String message = (cause == null ? "Connection to " + endpoint.address + " closed"
+                : "Cannot read from " + endpoint.address + " (" + cause.getMessage() + ")")
+                + ", retrying in " + endpoint.backoffMillis + " ms";
+        // Only the first failure in a row is a warning, the retries would flood the log
+        if (endpoint.backoffMillis == INITIAL_BACKOFF_MILLIS) {
+            logger.warning(message);
+        } else {
+            logger.fine(message);
+        }
+        endpoint.closeChannel();
+        if (endpoint.paused) {
+            endpoint.paused = false;
+            pausedEndpoints.decrementAndGet();
+        }
+        endpoint.reconnectAt = System.currentTimeMillis() + endpoint.backoffMillis;
+        endpoint.backoffMillis = Math.min(endpoint.backoffMillis * 2, maxBackoffMillis);
+    }
+
+    /**
+     * Passes the endpoint's batch to the writer and gives the endpoint an
+     * empty one.
+     *
+     * @return false if the queue is full
+     */
+    private boolean handOff(Endpoint endpoint) {
+        if (!filled.offer(endpoint.batch)) {
+            return false;
+        }
+        SourceBatch next = free.poll();
+        if (next == null) {
+            next = new SourceBatch(endpoint.metrics);
+        }
+        next.metrics = endpoint.metrics;
+        endpoint.batch = next;
+        return true;
+    }
+
+    private void putFilled(SourceBatch batch) {
+        try {
+            filled.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatches(DataStorage dataStorage) {
+        while (true) {
+            SourceBatch batch;
+            try {
+                batch = filled.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == END) {
+                return;
+            }
+            try {
+                long newest = batch.maxTimestamp();
+                long start = System.nanoTime();
+                dataStorage.addBatch(batch);
+                batch.metrics.recordStore(batch.size(), newest, System.nanoTime() - start);
+                recordsStored.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Failed to store " + batch.size() + " records", e);
+            }
+            batch.clear();
+            free.offer(batch);
+            Selector current = selector;
+            if (pausedEndpoints.get() > 0 && current != null) {
+                current.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of records added to the storage so far.
+     *
+     * @return the number of stored records
+     */
+    public long getRecordsStored() {
+        return recordsStored.get();
+    }
+
+    /**
+     * Returns the ingestion metrics of the endpoints, which are registered
+     * with JMX while {@link #readData(DataStorage)} runs.
+     *
+     * @return the metrics, in the order of the endpoints
+     */
+    public List<IngestionMetrics> getMetrics() {
+        List<IngestionMetrics> metrics = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            metrics.add(endpoint.metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the number of connections established, including reconnections.
+     *
+     * @return the number of connections
+     */
+    public long getConnectCount() {
+        return connects.get();
+    }
+
+    /**
+     * Returns how often a connection stopped being read because the storage
+     * fell behind.
+     *
+     * @return the number of pauses
+     */
+    public long getPauseCount() {
+        return pauses.get();
+    }
+
+    /**
+     * The state of the connection to one simulator. Only the selector thread
+     * touches it.
+     */
+    private static final class Endpoint implements RecordSink {
+        private final InetSocketAddress address;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final IngestionMetrics metrics;
+        private final CsvRecordParser parser;
+        private SourceBatch batch;
+        // Set once the endpoint confirmed the binary protocol
+        private BinaryFrameDecoder decoder;
+        private boolean negotiating;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private boolean paused;
+        private long reconnectAt;
+        private long backoffMillis = INITIAL_BACKOFF_MILLIS;
+
+        Endpoint(InetSocketAddress address) {
+            this.address = address;
+            this.metrics = new IngestionMetrics("tcp://" + address.getHostString() + ":" + address.getPort());
+            this.parser = new CsvRecordParser(this, CsvRecordParser.Layout.SIMULATOR, metrics);
+            this.batch = new SourceBatch(metrics);
+        }
+
+        @Override
+        public void addPatientData(int patientId, int typeId, double measurementValue, long timestamp) {
+            batch.addPatientData(patientId, typeId, measurementValue, timestamp);
+        }
+
+        long linesParsed() {
+            return decoder != null ? decoder.getRecordCount() : parser.getRecordCount() + parser.getInvalidCount();
+        }
+
+        void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.fine("Failed to close connection to " + address + ": " + e.getMessage());
+                }
+                channel = null;
+                key = null;
+            }
+        }
+    }
+
+    /**
+     * A batch that knows the metrics of the endpoint it was filled from, so
+     * the writer thread can time the store for that endpoint.
+     */
+    private static final class SourceBatch extends RecordBatch {
+        private IngestionMetrics metrics;
+
+        SourceBatch(IngestionMetrics metrics) {
+            this.metrics = metrics;
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Columnar, time-ordered storage for the samples of one record type of one
+ * patient.
+ * <p>
+ * Samples are stored in a chain of {@link Segment}s holding parallel primitive
+ * arrays, so appending a sample does not allocate an object. Samples are kept
+ * sorted by timestamp which lets range lookups use binary search. Samples
+ * with equal timestamps keep their arrival order.
+ * </p>
+ * <p>
+ * Writers are serialized by the series' monitor, while readers never lock:
+ * the segment chain is published through a volatile, copy-on-write array and
+ * each segment publishes its own size, so a {@link Cursor} always sees a
+ * consistent prefix of the series.
+ * </p>
+ * <p>
+ * When the storage is persistent, every segment that fills up is sealed by
+ * writing it to the {@link MappedSegmentStore} and replacing it in the chain
+ * with the mapped copy, so only the head of each series stays on the heap.
+ * Otherwise sealed segments are replaced by a {@link CompressedSegment}:
+ * regular vital signs then take a few bits per sample, while the head that
+ * receives new samples stays uncompressed. Readers decode compressed segments
+ * on the fly, one segment at a time.
+ * </p>
+ * <p>
+ * Every sealed segment carries a summary of its values, computed once when it
+ * is sealed, so aggregates over long ranges read one summary per segment
+ * instead of every sample.
+ * </p>
+ */
+final class TimeSeries {
+
+    private static final Logger logger = Logger.getLogger(TimeSeries.class.getName());
+
+    static final int INITIAL_CAPACITY = 16;
+    static final int SEGMENT_CAPACITY = 1024;
+    static final int REORDER_CAPACITY = 256;
+
+    private final MappedSegmentStore segmentStore;
+    private final int patientId;
+    private final int typeId;
+    private volatile Segment[] segments;
+    // The block index of each segment in the segment store; a restored series may have gaps,
+    // so this is not always the chain position. Guarded by this
+    private int[] blockIndexes = { 0 };
+    private long lastTimestamp = Long.MIN_VALUE; // guarded by this
+    // Late samples waiting to be merged, sorted by timestamp; guarded by this
+    private long[] pendingTimestamps;
+    private double[] pendingValues;
+    private volatile int pendingCount;
+
+    TimeSeries() {
+        this(null, 0, 0);
+    }
+
+    /**
+     * Creates an empty series whose sealed segments are written to the given
+     * store.
+     *
+     * @param segmentStore the store for sealed segments, or null to keep them on
+     *                     the heap
+     * @param patientId    the patient the series belongs to
+     * @param typeId       the registry id of the series' record type
+     */
+    TimeSeries(MappedSegmentStore segmentStore, int patientId, int typeId) {
+        this.segmentStore = segmentStore;
+        this.patientId = patientId;
+        this.typeId = typeId;
+        this.segments = new Segment[] { new HeapSegment(INITIAL_CAPACITY) };
+    }
+
+    /**
+     * Adds a sample to the series, accepting late samples of any age.
+     *
+     * @param timestamp the time of the sample, in milliseconds since UNIX epoch
+     * @param value     the measured value
+     */
+    void append(long timestamp, double value) {
+        append(timestamp, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds a sample to the series. Samples arriving in timestamp order are
+     * appended to the head segment. Late samples are held in a small sorted
+     * reorder buffer and merged into the segments that hold them in batches,
+     * when the buffer is full or before the series is read, so a burst of late
+     * samples copies each affected segment once instead of once per sample.
+     *
+     * @param timestamp      the time of the sample, in milliseconds since UNIX
+     *                       epoch
+     * @param value          the measured value
+     * @param latenessMillis how far behind the latest sample a late sample may
+     *                       be
+     * @return false if the sample is later than the lateness window and was not
+     *         added
+     */
+    synchronized boolean append(long timestamp, double value, long latenessMillis) {
+        return appendLocked(timestamp, value, latenessMillis);
+    }
+
+    /**
+     * Adds several samples while holding the series' monitor once. The samples
+     * are selected by {@code order[from..to)}, which index the timestamp and
+     * value arrays; the entry of every sample rejected as too late is replaced
+     * by its bitwise complement, which is negative.
+     *
+     * @param timestamps     the times of the samples
+     * @param values         the measured values
+     * @param order          the indexes of the samples to add, in the order
+     *                       they are added
+     * @param from           the first entry of {@code order} to add
+     * @param to             the entry after the last one to add
+     * @param latenessMillis how far behind the latest sample a late sample may
+     *                       be
+     * @return the number of rejected samples
+     */
+    synchronized int appendAll(long[] timestamps, double[] values, int[] order, int from, int to,
+            long latenessMillis) {
+        int rejected = 0;
+        for (int i = from; i < to; i++) {
+            int index = order[i];
+            if (!appendLocked(timestamps[index], values[index], latenessMillis)) {
+                order[i] = ~index;
+                rejected++;
+            }
+        }
+        return rejected;
+    }
+
+    private boolean appendLocked(long timestamp, double value, long latenessMillis) {
+        if (timestamp < lastTimestamp) {
+            long oldest = lastTimestamp - latenessMillis;
+            if (oldest <= lastTimestamp && timestamp < oldest) {
+                return false;
+            }
+            bufferLate(timestamp, value);
+            return true;
+        }
+        Segment[] current = segments;
+        HeapSegment head = (HeapSegment) current[current.length - 1];
+        if (head.isFull()) {
+            head = growHead(current, head);
+        }
+        int size = head.size;
+        head.timestamps[size] = timestamp;
+        head.values[size] = value;
+        head.size = size + 1;
+        lastTimestamp = timestamp;
+        return true;
+    }
+
+    private HeapSegment growHead(Segment[] current, HeapSegment head) {
+        Segment[] updated;
+        HeapSegment next;
+        if (head.capacity() < SEGMENT_CAPACITY) {
+            int capacity = Math.min(head.capacity() << 1, SEGMENT_CAPACITY);
+            next = new HeapSegment(Arrays.copyOf(head.timestamps, capacity),
+                    Arrays.copyOf(head.values, capacity), head.size);
+            updated = current.clone();
+        } else {
+            next = new HeapSegment(SEGMENT_CAPACITY);
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length - 1] = seal(current.length - 1, head);
+            appendBlockIndex();
+        }
+        updated[updated.length - 1] = next;
+        segments = updated;
+        return next;
+    }
+
+    private void bufferLate(long timestamp, double value) {
+        int count = pendingCount;
+        if (pendingTimestamps == null) {
+            pendingTimestamps = new long[INITIAL_CAPACITY];
+            pendingValues = new double[INITIAL_CAPACITY];
+        } else if (count == pendingTimestamps.length) {
+            pendingTimestamps = Arrays.copyOf(pendingTimestamps, count << 1);
+            pendingValues = Arrays.copyOf(pendingValues, count << 1);
+        }
+        // Insert after samples with the same timestamp to keep arrival order
+        int index = count;
+        while (index > 0 && pendingTimestamps[index - 1] > timestamp) {
+            index--;
+        }
+        System.arraycopy(pendingTimestamps, index, pendingTimestamps, index + 1, count - index);
+        System.arraycopy(pendingValues, index, pendingValues, index + 1, count - index);
+        pendingTimestamps[index] = timestamp;
+        pendingValues[index] = value;
+        pendingCount = count + 1;
+        if (count + 1 == REORDER_CAPACITY) {
+            mergePending();
+        }
+    }
+
+    /**
+     * Merges the late samples waiting in the reorder buffer into the series, if
+     * there are any. Readers call this before reading, so they always see
+     * every sample added before the read.
+     */
+    void flushPending() {
+        if (pendingCount > 0) {
+            synchronized (this) {
+                mergePending();
+            }
+        }
+    }
+
+    private void mergePending() {
+        int count = pendingCount;
+        if (count == 0) {
+            return;
+        }
+        Segment[] current = segments;
+        Segment[] updated = current.clone();
+        int head = current.length - 1;
+        int from = 0;
+        while (from < count) {
+            // The pending samples are sorted, so each segment takes a contiguous run
+            int target = 0;
+            for (int i = head; i > 0; i--) {
+                Segment segment = current[i];
+                if (segment.size() > 0 && segment.timestampAt(0) <= pendingTimestamps[from]) {
+                    target = i;
+                    break;
+                }
+            }
+            int to = from + 1;
+            Segment next = null;
+            for (int i = target + 1; i <= head && next == null; i++) {
+                if (current[i].size() > 0) {
+                    next = current[i];
+                }
+            }
+            while (to < count && (next == null || pendingTimestamps[to] < next.timestampAt(0))) {
+                to++;
+            }
+            Segment segment = current[target].readable(null);
+            if (target == head) {
+                updated[target] = segment.mergeCopy(pendingTimestamps, pendingValues, from, to,
+                        ((HeapSegment) current[head]).capacity());
+            } else {
+                updated[target] = seal(target, segment.mergeCopy(pendingTimestamps, pendingValues, from, to, 0));
+            }
+            from = to;
+        }
+        segments = updated;
+        pendingCount = 0;
+        if (pendingTimestamps.length > INITIAL_CAPACITY) {
+            pendingTimestamps = null;
+            pendingValues = null;
+        }
+    }
+
+    /**
+     * Writes a sealed segment to the segment store, or compresses it if there
+     * is no store, and computes its summary for aggregate queries.
+     *
+     * @param position the position of the segment in the chain
+     * @param segment  the sealed segment
+     * @return the segment that should take its place in the chain
+     */
+    private Segment seal(int position, Segment segment) {
+        int index = blockIndexes[position];
+        Segment sealed = segment;
+        segment.summarize();
+        if (segmentStore == null) {
+            sealed = CompressedSegment.compress(segment);
+        } else {
+            try {
+                sealed = segmentStore.persist(patientId, typeId, index, segment);
+                sealed.copySummary(segment);
+            } catch (IOException e) {
+                logger.severe("Failed to persist segment " + index + " of patient " + patientId + ": " + e.getMessage());
+            }
+        }
+        return sealed;
+    }
+
+    /**
+     * Gives the new head segment the block index after the current head's.
+     */
+    private void appendBlockIndex() {
+        int length = blockIndexes.length;
+        blockIndexes = Arrays.copyOf(blockIndexes, length + 1);
+        blockIndexes[length] = blockIndexes[length - 1] + 1;
+    }
+
+    /**
+     * Replaces the contents of an empty series with segments reopened from the
+     * segment store.
+     *
+     * @param restored the sealed segments of the series, in series order
+     */
+    synchronized void restore(List<Segment> restored) {
+        Segment[] chain = new Segment[restored.size() + 1];
+        int[] indexes = new int[restored.size() + 1];
+        int count = 0;
+        for (int index = 0; index < restored.size(); index++) {
+            Segment segment = restored.get(index);
+            if (segment == null) {
+                logger.warning("Missing segment " + index + " in restored series of patient " + patientId);
+            } else if (segment.size() > 0) {
+                indexes[count] = index;
+                chain[count++] = segment;
+                lastTimestamp = segment.timestampAt(segment.size() - 1);
+            }
+        }
+        // Missing blocks are skipped in the chain but their indexes are not reused,
+        // since a block written under an existing index replaces it
+        indexes[count] = restored.size();
+        chain[count++] = new HeapSegment(INITIAL_CAPACITY);
+        blockIndexes = Arrays.copyOf(indexes, count);
+        segments = Arrays.copyOf(chain, count);
+    }
+
+    /**
+     * Seals the head segment even if it is not full, so that every sample of the
+     * series is held by the segment store. Appends continue in a new head.
+     */
+    synchronized void sealHead() {
+        mergePending();
+        Segment[] current = segments;
+        Segment head = current[current.length - 1];
+        if (segmentStore == null || head.size() == 0) {
+            return;
+        }
+        Segment[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length - 1] = seal(current.length - 1, head);
+        updated[current.length] = new HeapSegment(INITIAL_CAPACITY);
+        appendBlockIndex();
+        segments = updated;
+    }
+
+    /**
+     * Returns the number of samples currently published in the series.
+     *
+     * @return the number of samples
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the approximate number of heap bytes used by the samples of the
+     * series.
+     *
+     * @return the heap footprint in bytes
+     */
+    long heapBytes() {
+        Segment[] chain = segments;
+        long bytes = 16 + (long) chain.length * 4;
+        for (Segment segment : chain) {
+            bytes += segment.heapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the last non-empty segment of the series, whose last sample is
+     * the latest sample of the series.
+     *
+     * @return the segment holding the latest sample, or null if the series is
+     *         empty
+     */
+    Segment latestSegment() {
+        Segment[] chain = segments;
+        for (int i = chain.length - 1; i >= 0; i--) {
+            if (chain[i].size() > 0) {
+                return chain[i];
+            }
+        }
+        return null;
+    }
+
+    int patientId() {
+        return patientId;
+    }
+
+    /**
+     * Adds the samples within a time range to an aggregator. Sealed segments
+     * that lie entirely within the range contribute their summary, so only the
+     * segments at the edges of the range and the head are read sample by
+     * sample.
+     *
+     * @param startTime  the start of the range, inclusive
+     * @param endTime    the end of the range, inclusive
+     * @param aggregator the aggregator to add the samples to
+     */
+    void aggregate(long startTime, long endTime, Aggregator aggregator) {
+        flushPending();
+        Segment[] chain = segments;
+        int head = chain.length - 1;
+        for (int i = firstSegment(chain, startTime); i < chain.length; i++) {
+            Segment segment = chain[i];
+            int size = segment.size();
+            if (size == 0) {
+                continue;
+            }
+            if (segment.timestampAt(0) > endTime) {
+                break;
+            }
+            if (i < head && segment.timestampAt(0) >= startTime && segment.timestampAt(size - 1) <= endTime) {
+                aggregator.add(segment);
+            } else {
+                segment = aggregator.readable(segment);
+                int to = segment.upperBound(endTime, size);
+                for (int j = segment.lowerBound(startTime, size); j < to; j++) {
+                    aggregator.add(segment.timestampAt(j), segment.valueAt(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first segment in the chain that may hold samples
+     * at or after the given time.
+     */
+    private static int firstSegment(Segment[] chain, long startTime) {
+        int low = 0;
+        int high = chain.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Segment candidate = chain[mid];
+            int size = candidate.size();
+            if (size > 0 && candidate.timestampAt(size - 1) < startTime) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Accumulates the count, extremes, sum and latest sample of a set of
+     * samples. An aggregator is reusable through {@link #reset()}.
+     */
+    static final class Aggregator {
+        private long count;
+        private double min;
+        private double max;
+        private double sum;
+        private long lastTimestamp;
+        private double last;
+        private HeapSegment scratch;
+
+        Aggregator() {
+            reset();
+        }
+
+        void reset() {
+            count = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            sum = 0;
+            lastTimestamp = Long.MIN_VALUE;
+            last = Double.NaN;
+        }
+
+        void add(long timestamp, double value) {
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            if (timestamp >= lastTimestamp) {
+                lastTimestamp = timestamp;
+                last = value;
+            }
+        }
+
+        void add(Segment segment) {
+            int size = segment.size();
+            count += size;
+            min = Math.min(min, segment.min());
+            max = Math.max(max, segment.max());
+            sum += segment.sum();
+            long timestamp = segment.timestampAt(size - 1);
+            if (timestamp >= lastTimestamp) {
+                lastTimestamp = timestamp;
+                last = segment.valueAt(size - 1);
+            }
+        }
+
+        /**
+         * Returns a readable version of a segment, decoding compressed segments
+         * into a scratch segment that is reused across calls.
+         */
+        Segment readable(Segment segment) {
+            Segment readable = segment.readable(scratch);
+            if (readable != segment) {
+                scratch = (HeapSegment) readable;
+            }
+            return readable;
+        }
+
+        RecordStatistics toStatistics(String recordType, long startTime, long endTime) {
+            if (count == 0) {
+                return new RecordStatistics(recordType, startTime, endTime, 0, Double.NaN, Double.NaN, 0,
+                        Long.MIN_VALUE, Double.NaN);
+            }
+            return new RecordStatistics(recordType, startTime, endTime, count, min, max, sum, lastTimestamp, last);
+        }
+    }
+
+    /**
+     * A reusable, forward-only cursor over the samples of a series within a
+     * time range. The cursor works on the segment chain that was published
+     * when it was reset and never blocks writers.
+     */
+    static final class Cursor {
+        private Segment[] segments;
+        private int segmentIndex;
+        private Segment segment;
+        private int position;
+        private int limit;
+        private long endTime;
+        private long timestamp;
+        private double value;
+        private HeapSegment scratch;
+
+        /**
+         * Positions the cursor before the first sample of the series at or after
+         * {@code startTime}.
+         *
+         * @param series    the series to read
+         * @param startTime the start of the range, inclusive
+         * @param endTime   the end of the range, inclusive
+         */
+        void reset(TimeSeries series, long startTime, long endTime) {
+            series.flushPending();
+            Segment[] chain = series.segments;
+            int low = firstSegment(chain, startTime);
+            this.segments = chain;
+            this.endTime = endTime;
+            this.segmentIndex = low;
+            if (low < chain.length) {
+                this.segment = open(chain[low]);
+                this.limit = segment.size();
+                this.position = segment.lowerBound(startTime, limit);
+            } else {
+                this.segment = null;
+                this.limit = 0;
+                this.position = 0;
+            }
+        }
+
+        /**
+         * Advances to the next sample in the range.
+         *
+         * @return true if the cursor moved to a sample, false if the range is
+         *         exhausted
+         */
+        boolean next() {
+            while (segment != null) {
+                if (position < limit) {
+                    long candidate = segment.timestampAt(position);
+                    if (candidate > endTime) {
+                        segment = null;
+                        return false;
+                    }
+                    timestamp = candidate;
+                    value = segment.valueAt(position);
+                    position++;
+                    return true;
+                }
+                if (++segmentIndex >= segments.length) {
+                    segment = null;
+                    return false;
+                }
+                segment = open(segments[segmentIndex]);
+                limit = segment.size();
+                position = 0;
+            }
+            return false;
+        }
+
+        private Segment open(Segment next) {
+            Segment readable = next.readable(scratch);
+            if (readable != next) {
+                scratch = (HeapSegment) readable;
+            }
+            return readable;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        double value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.data_management;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Reads the records that the simulator's {@code WebSocketOutputStrategy}
+ * broadcasts, one {@code patientId,timestamp,label,data} text frame per
+ * sample.
+ * <p>
+ * The WebSocket client's socket thread only puts every frame into a bounded
+ * queue; if the queue is full it waits, so the socket stops being read and
+ * TCP flow control slows the simulator. The thread calling
+ * {@link #readData(DataStorage)} drains the queue, copies the frames into a
+ * reusable byte buffer and parses them with a {@link CsvRecordParser} into a
+ * {@link RecordBatch}. The batch is added to the storage as a micro-batch
+ * once it holds {@code batchSize} records or its oldest record has waited
+ * {@code maxDelayMillis}, whichever comes first, so a busy stream is stored
+ * in large batches while a quiet one is still stored promptly.
+ * </p>
+ * <p>
+ * A lost connection is reestablished with exponential backoff. Frames per
+ * second, queue depth and record counts are exposed for monitoring, and
+ * parse and store times go to the server's {@link IngestionMetrics}.
+ * </p>
+ */
+public class WebSocketDataReader implements DataReader, Closeable {
+
+    private static final Logger logger = Logger.getLogger(WebSocketDataReader.class.getName());
+
+    static final int DEFAULT_BATCH_SIZE = 4096;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 20;
+    static final int QUEUE_CAPACITY = 1 << 16;
+    static final long INITIAL_BACKOFF_MILLIS = 100;
+    static final long MAX_BACKOFF_MILLIS = 10_000;
+    private static final long RATE_INTERVAL_MILLIS = 1000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final Client client;
+    private final int batchSize;
+    private final long maxDelayMillis;
+    private final BlockingQueue<String> frames = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong recordsStored = new AtomicLong();
+    private final IngestionMetrics metrics;
+    private volatile double framesPerSecond;
+    private volatile long invalidFrames;
+    private volatile boolean closed;
+
+    /**
+     * Creates a reader with the default micro-batch size and delay.
+     *
+     * @param serverUri the address of the simulator's WebSocket output, e.g.
+     *                  {@code ws://localhost:8080}
+     */
+    public WebSocketDataReader(URI serverUri) {
+        this(serverUri, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param serverUri      the address of the simulator's WebSocket output
+     * @param batchSize      the number of records that triggers a flush to the
+     *                       storage
+     * @param maxDelayMillis the longest time a record waits for its batch to
+     *                       be flushed
+     * @throws IllegalArgumentException if the batch size or delay is not
+     *                                  positive
+     */
+    public WebSocketDataReader(URI serverUri, int batchSize, long maxDelayMillis) {
+        if (batchSize <= 0 || maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("Batch size and delay must be positive");
+        }
+        this.client = new Client(serverUri);
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.metrics = new IngestionMetrics(serverUri.toString());
+    }
+
+    /**
+     * Connects to the server and adds the records it sends to the storage
+     * until {@link #close()} is called. The calling thread parses the frames
+     * and writes the batches; frames received before closing are stored
+     * before the method returns.
+     *
+     * @param dataStorage the storage to add the records to
+     * @throws IOException never; connection failures are retried
+     */
+    @Override
+    public void readData(DataStorage dataStorage) throws IOException {
+        Ingest ingest = new Ingest(dataStorage);
+        metrics.register();
+        boolean started = false;
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        long reconnectAt = 0;
+        try {
+            while (!closed) {
+                long now = System.currentTimeMillis();
+                if (client.isOpen()) {
+                    backoffMillis = INITIAL_BACKOFF_MILLIS;
+                } else if (client.isClosed() || !started) {
+                    if (now >= reconnectAt) {
+                        if (started) {
+                            client.reconnect();
+                        } else {
+                            client.connect();
+                            started = true;
+                        }
+                        reconnectAt = now + backoffMillis;
+                        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+                    }
+                }
+                ingest.poll(now);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            client.close();
+            // The socket thread may be waiting for room in the queue, so keep
+            // draining until it has seen the close
+            long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+            while (started && !client.isClosed() && System.currentTimeMillis() < deadline) {
+                ingest.drain();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            ingest.drain();
+            metrics.unregister();
+            logger.info("Stopped reading after storing " + recordsStored.get() + " records");
+        }
+    }
+
+    /**
+     * Stops reading. The call returns at once; {@link #readData(DataStorage)}
+     * returns once the frames already received are stored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Returns the number of frames received per second, measured over the
+     * last second.
+     *
+     * @return the frame rate
+     */
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    /**
+     * Returns the number of frames received but not parsed yet.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return frames.size();
+    }
+
+    /**
+     * Returns the number of frames received so far.
+     *
+     * @return the number of frames
+     */
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    /**
+     * Returns the number of records added to the storage so far.
+     *
+     * @return the number of stored records
+     */
+    public long getRecordsStored() {
+        return recordsStored.get();
+    }
+
+    /**
+     * Returns the ingestion metrics of the server, which are registered with
+     * JMX while {@link #readData(DataStorage)} runs.
+     *
+     * @return the metrics
+     */
+    public IngestionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of frames that held no valid record.
+     *
+     * @return the number of invalid frames
+     */
+    public long getInvalidFrames() {
+        return invalidFrames;
+    }
+
+    /**
+     * The parsing side, run by the thread calling readData.
+     */
+    private final class Ingest {
+        private final DataStorage dataStorage;
+        private final RecordBatch batch = new RecordBatch(batchSize);
+        private final CsvRecordParser parser = new CsvRecordParser(batch, CsvRecordParser.Layout.SIMULATOR, metrics);
+        private final List<String> drained = new ArrayList<>(batchSize);
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long batchStart;
+        private long rateStart = System.currentTimeMillis();
+        private long rateFrames;
+
+        Ingest(DataStorage dataStorage) {
+            this.dataStorage = dataStorage;
+        }
+
+        /**
+         * Parses the queued frames, waiting briefly for one if there is none,
+         * and flushes the batch when it is full or old enough.
+         */
+        void poll(long now) throws InterruptedException {
+            long wait = batch.size() > 0 ? Math.max(1, batchStart + maxDelayMillis - now) : maxDelayMillis;
+            String first = frames.poll(wait, TimeUnit.MILLISECONDS);
+            if (first != null) {
+                parse(first);
+            }
+            now = System.currentTimeMillis();
+            if (batch.size() >= batchSize || (batch.size() > 0 && now - batchStart >= maxDelayMillis)) {
+                flush();
+            }
+            if (now - rateStart >= RATE_INTERVAL_MILLIS) {
+                long received = framesReceived.get();
+                framesPerSecond = (received - rateFrames) * 1000.0 / (now - rateStart);
+                rateFrames = received;
+                rateStart = now;
+            }
+        }
+
+        /**
+         * Parses and stores every queued frame.
+         */
+        void drain() {
+            String frame;
+            while ((frame = frames.poll()) != null) {
+                parse(frame);
+            }
+            flush();
+        }
+
+        private void parse(String first) {
+            if (batch.size() == 0) {
+                batchStart = System.currentTimeMillis();
+            }
+            long start = System.nanoTime();
+            buffer.clear();
+            append(first);
+            drained.clear();
+            frames.drainTo(drained, batchSize);
+            for (int i = 0; i < drained.size(); i++) {
+                append(drained.get(i));
+            }
+            buffer.flip();
+            int bytes = buffer.limit();
+            parser.parse(buffer);
+            metrics.recordParse(drained.size() + 1, bytes, System.nanoTime() - start);
+            invalidFrames = parser.getInvalidCount();
+        }
+
+        /**
+         * Copies a frame into the buffer as a line. The simulator sends ASCII;
+         * other characters are replaced, which makes their frame invalid.
+         */
+        private void append(String frame) {
+            int length = frame.length();
+            if (buffer.remaining() < length + 1) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length + 1));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = frame.charAt(i);
+                buffer.put(c < 0x80 ? (byte) c : (byte) '?');
+            }
+            buffer.put((byte) '\n');
+        }
+
+        private void flush() {
+            if (batch.size() == 0) {
+                return;
+            }
+            long newest = batch.maxTimestamp();
+            long start = System.nanoTime();
+            dataStorage.addBatch(batch);
+            metrics.recordStore(batch.size(), newest, System.nanoTime() - start);
+            recordsStored.addAndGet(batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * Hands every text frame to the parsing thread.
+     */
+    private final class Client extends WebSocketClient {
+
+        Client(URI serverUri) {
+            super(serverUri);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            logger.info("Connected to " + getURI());
+        }
+
+        @Override
+        public void onMessage(String message) {
+            framesReceived.incrementAndGet();
+            try {
+                frames.put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            if (!closed) {
+                logger.warning("Connection to " + getURI() + " closed (" + code + " " + reason + ")");
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            logger.warning("WebSocket error from " + getURI() + ": " + ex.getMessage());
+        }
+    }
+}
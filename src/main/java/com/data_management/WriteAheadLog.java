@@ -0,0 +1,471 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Append-only binary log of the records added to a {@link DataStorage}, used
+ * to recover records that were not yet persisted when the process stopped.
+ * <p>
+ * Durability is controlled by group commit: the log is written and forced to
+ * disk every {@code syncEveryRecords} records and/or every
+ * {@code syncIntervalMillis} milliseconds, whichever comes first. With both
+ * set to 0 the log is only forced on {@link #sync()} and {@link #close()}, so
+ * at most the records since the last sync can be lost in a crash.
+ * </p>
+ * <p>
+ * The file starts with a magic number, a version and a generation, followed
+ * by entries of the form {@code tag, payload, crc32}. A type entry ({@code 'T'}) assigns a
+ * log-local id to a record type name the first time that type is logged; a
+ * record entry ({@code 'R'}) holds the patient id, the log-local type id, the
+ * timestamp and the value. Reopening a log drops any torn entry at the end.
+ * </p>
+ * <p>
+ * A log is emptied once its records are persisted elsewhere: by the segment
+ * store when a persistent {@link DataStorage} is closed, or by a snapshot,
+ * after which only the records logged since the snapshot are kept. Either
+ * way the log atomically moves on to a new generation, which tells the
+ * segments and snapshots written before the log was emptied apart from
+ * those that still depend on its records. Appends are serialized by the log's monitor, so every ingesting
+ * thread contends for it; group commit keeps the time spent inside short,
+ * but a log caps the ingestion rate of a storage at what one thread can
+ * encode.
+ * </p>
+ */
+public final class WriteAheadLog implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+
+    private static final int MAGIC = 0x57414C31; // "WAL1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final byte TYPE_ENTRY = 'T';
+    private static final byte RECORD_ENTRY = 'R';
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private FileChannel channel;
+    private final int syncEveryRecords;
+    private final ScheduledExecutorService syncScheduler;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final List<String> typeNames = new ArrayList<>(); // log-local type id -> name
+    private int[] logTypeIds = new int[0]; // registry id -> log-local type id + 1
+    private long validLength;
+    private int unsyncedRecords;
+    private int generation;
+
+    /**
+     * Opens or creates a write-ahead log.
+     *
+     * @param path               the log file
+     * @param syncEveryRecords   force the log to disk after this many records, or
+     *                           0 to not sync by count
+     * @param syncIntervalMillis force the log to disk at this interval, or 0 to
+     *                           not sync by time
+     * @throws IOException if the file cannot be opened or is not a log file
+     */
+    public WriteAheadLog(Path path, int syncEveryRecords, long syncIntervalMillis) throws IOException {
+        this.path = path;
+        this.syncEveryRecords = syncEveryRecords;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            writeHeader();
+        } else {
+            scan();
+        }
+        if (syncIntervalMillis > 0) {
+            syncScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncScheduler.scheduleAtFixedRate(this::timedSync, syncIntervalMillis, syncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            syncScheduler = null;
+        }
+    }
+
+    /**
+     * Appends a record to the log. The record is durable once the group it
+     * belongs to has been synced.
+     *
+     * @param patientId        the patient the record belongs to
+     * @param typeId           the {@link RecordTypeRegistry} id of the record type
+     * @param measurementValue the measured value
+     * @param timestamp        the time of the measurement
+     * @throws IOException if the log cannot be written
+     */
+    synchronized void append(int patientId, int typeId, double measurementValue, long timestamp) throws IOException {
+        int logTypeId = typeId < logTypeIds.length ? logTypeIds[typeId] - 1 : -1;
+        if (logTypeId < 0) {
+            logTypeId = logType(typeId);
+        }
+        ensureCapacity(1 + Integer.BYTES * 2 + Long.BYTES + Double.BYTES + Integer.BYTES);
+        int start = buffer.position();
+        buffer.put(RECORD_ENTRY).putInt(patientId).putInt(logTypeId).putLong(timestamp).putDouble(measurementValue);
+        endEntry(start);
+        if (syncEveryRecords > 0 && ++unsyncedRecords >= syncEveryRecords) {
+            sync();
+        }
+    }
+
+    /**
+     * Appends several records to the log while holding its lock once.
+     *
+     * @param patientIds the patients the records belong to
+     * @param typeIds    the {@link RecordTypeRegistry} ids of the record types
+     * @param values     the measured values
+     * @param timestamps the times of the measurements
+     * @param count      the number of records to append from the arrays
+     * @throws IOException if the log cannot be written
+     */
+    synchronized void appendAll(int[] patientIds, int[] typeIds, double[] values, long[] timestamps, int count)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            append(patientIds[i], typeIds[i], values[i], timestamps[i]);
+        }
+    }
+
+    private int logType(int typeId) throws IOException {
+        byte[] name = RecordTypeRegistry.nameOf(typeId).getBytes(StandardCharsets.UTF_8);
+        int logTypeId = typeNames.size();
+        ensureCapacity(1 + Integer.BYTES + Short.BYTES + name.length + Integer.BYTES);
+        int start = buffer.position();
+        buffer.put(TYPE_ENTRY).putInt(logTypeId).putShort((short) name.length).put(name);
+        endEntry(start);
+        typeNames.add(RecordTypeRegistry.nameOf(typeId));
+        mapType(typeId, logTypeId);
+        return logTypeId;
+    }
+
+    private void mapType(int typeId, int logTypeId) {
+        if (typeId >= logTypeIds.length) {
+            logTypeIds = Arrays.copyOf(logTypeIds, Math.max(typeId + 1, logTypeIds.length * 2));
+        }
+        logTypeIds[typeId] = logTypeId + 1;
+    }
+
+    private void endEntry(int start) {
+        crc.reset();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            writeBuffer();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            validLength += channel.write(buffer, validLength);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes all buffered entries and forces the log to disk.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void sync() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        unsyncedRecords = 0;
+    }
+
+    private void timedSync() {
+        try {
+            synchronized (this) {
+                if (buffer.position() > 0 && channel.isOpen()) {
+                    sync();
+                }
+            }
+        } catch (IOException e) {
+            logger.severe("Failed to sync write-ahead log " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the generation of the log, which starts at 0 and advances every
+     * time the log is emptied.
+     *
+     * @return the generation of the entries in the log
+     */
+    synchronized int generation() {
+        return generation;
+    }
+
+    /**
+     * Returns whether the log holds no entries.
+     *
+     * @return true if nothing was logged since the log was created or emptied
+     */
+    synchronized boolean isEmpty() {
+        return validLength == HEADER_SIZE && buffer.position() == 0;
+    }
+
+    /**
+     * Replays the records in the log into the given storage. Records a
+     * snapshot already holds are skipped: if the log is still in the
+     * generation the snapshot was taken in, replay starts at the snapshot's
+     * {@link #mark()}.
+     *
+     * @param storage            the storage to recover into
+     * @param snapshotGeneration the log generation the snapshot was taken in,
+     *                           or -1 if no snapshot was read
+     * @param snapshotMark       the mark the snapshot was taken at
+     * @return the number of records replayed
+     * @throws IOException if the log cannot be read
+     */
+    synchronized int replay(DataStorage storage, int snapshotGeneration, long snapshotMark) throws IOException {
+        long start = snapshotGeneration == generation ? snapshotMark : HEADER_SIZE;
+        writeBuffer();
+        List<Integer> typeIds = new ArrayList<>();
+        int replayed = 0;
+        CRC32 checksum = new CRC32();
+        try (DataInputStream in = openForReading(checksum, HEADER_SIZE)) {
+            long position = HEADER_SIZE;
+            while (position < validLength) {
+                checksum.reset();
+                byte tag = in.readByte();
+                if (tag == TYPE_ENTRY) {
+                    in.readInt();
+                    byte[] name = new byte[in.readUnsignedShort()];
+                    in.readFully(name);
+                    in.readInt();
+                    typeIds.add(registryId(new String(name, StandardCharsets.UTF_8)));
+                    position += 1 + Integer.BYTES + Short.BYTES + name.length + Integer.BYTES;
+                } else {
+                    int patientId = in.readInt();
+                    int typeId = typeIds.get(in.readInt());
+                    long timestamp = in.readLong();
+                    double value = in.readDouble();
+                    in.readInt();
+                    if (position >= start) {
+                        storage.restorePatientData(patientId, typeId, value, timestamp);
+                        replayed++;
+                    }
+                    position += 1 + Integer.BYTES * 2 + Long.BYTES + Double.BYTES + Integer.BYTES;
+                }
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Discards every entry of the log, once the records it holds have been
+     * persisted elsewhere, and starts the given generation. The empty log is
+     * written to a new file that atomically replaces the log, so a crash
+     * leaves either all entries in the old generation or none in the new one.
+     *
+     * @param nextGeneration the generation of the emptied log
+     * @throws IOException if the log cannot be rewritten
+     */
+    synchronized void truncate(int nextGeneration) throws IOException {
+        buffer.clear();
+        FileChannel old = channel;
+        Path replacement = startReplacement(nextGeneration);
+        commitReplacement(replacement, old);
+    }
+
+    /**
+     * Returns the end of the entries logged so far. Once every record logged
+     * before this point is held by a snapshot, {@link #discardBefore(long)}
+     * can drop them.
+     *
+     * @return the position of the next entry
+     * @throws IOException if buffered entries cannot be written
+     */
+    synchronized long mark() throws IOException {
+        writeBuffer();
+        return validLength;
+    }
+
+    /**
+     * Discards the entries before a {@link #mark()}, keeping those appended
+     * since. The kept records are copied to a new file in the next
+     * generation, which starts its own type table and then atomically
+     * replaces the log, so a crash at any point leaves either the old or the
+     * new log. Appends wait while the records logged since the mark are
+     * copied.
+     *
+     * @param mark a position returned by {@link #mark()}
+     * @throws IOException if the log cannot be rewritten
+     */
+    synchronized void discardBefore(long mark) throws IOException {
+        writeBuffer();
+        List<String> names = new ArrayList<>(typeNames);
+        FileChannel old = channel;
+        long end = validLength;
+        Path compacted = startReplacement(generation + 1);
+        try (DataInputStream in = openForReading(null, mark)) {
+            long position = mark;
+            while (position < end) {
+                if (in.readByte() == TYPE_ENTRY) {
+                    in.readInt();
+                    int length = in.readUnsignedShort();
+                    in.skipBytes(length + Integer.BYTES);
+                    position += 1 + Integer.BYTES + Short.BYTES + length + Integer.BYTES;
+                } else {
+                    int patientId = in.readInt();
+                    String type = names.get(in.readInt());
+                    long timestamp = in.readLong();
+                    double value = in.readDouble();
+                    in.readInt();
+                    append(patientId, registryId(type), value, timestamp);
+                    position += 1 + Integer.BYTES * 2 + Long.BYTES + Double.BYTES + Integer.BYTES;
+                }
+            }
+        }
+        commitReplacement(compacted, old);
+    }
+
+    /**
+     * Switches appends to an empty file in the given generation, which
+     * replaces the log once {@link #commitReplacement} is called.
+     */
+    private Path startReplacement(int nextGeneration) throws IOException {
+        Path replacement = path.resolveSibling(path.getFileName() + ".tmp");
+        channel = FileChannel.open(replacement, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        generation = nextGeneration;
+        typeNames.clear();
+        logTypeIds = new int[0];
+        writeHeader();
+        return replacement;
+    }
+
+    private void commitReplacement(Path replacement, FileChannel old) throws IOException {
+        sync();
+        Files.move(replacement, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        old.close();
+    }
+
+    /**
+     * Syncs and closes the log.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (syncScheduler != null) {
+            syncScheduler.shutdown();
+        }
+        if (channel.isOpen()) {
+            sync();
+            channel.close();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(generation);
+        header.flip();
+        channel.write(header, 0);
+        validLength = HEADER_SIZE;
+    }
+
+    private DataInputStream openForReading(CRC32 checksum, long position) throws IOException {
+        FileChannel reader = FileChannel.open(path, StandardOpenOption.READ);
+        reader.position(position);
+        InputStream in = new BufferedInputStream(Channels.newInputStream(reader), BUFFER_SIZE);
+        return new DataInputStream(checksum != null ? new CheckedInputStream(in, checksum) : in);
+    }
+
+    /**
+     * Registers a record type named in the log. A log can name types that no
+     * longer fit in the registry, e.g. after the configured rules changed.
+     */
+    private int registryId(String typeName) throws IOException {
+        try {
+            return RecordTypeRegistry.intern(typeName);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Cannot recover write-ahead log " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Validates an existing log, rebuilds its type table and truncates any torn
+     * or corrupt entries at the end so that appends continue after the last
+     * valid entry.
+     */
+    private void scan() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a write-ahead log: " + path);
+        }
+        generation = header.getInt(8);
+        long fileSize = channel.size();
+        long position = HEADER_SIZE;
+        CRC32 checksum = new CRC32();
+        try (DataInputStream in = openForReading(checksum, HEADER_SIZE)) {
+            while (position < fileSize) {
+                checksum.reset();
+                byte tag = in.readByte();
+                long length;
+                String typeName = null;
+                if (tag == TYPE_ENTRY) {
+                    in.readInt();
+                    byte[] name = new byte[in.readUnsignedShort()];
+                    in.readFully(name);
+                    typeName = new String(name, StandardCharsets.UTF_8);
+                    length = 1 + Integer.BYTES + Short.BYTES + name.length + Integer.BYTES;
+                } else if (tag == RECORD_ENTRY) {
+                    in.readInt();
+                    int logTypeId = in.readInt();
+                    in.readLong();
+                    in.readDouble();
+                    if (logTypeId < 0 || logTypeId >= typeNames.size()) {
+                        break;
+                    }
+                    length = 1 + Integer.BYTES * 2 + Long.BYTES + Double.BYTES + Integer.BYTES;
+                } else {
+                    break;
+                }
+                int expected = (int) checksum.getValue();
+                if (in.readInt() != expected) {
+                    break;
+                }
+                if (typeName != null) {
+                    mapType(registryId(typeName), typeNames.size());
+                    typeNames.add(typeName);
+                }
+                position += length;
+            }
+        } catch (EOFException e) {
+            // A torn entry at the end of the log
+        }
+        if (position < fileSize) {
+            logger.warning("Truncating " + (fileSize - position) + " bytes of incomplete entries from " + path);
+            channel.truncate(position);
+        }
+        validLength = position;
+    }
+}
@@ -0,0 +1,111 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.alerts.Alert;
+import com.alerts.AlertGenerator;
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.Subscription;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the incremental evaluation of {@link AlertGenerator}.
+ */
+class AlertGeneratorTest {
+
+    private static final String LOW_SATURATION = "blood saturation level is too low";
+    private static final String RAPID_DROP = "blood oxygen saturation level dropped by 5% or more within 10 minutes";
+
+    @Test
+    void evaluatesOnlyNewRecordsAndAlertsOnce() {
+        DataStorage storage = new DataStorage();
+        AlertGenerator generator = new AlertGenerator(storage);
+        storage.addPatientData(1, 97.0, "blood saturation", 1000L);
+        storage.addPatientData(1, 85.0, "blood saturation", 2000L);
+        Patient patient = storage.getAllPatients().get(0);
+
+        generator.evaluateData(patient);
+        assertEquals(2, generator.getRecordsEvaluated());
+        assertEquals(List.of(2000L), timestamps(generator.getAlerts(), LOW_SATURATION));
+        assertEquals(List.of(2000L), timestamps(generator.getAlerts(), RAPID_DROP));
+
+        generator.evaluateData(patient);
+        assertEquals(2, generator.getRecordsEvaluated());
+        assertEquals(2, generator.getAlerts().size());
+
+        // A record of another type at the watermark timestamp is still new, and the rapid
+        // drop compares the saturation with the readings of the earlier pass
+        storage.addPatientData(1, 120.0, "blood pressure systolic", 2000L);
+        storage.addPatientData(1, 80.0, "blood saturation", 3000L);
+        generator.evaluateData(patient);
+        assertEquals(4, generator.getRecordsEvaluated());
+        assertEquals(List.of(2000L, 3000L), timestamps(generator.getAlerts(), LOW_SATURATION));
+        assertEquals(List.of(2000L, 3000L), timestamps(generator.getAlerts(), RAPID_DROP));
+        assertEquals(4, generator.getAlerts().size());
+    }
+
+    @Test
+    void pushedRecordsShareTheWatermark() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        AlertGenerator generator = new AlertGenerator(storage);
+        Subscription subscription = storage.subscribe(DataStorage.ALL_PATIENTS, null, generator::evaluate);
+        try {
+            storage.addPatientData(1, 85.0, "blood pressure systolic", 1000L);
+            storage.addPatientData(1, 80.0, "blood saturation", 2000L);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (generator.getRecordsEvaluated() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        } finally {
+            subscription.cancel();
+        }
+        assertEquals(2, generator.getRecordsEvaluated());
+        int alerts = generator.getAlerts().size();
+        assertTrue(generator.getAlerts().stream().anyMatch(alert -> alert.getCondition().startsWith("Hypotensive")));
+
+        generator.evaluateData(storage.getAllPatients().get(0));
+        assertEquals(2, generator.getRecordsEvaluated());
+        assertEquals(alerts, generator.getAlerts().size());
+    }
+
+    @Test
+    void pushedRecordsAtTheWatermarkAreNotEvaluatedTwice() {
+        DataStorage storage = new DataStorage();
+        AlertGenerator generator = new AlertGenerator(storage);
+        storage.addPatientData(1, 85.0, "blood saturation", 1000L);
+        storage.addPatientData(1, 84.0, "blood saturation", 1000L);
+        Patient patient = storage.getAllPatients().get(0);
+        generator.evaluateData(patient);
+        assertEquals(List.of(1000L, 1000L), timestamps(generator.getAlerts(), LOW_SATURATION));
+
+        // The push of a record the pass already evaluated arrives after the pass
+        generator.evaluate(storage.getRecords(1, 1000L, 1000L).get(1));
+        assertEquals(2, generator.getRecordsEvaluated());
+        assertEquals(2, generator.getAlerts().size());
+
+        // A new record at the watermark timestamp is evaluated once, whichever way comes first
+        storage.addPatientData(1, 83.0, "blood saturation", 1000L);
+        generator.evaluate(storage.getRecords(1, 1000L, 1000L).get(2));
+        generator.evaluateData(patient);
+        storage.addPatientData(1, 82.0, "blood saturation", 1000L);
+        generator.evaluateData(patient);
+        generator.evaluate(storage.getRecords(1, 1000L, 1000L).get(3));
+        assertEquals(4, generator.getRecordsEvaluated());
+        assertEquals(List.of(1000L, 1000L, 1000L, 1000L), timestamps(generator.getAlerts(), LOW_SATURATION));
+        assertEquals(4, generator.getAlerts().size());
+    }
+
+    private static List<Long> timestamps(List<Alert> alerts, String condition) {
+        List<Long> timestamps = new ArrayList<>();
+        for (Alert alert : alerts) {
+            if (alert.getCondition().equals(condition)) {
+                timestamps.add(alert.getTimestamp());
+            }
+        }
+        return timestamps;
+    }
+}
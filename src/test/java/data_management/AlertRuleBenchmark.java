@@ -0,0 +1,90 @@
+package data_management;
+
+import com.alerts.AlertGenerator;
+import com.alerts.AlertRules;
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Measures how the cost of evaluating a record changes with the number of
+ * alert rules. The default rules are extended with rules for other record
+ * types, as if many vitals were monitored; since rules are dispatched by
+ * record type, the ECG and saturation records of the benchmark should be
+ * evaluated as fast with many rules as with few. The best of several runs is
+ * reported.
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.AlertRuleBenchmark [seconds] [patients]}.
+ * </p>
+ */
+public class AlertRuleBenchmark {
+
+    private static final long START = 1700000000000L;
+    private static final int RUNS = 5;
+    private static final int[] EXTRA_RULES = { 0, 100, 1000, 10000 };
+
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        int patients = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        DataStorage storage = new DataStorage();
+        Random random = new Random(42);
+        for (int patient = 1; patient <= patients; patient++) {
+            for (int second = 0; second < seconds; second++) {
+                long timestamp = START + second * 1000L;
+                storage.addPatientData(patient, random.nextGaussian() * 0.2, "ECG", timestamp);
+                storage.addPatientData(patient, 90 + random.nextInt(10), "blood saturation", timestamp);
+            }
+        }
+        int records = seconds * patients * 2;
+
+        System.out.printf("%d records%n", records);
+        System.out.printf("%8s %14s%n", "rules", "records/s");
+        for (int extra : EXTRA_RULES) {
+            AlertRules rules = rules(extra);
+            System.out.printf("%8d %14.0f%n", rules.size(), measure(storage, rules, records));
+        }
+    }
+
+    private static double measure(DataStorage storage, AlertRules rules, int records) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS + 2; i++) {
+            AlertGenerator generator = new AlertGenerator(storage, rules);
+            long start = System.nanoTime();
+            for (Patient patient : storage.getAllPatients()) {
+                generator.evaluateData(patient);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (generator.getRecordsEvaluated() != records) {
+                throw new IllegalStateException("Evaluated a wrong number of records");
+            }
+            // The first runs warm up the JIT
+            if (i >= 2) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return records * 1e9 / best;
+    }
+
+    private static AlertRules rules(int extra) throws IOException {
+        StringBuilder json = new StringBuilder("{\"rules\": [");
+        for (int i = 0; i < extra; i++) {
+            json.append("{\"kind\": \"threshold\", \"record\": \"vital ").append(i % 50)
+                    .append("\", \"above\": ").append(i).append(", \"alert\": \"vital ").append(i).append("\"},");
+        }
+        // The saturation rules of the defaults
+        json.append("{\"kind\": \"threshold\", \"record\": \"blood saturation\", \"below\": 92,"
+                + " \"alert\": \"blood saturation level is too low\"},"
+                + "{\"kind\": \"rapidDrop\", \"record\": \"blood saturation\", \"change\": 5,"
+                + " \"withinMillis\": 600000, \"window\": 3,"
+                + " \"alert\": \"blood oxygen saturation level dropped by 5% or more within 10 minutes\"},"
+                + "{\"kind\": \"combined\", \"on\": \"blood saturation\", \"alert\": \"hypotensive hypoxemia\","
+                + " \"when\": [{\"record\": \"blood pressure systolic\", \"below\": 90},"
+                + " {\"record\": \"blood saturation\", \"below\": 92}]}]}");
+        return AlertRules.parse(new StringReader(json.toString()));
+    }
+}
@@ -0,0 +1,94 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.alerts.Alert;
+import com.alerts.AlertGenerator;
+import com.alerts.AlertRules;
+import com.data_management.DataStorage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the declarative alert rules of {@link AlertRules}.
+ */
+class AlertRulesTest {
+
+    @Test
+    void rulesForNewVitalsNeedNoCode() throws IOException {
+        AlertRules rules = rules("{\"kind\": \"threshold\", \"record\": \"respiratory rate\", \"below\": 8,"
+                + " \"above\": 30, \"alert\": \"abnormal respiratory rate\"},"
+                + "{\"kind\": \"trend\", \"record\": [\"respiratory rate\"], \"direction\": \"increasing\","
+                + " \"change\": 6, \"window\": 3, \"alert\": \"respiratory rate rising\"}");
+        assertEquals(2, rules.size());
+
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 12, "respiratory rate", 1000L);
+        storage.addPatientData(1, 15, "respiratory rate", 2000L);
+        storage.addPatientData(1, 40, "ECG", 2500L);
+        storage.addPatientData(1, 19, "respiratory rate", 3000L);
+        storage.addPatientData(1, 32, "respiratory rate", 4000L);
+        assertEquals(List.of("respiratory rate rising@3000", "abnormal respiratory rate@4000",
+                "respiratory rate rising@4000"), evaluate(storage, rules));
+    }
+
+    @Test
+    void rapidDropsAndCombinedRulesRespectTheirTimeLimits() throws IOException {
+        AlertRules rules = rules("{\"kind\": \"rapidDrop\", \"record\": \"Saturation\", \"change\": 5,"
+                + " \"withinMillis\": 1000, \"window\": 3, \"alert\": \"drop\"},"
+                + "{\"kind\": \"combined\", \"withinMillis\": 1000, \"alert\": \"both\", \"when\": ["
+                + "{\"record\": \"SystolicPressure\", \"below\": 90}, {\"record\": \"Saturation\", \"below\": 92}]}");
+
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 98, "blood saturation", 1000L);
+        storage.addPatientData(1, 92, "blood saturation", 3000L);
+        storage.addPatientData(1, 91, "blood saturation", 3500L);
+        storage.addPatientData(1, 86, "blood saturation", 4000L);
+        storage.addPatientData(1, 85, "blood pressure systolic", 5000L);
+        storage.addPatientData(1, 84, "blood pressure systolic", 6500L);
+        assertEquals(List.of("drop@4000", "both@5000"), evaluate(storage, rules));
+    }
+
+    @Test
+    void rejectsInvalidRules() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> rules("{\"kind\": \"threshold\", \"record\": \"ECG\", \"above\": 1, \"alert\": \"a\"},"
+                        + "{\"kind\": \"rapidDrop\", \"record\": \"ECG\", \"change\": 1, \"alert\": \"b\"}"));
+        assertTrue(e.getMessage().startsWith("Rule 2:"), e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> rules("{\"kind\": \"spike\", \"record\": \"ECG\", \"alert\": \"c\"}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> rules("{\"kind\": \"threshold\", \"record\": \"ECG\", \"alert\": \"d\"}"));
+        assertThrows(IllegalArgumentException.class, () -> AlertRules.parse(new StringReader("[")));
+        e = assertThrows(IllegalArgumentException.class,
+                () -> rules("{\"kind\": \"trend\", \"record\": \"ECG\", \"direction\": \"increasing\","
+                        + " \"change\": 1, \"window\": 2.5, \"alert\": \"e\"}"));
+        assertTrue(e.getMessage().contains("window must be an integer"), e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> rules("{\"kind\": \"trend\", \"record\": \"ECG\", \"direction\": \"increasing\","
+                        + " \"change\": 1, \"window\": 1e10, \"alert\": \"f\"}"));
+    }
+
+    @Test
+    void defaultsDeclareTheStandardConditions() {
+        assertEquals(9, AlertRules.defaults().size());
+    }
+
+    private static AlertRules rules(String rules) throws IOException {
+        return AlertRules.parse(new StringReader("{\"rules\": [" + rules + "]}"));
+    }
+
+    private static List<String> evaluate(DataStorage storage, AlertRules rules) {
+        AlertGenerator generator = new AlertGenerator(storage, rules);
+        generator.evaluateData(storage.getAllPatients().get(0));
+        List<String> alerts = new ArrayList<>();
+        for (Alert alert : generator.getAlerts()) {
+            alerts.add(alert.getCondition() + "@" + alert.getTimestamp());
+        }
+        return alerts;
+    }
+}
@@ -0,0 +1,114 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.RecordBatch;
+import com.data_management.RecordTypeRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Compares adding records one at a time through
+ * {@link DataStorage#addPatientData(int, int, double, long)} with
+ * {@link DataStorage#addBatch(RecordBatch)} at batch sizes of 1, 64, 1024 and
+ * 65536 records.
+ * <p>
+ * The records interleave random patients, 1000 by default, and five record
+ * types in timestamp order, as a live feed does. With fewer patients every
+ * batch holds longer runs per series. Every run adds all records to a fresh
+ * {@link DataStorage}, reusing one {@link RecordBatch}. The benchmark reports
+ * records per second of the fastest of five runs and bytes allocated per
+ * record, measured with the HotSpot thread allocation counter.
+ * </p>
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.BatchIngestBenchmark [records] [patients]}.
+ * </p>
+ */
+public class BatchIngestBenchmark {
+
+    private static final String[] TYPES = { "ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol" };
+    private static final int[] BATCH_SIZES = { 1, 64, 1024, 65536 };
+    private static final int RUNS = 5;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long checksum;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int patients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int[] patientIds = new int[count];
+        int[] typeIds = new int[count];
+        double[] values = new double[count];
+        long[] timestamps = new long[count];
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            patientIds[i] = 1 + random.nextInt(patients);
+            typeIds[i] = RecordTypeRegistry.intern(TYPES[i % TYPES.length]);
+            values[i] = 60 + random.nextInt(1000) / 10.0;
+            timestamps[i] = 1700000000000L + i;
+        }
+
+        // Warm up the JIT before measuring
+        for (int i = 0; i < 3; i++) {
+            addSingly(patientIds, typeIds, values, timestamps);
+            for (int size : BATCH_SIZES) {
+                addBatches(patientIds, typeIds, values, timestamps, size);
+            }
+        }
+
+        System.out.printf("%d records, %d patients%n", count, patients);
+        System.out.printf("%-20s %14s %10s %12s%n", "mode", "records/s", "speedup", "bytes/record");
+        double single = measure("addPatientData", count, 0, () -> addSingly(patientIds, typeIds, values, timestamps));
+        for (int size : BATCH_SIZES) {
+            measure("addBatch " + size, count, single,
+                    () -> addBatches(patientIds, typeIds, values, timestamps, size));
+        }
+        if (checksum == 42) {
+            System.out.println();
+        }
+    }
+
+    private static double measure(String name, int count, double baseline, Runnable run) {
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            // Collect the previous run's storage outside the measured time
+            System.gc();
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        double rate = (double) count * 1e9 / best;
+        System.out.printf("%-20s %14.0f %9.2fx %12.1f%n", name, rate, baseline == 0 ? 1 : rate / baseline,
+                (double) allocated / ((long) count * RUNS));
+        return rate;
+    }
+
+    private static void addSingly(int[] patientIds, int[] typeIds, double[] values, long[] timestamps) {
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < patientIds.length; i++) {
+            storage.addPatientData(patientIds[i], typeIds[i], values[i], timestamps[i]);
+        }
+        checksum += storage.getAllPatients().size();
+    }
+
+    private static void addBatches(int[] patientIds, int[] typeIds, double[] values, long[] timestamps,
+            int size) {
+        DataStorage storage = new DataStorage();
+        RecordBatch batch = new RecordBatch(size);
+        for (int i = 0; i < patientIds.length; i++) {
+            batch.addPatientData(patientIds[i], typeIds[i], values[i], timestamps[i]);
+            if (batch.size() == size) {
+                storage.addBatch(batch);
+                batch.clear();
+            }
+        }
+        storage.addBatch(batch);
+        checksum += storage.getAllPatients().size();
+    }
+}
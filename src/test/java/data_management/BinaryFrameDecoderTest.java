@@ -0,0 +1,87 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.BinaryFrameDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that {@link BinaryFrameDecoder} rejects malformed frames with a
+ * {@link StreamCorruptedException}, which ends only the offending connection.
+ */
+class BinaryFrameDecoderTest {
+
+    // A ten-byte varint whose value has the sign bit set
+    private static final int[] NEGATIVE = { 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01 };
+
+    @Test
+    void decodesAWellFormedFrame() throws StreamCorruptedException {
+        List<Double> values = new ArrayList<>();
+        BinaryFrameDecoder decoder = new BinaryFrameDecoder((patientId, typeId, value, timestamp) -> values.add(value),
+                1024);
+        ByteBuffer buffer = frame(body(0x00, 0x01, 0x00, 0x03, 'E', 'C', 'G', 0x01, 0x02, 0x00, 0x00,
+                0x3F, 0xF0, 0, 0, 0, 0, 0, 0));
+        assertEquals(1, decoder.parse(buffer));
+        assertEquals(List.of(1.0), values);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void rejectsNegativeLabelLengths() {
+        assertCorrupt(body(concat(new int[] { 0x00, 0x01, 0x00 }, NEGATIVE)));
+    }
+
+    @Test
+    void rejectsNegativeTypeIds() {
+        int[] sample = concat(new int[] { 0x00, 0x01, 0x00, 0x01, 'A', 0x01, 0x00, 0x00 }, NEGATIVE);
+        assertCorrupt(body(concat(sample, new int[Double.BYTES])));
+    }
+
+    @Test
+    void rejectsOversizedVarints() {
+        assertCorrupt(body(0x00, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01));
+        // A label length that does not fit an int
+        assertCorrupt(body(0x00, 0x01, 0x00, 0x80, 0x80, 0x80, 0x80, 0x10));
+        // A frame longer than the decoder accepts
+        BinaryFrameDecoder decoder = new BinaryFrameDecoder((patientId, typeId, value, timestamp) -> { }, 16);
+        assertThrows(StreamCorruptedException.class, () -> decoder.parse(frame(new byte[17])));
+    }
+
+    private static void assertCorrupt(byte[] body) {
+        BinaryFrameDecoder decoder = new BinaryFrameDecoder((patientId, typeId, value, timestamp) -> { }, 1024);
+        assertThrows(StreamCorruptedException.class, () -> decoder.parse(frame(body)));
+    }
+
+    private static ByteBuffer frame(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = body.length;
+        while (length >= 0x80) {
+            out.write(length & 0x7F | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        out.writeBytes(body);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static byte[] body(int... bytes) {
+        byte[] body = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            body[i] = (byte) bytes[i];
+        }
+        return body;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] bytes = new int[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
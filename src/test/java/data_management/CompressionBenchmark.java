@@ -0,0 +1,137 @@
+package data_management;
+
+import com.cardiogenerator.generators.AlertGenerator;
+import com.cardiogenerator.generators.BloodLevelsDataGenerator;
+import com.cardiogenerator.generators.BloodPressureDataGenerator;
+import com.cardiogenerator.generators.BloodSaturationDataGenerator;
+import com.cardiogenerator.generators.ECGDataGenerator;
+import com.cardiogenerator.generators.PatientDataGenerator;
+import com.cardiogenerator.outputs.OutputStrategy;
+import com.cardiogenerator.outputs.SampleType;
+import com.data_management.DataStorage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the heap memory per sample of {@link DataStorage} for a simulated
+ * day of data from the simulator's generators.
+ * <p>
+ * Every patient gets 24 hours of samples at the rates used by
+ * {@code HealthDataSimulator}: ECG and saturation every second, blood pressure
+ * every minute, blood levels every two minutes and alerts every 20 seconds.
+ * Timestamps carry a few milliseconds of scheduling jitter. Patients are
+ * generated one at a time so the benchmark does not need the memory of the
+ * whole ward; the reported numbers are totals over all patients.
+ * </p>
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.CompressionBenchmark [patients]}.
+ * </p>
+ */
+public class CompressionBenchmark {
+
+    private static final long START = 1700000000000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final int UNCOMPRESSED_BYTES_PER_SAMPLE = Long.BYTES + Double.BYTES;
+
+    public static void main(String[] args) {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Random jitter = new Random(42);
+
+        Map<String, long[]> totals = new LinkedHashMap<>(); // group -> { samples, bytes }
+        Map<String, Generator[]> groups = new LinkedHashMap<>();
+        groups.put("ECG", new Generator[] { new Generator(new ECGDataGenerator(patients), 1000) });
+        groups.put("Saturation", new Generator[] {
+                new Generator(new BloodSaturationDataGenerator(patients), 1000) });
+        groups.put("Blood pressure", new Generator[] {
+                new Generator(new BloodPressureDataGenerator(patients), 60_000) });
+        groups.put("Blood levels", new Generator[] {
+                new Generator(new BloodLevelsDataGenerator(patients), 120_000) });
+        groups.put("Alert", new Generator[] { new Generator(new AlertGenerator(patients), 20_000) });
+
+        long begin = System.nanoTime();
+        for (int patientId = 1; patientId <= patients; patientId++) {
+            for (Map.Entry<String, Generator[]> group : groups.entrySet()) {
+                DataStorage storage = new DataStorage();
+                long samples = 0;
+                for (Generator generator : group.getValue()) {
+                    samples += generator.generateDay(patientId, storage, jitter);
+                }
+                long[] total = totals.computeIfAbsent(group.getKey(), k -> new long[2]);
+                total[0] += samples;
+                total[1] += storage.getRecordMemoryUsage();
+            }
+        }
+        long elapsed = (System.nanoTime() - begin) / 1_000_000;
+
+        System.out.printf("%d patients, 24h, generated in %d ms%n", patients, elapsed);
+        System.out.printf("%-16s %14s %14s %12s %10s%n", "records", "samples", "heap bytes", "bytes/sample",
+                "ratio");
+        long allSamples = 0;
+        long allBytes = 0;
+        for (Map.Entry<String, long[]> total : totals.entrySet()) {
+            print(total.getKey(), total.getValue()[0], total.getValue()[1]);
+            allSamples += total.getValue()[0];
+            allBytes += total.getValue()[1];
+        }
+        print("all", allSamples, allBytes);
+        System.out.printf("uncompressed arrays: %d bytes/sample, %d MB in total%n",
+                UNCOMPRESSED_BYTES_PER_SAMPLE, allSamples * UNCOMPRESSED_BYTES_PER_SAMPLE >> 20);
+    }
+
+    private static void print(String name, long samples, long bytes) {
+        double perSample = (double) bytes / samples;
+        System.out.printf("%-16s %14d %14d %12.2f %9.1fx%n", name, samples, bytes, perSample,
+                UNCOMPRESSED_BYTES_PER_SAMPLE / perSample);
+    }
+
+    /**
+     * Runs one of the simulator's generators on a simulated clock and stores its
+     * output.
+     */
+    private static final class Generator implements OutputStrategy {
+        private final PatientDataGenerator generator;
+        private final long periodMillis;
+        private DataStorage storage;
+        private long now;
+        private long samples;
+
+        Generator(PatientDataGenerator generator, long periodMillis) {
+            this.generator = generator;
+            this.periodMillis = periodMillis;
+        }
+
+        long generateDay(int patientId, DataStorage storage, Random jitter) {
+            this.storage = storage;
+            this.samples = 0;
+            for (long tick = START; tick < START + DAY; tick += periodMillis) {
+                now = tick + jitter.nextInt(4);
+                generator.generate(patientId, this);
+            }
+            return samples;
+        }
+
+        @Override
+        public void output(int patientId, long timestamp, String label, String data) {
+            double value;
+            if (data.equals("triggered")) {
+                value = 1;
+            } else if (data.equals("resolved")) {
+                value = 0;
+            } else {
+                value = Double.parseDouble(data.endsWith("%") ? data.substring(0, data.length() - 1) : data);
+            }
+            // The generators read the wall clock; use the simulated one instead
+            storage.addPatientData(patientId, value, label, now);
+            samples++;
+        }
+
+        @Override
+        public void output(int patientId, long timestamp, int typeId, double value) {
+            storage.addPatientData(patientId, value, SampleType.label(typeId), now);
+            samples++;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.CsvRecordParser;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tests {@link CsvRecordParser} against the JDK parsing used by
+ * {@code DataParser}.
+ */
+class CsvRecordParserTest {
+
+    @Test
+    void parsesRecordsIntoStorage() {
+        DataStorage storage = new DataStorage();
+        CsvRecordParser parser = new CsvRecordParser(storage);
+        ByteBuffer buffer = bytes("1,98.5,Saturation,1700000000000\r\n"
+                + "1,-0.25,ECG,1700000000001\n"
+                + "\n"
+                + "2,120,SystolicPressure,1700000000002");
+
+        assertEquals(3, parser.parse(buffer));
+        assertEquals(1, parser.parseRemaining(buffer));
+        assertFalse(buffer.hasRemaining());
+
+        List<PatientRecord> records = storage.getRecords(1, 0, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertEquals(98.5, records.get(0).getMeasurementValue());
+        assertEquals("blood saturation", records.get(0).getRecordType());
+        assertEquals(-0.25, records.get(1).getMeasurementValue());
+        assertEquals(120, storage.getRecords(2, "blood pressure systolic", 0, Long.MAX_VALUE).get(0)
+                .getMeasurementValue());
+        assertEquals(3, parser.getRecordCount());
+        assertEquals(0, parser.getInvalidCount());
+    }
+
+    @Test
+    void valuesMatchDoubleParseDouble() {
+        Random random = new Random(42);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            values.add(Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(12) - 4)));
+            values.add(String.format(Locale.ROOT, "%.3f", random.nextDouble() * 200));
+        }
+        values.add("0");
+        values.add("-0.0");
+        values.add("1e3");
+        values.add("2.5E-7");
+        values.add("123456789012345678901234567890");
+        values.add("0.1000000000000000055511151231257827");
+        values.add("NaN");
+        values.add("-Infinity");
+
+        List<double[]> parsed = new ArrayList<>();
+        CsvRecordParser parser = new CsvRecordParser(
+                (patientId, typeId, value, timestamp) -> parsed.add(new double[] { value }));
+        for (String value : values) {
+            assertTrue(parser.parseLine(bytes("7," + value + ",ECG,1"), 0, ("7," + value + ",ECG,1").length()),
+                    value);
+        }
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(Double.parseDouble(values.get(i)), parsed.get(i)[0], 0.0, values.get(i));
+        }
+    }
+
+    @Test
+    void invalidLinesAreCountedAndSkipped() {
+        List<int[]> parsed = new ArrayList<>();
+        CsvRecordParser parser = new CsvRecordParser(
+                (patientId, typeId, value, timestamp) -> parsed.add(new int[] { patientId, typeId }));
+        String[] invalid = { "x,1,ECG,1", "1,1,ECG", "1,,ECG,1", "1,1,,1", "1,1,ECG,1x", "1,1e,ECG,1",
+                "99999999999,1,ECG,1", "1,1,ECG,99999999999999999999", "1.5,1,ECG,1", "1,abc,ECG,1" };
+        StringBuilder text = new StringBuilder();
+        for (String line : invalid) {
+            text.append(line).append('\n');
+        }
+        text.append("-3,+4,ECG,-5\n");
+
+        assertEquals(invalid.length + 1, parser.parse(bytes(text.toString())));
+        assertEquals(invalid.length, parser.getInvalidCount());
+        assertEquals(1, parsed.size());
+        assertEquals(-3, parsed.get(0)[0]);
+        assertEquals(RecordTypeRegistry.ECG, parsed.get(0)[1]);
+    }
+
+    @Test
+    void parsesFileOutputStrategyLines() {
+        DataStorage storage = new DataStorage();
+        CsvRecordParser parser = new CsvRecordParser(storage);
+        parser.parse(bytes("Patient ID: 4, Timestamp: 1700000000000, Label: Saturation, Data: 97.0%\n"
+                + "Patient ID: 4, Timestamp: 1700000000001, Label: ECG, Data: -0.125\n"
+                + "Patient ID: 4, Timestamp: 1700000000002, Label: Alert, Data: triggered\n"
+                + "Patient ID: 4, Timestamp: 1700000000003, Label: Alert, Data: resolved\n"
+                + "Patient ID: 4, Timestamp: x, Label: ECG, Data: 1\n"));
+
+        List<PatientRecord> records = storage.getRecords(4, 0, Long.MAX_VALUE);
+        assertEquals(4, records.size());
+        assertEquals("blood saturation", records.get(0).getRecordType());
+        assertEquals(97.0, records.get(0).getMeasurementValue());
+        assertEquals(-0.125, records.get(1).getMeasurementValue());
+        assertEquals(1, records.get(2).getMeasurementValue());
+        assertEquals(0, records.get(3).getMeasurementValue());
+        assertEquals(1, parser.getInvalidCount());
+    }
+
+    @Test
+    void parsesDirectBuffersInChunks() {
+        DataStorage storage = new DataStorage();
+        CsvRecordParser parser = new CsvRecordParser(storage);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append(i % 10).append(',').append(i).append(".5,Type").append(i % 40).append(',').append(i)
+                    .append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+
+        // Feed the bytes through a small direct buffer, as a channel reader would
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        int offset = 0;
+        while (offset < bytes.length) {
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+            buffer.flip();
+            parser.parse(buffer);
+            buffer.compact();
+        }
+        buffer.flip();
+        parser.parseRemaining(buffer);
+
+        assertEquals(1000, parser.getRecordCount());
+        assertEquals(0, parser.getInvalidCount());
+        List<PatientRecord> records = storage.getRecords(3, "Type13", 0, Long.MAX_VALUE);
+        assertEquals(25, records.size());
+        assertEquals(13.5, records.get(0).getMeasurementValue());
+    }
+
+    @Test
+    void spellingsOfAKnownTypeRegisterNoTypes() {
+        List<int[]> parsed = new ArrayList<>();
+        CsvRecordParser parser = new CsvRecordParser(
+                (patientId, typeId, value, timestamp) -> parsed.add(new int[] { patientId, typeId }));
+        int types = RecordTypeRegistry.size();
+        StringBuilder text = new StringBuilder();
+        char[] separators = { '-', '_', ' ' };
+        for (int i = 0; i < 5000; i++) {
+            // More distinct spellings of "ECG" than the parser and the registry remember
+            StringBuilder spelling = new StringBuilder("ECG");
+            for (int digits = i, n = 0; n < 8; digits /= 3, n++) {
+                spelling.append(separators[digits % 3]);
+            }
+            text.append(i).append(",1,").append(spelling).append(",1\n");
+        }
+
+        assertEquals(5000, parser.parse(bytes(text.toString())));
+        assertEquals(0, parser.getInvalidCount());
+        assertEquals(types, RecordTypeRegistry.size());
+        for (int[] record : parsed) {
+            assertEquals(RecordTypeRegistry.ECG, record[1]);
+        }
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
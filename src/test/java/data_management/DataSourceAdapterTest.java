@@ -0,0 +1,64 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardiogenerator.generators.BloodSaturationDataGenerator;
+import com.cardiogenerator.outputs.DataSourceAdapter;
+import com.cardiogenerator.outputs.OutputStrategy;
+import com.cardiogenerator.outputs.SampleType;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the primitive output path of the simulator and
+ * {@link DataSourceAdapter}.
+ */
+class DataSourceAdapterTest {
+
+    @Test
+    void textStrategiesSeeTheFormerStrings() {
+        assertEquals("95.0%", SampleType.format(SampleType.SATURATION, 95));
+        assertEquals("triggered", SampleType.format(SampleType.ALERT, 1));
+        assertEquals("resolved", SampleType.format(SampleType.ALERT, 0));
+        assertEquals(Double.toString(-0.123456789), SampleType.format(SampleType.ECG, -0.123456789));
+        assertEquals("SystolicPressure", SampleType.label(SampleType.SYSTOLIC_PRESSURE));
+
+        List<String> lines = new ArrayList<>();
+        OutputStrategy text = (patientId, timestamp, label, data) -> lines.add(label + "," + data);
+        new BloodSaturationDataGenerator(1).generate(1, text);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).matches("Saturation,\\d+\\.0%"), lines.get(0));
+    }
+
+    @Test
+    void bothPathsStoreTheSameRecords() {
+        DataStorage primitive = new DataStorage();
+        DataStorage text = new DataStorage();
+        DataSourceAdapter primitiveAdapter = new DataSourceAdapter(primitive);
+        DataSourceAdapter textAdapter = new DataSourceAdapter(text);
+        OutputStrategy textOnly = (patientId, timestamp, label, data) -> textAdapter.output(patientId, timestamp,
+                label, data);
+
+        double[] values = { 0.25, 97, 120, 80, 190.5, 7.25, 4.5, 1 };
+        for (int typeId = 0; typeId < SampleType.count(); typeId++) {
+            primitiveAdapter.output(1, 1000 + typeId, typeId, values[typeId]);
+            textOnly.output(1, 1000 + typeId, typeId, values[typeId]);
+        }
+        textAdapter.output(1, 2000, "ECG", "not a number");
+
+        List<PatientRecord> expected = text.getRecords(1, 0, Long.MAX_VALUE);
+        List<PatientRecord> actual = primitive.getRecords(1, 0, Long.MAX_VALUE);
+        assertEquals(SampleType.count(), actual.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i).getRecordType(), actual.get(i).getRecordType());
+            assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+        }
+        assertEquals("blood saturation", actual.get(SampleType.SATURATION).getRecordType());
+    }
+}
@@ -0,0 +1,98 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Stress test for concurrent ingestion into {@link DataStorage}.
+ */
+class DataStorageConcurrencyTest {
+    private static final Logger logger = Logger.getLogger(DataStorageConcurrencyTest.class.getName());
+
+    private static final int PATIENTS = 16;
+    private static final int RECORDS_PER_WRITER = 100_000;
+    private static final long START = 1700000000000L;
+
+    /**
+     * Runs several writer threads against the same patients, one record type
+     * per writer as with one reader per source, while a reader keeps querying
+     * them. Checks that no record is lost and that readers only ever observe
+     * sorted, growing prefixes.
+     */
+    @Test
+    void concurrentWritersLoseNoRecords() throws InterruptedException {
+        for (int writers : new int[] { 1, 2, 4, 8 }) {
+            DataStorage storage = new DataStorage();
+            AtomicBoolean writing = new AtomicBoolean(true);
+            AtomicReference<String> readerFailure = new AtomicReference<>();
+            CountDownLatch start = new CountDownLatch(1);
+
+            Thread reader = new Thread(() -> {
+                int[] lastSeen = new int[PATIENTS];
+                while (writing.get()) {
+                    for (int patientId = 0; patientId < PATIENTS; patientId++) {
+                        List<PatientRecord> records = storage.getRecords(patientId, Long.MIN_VALUE, Long.MAX_VALUE);
+                        for (int i = 1; i < records.size(); i++) {
+                            if (records.get(i - 1).getTimestamp() > records.get(i).getTimestamp()) {
+                                readerFailure.set("Records out of order for patient " + patientId);
+                            }
+                        }
+                        if (records.size() < lastSeen[patientId]) {
+                            readerFailure.set("Record count went backwards for patient " + patientId);
+                        }
+                        lastSeen[patientId] = records.size();
+                    }
+                }
+            });
+
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                final int writer = w;
+                threads.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    String type = "StressType" + writer;
+                    for (int i = 0; i < RECORDS_PER_WRITER; i++) {
+                        storage.addPatientData(i % PATIENTS, i, type, START + i);
+                    }
+                }));
+            }
+
+            threads.forEach(Thread::start);
+            reader.start();
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            writing.set(false);
+            reader.join();
+
+            int total = 0;
+            for (int patientId = 0; patientId < PATIENTS; patientId++) {
+                total += storage.getRecords(patientId, Long.MIN_VALUE, Long.MAX_VALUE).size();
+            }
+            assertNull(readerFailure.get(), readerFailure.get());
+            assertEquals(writers * RECORDS_PER_WRITER, total);
+            assertEquals(PATIENTS, storage.getAllPatients().size());
+
+            long recordsPerSecond = (long) writers * RECORDS_PER_WRITER * 1_000_000_000L / Math.max(1, elapsed);
+            logger.info(writers + " writer(s): " + recordsPerSecond + " records/s");
+        }
+    }
+}
@@ -10,7 +10,9 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.file.*;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.logging.Logger;
 
 
@@ -120,6 +122,470 @@ class DataStorageTest {
     }
 
 
+    /**
+     * Tests that a series growing across many segments returns every record in
+     * order, and that range edges are inclusive, also where a range starts or
+     * ends on a segment boundary
+     */
+    @Test
+    void testRecordsAcrossSegments() {
+        DataStorage columnarStorage = new DataStorage();
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            columnarStorage.addPatientData(3, i, "ECG", 10_000L + i);
+        }
+
+        List<PatientRecord> records = columnarStorage.getRecords(3, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(count, records.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(10_000L + i, records.get(i).getTimestamp());
+            assertEquals(i, records.get(i).getMeasurementValue());
+        }
+
+        // Segments hold 1024 samples, so these ranges meet their boundaries
+        records = columnarStorage.getRecords(3, 10_000L + 1023, 10_000L + 1024);
+        assertEquals(2, records.size());
+        assertEquals(1023.0, records.get(0).getMeasurementValue());
+        records = columnarStorage.getRecords(3, 10_000L + 1000, 10_000L + 3100);
+        assertEquals(2101, records.size());
+        assertEquals(3100.0, records.get(2100).getMeasurementValue());
+        assertEquals(1, columnarStorage.getRecords(3, 10_000L, 10_000L).size());
+        assertEquals(1, columnarStorage.getRecords(3, 10_000L + count - 1, Long.MAX_VALUE).size());
+        assertTrue(columnarStorage.getRecords(3, 0L, 9_999L).isEmpty());
+        assertTrue(columnarStorage.getRecords(3, 10_000L + count, Long.MAX_VALUE).isEmpty());
+        assertTrue(columnarStorage.getRecords(3, 12_000L, 11_000L).isEmpty());
+    }
+
+    /**
+     * Tests that out-of-order records of several types are returned sorted by
+     * timestamp, that records with equal timestamps keep their arrival order,
+     * and that a typed query only reads its own series
+     */
+    @Test
+    void testOutOfOrderRecords() {
+        DataStorage columnarStorage = new DataStorage();
+        // Timestamps go backwards and forwards across segment boundaries
+        Random random = new Random(7);
+        List<Long> ecgTimestamps = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            long timestamp = random.nextInt(100_000);
+            ecgTimestamps.add(timestamp);
+            columnarStorage.addPatientData(4, i, "ECG", timestamp);
+            columnarStorage.addPatientData(4, 90, "blood saturation", 100_000L - i);
+        }
+        columnarStorage.addPatientData(4, 1.0, "Cholesterol", 500L);
+        columnarStorage.addPatientData(4, 2.0, "Cholesterol", 500L);
+        columnarStorage.addPatientData(4, 3.0, "Cholesterol", 400L);
+
+        List<PatientRecord> all = columnarStorage.getRecords(4, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(6003, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getTimestamp() <= all.get(i).getTimestamp());
+        }
+
+        List<PatientRecord> ecg = columnarStorage.getRecords(4, "ECG", Long.MIN_VALUE, Long.MAX_VALUE);
+        ecgTimestamps.sort(null);
+        assertEquals(ecgTimestamps.size(), ecg.size());
+        for (int i = 0; i < ecg.size(); i++) {
+            assertEquals("ECG", ecg.get(i).getRecordType());
+            assertEquals((long) ecgTimestamps.get(i), ecg.get(i).getTimestamp());
+        }
+
+        List<PatientRecord> cholesterol = columnarStorage.getRecords(4, "Cholesterol", 0L, 1000L);
+        assertEquals(3, cholesterol.size());
+        assertEquals(3.0, cholesterol.get(0).getMeasurementValue());
+        assertEquals(1.0, cholesterol.get(1).getMeasurementValue());
+        assertEquals(2.0, cholesterol.get(2).getMeasurementValue());
+        assertEquals(2, columnarStorage.getRecords(4, "Cholesterol", 500L, 500L).size());
+    }
+
+    /**
+     * Tests that records of different types can be interleaved between a
+     * systolic reading and the saturation reading it is paired with
+     */
+    @Test
+    void hypotensiveHypoxemiaPairsTheLatestSystolicReading() {
+        DataStorage pairedStorage = new DataStorage();
+        pairedStorage.addPatientData(5, 85.0, "blood pressure systolic", 1000L);
+        pairedStorage.addPatientData(5, 0.4, "ECG", 1001L);
+        pairedStorage.addPatientData(5, 300.0, "WhiteBloodCells", 1002L);
+        pairedStorage.addPatientData(5, 80.0, "blood saturation", 1003L);
+        pairedStorage.addPatientData(5, 120.0, "blood pressure systolic", 1004L);
+        pairedStorage.addPatientData(5, 81.0, "blood saturation", 1005L);
+
+        AlertGenerator generator = new AlertGenerator(pairedStorage);
+        generator.evaluateData(pairedStorage.getAllPatients().get(0));
+        List<Long> timestamps = new ArrayList<>();
+        for (Alert alert : generator.getAlerts()) {
+            if (alert.getCondition().startsWith("Hypotensive Hypoxemia")) {
+                timestamps.add(alert.getTimestamp());
+            }
+        }
+        assertEquals(List.of(1003L), timestamps);
+    }
+
+    /**
+     * Tests that record type aliases are stored under their canonical type and
+     * that a typed query only returns records of that type
+     */
+    @Test
+    void testTypedRecordsAndAliases() {
+        DataStorage typedStorage = new DataStorage();
+        typedStorage.addPatientData(2, 97.0, "Saturation", 1000L);
+        typedStorage.addPatientData(2, 120.0, "SystolicPressure", 1001L);
+        typedStorage.addPatientData(2, 96.0, "blood saturation", 1002L);
+        typedStorage.addPatientData(2, 0.5, "ECG", 1003L);
+        typedStorage.addPatientData(2, 95.0, "Blood_Saturation", 1004L);
+
+        List<PatientRecord> records = typedStorage.getRecords(2, "blood saturation", 0L, 2000L);
+        assertEquals(3, records.size());
+        assertEquals(97.0, records.get(0).getMeasurementValue());
+        assertEquals(95.0, records.get(2).getMeasurementValue());
+        for (PatientRecord record : records) {
+            assertEquals("blood saturation", record.getRecordType());
+        }
+
+        records = typedStorage.getRecords(2, "SystolicPressure", 0L, 2000L);
+        assertEquals(1, records.size());
+        assertEquals("blood pressure systolic", records.get(0).getRecordType());
+
+        assertEquals(1, typedStorage.getRecords(2, RecordTypeRegistry.ECG, 1003L, 1003L).size());
+        assertTrue(typedStorage.getRecords(2, "HeartRate", 0L, 2000L).isEmpty());
+        assertEquals(5, typedStorage.getRecords(2, 0L, 2000L).size());
+    }
+
+    /**
+     * Tests that every patient id, including negative ones, is still found
+     * after the patient table has grown several times
+     */
+    @Test
+    void testPatientIdsSurviveTableGrowth() {
+        DataStorage growingStorage = new DataStorage();
+        int[] ids = { -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -65536 };
+        for (int id : ids) {
+            growingStorage.addPatientData(id, 1.0, "ECG", 1000L);
+        }
+        for (int id = 1; id <= 500; id++) {
+            growingStorage.addPatientData(id, 1.0, "ECG", 1000L);
+        }
+
+        assertEquals(ids.length + 500, growingStorage.getAllPatients().size());
+        for (int id : ids) {
+            assertEquals(1, growingStorage.getRecords(id, 0L, 2000L).size(), "patient " + id);
+        }
+        for (int id = 1; id <= 500; id++) {
+            assertEquals(1, growingStorage.getRecords(id, 0L, 2000L).size(), "patient " + id);
+        }
+    }
+
+    /**
+     * Tests that aggregate statistics, whole and bucketed, match the records
+     * returned for the same range, including samples that arrived late
+     */
+    @Test
+    void testStatistics() {
+        DataStorage statsStorage = new DataStorage();
+        long start = 1700000000000L;
+        for (int i = 0; i < 5000; i++) {
+            statsStorage.addPatientData(3, 60 + (i * 7) % 50, "ECG", start + i * 1000L);
+        }
+        statsStorage.addPatientData(3, 500.0, "ECG", start + 1234500L);
+        statsStorage.addPatientData(3, -5.0, "ECG", start + 2500L);
+
+        long from = start + 100_000L;
+        long to = start + 4_000_000L;
+        List<PatientRecord> records = statsStorage.getRecords(3, "ECG", from, to);
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (PatientRecord record : records) {
+            min = Math.min(min, record.getMeasurementValue());
+            max = Math.max(max, record.getMeasurementValue());
+            sum += record.getMeasurementValue();
+        }
+        RecordStatistics statistics = statsStorage.getStatistics(3, "ECG", from, to);
+        assertEquals(records.size(), statistics.getCount());
+        assertEquals(min, statistics.getMin());
+        assertEquals(max, statistics.getMax());
+        assertEquals(sum / records.size(), statistics.getMean(), 1e-9);
+        assertEquals(records.get(records.size() - 1).getMeasurementValue(), statistics.getLast());
+        assertEquals(to, statistics.getLastTimestamp());
+        assertEquals(-5.0, statsStorage.getStatistics(3, "ECG", start, from).getMin());
+
+        List<RecordStatistics> buckets = statsStorage.getStatistics(3, "ECG", from, to, 3_600_000L);
+        assertEquals(2, buckets.size());
+        assertEquals(to, buckets.get(1).getEndTime());
+        assertEquals(500.0, buckets.get(0).getMax());
+        assertEquals(statistics.getCount(), buckets.get(0).getCount() + buckets.get(1).getCount());
+
+        assertEquals(0, statsStorage.getStatistics(3, "blood saturation", from, to).getCount());
+        assertTrue(Double.isNaN(statsStorage.getStatistics(4, "ECG", from, to).getMean()));
+
+        Patient patient = statsStorage.getAllPatients().get(0);
+        assertEquals(0, patient.getStatistics(RecordTypeRegistry.CHOLESTEROL, from, to).getCount());
+        assertThrows(IllegalArgumentException.class, () -> patient.getStatistics(-1, from, to));
+        assertThrows(IllegalArgumentException.class,
+                () -> patient.getStatistics(RecordTypeRegistry.size(), from, to));
+        assertThrows(IllegalArgumentException.class,
+                () -> patient.getStatistics(RecordTypeRegistry.MAX_TYPES, from, to, 3_600_000L));
+    }
+
+
+    /**
+     * Tests that records in compressed blocks are returned exactly, including
+     * irregular timestamps and values that do not compress well
+     */
+    @Test
+    void testCompressedRecordsRoundTrip() {
+        DataStorage compressedStorage = new DataStorage();
+        long[] timestamps = new long[5000];
+        double[] values = new double[5000];
+        Random random = new Random(7);
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamp += i % 100 == 0 ? random.nextInt(1_000_000) : 1000 + random.nextInt(3);
+            timestamps[i] = timestamp;
+            values[i] = i % 3 == 0 ? random.nextGaussian() * 1e6 : (i % 3 == 1 ? 97.0 : -0.0);
+            compressedStorage.addPatientData(5, values[i], "ECG", timestamps[i]);
+        }
+        List<PatientRecord> records = compressedStorage.getRecords(5, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(timestamps.length, records.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], records.get(i).getTimestamp());
+            assertEquals(values[i], records.get(i).getMeasurementValue());
+        }
+        records = compressedStorage.getRecords(5, timestamps[2500], timestamps[2600]);
+        assertEquals(101, records.size());
+        assertEquals(values[2500], records.get(0).getMeasurementValue());
+        assertTrue(compressedStorage.getRecordMemoryUsage() < timestamps.length * 16L);
+    }
+
+
+    /**
+     * Tests that late records within the lateness window are merged into the
+     * sorted records and that records later than the window are diverted
+     */
+    @Test
+    void testLatenessWindow() {
+        DataStorage orderedStorage = new DataStorage();
+        List<PatientRecord> diverted = new ArrayList<>();
+        orderedStorage.setLatenessWindow(10_000L, diverted::add);
+
+        long start = 1700000000000L;
+        for (int i = 0; i < 3000; i++) {
+            // Every third record arrives up to 5 seconds late
+            long timestamp = start + i * 1000L;
+            orderedStorage.addPatientData(6, i, "ECG", i % 3 == 2 ? timestamp + 5000L : timestamp);
+        }
+        for (int i = 0; i < 600; i++) {
+            orderedStorage.addPatientData(6, -1, "ECG", start + 2_995_000L + i);
+        }
+        orderedStorage.addPatientData(6, 42.0, "ECG", start);
+
+        List<PatientRecord> records = orderedStorage.getRecords(6, "ECG", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(3600, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp());
+        }
+        assertEquals(1, orderedStorage.getLateRecordCount());
+        assertEquals(1, diverted.size());
+        assertEquals(42.0, diverted.get(0).getMeasurementValue());
+        assertEquals("ECG", diverted.get(0).getRecordType());
+    }
+
+
+    /**
+     * Tests that batches, grouped or added record by record, store the same
+     * records as single adds, including the diversion of late records
+     */
+    @Test
+    void testBatchesMatchSingleAdds() {
+        for (int patients : new int[] { 3, 2000 }) {
+            DataStorage single = new DataStorage();
+            DataStorage batched = new DataStorage();
+            List<PatientRecord> singleLate = new ArrayList<>();
+            List<PatientRecord> batchedLate = new ArrayList<>();
+            single.setLatenessWindow(50L, singleLate::add);
+            batched.setLatenessWindow(50L, batchedLate::add);
+
+            Random random = new Random(patients);
+            RecordBatch batch = new RecordBatch(16);
+            int[] types = { RecordTypeRegistry.ECG, RecordTypeRegistry.intern("Saturation") };
+            for (int i = 0; i < 20_000; i++) {
+                int patientId = 1 + random.nextInt(patients);
+                int typeId = types[random.nextInt(types.length)];
+                // Some records are slightly late, some later than the window
+                long timestamp = 1000L + i - (random.nextInt(10) == 0 ? random.nextInt(200) : 0);
+                single.addPatientData(patientId, typeId, i, timestamp);
+                batch.addPatientData(patientId, typeId, i, timestamp);
+                if (batch.size() == 500) {
+                    batched.addBatch(batch);
+                    batch.clear();
+                }
+            }
+            batched.addBatch(batch);
+
+            for (int patientId = 1; patientId <= patients; patientId++) {
+                List<PatientRecord> expected = single.getRecords(patientId, Long.MIN_VALUE, Long.MAX_VALUE);
+                List<PatientRecord> actual = batched.getRecords(patientId, Long.MIN_VALUE, Long.MAX_VALUE);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                    assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+                    assertEquals(expected.get(i).getRecordType(), actual.get(i).getRecordType());
+                }
+            }
+            assertTrue(single.getLateRecordCount() > 0);
+            assertEquals(single.getLateRecordCount(), batched.getLateRecordCount());
+            assertEquals(singleLate.size(), batchedLate.size());
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> storage.addBatch(new int[1], new int[1], new double[1], new long[0], 1));
+    }
+
+
+    /**
+     * Tests the ward-wide queries on the latest value of a record type
+     */
+    @Test
+    void testLatestValueQueries() {
+        DataStorage wardStorage = new DataStorage();
+        for (int patientId = 1; patientId <= 50; patientId++) {
+            for (int i = 0; i < 100; i++) {
+                wardStorage.addPatientData(patientId, 99 - i % 5, "Saturation", 1000L + i);
+            }
+            // The latest saturation of patient n is 100 - n
+            wardStorage.addPatientData(patientId, 100 - patientId, "blood saturation", 5000L);
+        }
+        // A late record does not replace the latest one
+        wardStorage.addPatientData(49, 100.0, "blood saturation", 4000L);
+
+        List<PatientRecord> low = wardStorage.getPatientsWithLatest("blood saturation", value -> value < 92);
+        assertEquals(42, low.size());
+        for (PatientRecord record : low) {
+            assertTrue(record.getPatientId() > 8);
+            assertEquals(5000L, record.getTimestamp());
+        }
+
+        List<PatientRecord> lowest = wardStorage.getTopPatientsByLatest("blood saturation", 3, true);
+        assertEquals(3, lowest.size());
+        assertEquals(50, lowest.get(0).getPatientId());
+        assertEquals(49, lowest.get(1).getPatientId());
+        assertEquals(48, lowest.get(2).getPatientId());
+        assertEquals(1, wardStorage.getTopPatientsByLatest("Saturation", 1, false).get(0).getPatientId());
+        assertTrue(wardStorage.getPatientsWithLatest("ECG", value -> true).isEmpty());
+
+        // Asking for all patients does not size anything by k
+        List<PatientRecord> all = wardStorage.getTopPatientsByLatest("blood saturation", Integer.MAX_VALUE, false);
+        assertEquals(50, all.size());
+        assertEquals(1, all.get(0).getPatientId());
+        assertEquals(50, all.get(49).getPatientId());
+    }
+
+
+    /**
+     * Tests positioning a cursor: range edges are inclusive, records of
+     * different types are merged in timestamp order, a type filter reads one
+     * series, and a cursor can be repositioned on another patient.
+     */
+    @Test
+    void testRecordCursor() {
+        DataStorage cursorStorage = new DataStorage();
+        for (int i = 0; i < 10; i++) {
+            cursorStorage.addPatientData(1000, i, "ECG", 100L + i * 10);
+            cursorStorage.addPatientData(1000, 90 + i, "blood saturation", 105L + i * 10);
+        }
+        cursorStorage.addPatientData(2000, 1.0, "ECG", 100L);
+
+        RecordCursor cursor = new RecordCursor();
+        assertTrue(cursorStorage.scanRecords(1000, 110L, 130L, cursor));
+        long[] expected = { 110, 115, 120, 125, 130 };
+        for (long timestamp : expected) {
+            assertTrue(cursor.next());
+            assertEquals(1000, cursor.patientId());
+            assertEquals(timestamp, cursor.timestamp());
+            assertEquals(timestamp % 10 == 0 ? "ECG" : "blood saturation", cursor.recordType());
+        }
+        assertFalse(cursor.next());
+
+        assertTrue(cursorStorage.scanRecords(1000, RecordTypeRegistry.BLOOD_SATURATION, 0L, 125L, cursor));
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals(RecordTypeRegistry.BLOOD_SATURATION, cursor.typeId());
+            assertEquals(90.0 + count, cursor.value());
+            count++;
+        }
+        assertEquals(3, count);
+
+        // Empty ranges, unknown types and unknown patients leave the cursor empty
+        assertTrue(cursorStorage.scanRecords(1000, 196L, 1000L, cursor));
+        assertFalse(cursor.next());
+        assertTrue(cursorStorage.scanRecords(1000, RecordTypeRegistry.CHOLESTEROL, 0L, 1000L, cursor));
+        assertFalse(cursor.next());
+        assertFalse(cursorStorage.scanRecords(3000, 0L, 1000L, cursor));
+        assertFalse(cursor.next());
+
+        assertTrue(cursorStorage.scanRecords(2000, 0L, 1000L, cursor));
+        assertTrue(cursor.next());
+        assertEquals(2000, cursor.patientId());
+        assertFalse(cursor.next());
+    }
+
+    /**
+     * Tests that a visitor may query the storage again from within
+     * forEachRecord, which must not reuse the cursor of the outer scan.
+     */
+    @Test
+    void testNestedForEachRecord() {
+        DataStorage visitorStorage = new DataStorage();
+        for (int i = 0; i < 5; i++) {
+            visitorStorage.addPatientData(500, i, "ECG", 1000L + i);
+            visitorStorage.addPatientData(501, 10 + i, "ECG", 1000L + i);
+        }
+        List<String> visited = new ArrayList<>();
+        visitorStorage.forEachRecord(500, 1001L, 1003L, (timestamp, typeId, value) -> {
+            visited.add("outer " + timestamp);
+            visitorStorage.forEachRecord(501, RecordTypeRegistry.ECG, timestamp, timestamp,
+                    (innerTimestamp, innerType, innerValue) -> visited.add("inner " + innerValue));
+        });
+        assertEquals(List.of("outer 1001", "inner 11.0", "outer 1002", "inner 12.0", "outer 1003", "inner 13.0"),
+                visited);
+
+        // The reused cursor starts afresh on the next scan
+        List<Long> timestamps = new ArrayList<>();
+        visitorStorage.forEachRecord(500, RecordTypeRegistry.ECG, 0L, Long.MAX_VALUE,
+                (timestamp, typeId, value) -> timestamps.add(timestamp));
+        assertEquals(List.of(1000L, 1001L, 1002L, 1003L, 1004L), timestamps);
+        visitorStorage.forEachRecord(999, 0L, Long.MAX_VALUE, (timestamp, typeId, value) -> fail());
+    }
+
+    /**
+     * Tests that looking up patients with ids beyond the small Integer cache
+     * does not allocate once the query code is warm.
+     */
+    @Test
+    void testForEachRecordDoesNotAllocate() {
+        DataStorage visitorStorage = new DataStorage();
+        for (int patientId = 1000; patientId < 1100; patientId++) {
+            visitorStorage.addPatientData(patientId, patientId, "ECG", 1000L);
+        }
+        double[] sum = new double[1];
+        RecordVisitor visitor = (timestamp, typeId, value) -> sum[0] += value;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (int run = 0; run < 3; run++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 100_000; i++) {
+                visitorStorage.forEachRecord(1000 + i % 100, 0L, Long.MAX_VALUE, visitor);
+            }
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        // Boxing the ids alone would take 1.6 MB per run
+        assertTrue(allocated < 100_000, allocated + " bytes allocated");
+        assertTrue(sum[0] > 0);
+    }
+
     /**
      * Tests the generation of blood saturation alerts
      */
@@ -1,4 +1,173 @@
 package data_management;
 
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.FileDataListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tests the tail mode of {@link FileDataListener}.
+ */
 public class FileDataListenerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void followsAppendedLines() throws Exception {
+        DataStorage storage = new DataStorage();
+        Path file = directory.resolve("ECG.txt");
+        append(file, "Patient ID: 1, Timestamp: 1000, Label: ECG, Data: 0.5\n");
+
+        Tail tail = new Tail(new FileDataListener(directory.toString(), storage, null));
+        try {
+            awaitRecords(storage, 1, 1);
+            // A partial line is only read once its line break arrives
+            append(file, "Patient ID: 1, Timestamp: 1001, Label: ECG, Data: 0.");
+            Thread.sleep(100);
+            assertEquals(1, count(storage, 1));
+            append(file, "75\n2,98,Saturation,1002\n");
+            awaitRecords(storage, 1, 2);
+            awaitRecords(storage, 2, 1);
+            assertEquals(0.75, storage.getRecords(1, 0, Long.MAX_VALUE).get(1).getMeasurementValue());
+        } finally {
+            tail.stop();
+        }
+    }
+
+    @Test
+    void readsRotatedAndTruncatedFiles() throws Exception {
+        DataStorage storage = new DataStorage();
+        Path file = directory.resolve("Saturation.txt");
+        append(file, "1,97,Saturation,1\n");
+
+        Tail tail = new Tail(new FileDataListener(directory.toString(), storage, null));
+        try {
+            awaitRecords(storage, 1, 1);
+            Path rotated = directory.resolve("new.tmp");
+            append(rotated, "1,96,Saturation,2\n");
+            Files.move(rotated, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            awaitRecords(storage, 1, 2);
+
+            Files.write(file, "1,95,Saturation,3\n".getBytes(StandardCharsets.US_ASCII),
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            awaitRecords(storage, 1, 3);
+        } finally {
+            tail.stop();
+        }
+    }
+
+    @Test
+    void readsEveryLineOnceWhileTheFileGrows() throws Exception {
+        DataStorage storage = new DataStorage();
+        Path file = directory.resolve("ECG.txt");
+        append(file, "");
+        int lines = 10_000;
+
+        Tail tail = new Tail(new FileDataListener(directory.toString(), storage, null));
+        try {
+            // Lines are appended, some in two writes, while the listener reads the file
+            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+                for (int i = 0; i < lines; i++) {
+                    byte[] line = ("1," + i + ",ECG," + i + "\n").getBytes(StandardCharsets.US_ASCII);
+                    int split = i % 3 == 0 ? line.length / 2 : line.length;
+                    out.write(line, 0, split);
+                    out.flush();
+                    out.write(line, split, line.length - split);
+                    out.flush();
+                    if (i % 50 == 0) {
+                        Thread.sleep(1);
+                    }
+                }
+            }
+            awaitRecords(storage, 1, lines);
+            // Later events and the rescans every 500 ms must not take the file for a rewritten one
+            Thread.sleep(1200);
+            assertEquals(lines, count(storage, 1));
+        } finally {
+            tail.stop();
+        }
+    }
+
+    @Test
+    void resumesFromCheckpoint() throws Exception {
+        Path checkpoint = directory.resolve("offsets.checkpoint");
+        Path data = Files.createDirectory(directory.resolve("data"));
+        Path file = data.resolve("ECG.txt");
+        append(file, "1,0.1,ECG,1\n1,0.2,ECG,2\n");
+
+        DataStorage first = new DataStorage();
+        Tail firstTail = new Tail(new FileDataListener(data.toString(), first, checkpoint));
+        try {
+            awaitRecords(first, 1, 2);
+        } finally {
+            firstTail.stop();
+        }
+        assertTrue(Files.exists(checkpoint));
+
+        append(file, "1,0.3,ECG,3\n");
+        DataStorage second = new DataStorage();
+        Tail secondTail = new Tail(new FileDataListener(data.toString(), second, checkpoint));
+        try {
+            awaitRecords(second, 1, 1);
+            Thread.sleep(100);
+        } finally {
+            secondTail.stop();
+        }
+        assertEquals(1, count(second, 1));
+        assertEquals(3, second.getRecords(1, 0, Long.MAX_VALUE).get(0).getTimestamp());
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    private static int count(DataStorage storage, int patientId) {
+        return storage.getRecords(patientId, 0, Long.MAX_VALUE).size();
+    }
+
+    private static void awaitRecords(DataStorage storage, int patientId, int expected) throws InterruptedException {
+        await(() -> count(storage, patientId) >= expected);
+        assertEquals(expected, count(storage, patientId));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for records");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Runs a listener on its own thread until stopped.
+     */
+    private static final class Tail {
+        private final FileDataListener listener;
+        private final Thread thread;
+
+        Tail(FileDataListener listener) {
+            this.listener = listener;
+            this.thread = new Thread(listener::listen, "file-tail");
+            thread.start();
+        }
+
+        void stop() throws IOException, InterruptedException {
+            listener.close();
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package data_management;
+
+import com.data_management.DataParser;
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.ParallelFileDataReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures the throughput of {@link FileDataReader} and of
+ * {@link ParallelFileDataReader} with a growing number of threads on a
+ * generated directory of CSV files.
+ * <p>
+ * Run with {@code java -Xmx4g -cp target/classes:target/test-classes:<gson>
+ * data_management.FileReaderBenchmark [files] [linesPerFile]}. The default
+ * corpus is about 300 MB; use more lines per file for a multi-GB corpus.
+ * </p>
+ */
+public class FileReaderBenchmark {
+
+    private static final long START = 1700000000000L;
+    private static final String[] TYPES = { "ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol" };
+
+    public static void main(String[] args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int linesPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Path directory = Files.createTempDirectory("reader-benchmark");
+        try {
+            long bytes = generate(directory, files, linesPerFile);
+            long lines = (long) files * linesPerFile;
+            int cores = Runtime.getRuntime().availableProcessors();
+            System.out.printf("%d files, %d lines, %d MB, %d cores%n", files, lines, bytes >> 20, cores);
+            System.out.printf("%-28s %12s %14s%n", "reader", "MB/s", "lines/s");
+
+            // Warm up the JIT before measuring
+            new ParallelFileDataReader(directory.toString()).readData(new DataStorage());
+
+            long start = System.nanoTime();
+            new FileDataReader(directory.toString(), new DataParser()).readData(new DataStorage());
+            print("FileDataReader", bytes, lines, System.nanoTime() - start);
+            for (int threads = 1; threads <= Math.max(4, cores); threads *= 2) {
+                DataStorage storage = new DataStorage();
+                start = System.nanoTime();
+                new ParallelFileDataReader(directory.toString(), threads, 16 << 20).readData(storage);
+                print("parallel, " + threads + " threads", bytes, lines, System.nanoTime() - start);
+            }
+        } finally {
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void print(String name, long bytes, long lines, long nanos) {
+        System.out.printf("%-28s %12.1f %14.0f%n", name, bytes / 1048576.0 * 1e9 / nanos, lines * 1e9 / nanos);
+    }
+
+    private static long generate(Path directory, int files, int linesPerFile) throws IOException {
+        Random random = new Random(42);
+        long bytes = 0;
+        for (int file = 0; file < files; file++) {
+            Path path = directory.resolve("patients" + file + ".txt");
+            try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+                for (int i = 0; i < linesPerFile; i++) {
+                    int type = i % TYPES.length;
+                    int value = type == 0 ? random.nextInt(2000) - 1000 : 600 + random.nextInt(1000);
+                    out.write(Integer.toString(1 + file * 100 + i % 100));
+                    out.write(',');
+                    out.write(Integer.toString(value / 10));
+                    out.write('.');
+                    out.write(Integer.toString(Math.abs(value % 10)));
+                    out.write(',');
+                    out.write(TYPES[type]);
+                    out.write(',');
+                    out.write(Long.toString(START + i * 10L));
+                    out.write('\n');
+                }
+            }
+            bytes += Files.size(path);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,126 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.CsvRecordParser;
+import com.data_management.DataParser;
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.IngestionMetrics;
+import com.data_management.ParseError;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Tests {@link IngestionMetrics} and how the parsers and readers update them.
+ */
+class IngestionMetricsTest {
+
+    private static final String MALFORMED = "x,98.5,Saturation,1700000000000\n"
+            + "1,high,Saturation,1700000000000\n"
+            + "1,98.5,,1700000000000\n"
+            + "1,98.5,Saturation,yesterday\n"
+            + "1,98.5\n";
+
+    @Test
+    void parserCountsErrorsByReason() {
+        IngestionMetrics metrics = new IngestionMetrics("test");
+        CsvRecordParser parser = new CsvRecordParser(new DataStorage(), CsvRecordParser.Layout.STORAGE, metrics);
+        parser.parse(ByteBuffer.wrap((MALFORMED + "1,98.5,Saturation,1700000000000\n")
+                .getBytes(StandardCharsets.US_ASCII)));
+
+        assertEquals(1, parser.getRecordCount());
+        assertEquals(5, parser.getInvalidCount());
+        for (ParseError error : ParseError.values()) {
+            assertEquals(1, parser.getInvalidCount(error), error.name());
+            assertEquals(1, metrics.getParseErrors(error), error.name());
+        }
+        assertEquals(5, metrics.getParseErrors());
+    }
+
+    @Test
+    void dataParserCountsErrorsByReason() {
+        IngestionMetrics metrics = new IngestionMetrics("test");
+        DataStorage storage = new DataStorage();
+        for (String line : (MALFORMED + "1,98.5,Saturation,1700000000000").split("\n")) {
+            DataParser.parse(line, storage, metrics);
+        }
+
+        Map<String, Long> byReason = metrics.getParseErrorsByReason();
+        for (ParseError error : ParseError.values()) {
+            assertEquals(1L, byReason.get(error.name()), error.name());
+        }
+        assertEquals(6, metrics.getLinesRead());
+        assertEquals(1, metrics.getRecordsStored());
+        assertEquals(1, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void fileReaderRecordsThroughputAndLag(@TempDir Path directory) throws Exception {
+        long timestamp = System.currentTimeMillis() - 60_000;
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append(i % 10).append(",98.5,Saturation,").append(timestamp + i).append('\n');
+        }
+        content.append("not a record\n");
+        Files.write(directory.resolve("saturation.txt"), content.toString().getBytes(StandardCharsets.US_ASCII));
+
+        FileDataReader reader = new FileDataReader(directory.toString(), new DataParser());
+        reader.readData(new DataStorage());
+
+        IngestionMetrics metrics = reader.getMetrics();
+        assertEquals(101, metrics.getLinesRead());
+        assertEquals(content.length(), metrics.getBytesRead());
+        assertEquals(100, metrics.getRecordsStored());
+        assertEquals(1, metrics.getParseErrors(ParseError.FORMAT));
+        assertTrue(metrics.getLagMillis() >= 60_000 - 100);
+        assertTrue(metrics.getParseLatencyP50Micros() <= metrics.getParseLatencyP99Micros());
+        assertTrue(metrics.getStoreLatencyP50Micros() <= metrics.getStoreLatencyP99Micros());
+    }
+
+    @Test
+    void latencyQuantilesFollowTheRecordedTimes() {
+        IngestionMetrics metrics = new IngestionMetrics("test");
+        for (int i = 1; i <= 1000; i++) {
+            metrics.recordParse(1, 10, i * 1000L);
+        }
+        // Buckets are 1/16 wide, so quantiles are exact to about 7 percent
+        assertEquals(500, metrics.getParseLatencyP50Micros(), 500 * 0.07);
+        assertEquals(990, metrics.getParseLatencyP99Micros(), 990 * 0.07);
+        assertEquals(-1, metrics.getLagMillis());
+
+        metrics.reset();
+        assertEquals(0, metrics.getLinesRead());
+        assertEquals(0, metrics.getParseLatencyP99Micros());
+    }
+
+    @Test
+    void registersAsMXBean() throws Exception {
+        IngestionMetrics metrics = new IngestionMetrics("tcp://localhost:7000");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.data_management:type=IngestionMetrics,source="
+                + ObjectName.quote("tcp://localhost:7000"));
+
+        metrics.register();
+        try {
+            metrics.recordParse(3, 42, 1000);
+            metrics.recordParseError(ParseError.VALUE);
+            assertEquals(3L, server.getAttribute(name, "LinesRead"));
+            assertEquals(42L, server.getAttribute(name, "BytesRead"));
+            assertEquals(1L, server.getAttribute(name, "ParseErrors"));
+            assertEquals("tcp://localhost:7000", server.getAttribute(name, "Source"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
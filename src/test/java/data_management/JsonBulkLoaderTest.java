@@ -0,0 +1,146 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.JsonBulkLoader;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link JsonBulkLoader} on JSON exports in the {@code sample_data} layout.
+ */
+class JsonBulkLoaderTest {
+
+    private static final long START = 1700000000000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void countsLoadedAndInvalidRecords() throws IOException {
+        Path file = write("records.json", "[\n"
+                + "  {\"patientId\": 1, \"recordType\": \"ECG\", \"measurementValue\": 0.5, \"timestamp\": 10},\n"
+                + "  {\"patientId\": 1, \"recordType\": \"Saturation\", \"measurementValue\": 97, \"timestamp\": 11,"
+                + " \"unit\": \"%\"},\n"
+                + "  {\"patientId\": 2, \"recordType\": \"ECG\", \"timestamp\": 12},\n"
+                + "  {\"patientId\": 2, \"recordType\": null, \"measurementValue\": 1, \"timestamp\": 13},\n"
+                + "  {\"recordType\": \"ECG\", \"measurementValue\": 1, \"timestamp\": 14},\n"
+                + "  {\"patientId\": 2, \"recordType\": \"ECG\", \"measurementValue\": 1}\n"
+                + "]");
+
+        DataStorage storage = new DataStorage();
+        JsonBulkLoader loader = new JsonBulkLoader(storage, 1);
+        loader.load(List.of(file));
+
+        assertEquals(2, loader.getRecordsLoaded());
+        assertEquals(4, loader.getInvalidRecords());
+        assertEquals(1, loader.getFilesLoaded());
+        assertEquals(Files.size(file), loader.getBytesLoaded());
+        List<PatientRecord> records = storage.getRecords(1, 0, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertEquals("ECG", records.get(0).getRecordType());
+        assertEquals(0.5, records.get(0).getMeasurementValue());
+        assertEquals(97.0, storage.getRecords(1, "blood saturation", 0, Long.MAX_VALUE).get(0)
+                .getMeasurementValue());
+        assertTrue(storage.getRecords(2, 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void loadsEmptyFiles() throws IOException {
+        Path empty = write("empty.json", "[]");
+
+        DataStorage storage = new DataStorage();
+        JsonBulkLoader loader = new JsonBulkLoader(storage, 1);
+        loader.load(List.of(empty));
+
+        assertEquals(0, loader.getRecordsLoaded());
+        assertEquals(0, loader.getInvalidRecords());
+        assertEquals(1, loader.getFilesLoaded());
+        assertTrue(storage.getAllPatients().isEmpty());
+    }
+
+    @Test
+    void reportsMalformedFilesAndLoadsTheOthers() throws IOException {
+        Path valid = write("valid.json",
+                "[{\"patientId\": 3, \"recordType\": \"ECG\", \"measurementValue\": 1, \"timestamp\": 1}]");
+        // The second record is cut off, the first one is still stored
+        Path truncated = write("truncated.json",
+                "[{\"patientId\": 4, \"recordType\": \"ECG\", \"measurementValue\": 1, \"timestamp\": 1},"
+                        + " {\"patientId\": 4, \"recordType\"");
+        Path notAnArray = write("object.json", "{\"patientId\": 5}");
+        Path blank = write("blank.json", "");
+
+        DataStorage storage = new DataStorage();
+        JsonBulkLoader loader = new JsonBulkLoader(storage, 2);
+        IOException failure = assertThrows(IOException.class,
+                () -> loader.load(List.of(truncated, valid, notAnArray, blank)));
+
+        assertEquals(2, failure.getSuppressed().length);
+        assertEquals(1, loader.getFilesLoaded());
+        assertEquals(Files.size(valid), loader.getBytesLoaded());
+        assertEquals(2, loader.getRecordsLoaded());
+        assertEquals(1, storage.getRecords(3, 0, Long.MAX_VALUE).size());
+        assertEquals(1, storage.getRecords(4, 0, Long.MAX_VALUE).size());
+        assertTrue(storage.getRecords(5, 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void parallelLoadMatchesSequentialLoad() throws IOException {
+        List<Path> files = new ArrayList<>();
+        String[] types = { "ECG", "Saturation", "SystolicPressure", "Cholesterol" };
+        for (int file = 0; file < 6; file++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 2700; i++) {
+                if (i > 0) {
+                    json.append(",\n");
+                }
+                // Every file holds records of every patient, with timestamps interleaved between files
+                json.append("{\"patientId\": ").append(1 + i % 9)
+                        .append(", \"recordType\": \"").append(types[i % types.length])
+                        .append("\", \"measurementValue\": ").append(file * 10000 + i)
+                        .append(", \"timestamp\": ").append(START + i * 6L + file).append('}');
+            }
+            files.add(write("data" + file + ".json", json.append(']').toString()));
+        }
+
+        DataStorage sequential = new DataStorage();
+        JsonBulkLoader sequentialLoader = new JsonBulkLoader(sequential, 1);
+        for (Path file : files) {
+            sequentialLoader.load(List.of(file));
+        }
+        DataStorage parallel = new DataStorage();
+        JsonBulkLoader parallelLoader = new JsonBulkLoader(parallel, 4);
+        parallelLoader.load(files);
+
+        assertEquals(6 * 2700, sequentialLoader.getRecordsLoaded());
+        assertEquals(sequentialLoader.getRecordsLoaded(), parallelLoader.getRecordsLoaded());
+        assertEquals(sequentialLoader.getBytesLoaded(), parallelLoader.getBytesLoaded());
+        assertEquals(6, parallelLoader.getFilesLoaded());
+        for (int patientId = 1; patientId <= 9; patientId++) {
+            List<PatientRecord> expected = sequential.getRecords(patientId, 0, Long.MAX_VALUE);
+            List<PatientRecord> actual = parallel.getRecords(patientId, 0, Long.MAX_VALUE);
+            assertEquals(6 * 2700 / 9, actual.size());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                assertEquals(expected.get(i).getRecordType(), actual.get(i).getRecordType());
+                assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+            }
+        }
+    }
+
+    private Path write(String name, String json) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,247 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.PartitionedDataStorage;
+import com.data_management.StorageNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs several {@link StorageNode}s on the loopback interface of one machine,
+ * so that partitioning, scaling and rebalancing can be tried without a real
+ * cluster.
+ * <p>
+ * As a program it measures ingest and query throughput through a
+ * {@link PartitionedDataStorage} for a growing number of nodes and the time
+ * to rebalance when a node joins. Run with
+ * {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.LoopbackCluster [maxNodes] [patients] [recordsPerPatient]}.
+ * </p>
+ */
+public class LoopbackCluster implements Closeable {
+
+    private static final long START = 1700000000000L;
+    private static final String[] TYPES = { "ECG", "blood saturation", "blood pressure systolic" };
+
+    private final List<StorageNode> nodes = new ArrayList<>();
+    private final List<ServerSocket> proxies = new ArrayList<>();
+
+    /**
+     * Starts the given number of nodes, each on a free loopback port.
+     *
+     * @param nodeCount the number of nodes to start
+     * @throws IOException if a node cannot be started
+     */
+    public LoopbackCluster(int nodeCount) throws IOException {
+        for (int i = 0; i < nodeCount; i++) {
+            startNode();
+        }
+    }
+
+    /**
+     * Starts one more node. The node serves no patients until a client adds it
+     * with {@link PartitionedDataStorage#addNode}.
+     *
+     * @return the new node
+     * @throws IOException if the node cannot be started
+     */
+    public StorageNode startNode() throws IOException {
+        StorageNode node = new StorageNode(new DataStorage(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Returns the running nodes, in the order they were started.
+     *
+     * @return the nodes
+     */
+    public List<StorageNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Connects a new client to all running nodes.
+     *
+     * @return the client
+     * @throws IOException if a node cannot be reached
+     */
+    public PartitionedDataStorage connect() throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (StorageNode node : nodes) {
+            addresses.add(node.getAddress());
+        }
+        return new PartitionedDataStorage(addresses);
+    }
+
+    /**
+     * Starts a proxy in front of a node that forwards every request but
+     * answers each removal with an error, as a node that cannot remove
+     * patients would. The proxy stops when the cluster is closed.
+     *
+     * @param node the node to forward to
+     * @return the address to connect to in place of the node's
+     * @throws IOException if the proxy cannot be started
+     */
+    public InetSocketAddress rejectRemovals(StorageNode node) throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        proxies.add(server);
+        startDaemon(() -> {
+            try {
+                while (true) {
+                    Socket client = server.accept();
+                    Socket target = new Socket(node.getAddress().getAddress(), node.getAddress().getPort());
+                    OutputStream replies = client.getOutputStream();
+                    startDaemon(() -> forwardRequests(client, target, replies));
+                    startDaemon(() -> forwardReplies(target, client, replies));
+                }
+            } catch (IOException e) {
+                // The cluster was closed
+            }
+        });
+        return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    /**
+     * Forwards the requests of a client, which are framed as described by
+     * {@link StorageNode}, and answers removals itself.
+     */
+    private static void forwardRequests(Socket client, Socket target, OutputStream replies) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target.getOutputStream()))) {
+            int opcode;
+            while ((opcode = in.read()) >= 0) {
+                if (opcode == 'X') {
+                    int patientId = in.readInt();
+                    ByteArrayOutputStream error = new ByteArrayOutputStream();
+                    DataOutputStream reply = new DataOutputStream(error);
+                    reply.writeByte(1);
+                    reply.writeUTF("Cannot remove patient " + patientId);
+                    out.flush();
+                    synchronized (replies) {
+                        replies.write(error.toByteArray());
+                        replies.flush();
+                    }
+                    continue;
+                }
+                out.writeByte(opcode);
+                if (opcode == 'T') {
+                    out.writeInt(in.readInt());
+                    out.writeUTF(in.readUTF());
+                } else if (opcode == 'A' || opcode == 'G') {
+                    byte[] payload = new byte[2 * Integer.BYTES + 2 * Long.BYTES];
+                    in.readFully(payload);
+                    out.write(payload);
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // One of the connections was closed
+        } finally {
+            closeQuietly(target);
+        }
+    }
+
+    private static void forwardReplies(Socket target, Socket client, OutputStream replies) {
+        try (InputStream in = target.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                synchronized (replies) {
+                    replies.write(buffer, 0, read);
+                    replies.flush();
+                }
+            }
+        } catch (IOException e) {
+            // One of the connections was closed
+        } finally {
+            closeQuietly(client);
+        }
+    }
+
+    private static void startDaemon(Runnable task) {
+        Thread thread = new Thread(task, "loopback-proxy");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ServerSocket proxy : proxies) {
+            proxy.close();
+        }
+        for (StorageNode node : nodes) {
+            node.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxNodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int patients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int recordsPerPatient = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+
+        // Warm up the JIT before measuring
+        run(2, patients / 10, recordsPerPatient, false);
+
+        System.out.printf("%d patients, %d records each%n", patients, recordsPerPatient);
+        System.out.printf("%-6s %14s %14s %16s %10s%n", "nodes", "adds/s", "queries/s", "join ms", "moved");
+        for (int nodeCount = 1; nodeCount <= maxNodes; nodeCount *= 2) {
+            run(nodeCount, patients, recordsPerPatient, true);
+        }
+    }
+
+    private static void run(int nodeCount, int patients, int recordsPerPatient, boolean print)
+            throws IOException {
+        try (LoopbackCluster cluster = new LoopbackCluster(nodeCount);
+                PartitionedDataStorage storage = cluster.connect()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < recordsPerPatient; i++) {
+                for (int patientId = 1; patientId <= patients; patientId++) {
+                    storage.addPatientData(patientId, 90 + i % 10, TYPES[i % TYPES.length], START + i * 1000L);
+                }
+            }
+            storage.flush();
+            double addsPerSecond = (double) patients * recordsPerPatient * 1e9 / (System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int patientId = 1; patientId <= patients; patientId++) {
+                storage.getRecords(patientId, START, START + recordsPerPatient * 1000L);
+            }
+            double queriesPerSecond = patients * 1e9 / (System.nanoTime() - start);
+
+            start = System.nanoTime();
+            int moved = storage.addNode(cluster.startNode().getAddress());
+            long joinMillis = (System.nanoTime() - start) / 1_000_000;
+
+            if (print) {
+                System.out.printf("%-6d %14.0f %14.0f %16d %10d%n", nodeCount, addsPerSecond, queriesPerSecond,
+                        joinMillis, moved);
+            }
+        }
+    }
+}
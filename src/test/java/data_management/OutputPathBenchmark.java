@@ -0,0 +1,82 @@
+package data_management;
+
+import com.cardiogenerator.generators.BloodSaturationDataGenerator;
+import com.cardiogenerator.generators.ECGDataGenerator;
+import com.cardiogenerator.generators.PatientDataGenerator;
+import com.cardiogenerator.outputs.DataSourceAdapter;
+import com.cardiogenerator.outputs.OutputStrategy;
+import com.data_management.RecordSink;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares the text and the primitive path from the simulator's generators to
+ * an in-process {@link DataSourceAdapter}: samples per second and bytes
+ * allocated per sample.
+ * <p>
+ * The primitive path is what the generators use. The text path wraps the
+ * adapter in a strategy that only implements
+ * {@link OutputStrategy#output(int, long, String, String)}, so every value is
+ * formatted by the default adapter and parsed back, as before the primitive
+ * path existed. The adapter feeds a sink that discards the records, which
+ * isolates the cost of the output path. Allocation is measured with the
+ * HotSpot thread allocation counter.
+ * </p>
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.OutputPathBenchmark [samples]}.
+ * </p>
+ */
+public class OutputPathBenchmark {
+
+    private static final int PATIENTS = 100;
+    private static final int RUNS = 5;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static double checksum;
+
+    public static void main(String[] args) {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        RecordSink discard = (patientId, typeId, value, timestamp) -> checksum += value;
+        DataSourceAdapter adapter = new DataSourceAdapter(discard);
+        OutputStrategy textOnly = (patientId, timestamp, label, data) -> adapter.output(patientId, timestamp, label,
+                data);
+        PatientDataGenerator[] generators = { new ECGDataGenerator(PATIENTS),
+                new BloodSaturationDataGenerator(PATIENTS) };
+
+        // Warm up the JIT before measuring
+        for (int i = 0; i < 3; i++) {
+            generate(generators, textOnly, samples);
+            generate(generators, adapter, samples);
+        }
+
+        System.out.printf("%d samples of ECG and saturation%n", samples);
+        System.out.printf("%-10s %14s %14s%n", "path", "samples/s", "bytes/sample");
+        measure("text", samples, () -> generate(generators, textOnly, samples));
+        measure("primitive", samples, () -> generate(generators, adapter, samples));
+        if (checksum == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void generate(PatientDataGenerator[] generators, OutputStrategy output, int samples) {
+        for (int i = 0; i < samples; i++) {
+            generators[i & 1].generate(1 + (i >> 1) % PATIENTS, output);
+        }
+    }
+
+    private static void measure(String name, int samples, Runnable run) {
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes);
+        }
+        System.out.printf("%-10s %14.0f %14.1f%n", name, samples * 1e9 / best, (double) allocated / samples);
+    }
+}
@@ -0,0 +1,66 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.ParallelFileDataReader;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Tests {@link ParallelFileDataReader} with chunks much smaller than the files.
+ */
+class ParallelFileDataReaderTest {
+
+    private static final long START = 1700000000000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsEveryLineOfEveryFile() throws IOException {
+        for (int file = 0; file < 3; file++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                text.append(1 + i % 7).append(',').append(file * 10000 + i).append(".5,ECG,")
+                        .append(START + file * 10000 + i).append('\n');
+            }
+            text.append("not a record\n");
+            // The last line has no line break
+            text.append("8,1,Saturation,").append(START + file);
+            Files.write(directory.resolve("data" + file + ".txt"), text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(directory.resolve("ignored.csv"), "1,1,ECG,1\n".getBytes(StandardCharsets.UTF_8));
+
+        DataStorage storage = new DataStorage();
+        // Chunks of about 100 bytes hold a few lines each and end mid-line before alignment
+        ParallelFileDataReader reader = new ParallelFileDataReader(directory.toString(), 4, 100);
+        reader.readData(storage);
+
+        assertEquals(3 * 2001, reader.getRecordsLoaded());
+        assertEquals(3, reader.getInvalidLines());
+        long bytes = 0;
+        for (int file = 0; file < 3; file++) {
+            bytes += Files.size(directory.resolve("data" + file + ".txt"));
+        }
+        assertEquals(bytes, reader.getBytesLoaded());
+
+        // Chunks are parsed in any order, yet every patient's records come back sorted
+        for (int patientId = 1; patientId <= 7; patientId++) {
+            List<PatientRecord> records = storage.getRecords(patientId, 0, Long.MAX_VALUE);
+            assertTrue(records.size() >= 3 * 285);
+            for (int i = 1; i < records.size(); i++) {
+                assertTrue(records.get(i - 1).getTimestamp() < records.get(i).getTimestamp());
+                assertEquals(records.get(i).getTimestamp() - START + 0.5, records.get(i).getMeasurementValue());
+            }
+        }
+        assertEquals(3, storage.getRecords(8, "blood saturation", 0, Long.MAX_VALUE).size());
+    }
+}
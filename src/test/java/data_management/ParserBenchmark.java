@@ -0,0 +1,115 @@
+package data_management;
+
+import com.data_management.CsvRecordParser;
+import com.data_management.DataParser;
+import com.data_management.DataStorage;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the lines per second of {@link DataParser}, which splits a String
+ * per line, with the byte-level {@link CsvRecordParser}.
+ * <p>
+ * Both parsers read the same CSV bytes. The String parser gets its lines from
+ * a {@link BufferedReader}, as {@code FileDataReader} does. Each parser is
+ * measured storing into a fresh {@link DataStorage}; the byte parser is also
+ * measured with a sink that discards the records, which isolates the parsing
+ * cost. The benchmark reports lines per second and bytes allocated per line,
+ * measured with the HotSpot thread allocation counter.
+ * </p>
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.ParserBenchmark [lines]}.
+ * </p>
+ */
+public class ParserBenchmark {
+
+    private static final long START = 1700000000000L;
+    private static final String[] TYPES = { "ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol" };
+    private static final int RUNS = 5;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static double checksum;
+
+    public static void main(String[] args) throws IOException {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        byte[] csv = generate(lines);
+
+        // Warm up the JIT before measuring
+        for (int i = 0; i < 3; i++) {
+            parseStrings(csv);
+            parseBytes(csv, true);
+            parseBytes(csv, false);
+        }
+
+        System.out.printf("%d lines, %d bytes%n", lines, csv.length);
+        System.out.printf("%-34s %14s %14s%n", "parser", "lines/s", "bytes/line");
+        measure("DataParser (String.split)", lines, () -> parseStrings(csv));
+        measure("CsvRecordParser into storage", lines, () -> parseBytes(csv, true));
+        measure("CsvRecordParser, discarding sink", lines, () -> parseBytes(csv, false));
+        if (checksum == 42) {
+            System.out.println();
+        }
+    }
+
+    private static byte[] generate(int lines) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(lines * 40);
+        for (int i = 0; i < lines; i++) {
+            int type = i % TYPES.length;
+            double value = type == 0 ? random.nextGaussian() : 60 + random.nextInt(1000) / 10.0;
+            text.append(1 + i % 100).append(',')
+                    .append(String.format(Locale.ROOT, "%.3f", value)).append(',')
+                    .append(TYPES[type]).append(',')
+                    .append(START + i).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private interface Run {
+        void run() throws IOException;
+    }
+
+    private static void measure(String name, int lines, Run run) throws IOException {
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            run.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        System.out.printf("%-34s %14.0f %14.1f%n", name, (double) lines * RUNS * 1e9 / elapsed,
+                (double) allocated / ((long) lines * RUNS));
+    }
+
+    private static void parseStrings(byte[] csv) throws IOException {
+        DataStorage storage = new DataStorage();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                DataParser.parse(line, storage);
+            }
+        }
+        checksum += storage.getAllPatients().size();
+    }
+
+    private static void parseBytes(byte[] csv, boolean store) {
+        DataStorage storage = new DataStorage();
+        CsvRecordParser parser = store ? new CsvRecordParser(storage)
+                : new CsvRecordParser((patientId, typeId, value, timestamp) -> checksum += value);
+        parser.parseRemaining(ByteBuffer.wrap(csv));
+        checksum += parser.getRecordCount();
+    }
+}
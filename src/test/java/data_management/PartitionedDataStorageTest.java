@@ -0,0 +1,168 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.PartitionedDataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.StorageNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link PartitionedDataStorage} against nodes of a
+ * {@link LoopbackCluster}.
+ */
+class PartitionedDataStorageTest {
+
+    private static final long START = 1700000000000L;
+    private static final int PATIENTS = 200;
+    private static final int RECORDS = 20;
+
+    @Test
+    void recordsAreStoredOnTheOwningNode() throws IOException {
+        try (LoopbackCluster cluster = new LoopbackCluster(3);
+                PartitionedDataStorage storage = cluster.connect()) {
+            addRecords(storage);
+
+            for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                List<PatientRecord> records = storage.getRecords(patientId, START, START + RECORDS * 1000L);
+                assertEquals(RECORDS, records.size());
+                assertEquals(patientId, records.get(0).getPatientId());
+                assertEquals(START, records.get(0).getTimestamp());
+
+                InetSocketAddress owner = storage.nodeOf(patientId);
+                for (StorageNode node : cluster.getNodes()) {
+                    boolean stored = !node.getStorage().getRecords(patientId, START, Long.MAX_VALUE).isEmpty();
+                    assertEquals(node.getAddress().equals(owner), stored);
+                }
+            }
+            // Every node gets a share of the patients
+            for (StorageNode node : cluster.getNodes()) {
+                assertFalse(node.getStorage().getAllPatients().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    void typeFilterIsAppliedByTheNode() throws IOException {
+        try (LoopbackCluster cluster = new LoopbackCluster(2);
+                PartitionedDataStorage storage = cluster.connect()) {
+            addRecords(storage);
+
+            List<PatientRecord> saturation = storage.getRecords(7, "SpO2", START, Long.MAX_VALUE);
+            assertEquals(RECORDS / 2, saturation.size());
+            for (PatientRecord record : saturation) {
+                assertEquals("blood saturation", record.getRecordType());
+            }
+            assertTrue(storage.getRecords(7, "no such type", START, Long.MAX_VALUE).isEmpty());
+        }
+    }
+
+    @Test
+    void joiningNodeTakesOverItsShareWithoutLosingRecords() throws IOException {
+        try (LoopbackCluster cluster = new LoopbackCluster(3);
+                PartitionedDataStorage storage = cluster.connect()) {
+            addRecords(storage);
+            Map<Integer, InetSocketAddress> owners = new HashMap<>();
+            for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                owners.put(patientId, storage.nodeOf(patientId));
+            }
+
+            StorageNode added = cluster.startNode();
+            int moved = storage.addNode(added.getAddress());
+
+            // Only patients of the new node move, roughly a quarter of them
+            assertEquals(added.getStorage().getAllPatients().size(), moved);
+            assertTrue(moved > PATIENTS / 8 && moved < PATIENTS / 2, "moved " + moved);
+            for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                InetSocketAddress owner = storage.nodeOf(patientId);
+                assertTrue(owner.equals(owners.get(patientId)) || owner.equals(added.getAddress()));
+                assertEquals(RECORDS, storage.getRecords(patientId, START, Long.MAX_VALUE).size());
+            }
+            int stored = 0;
+            for (StorageNode node : cluster.getNodes()) {
+                stored += node.getStorage().getAllPatients().size();
+            }
+            assertEquals(PATIENTS, stored);
+        }
+    }
+
+    @Test
+    void leavingNodeHandsOverItsPatients() throws IOException {
+        try (LoopbackCluster cluster = new LoopbackCluster(3);
+                PartitionedDataStorage storage = cluster.connect()) {
+            addRecords(storage);
+            StorageNode leaving = cluster.getNodes().get(1);
+            int owned = leaving.getStorage().getAllPatients().size();
+
+            assertEquals(owned, storage.removeNode(leaving.getAddress()));
+
+            assertEquals(2, storage.getNodes().size());
+            assertTrue(leaving.getStorage().getAllPatients().isEmpty());
+            for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                assertNotEquals(leaving.getAddress(), storage.nodeOf(patientId));
+                assertEquals(RECORDS, storage.getRecords(patientId, START, Long.MAX_VALUE).size());
+            }
+            // Records added after the move go to the new owner
+            storage.addPatientData(1, 42, "ECG", START + RECORDS * 1000L);
+            assertEquals(RECORDS + 1, storage.getRecords(1, START, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void movedPatientsThatCannotBeRemovedAreLeftBehind() throws IOException {
+        try (LoopbackCluster cluster = new LoopbackCluster(2)) {
+            StorageNode failing = cluster.getNodes().get(0);
+            InetSocketAddress proxy = cluster.rejectRemovals(failing);
+            try (PartitionedDataStorage storage = new PartitionedDataStorage(
+                    List.of(proxy, cluster.getNodes().get(1).getAddress()))) {
+                addRecords(storage);
+                int owned = failing.getStorage().getAllPatients().size();
+
+                // Every removal of an old copy fails, but the moves still complete
+                assertTrue(storage.addNode(cluster.startNode().getAddress()) > 0);
+                int remaining = 0;
+                for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                    if (storage.nodeOf(patientId).equals(proxy)) {
+                        remaining++;
+                    }
+                }
+                assertEquals(remaining, storage.removeNode(proxy));
+
+                assertEquals(2, storage.getNodes().size());
+                assertEquals(owned, failing.getStorage().getAllPatients().size());
+                for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                    assertNotEquals(proxy, storage.nodeOf(patientId));
+                    assertEquals(RECORDS, storage.getRecords(patientId, START, Long.MAX_VALUE).size());
+                }
+            }
+        }
+    }
+
+    @Test
+    void nodesRejectPersistentStorage(@TempDir Path directory) throws IOException {
+        try (DataStorage persistent = new DataStorage(directory)) {
+            assertThrows(IllegalArgumentException.class, () -> new StorageNode(persistent,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)));
+        }
+    }
+
+    private static void addRecords(PartitionedDataStorage storage) throws IOException {
+        for (int i = 0; i < RECORDS; i++) {
+            for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                String type = i % 2 == 0 ? "ECG" : "Saturation";
+                storage.addPatientData(patientId, patientId + i / 100.0, type, START + i * 1000L);
+            }
+        }
+        storage.flush();
+    }
+}
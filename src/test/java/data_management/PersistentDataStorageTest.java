@@ -0,0 +1,326 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.SnapshotReader;
+import com.data_management.WriteAheadLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link DataStorage} backed by memory-mapped segment files.
+ */
+class PersistentDataStorageTest {
+    private static final long START = 1700000000000L;
+    private static final int SAMPLES = 5000;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Tests that records written before closing the storage are available after
+     * reopening the directory, including records that arrived out of order.
+     */
+    @Test
+    void testRecordsSurviveReopen() throws IOException {
+        DataStorage storage = new DataStorage(directory);
+        for (int patientId = 1; patientId <= 3; patientId++) {
+            for (int i = 0; i < SAMPLES; i++) {
+                storage.addPatientData(patientId, i, "ECG", START + i * 1000L);
+                storage.addPatientData(patientId, 90 + i % 10, "blood saturation", START + i * 1000L + 1);
+            }
+        }
+        // A late sample that belongs in an already persisted segment
+        storage.addPatientData(2, -1.0, "ECG", START + 500);
+        storage.close();
+
+        DataStorage reopened = new DataStorage(directory);
+        assertEquals(3, reopened.getAllPatients().size());
+
+        List<PatientRecord> records = reopened.getRecords(1, START, START + SAMPLES * 1000L);
+        assertEquals(2 * SAMPLES, records.size());
+        assertEquals("ECG", records.get(0).getRecordType());
+        assertEquals(0.0, records.get(0).getMeasurementValue());
+        assertEquals("blood saturation", records.get(1).getRecordType());
+        assertEquals(START + 1, records.get(1).getTimestamp());
+        assertEquals(SAMPLES - 1, records.get(2 * SAMPLES - 2).getMeasurementValue());
+
+        records = reopened.getRecords(2, START, START + 1000L);
+        assertEquals(4, records.size());
+        assertEquals(-1.0, records.get(2).getMeasurementValue());
+        assertEquals(START + 500, records.get(2).getTimestamp());
+
+        // Appending after a reopen continues the existing series
+        reopened.addPatientData(3, 42.0, "ECG", START + SAMPLES * 1000L);
+        records = reopened.getRecords(3, START + (SAMPLES - 1) * 1000L, START + SAMPLES * 1000L);
+        assertEquals(3, records.size());
+        assertEquals(42.0, records.get(2).getMeasurementValue());
+        reopened.close();
+    }
+
+    /**
+     * Tests that a series reopened with a missing segment keeps the block
+     * indexes of the segments after the gap, so sealing new segments does not
+     * overwrite them.
+     */
+    @Test
+    void testMissingSegmentDoesNotShiftBlockIndexes() throws IOException {
+        DataStorage storage = new DataStorage(directory);
+        for (int i = 0; i < 3000; i++) {
+            storage.addPatientData(1, i, "ECG", START + i * 1000L);
+        }
+        storage.close();
+        // Moves the block with index 1 to another record type, leaving a gap in the ECG series
+        renameBlock(directory.resolve("patient-1.seg"), 1, "ECX");
+
+        DataStorage reopened = new DataStorage(directory);
+        assertEquals(3000 - 1024, reopened.getRecords(1, "ECG", START, Long.MAX_VALUE).size());
+        for (int i = 3000; i < 3010; i++) {
+            reopened.addPatientData(1, i, "ECG", START + i * 1000L);
+        }
+        reopened.close();
+
+        reopened = new DataStorage(directory);
+        List<PatientRecord> records = reopened.getRecords(1, "ECG", START, Long.MAX_VALUE);
+        assertEquals(3010 - 1024, records.size());
+        assertEquals(1023.0, records.get(1023).getMeasurementValue());
+        assertEquals(2048.0, records.get(1024).getMeasurementValue());
+        assertEquals(3009.0, records.get(records.size() - 1).getMeasurementValue());
+        reopened.close();
+    }
+
+    /**
+     * Tests that records added since start up are recovered from the
+     * write-ahead log after a crash, and that a torn entry at the end of the
+     * log is dropped.
+     */
+    @Test
+    void testWriteAheadLogRecovery() throws IOException {
+        Path logFile = directory.resolve("ingest.wal");
+        DataStorage storage = new DataStorage();
+        storage.useWriteAheadLog(new WriteAheadLog(logFile, 1, 0));
+        for (int i = 0; i < 100; i++) {
+            storage.addPatientData(1 + i % 2, i, i % 3 == 0 ? "ECG" : "blood saturation", START + i);
+        }
+        // Simulate a crash in the middle of writing an entry
+        Files.write(logFile, new byte[] { 'R', 0, 0 }, StandardOpenOption.APPEND);
+
+        DataStorage recovered = new DataStorage();
+        WriteAheadLog log = new WriteAheadLog(logFile, 1, 0);
+        assertEquals(100, recovered.useWriteAheadLog(log));
+        assertEquals(2, recovered.getAllPatients().size());
+
+        List<PatientRecord> records = recovered.getRecords(1, START, START + 100);
+        assertEquals(50, records.size());
+        assertEquals("ECG", records.get(0).getRecordType());
+        assertEquals("blood saturation", records.get(1).getRecordType());
+        assertEquals(START + 2, records.get(1).getTimestamp());
+
+        // The recovered log keeps accepting records
+        recovered.addPatientData(3, 1.0, "ECG", START);
+        log.close();
+        assertEquals(101, new DataStorage().useWriteAheadLog(new WriteAheadLog(logFile, 0, 0)));
+    }
+
+    /**
+     * Tests that the write-ahead log is kept when a segment cannot be
+     * persisted, so its records are replayed after the storage is reopened.
+     */
+    @Test
+    void testWriteAheadLogKeptWhenPersistFails() throws IOException {
+        Path segments = directory.resolve("segments");
+        Files.createDirectory(segments);
+        Path logFile = directory.resolve("ingest.wal");
+        DataStorage storage = new DataStorage(segments);
+        storage.useWriteAheadLog(new WriteAheadLog(logFile, 1, 0));
+        // A directory in place of the segment file makes every persist of patient 1 fail
+        Path blocked = Files.createDirectory(segments.resolve("patient-1.seg"));
+        for (int i = 0; i < 3000; i++) {
+            storage.addPatientData(1, i, "ECG", START + i);
+            storage.addPatientData(2, i, "ECG", START + i);
+        }
+        storage.close();
+        Files.delete(blocked);
+
+        DataStorage reopened = new DataStorage(segments);
+        reopened.useWriteAheadLog(new WriteAheadLog(logFile, 1, 0));
+        assertEquals(3000, reopened.getRecords(1, START, START + 3000).size());
+        assertEquals(3000, reopened.getRecords(2, START, START + 3000).size());
+        reopened.close();
+    }
+
+    /**
+     * Tests that a snapshot checkpoints the write-ahead log of a heap storage:
+     * the log keeps only the records the snapshot does not hold, and reading
+     * the snapshot and replaying the log recovers every record exactly once,
+     * even while records are added during the snapshot.
+     */
+    @Test
+    void testSnapshotCheckpointsWriteAheadLog() throws Exception {
+        Path logFile = directory.resolve("ingest.wal");
+        Path snapshot = directory.resolve("patients.snap");
+        DataStorage storage = new DataStorage();
+        WriteAheadLog log = new WriteAheadLog(logFile, 0, 0);
+        storage.useWriteAheadLog(log);
+        for (int i = 0; i < 1000; i++) {
+            storage.addPatientData(1, i, "ECG", START + i);
+        }
+        storage.writeSnapshot(snapshot);
+        assertEquals(12, Files.size(logFile));
+
+        int added = 20000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < added; i++) {
+                storage.addPatientData(2 + i % 3, i, "blood saturation", START + i);
+            }
+        });
+        writer.start();
+        storage.writeSnapshot(snapshot);
+        writer.join();
+        log.close();
+
+        DataStorage recovered = new DataStorage();
+        recovered.readSnapshot(snapshot);
+        recovered.useWriteAheadLog(new WriteAheadLog(logFile, 0, 0));
+        assertEquals(1000, recovered.getRecords(1, START, Long.MAX_VALUE).size());
+        int total = 0;
+        for (int patientId = 2; patientId <= 4; patientId++) {
+            total += recovered.getRecords(patientId, START, Long.MAX_VALUE).size();
+        }
+        assertEquals(added, total);
+    }
+
+    /**
+     * Tests that identical readings are both recovered: replaying the log
+     * after a crash does not skip a reading because an equal one was stored.
+     */
+    @Test
+    void testRecoveryKeepsIdenticalReadings() throws IOException {
+        Path segments = directory.resolve("segments");
+        Path logFile = directory.resolve("ingest.wal");
+        DataStorage storage = new DataStorage(segments);
+        storage.useWriteAheadLog(new WriteAheadLog(logFile, 1, 0));
+        // Every reading is received twice; the first segments are persisted before the crash
+        for (int i = 0; i < 3000; i++) {
+            storage.addPatientData(1, i / 2, "ECG", START + i / 2);
+        }
+
+        DataStorage recovered = new DataStorage(segments);
+        WriteAheadLog log = new WriteAheadLog(logFile, 1, 0);
+        assertEquals(3000, recovered.useWriteAheadLog(log));
+        List<PatientRecord> records = recovered.getRecords(1, START, START + 1500);
+        assertEquals(3000, records.size());
+        assertEquals(records.get(2998).getMeasurementValue(), records.get(2999).getMeasurementValue());
+        recovered.close();
+
+        DataStorage reopened = new DataStorage(segments);
+        assertEquals(0, reopened.useWriteAheadLog(new WriteAheadLog(logFile, 1, 0)));
+        assertEquals(3000, reopened.getRecords(1, START, START + 1500).size());
+        reopened.close();
+    }
+
+    /**
+     * Tests that a snapshot holds the point of the write-ahead log it was
+     * taken at: if the log was not checkpointed before a crash, the records
+     * the snapshot holds are not replayed again, while a reading equal to one
+     * of them that was logged after the snapshot is.
+     */
+    @Test
+    void testSnapshotSkipsRecordsItHolds() throws IOException {
+        Path logFile = directory.resolve("ingest.wal");
+        Path snapshot = directory.resolve("patients.snap");
+        DataStorage storage = new DataStorage();
+        WriteAheadLog log = new WriteAheadLog(logFile, 1, 0);
+        storage.useWriteAheadLog(log);
+        for (int i = 0; i < 1000; i++) {
+            storage.addPatientData(1, 98, "blood saturation", START + i);
+        }
+        // The log as it was left by a crash right after the snapshot was written
+        Path uncheckpointed = directory.resolve("uncheckpointed.wal");
+        Files.copy(logFile, uncheckpointed);
+        storage.writeSnapshot(snapshot);
+        storage.addPatientData(1, 98, "blood saturation", START + 999);
+        // The entries logged after the snapshot, appended to the old generation
+        Files.write(uncheckpointed, Arrays.copyOfRange(Files.readAllBytes(logFile), 12,
+                (int) Files.size(logFile)), StandardOpenOption.APPEND);
+        log.close();
+
+        for (Path file : List.of(logFile, uncheckpointed)) {
+            DataStorage recovered = new DataStorage();
+            recovered.readSnapshot(snapshot);
+            recovered.useWriteAheadLog(new WriteAheadLog(file, 0, 0));
+            assertEquals(1001, recovered.getRecords(1, START, START + 1000).size());
+        }
+    }
+
+    /**
+     * Changes the record type of the block with the given index in the first
+     * window of a segment file, keeping the type's length.
+     */
+    private static void renameBlock(Path file, int index, String type) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int position = 8;
+            while (window.getInt(position + 8) != index) {
+                int typeLength = window.getShort(position + 16);
+                position += ((18 + typeLength + 7) & ~7) + window.getInt(position + 4) * 16;
+            }
+            assertEquals(type.length(), window.getShort(position + 16));
+            byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < bytes.length; i++) {
+                window.put(position + 18 + i, bytes[i]);
+            }
+        }
+    }
+
+    /**
+     * Tests that a binary snapshot restores every record, and that a single
+     * patient can be read from it on its own.
+     */
+    @Test
+    void testSnapshotRoundTrip() throws IOException {
+        DataStorage storage = new DataStorage();
+        for (int patientId = 1; patientId <= 20; patientId++) {
+            for (int i = 0; i < 100; i++) {
+                storage.addPatientData(patientId, patientId + i / 10.0, "ECG", START + i * 1000L);
+                storage.addPatientData(patientId, 95, "blood saturation", START + i * 1000L + 500);
+            }
+        }
+        Path snapshot = directory.resolve("patients.snap");
+        storage.writeSnapshot(snapshot);
+
+        DataStorage restored = new DataStorage();
+        restored.readSnapshot(snapshot);
+        assertEquals(20, restored.getAllPatients().size());
+        for (int patientId = 1; patientId <= 20; patientId++) {
+            List<PatientRecord> expected = storage.getRecords(patientId, START, START + 100_000L);
+            List<PatientRecord> actual = restored.getRecords(patientId, START, START + 100_000L);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+                assertEquals(expected.get(i).getRecordType(), actual.get(i).getRecordType());
+            }
+        }
+
+        try (SnapshotReader reader = new SnapshotReader(snapshot)) {
+            assertEquals(20, reader.getPatientIds().length);
+            List<PatientRecord> records = reader.readPatient(7);
+            assertEquals(200, records.size());
+            assertEquals(7, records.get(0).getPatientId());
+            assertTrue(reader.readPatient(99).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Compares a full ward sweep through the list-returning
+ * {@link DataStorage#getRecords(int, long, long)} with the allocation-free
+ * {@link RecordCursor} and visitor APIs.
+ * <p>
+ * Each sweep visits every record of every patient, the way the alert generator
+ * does. The benchmark reports the time per record and the bytes allocated per
+ * sweep, measured with the HotSpot thread allocation counter.
+ * </p>
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.QueryBenchmark [patients] [recordsPerType]}.
+ * </p>
+ */
+public class QueryBenchmark {
+
+    private static final long START = 1700000000000L;
+    private static final String[] TYPES = { "ECG", "blood saturation", "blood pressure systolic" };
+    private static final int SWEEPS = 20;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static double checksum;
+
+    public static void main(String[] args) {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int recordsPerType = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        DataStorage storage = new DataStorage();
+        for (int patientId = 1; patientId <= patients; patientId++) {
+            for (int i = 0; i < recordsPerType; i++) {
+                for (int type = 0; type < TYPES.length; type++) {
+                    storage.addPatientData(patientId, 90 + (i + type) % 10, TYPES[type], START + i * 1000L + type);
+                }
+            }
+        }
+        long records = (long) patients * recordsPerType * TYPES.length;
+        long end = START + recordsPerType * 1000L;
+
+        // Warm up the JIT before measuring
+        for (int i = 0; i < 5; i++) {
+            sweepList(storage, end);
+            sweepCursor(storage, end, new RecordCursor());
+            sweepVisitor(storage, end);
+        }
+
+        System.out.printf("%d patients, %d records per sweep%n", patients, records);
+        System.out.printf("%-28s %12s %18s%n", "api", "ns/record", "bytes/sweep");
+        measure("getAllPatients + getRecords", records, () -> sweepList(storage, end));
+        RecordCursor cursor = new RecordCursor();
+        measure("forEachPatient + cursor", records, () -> sweepCursor(storage, end, cursor));
+        measure("forEachPatient + visitor", records, () -> sweepVisitor(storage, end));
+        if (checksum == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void measure(String name, long records, Runnable sweep) {
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+        for (int i = 0; i < SWEEPS; i++) {
+            sweep.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        System.out.printf("%-28s %12.2f %18d%n", name, (double) elapsed / (records * SWEEPS), allocated / SWEEPS);
+    }
+
+    private static void sweepList(DataStorage storage, long end) {
+        double sum = 0;
+        for (Patient patient : storage.getAllPatients()) {
+            List<PatientRecord> records = storage.getRecords(patient.getPatientId(), START, end);
+            for (PatientRecord record : records) {
+                sum += record.getMeasurementValue();
+            }
+        }
+        checksum += sum;
+    }
+
+    private static void sweepCursor(DataStorage storage, long end, RecordCursor cursor) {
+        storage.forEachPatient(patient -> {
+            patient.scanRecords(START, end, cursor);
+            double sum = 0;
+            while (cursor.next()) {
+                sum += cursor.value();
+            }
+            checksum += sum;
+        });
+    }
+
+    private static void sweepVisitor(DataStorage storage, long end) {
+        storage.forEachPatient(patient -> storage.forEachRecord(patient.getPatientId(), START, end,
+                (timestamp, typeId, value) -> checksum += value));
+    }
+}
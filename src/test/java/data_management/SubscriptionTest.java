@@ -0,0 +1,127 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.OverflowPolicy;
+import com.data_management.PatientRecord;
+import com.data_management.Subscription;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests push delivery of added records through {@link DataStorage#subscribe}.
+ */
+class SubscriptionTest {
+
+    private static final long START = 1700000000000L;
+
+    @Test
+    void deliversMatchingRecordsInOrder() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        List<PatientRecord> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(100);
+        storage.subscribe(1, "SpO2", record -> {
+            received.add(record);
+            done.countDown();
+        });
+
+        for (int i = 0; i < 100; i++) {
+            storage.addPatientData(1, 90 + i % 10, "blood saturation", START + i);
+            storage.addPatientData(1, 80, "ECG", START + i);
+            storage.addPatientData(2, 95, "blood saturation", START + i);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(100, received.size());
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals(1, received.get(i).getPatientId());
+            assertEquals("blood saturation", received.get(i).getRecordType());
+            assertEquals(START + i, received.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    void overflowPoliciesHandleSlowSubscribers() throws InterruptedException {
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            DataStorage storage = new DataStorage();
+            CountDownLatch holding = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            List<PatientRecord> received = new CopyOnWriteArrayList<>();
+            Subscription subscription = storage.subscribe(DataStorage.ALL_PATIENTS, null, 4, policy, record -> {
+                holding.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(record);
+            });
+
+            // Once the listener holds the first record, 4 more fit in the queue
+            Thread writer = new Thread(() -> {
+                storage.addPatientData(1, 0, "ECG", START);
+                try {
+                    holding.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 1; i < 20; i++) {
+                    storage.addPatientData(1 + i % 2, i, "ECG", START + i);
+                }
+            });
+            writer.start();
+            writer.join(500);
+            release.countDown();
+            writer.join();
+            waitForDelivery(subscription);
+
+            double[] values = new double[received.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = received.get(i).getMeasurementValue();
+            }
+            if (policy == OverflowPolicy.BLOCK) {
+                assertEquals(20, values.length);
+                assertEquals(0, subscription.getDiscardedCount());
+            } else if (policy == OverflowPolicy.DROP) {
+                // The oldest records are kept
+                assertArrayEquals(new double[] { 0, 1, 2, 3, 4 }, values);
+                assertEquals(15, subscription.getDiscardedCount());
+            } else {
+                // Newer records replace older ones of the same patient
+                assertArrayEquals(new double[] { 0, 16, 17, 18, 19 }, values);
+                assertEquals(15, subscription.getDiscardedCount());
+            }
+            subscription.cancel();
+        }
+    }
+
+    @Test
+    void cancelledSubscriptionReceivesNothing() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        List<PatientRecord> received = new CopyOnWriteArrayList<>();
+        Subscription subscription = storage.subscribe(1, null, received::add);
+        storage.addPatientData(1, 1, "ECG", START);
+        waitForDelivery(subscription);
+
+        subscription.cancel();
+        storage.addPatientData(1, 2, "ECG", START + 1);
+        Thread.sleep(50);
+
+        assertTrue(subscription.isCancelled());
+        assertEquals(1, received.size());
+    }
+
+    private static void waitForDelivery(Subscription subscription) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (subscription.getPendingCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        // The last record may still be with the listener
+        Thread.sleep(20);
+    }
+}
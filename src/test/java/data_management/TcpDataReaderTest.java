@@ -0,0 +1,247 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardiogenerator.outputs.BinaryTcpOutputStrategy;
+import com.cardiogenerator.outputs.TcpOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RecordBatch;
+import com.data_management.TcpDataReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tests {@link TcpDataReader} against the simulator's TCP output and plain
+ * server sockets.
+ */
+class TcpDataReaderTest {
+
+    @Test
+    void readsTcpOutputStrategyStream() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        TcpOutputStrategy output = new TcpOutputStrategy(port);
+        DataStorage storage = new DataStorage();
+        try (Reading reading = new Reading(localhost(port), storage)) {
+            // The strategy drops records until it has accepted the connection
+            long timestamp = 1;
+            while (reading.reader.getRecordsStored() < 3) {
+                output.output(1, timestamp++, "Saturation", "97.5%");
+                output.output(1, timestamp++, "ECG", "-0.25");
+                output.output(1, timestamp++, "Alert", "triggered");
+                Thread.sleep(10);
+                assertTrue(timestamp < 3000, "No records arrived");
+            }
+        }
+        List<PatientRecord> alerts = storage.getRecords(1, "Alert", 0, Long.MAX_VALUE);
+        assertEquals(1.0, alerts.get(0).getMeasurementValue());
+        assertEquals(97.5, storage.getRecords(1, "blood saturation", 0, Long.MAX_VALUE).get(0)
+                .getMeasurementValue());
+    }
+
+    @Test
+    void readsBinaryFrames() throws Exception {
+        int port = freePort();
+        DataStorage storage = new DataStorage();
+        try (BinaryTcpOutputStrategy output = new BinaryTcpOutputStrategy(port, 64, 5);
+                Reading reading = new Reading(localhost(port), storage, TcpDataReader.Protocol.BINARY)) {
+            await(() -> output.getClientCount() == 1);
+            for (int i = 0; i < 1000; i++) {
+                output.output(1 + i % 10, 1_700_000_000_000L + i, "ECG", Double.toString(i * 0.001 - 0.5));
+            }
+            output.output(3, 1_700_000_000_000L, "Saturation", "97.5%");
+            output.output(-4, 1_699_999_999_999L, "Alert", "resolved");
+            output.output(5, 1_700_000_000_001L, "Cholesterol", "not a number");
+            await(() -> reading.reader.getRecordsStored() == 1002);
+        }
+        List<PatientRecord> ecg = storage.getRecords(7, "ECG", 0, Long.MAX_VALUE);
+        assertEquals(100, ecg.size());
+        assertEquals(6 * 0.001 - 0.5, ecg.get(0).getMeasurementValue());
+        assertEquals(1_700_000_000_006L, ecg.get(0).getTimestamp());
+        assertEquals(97.5, storage.getRecords(3, "blood saturation", 0, Long.MAX_VALUE).get(0)
+                .getMeasurementValue());
+        assertEquals(0.0, storage.getRecords(-4, "Alert", 0, Long.MAX_VALUE).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void negotiatesCsvWithOlderPeers() throws Exception {
+        // A binary reader against the CSV-only strategy
+        int port = freePort();
+        TcpOutputStrategy csvOutput = new TcpOutputStrategy(port);
+        DataStorage storage = new DataStorage();
+        try (Reading reading = new Reading(localhost(port), storage, TcpDataReader.Protocol.BINARY)) {
+            long timestamp = 1;
+            while (reading.reader.getRecordsStored() == 0) {
+                csvOutput.output(1, timestamp++, "ECG", "0.5");
+                Thread.sleep(10);
+                assertTrue(timestamp < 3000, "No records arrived");
+            }
+        }
+
+        // A CSV reader against the binary strategy, which waits for a hello in vain
+        port = freePort();
+        DataStorage csvStorage = new DataStorage();
+        try (BinaryTcpOutputStrategy output = new BinaryTcpOutputStrategy(port);
+                Reading reading = new Reading(localhost(port), csvStorage)) {
+            await(() -> output.getClientCount() == 1);
+            output.output(2, 10, "Saturation", "95%");
+            await(() -> reading.reader.getRecordsStored() == 1);
+        }
+        assertEquals(95.0, csvStorage.getRecords(2, 0, Long.MAX_VALUE).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void readsSeveralEndpointsAndReconnects() throws Exception {
+        DataStorage storage = new DataStorage();
+        try (ServerSocket first = new ServerSocket(0); ServerSocket second = new ServerSocket(0);
+                Reading reading = new Reading(Arrays.asList(localhost(first.getLocalPort()),
+                        localhost(second.getLocalPort())), storage)) {
+            try (Socket a = first.accept(); Socket b = second.accept()) {
+                send(a, "1,10,ECG,0.5\n1,11,ECG,0.");
+                send(b, "2,10,ECG,1.5\n");
+                await(() -> count(storage, 1) == 1 && count(storage, 2) == 1);
+            }
+            // The cut-off line is dropped and the reader connects again
+            try (Socket a = first.accept()) {
+                send(a, "1,12,ECG,0.75\n");
+                await(() -> count(storage, 1) == 2);
+            }
+            assertTrue(reading.reader.getConnectCount() >= 3);
+        }
+        assertEquals(0.75, storage.getRecords(1, 0, Long.MAX_VALUE).get(1).getMeasurementValue());
+    }
+
+    @Test
+    void pausesReadingWhileStorageIsBehind() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        DataStorage slowStorage = new DataStorage() {
+            @Override
+            public void addBatch(RecordBatch batch) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.addBatch(batch);
+            }
+        };
+        // Far more than the socket buffers and the reader's queue hold
+        int records = 2_000_000;
+        try (ServerSocket server = new ServerSocket(0);
+                Reading reading = new Reading(localhost(server.getLocalPort()), slowStorage)) {
+            try (Socket socket = server.accept()) {
+                Thread sender = new Thread(() -> {
+                    StringBuilder lines = new StringBuilder();
+                    for (int i = 0; i < records; i++) {
+                        lines.append(1 + i % 10).append(',').append(i).append(",ECG,").append(i % 7).append('\n');
+                    }
+                    send(socket, lines.toString());
+                });
+                sender.start();
+                try {
+                    await(() -> reading.reader.getPauseCount() > 0);
+                    // The sender is held back by TCP flow control instead of filling the reader's memory
+                    sender.join(200);
+                    assertTrue(sender.isAlive());
+                } finally {
+                    release.countDown();
+                }
+                sender.join(10_000);
+                await(() -> reading.reader.getRecordsStored() == records);
+            }
+        }
+        assertEquals(records / 10, count(slowStorage, 3));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    private static InetSocketAddress localhost(int port) {
+        return new InetSocketAddress("127.0.0.1", port);
+    }
+
+    private static void send(Socket socket, String text) {
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(text.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static int count(DataStorage storage, int patientId) {
+        return storage.getRecords(patientId, 0, Long.MAX_VALUE).size();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Runs a reader on its own thread until closed. Closing fails the test if
+     * the reader does not stop.
+     */
+    private static final class Reading implements AutoCloseable {
+        private final TcpDataReader reader;
+        private final Thread thread;
+
+        Reading(InetSocketAddress endpoint, DataStorage storage) {
+            this(Collections.singletonList(endpoint), storage);
+        }
+
+        Reading(InetSocketAddress endpoint, DataStorage storage, TcpDataReader.Protocol protocol) {
+            this(Collections.singletonList(endpoint), storage, protocol);
+        }
+
+        Reading(List<InetSocketAddress> endpoints, DataStorage storage) {
+            this(endpoints, storage, TcpDataReader.Protocol.CSV);
+        }
+
+        Reading(List<InetSocketAddress> endpoints, DataStorage storage, TcpDataReader.Protocol protocol) {
+            reader = new TcpDataReader(endpoints, 200, protocol);
+            thread = new Thread(() -> {
+                try {
+                    reader.readData(storage);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }, "tcp-reader");
+            thread.start();
+        }
+
+        @Override
+        public void close() {
+            reader.close();
+            try {
+                thread.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError("Interrupted while stopping the reader", e);
+            }
+            assertFalse(thread.isAlive());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardiogenerator.outputs.WebSocketOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.WebSocketDataReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+
+/**
+ * Tests {@link WebSocketDataReader} against the simulator's WebSocket output.
+ */
+class WebSocketDataReaderTest {
+
+    @Test
+    void storesBroadcastRecordsInMicroBatches() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port);
+        DataStorage storage = new DataStorage();
+        // Batches of 100 records or 50 ms
+        WebSocketDataReader reader = new WebSocketDataReader(URI.create("ws://127.0.0.1:" + port), 100, 50);
+        Thread thread = new Thread(() -> {
+            try {
+                reader.readData(storage);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        thread.start();
+        try {
+            // Frames are only broadcast once the reader is connected
+            long timestamp = 1;
+            while (reader.getFramesReceived() == 0) {
+                output.output(1, timestamp++, "ECG", "0.5");
+                Thread.sleep(10);
+                assertTrue(timestamp < 1000, "Reader did not connect");
+            }
+            long start = timestamp;
+            for (int i = 0; i < 1000; i++) {
+                output.output(2, start + i, "Saturation", (90 + i % 10) + ".0%");
+            }
+            output.output(2, start + 1000, "Alert", "triggered");
+            output.output(2, start + 1001, "Alert", "not a state");
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (storage.getRecords(2, 0, Long.MAX_VALUE).size() < 1001) {
+                Thread.sleep(5);
+                assertTrue(System.currentTimeMillis() < deadline, "Records were not stored");
+            }
+        } finally {
+            reader.close();
+            thread.join(10_000);
+        }
+        assertFalse(thread.isAlive());
+        assertEquals(1000, storage.getRecords(2, "blood saturation", 0, Long.MAX_VALUE).size());
+        assertEquals(1.0, storage.getRecords(2, "Alert", 0, Long.MAX_VALUE).get(0).getMeasurementValue());
+        assertEquals(1, reader.getInvalidFrames());
+        assertEquals(0, reader.getQueueDepth());
+        assertEquals(reader.getFramesReceived() - 1, reader.getRecordsStored());
+    }
+}
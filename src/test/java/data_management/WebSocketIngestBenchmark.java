@@ -0,0 +1,82 @@
+package data_management;
+
+import com.cardiogenerator.outputs.WebSocketOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.WebSocketDataReader;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+
+/**
+ * Measures how many simulator frames per second a {@link WebSocketDataReader}
+ * stores.
+ * <p>
+ * A {@link WebSocketOutputStrategy} in the same process broadcasts the
+ * messages as fast as it can, for 100 patients and three record types, to a
+ * reader writing into a fresh {@link DataStorage}. The benchmark reports the
+ * rate from the first message sent to the last record stored, the largest
+ * queue depth seen, and the reader's own frame rate counter. Sender and
+ * reader share the machine, so the result is a lower bound for a reader on
+ * its own host.
+ * </p>
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>:<Java-WebSocket>:<slf4j-api>
+ * data_management.WebSocketIngestBenchmark [messages]}.
+ * </p>
+ */
+public class WebSocketIngestBenchmark {
+
+    private static final String[] LABELS = { "ECG", "Saturation", "SystolicPressure" };
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port);
+        DataStorage storage = new DataStorage();
+        WebSocketDataReader reader = new WebSocketDataReader(URI.create("ws://127.0.0.1:" + port));
+        Thread readerThread = new Thread(() -> {
+            try {
+                reader.readData(storage);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "websocket-reader");
+        readerThread.start();
+        while (reader.getFramesReceived() == 0) {
+            output.output(0, 0, "ECG", "0");
+            Thread.sleep(10);
+        }
+        long connectFrames = reader.getFramesReceived();
+        Thread.sleep(100);
+        long expected = reader.getFramesReceived() + messages;
+
+        long start = System.nanoTime();
+        Thread sender = new Thread(() -> {
+            for (int i = 0; i < messages; i++) {
+                output.output(1 + i % 100, 1700000000000L + i, LABELS[i % LABELS.length], Double.toString(i % 97));
+            }
+        }, "sender");
+        sender.start();
+        int maxQueueDepth = 0;
+        double reportedRate = 0;
+        while (reader.getRecordsStored() < expected) {
+            maxQueueDepth = Math.max(maxQueueDepth, reader.getQueueDepth());
+            reportedRate = Math.max(reportedRate, reader.getFramesPerSecond());
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        sender.join();
+        reader.close();
+        readerThread.join();
+
+        System.out.printf("%d messages in %d ms: %.0f messages/s stored%n", messages, elapsed / 1_000_000,
+                messages * 1e9 / elapsed);
+        System.out.printf("max queue depth %d, peak frames/s reported %.0f, invalid frames %d (%d warm-up)%n",
+                maxQueueDepth, reportedRate, reader.getInvalidFrames(), connectFrames);
+        System.exit(0);
+    }
+}
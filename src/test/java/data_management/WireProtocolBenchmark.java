@@ -0,0 +1,141 @@
+package data_management;
+
+import com.cardiogenerator.outputs.BinaryTcpOutputStrategy;
+import com.data_management.BinaryFrameDecoder;
+import com.data_management.CsvRecordParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the CSV lines and the binary frames of
+ * {@link BinaryTcpOutputStrategy} for the simulator's 1 Hz ECG and
+ * saturation streams: bytes per sample on the wire and decoding throughput.
+ * <p>
+ * One CSV client and one binary client are connected to the same strategy,
+ * so both capture the same samples. Each capture is then decoded repeatedly
+ * from memory into a sink that discards the records, with a
+ * {@link CsvRecordParser} and a {@link BinaryFrameDecoder}; the best of
+ * several runs is reported.
+ * </p>
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.WireProtocolBenchmark [seconds] [patients]}.
+ * </p>
+ */
+public class WireProtocolBenchmark {
+
+    private static final long START = 1700000000000L;
+    private static final int RUNS = 5;
+    private static final int REPEATS = 20;
+
+    private static double checksum;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        int patients = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        BinaryTcpOutputStrategy output = new BinaryTcpOutputStrategy(port);
+        Capture binary = new Capture(port, true);
+        Capture csv = new Capture(port, false);
+        while (output.getClientCount() < 2) {
+            Thread.sleep(10);
+        }
+        Random random = new Random(42);
+        for (int second = 0; second < seconds; second++) {
+            for (int patient = 1; patient <= patients; patient++) {
+                long timestamp = START + second * 1000L + patient;
+                output.output(patient, timestamp, "ECG", Double.toString(random.nextGaussian() * 0.2));
+                output.output(patient, timestamp, "Saturation", (92 + random.nextInt(8)) + "%");
+            }
+        }
+        output.close();
+        byte[] binaryBytes = binary.await();
+        byte[] csvBytes = csv.await();
+        int samples = seconds * patients * 2;
+
+        System.out.printf("%d samples%n", samples);
+        System.out.printf("%-8s %14s %14s%n", "format", "bytes/sample", "samples/s");
+        System.out.printf("%-8s %14.1f %14.0f%n", "CSV", (double) csvBytes.length / samples,
+                measure(samples, () -> decodeCsv(csvBytes)));
+        System.out.printf("%-8s %14.1f %14.0f%n", "binary", (double) binaryBytes.length / samples,
+                measure(samples, () -> decodeBinary(binaryBytes)));
+        if (checksum == 42) {
+            System.out.println();
+        }
+    }
+
+    private interface Run {
+        long run() throws IOException;
+    }
+
+    private static double measure(int samples, Run run) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS + 2; i++) {
+            long start = System.nanoTime();
+            for (int j = 0; j < REPEATS; j++) {
+                if (run.run() != samples) {
+                    throw new IllegalStateException("Decoded a wrong number of samples");
+                }
+            }
+            // The first runs warm up the JIT
+            if (i >= 2) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return (double) samples * REPEATS * 1e9 / best;
+    }
+
+    private static long decodeCsv(byte[] bytes) {
+        CsvRecordParser parser = new CsvRecordParser((patientId, typeId, value, timestamp) -> checksum += value,
+                CsvRecordParser.Layout.SIMULATOR);
+        parser.parseRemaining(ByteBuffer.wrap(bytes));
+        return parser.getRecordCount();
+    }
+
+    private static long decodeBinary(byte[] bytes) throws IOException {
+        BinaryFrameDecoder decoder = new BinaryFrameDecoder(
+                (patientId, typeId, value, timestamp) -> checksum += value, bytes.length);
+        // Skip the server's answer to the hello
+        decoder.parse(ByteBuffer.wrap(bytes, BinaryFrameDecoder.HELLO_LENGTH,
+                bytes.length - BinaryFrameDecoder.HELLO_LENGTH));
+        return decoder.getRecordCount();
+    }
+
+    /**
+     * A client that records everything the server sends until it closes.
+     */
+    private static final class Capture {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Thread thread;
+
+        Capture(int port, boolean binary) throws IOException {
+            Socket socket = new Socket("127.0.0.1", port);
+            if (binary) {
+                socket.getOutputStream().write(BinaryFrameDecoder.hello().array());
+            }
+            thread = new Thread(() -> {
+                try (InputStream in = socket.getInputStream()) {
+                    in.transferTo(bytes);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.start();
+        }
+
+        byte[] await() throws InterruptedException {
+            thread.join();
+            return bytes.toByteArray();
+        }
+    }
+}
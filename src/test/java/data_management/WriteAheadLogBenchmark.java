@@ -0,0 +1,60 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures ingest throughput of {@link DataStorage#addPatientData} with a
+ * {@link WriteAheadLog} under different group commit settings.
+ * <p>
+ * Run with {@code java -cp target/classes:target/test-classes:<gson>
+ * data_management.WriteAheadLogBenchmark [records]}.
+ * </p>
+ */
+public class WriteAheadLogBenchmark {
+
+    private static final String[] TYPES = { "ECG", "blood saturation", "blood pressure systolic" };
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Path directory = Files.createTempDirectory("wal-benchmark");
+
+        // Warm up the JIT before measuring
+        for (int i = 0; i < 3; i++) {
+            run(null, directory, records, 0, 0);
+        }
+
+        System.out.printf("%-28s %14s%n", "durability", "records/s");
+        run("no log", directory, records, -1, 0);
+        run("no fsync", directory, records, 0, 0);
+        run("fsync every 10 ms", directory, records, 0, 10);
+        run("fsync every 1024 records", directory, records, 1024, 0);
+        run("fsync every 64 records", directory, records, 64, 0);
+        // Syncing every record is bound by disk latency, so use fewer records
+        run("fsync every record", directory, Math.min(records, 5_000), 1, 0);
+    }
+
+    private static void run(String name, Path directory, int records, int syncEveryRecords,
+            long syncIntervalMillis) throws IOException {
+        Path logFile = directory.resolve("benchmark-" + System.nanoTime() + ".wal");
+        DataStorage storage = new DataStorage();
+        if (syncEveryRecords >= 0) {
+            storage.useWriteAheadLog(new WriteAheadLog(logFile, syncEveryRecords, syncIntervalMillis));
+        }
+        long timestamp = 1700000000000L;
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            storage.addPatientData(i % 1000, 90 + (i % 10), TYPES[i % TYPES.length], timestamp + i);
+        }
+        storage.close();
+        long elapsed = System.nanoTime() - start;
+        Files.deleteIfExists(logFile);
+        if (name != null) {
+            System.out.printf("%-28s %14d%n", name, records * 1_000_000_000L / Math.max(1, elapsed));
+        }
+    }
+}